@@ -3,6 +3,7 @@ package net.cassite.vproxy.app;
 import net.cassite.vproxy.component.elgroup.EventLoopGroup;
 import net.cassite.vproxy.component.exception.AlreadyExistException;
 import net.cassite.vproxy.component.exception.NotFoundException;
+import net.cassite.vproxy.selector.SelectorEventLoopOpts;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -17,9 +18,13 @@ public class EventLoopGroupHolder {
     }
 
     public void add(String alias) throws AlreadyExistException {
+        add(alias, SelectorEventLoopOpts.getDefault());
+    }
+
+    public void add(String alias, SelectorEventLoopOpts opts) throws AlreadyExistException {
         if (map.containsKey(alias))
             throw new AlreadyExistException();
-        EventLoopGroup group = new EventLoopGroup(alias);
+        EventLoopGroup group = new EventLoopGroup(alias, opts);
         map.put(alias, group);
     }
 
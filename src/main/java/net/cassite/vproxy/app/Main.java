@@ -6,6 +6,7 @@ import net.cassite.vproxy.app.mesh.ServiceMeshMain;
 import net.cassite.vproxy.component.app.Shutdown;
 import net.cassite.vproxy.component.app.StdIOController;
 import net.cassite.vproxy.component.exception.AlreadyExistException;
+import net.cassite.vproxy.component.proxy.BufferBudget;
 import net.cassite.vproxy.dns.Resolver;
 import net.cassite.vproxy.util.Callback;
 import net.cassite.vproxy.util.LogType;
@@ -40,6 +41,9 @@ public class Main {
         "\n\t\tpidFile                                      Set the pid file path" +
         "\n" +
         "\n\t\tnoLoadLast                                   Do not load last config on start up" +
+        "\n" +
+        "\n\t\tbufferMemoryLimit ${bytes}                   Limit the memory of connection buffers" +
+        "\n\t\t                                             of all lbs and socks5 servers" +
         "";
 
     private static void beforeStart() {
@@ -221,6 +225,22 @@ public class Main {
                 case "noLoadLast":
                     loaded = true; // set this flag to true, then last config won't be loaded
                     break;
+                case "bufferMemoryLimit":
+                    if (next == null) {
+                        System.err.println("buffer memory limit should be specified");
+                        System.exit(1);
+                        return;
+                    }
+                    // handle the limit, so increase the cursor
+                    ++i;
+                    try {
+                        BufferBudget.global.setLimit(Long.parseLong(next));
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("invalid buffer memory limit: " + next);
+                        System.exit(1);
+                        return;
+                    }
+                    break;
                 case "noSave":
                     Config.configSavingDisabled = true;
                     break;
@@ -266,7 +286,7 @@ public class Main {
             // init signal hooks
             Shutdown.initSignal();
             // start scheduled saving task
-            Application.get().controlEventLoop.getSelectorEventLoop().period(60 * 60 * 1000, Main::saveConfig);
+            Application.get().controlEventLoop.getSelectorEventLoop().periodBackground(60 * 60 * 1000, Main::saveConfig);
         } else if (appClass.equals("Sidecar")) {
             // run side car app
             runApp(appClass, args);
@@ -22,7 +22,7 @@ public class TcpLBHolder {
         return new ArrayList<>(map.keySet());
     }
 
-    public void add(String alias,
+    public TcpLB add(String alias,
                     EventLoopGroup acceptorEventLoopGroup,
                     EventLoopGroup workerEventLoopGroup,
                     InetSocketAddress bindAddress,
@@ -37,6 +37,7 @@ public class TcpLBHolder {
         TcpLB tcpLB = new TcpLB(alias, acceptorEventLoopGroup, workerEventLoopGroup, bindAddress, backends, timeout, inBufferSize, outBufferSize, protocol, securityGroup);
         map.put(alias, tcpLB);
         tcpLB.start();
+        return tcpLB;
     }
 
     public TcpLB get(String alias) throws NotFoundException {
@@ -429,6 +429,8 @@ public class Command {
                 break;
             case bin: // bytes-in
             case bout: // bytes-out
+            case pin: // packets-in
+            case pout: // packets-out
                 bsw:
                 switch (cmd.action) {
                     case a:
@@ -457,6 +459,36 @@ public class Command {
                         throw new Exception("unsupported action " + cmd.action.fullname + " for " + cmd.resource.type.fullname);
                 }
                 break;
+            case binrate: // bytes-in-rate
+            case boutrate: // bytes-out-rate
+            case pinrate: // packets-in-rate
+            case poutrate: // packets-out-rate
+                ratesw:
+                switch (cmd.action) {
+                    case a:
+                    case r:
+                    case R:
+                        // modification not supported for statistics resources
+                        throw new Exception("cannot run " + cmd.action.fullname + " on " + cmd.resource.type.fullname);
+                    case L:
+                    case l:
+                        if (targetResource == null)
+                            throw new Exception("cannot find " + cmd.resource.type.fullname + " on top level");
+                        // rates are recorded for the resources used by connections on many loops
+                        switch (targetResource.type) {
+                            case bs:
+                                BindServerHandle.checkBindServer(targetResource);
+                                break ratesw;
+                            case svr:
+                                ServerHandle.checkServer(targetResource);
+                                break ratesw;
+                            default:
+                                throw new Exception(targetResource.type.fullname + " does not contain " + cmd.resource.type.fullname);
+                        }
+                    default:
+                        throw new Exception("unsupported action " + cmd.action.fullname + " for " + cmd.resource.type.fullname);
+                }
+                break;
             case acceptedconncount: // accepted-connections
                 switch (cmd.action) {
                     case a:
@@ -606,11 +638,13 @@ public class Command {
                     case u:
                         if (targetResource != null)
                             throw new Exception(cmd.resource.type.fullname + " is on top level");
-                        // only check creation for tcp lb and secg
-                        // the other two does not have creation param
+                        // only check creation for tcp lb, socks5, secg and elg
+                        // the other one does not have creation param
                         if (cmd.action == Action.a) {
                             if (cmd.resource.type == ResourceType.tl) {
                                 TcpLBHandle.checkCreateTcpLB(cmd);
+                            } else if (cmd.resource.type == ResourceType.elg) {
+                                EventLoopGroupHandle.checkCreateEventLoopGroup(cmd);
                             } else if (cmd.resource.type == ResourceType.socks5) {
                                 Socks5ServerHandle.checkCreateSocks5Server(cmd);
                             } else if (cmd.resource.type == ResourceType.secg) {
@@ -740,6 +774,48 @@ public class Command {
                         long boutRes = StatisticHandle.bytesOut(targetResource);
                         return new CmdResult(boutRes, boutRes, "" + boutRes);
                 }
+            case pin:
+                switch (action) {
+                    case l:
+                    case L:
+                        long pinRes = StatisticHandle.packetsIn(targetResource);
+                        return new CmdResult(pinRes, pinRes, "" + pinRes);
+                }
+            case pout:
+                switch (action) {
+                    case l:
+                    case L:
+                        long poutRes = StatisticHandle.packetsOut(targetResource);
+                        return new CmdResult(poutRes, poutRes, "" + poutRes);
+                }
+            case binrate:
+                switch (action) {
+                    case l:
+                    case L:
+                        long binRate = StatisticHandle.bytesInRate(targetResource);
+                        return new CmdResult(binRate, binRate, "" + binRate);
+                }
+            case boutrate:
+                switch (action) {
+                    case l:
+                    case L:
+                        long boutRate = StatisticHandle.bytesOutRate(targetResource);
+                        return new CmdResult(boutRate, boutRate, "" + boutRate);
+                }
+            case pinrate:
+                switch (action) {
+                    case l:
+                    case L:
+                        long pinRate = StatisticHandle.packetsInRate(targetResource);
+                        return new CmdResult(pinRate, pinRate, "" + pinRate);
+                }
+            case poutrate:
+                switch (action) {
+                    case l:
+                    case L:
+                        long poutRate = StatisticHandle.packetsOutRate(targetResource);
+                        return new CmdResult(poutRate, poutRate, "" + poutRate);
+                }
             case acceptedconncount:
                 switch (action) {
                     case l:
@@ -800,9 +876,12 @@ public class Command {
             case el: // can only be retrieved from event loop group
                 switch (action) {
                     case l:
-                    case L:
                         List<String> elNames = EventLoopHandle.names(targetResource);
                         return new CmdResult(elNames, elNames, utilJoinList(elNames));
+                    case L:
+                        List<EventLoopHandle.EventLoopRef> elRefList = EventLoopHandle.details(targetResource);
+                        List<String> elRefStrList = elRefList.stream().map(Object::toString).collect(Collectors.toList());
+                        return new CmdResult(elRefList, elRefStrList, utilJoinList(elRefList));
                     case a:
                         EventLoopHandle.add(this);
                         return new CmdResult();
@@ -6,6 +6,12 @@ public enum Flag {
 
     allownonbackend("allow-non-backend"),
     denynonbackend("deny-non-backend"),
+
+    elasticbuffers("elastic-buffers"),
+    fixedbuffers("fixed-buffers"),
+
+    adaptiveread("adaptive-read"),
+    fixedread("fixed-read"),
     ;
     public final String fullname;
 
@@ -402,6 +402,12 @@ public class HelpCommand {
         zone("zone", null, "zone name"),
         tcplb("tcp-lb", "tl", "tcp loadbalancer"),
         servergroup("server-group", "sg", "a group of servers"),
+        busypoll("busy-poll", null, "microseconds for the event loop to spin before sleeping"),
+        workerselect("worker-select", null, "method to choose a worker event loop for new connections"),
+        buffermemorylimit("buffer-memory-limit", null, "max bytes of buffers of connections accepted by the lb, 0 means unlimited"),
+        buffermemorypolicy("buffer-memory-policy", null, "what to do with new connections when the buffer memory limit is reached"),
+        corkthreshold("cork-threshold", null, "cork writes of connections until the end of the loop iteration or until the out buffer holds this many bytes, 0 means not corked"),
+        readbudget("read-budget", null, "max bytes read from one connection in one loop iteration, 0 means read once in one iteration"),
         ;
         public final String param;
         public final String shortVer;
@@ -419,6 +425,10 @@ public class HelpCommand {
         noipv6("noipv6", null, "do not use ipv6 address. Use the flag with param: address"),
         allownonbackend("allow-non-backend", null, "allow to access non backend endpoints"),
         denynonbackend("deny-non-backend", null, "only able to access backend endpoints"),
+        elasticbuffers("elastic-buffers", null, "connection buffers hold no memory at first, grow up to the buffer size when needed, and release the memory when idle"),
+        fixedbuffers("fixed-buffers", null, "connection buffers hold memory of the buffer size for the whole life of the connection"),
+        adaptiveread("adaptive-read", null, "each read of a connection is limited to a size learned from its previous reads"),
+        fixedread("fixed-read", null, "each read of a connection uses the whole free space of the in buffer"),
         ;
         public final String flag;
         public final String shortVer;
@@ -443,6 +453,17 @@ public class HelpCommand {
                     , new ResActParamMan(ParamMan.outbuffersize, "output buffer size", "16384 (bytes)")
                     , new ResActParamMan(ParamMan.protocol, "the protocol used by tcp-lb. available options: tcp, h2, or your customized protocol. See doc for more info", "tcp")
                     , new ResActParamMan(ParamMan.securitygroup, "specify a security group for the lb", "allow any")
+                    , new ResActParamMan(ParamMan.workerselect, "the method to choose a worker event loop for accepted connections: rr (round robin), lc (least connections), lt (least bytes per second), ll (least loop latency), p2c (compare loop latency of two random loops)", "rr")
+                    , new ResActParamMan(ParamMan.buffermemorylimit, "max bytes of buffers of accepted connections, the process-wide limit also applies", "0 (unlimited)")
+                    , new ResActParamMan(ParamMan.buffermemorypolicy, "what to do when the limit is reached: refuse (close new connections), shrink (use smaller buffers), queue (stop accepting until memory is released)", "refuse")
+                    , new ResActParamMan(ParamMan.corkthreshold, "data written into a connection in one loop iteration is flushed with one write at the end of the iteration, or when the out buffer holds at least this many bytes. Reduces write syscalls when a processor (e.g. h2) produces many small frames", "0 (not corked)")
+                    , new ResActParamMan(ParamMan.readbudget, "max bytes read from one connection in one loop iteration. The connection is read repeatedly until the budget is used up, so bulk flows get more data in one iteration while not blocking other connections on the loop", "0 (read once in one iteration)")
+                ),
+                Arrays.asList(
+                    new ResActFlagMan(FlagMan.elasticbuffers, "use elastic buffers for new connections", false),
+                    new ResActFlagMan(FlagMan.fixedbuffers, "use fixed size buffers for new connections", true),
+                    new ResActFlagMan(FlagMan.adaptiveread, "learn the read size of each new connection from its previous reads", false),
+                    new ResActFlagMan(FlagMan.fixedread, "read into the whole free space of the in buffer", true)
                 ),
                 Collections.singletonList(
                     new Tuple<>(
@@ -463,7 +484,7 @@ public class HelpCommand {
                 Collections.singletonList(
                     new Tuple<>(
                         "list-detail tcp-lb",
-                        "1) \"lb0 -> acceptor elg0 worker elg0 bind 127.0.0.1:18080 backends sgs0 in-buffer-size 16384 out-buffer-size 16384 protocol tcp security-group secg0\""
+                        "1) \"lb0 -> acceptor elg0 worker elg0 bind 127.0.0.1:18080 backends sgs0 in-buffer-size 16384 out-buffer-size 16384 buffers fixed buffer-memory-limit 0 buffer-memory-used 65536 buffer-memory-policy refuse cork-threshold 0 read-budget 0 read fixed protocol tcp worker-select rr security-group secg0\""
                     )
                 ))
             , new ResActMan(ActMan.update, "update in-buffer-size or out-buffer-size of an lb",
@@ -471,6 +492,17 @@ public class HelpCommand {
                     new ResActParamMan(ParamMan.inbuffersize, "input buffer size", "not changed")
                     , new ResActParamMan(ParamMan.outbuffersize, "output buffer size", "not changed")
                     , new ResActParamMan(ParamMan.securitygroup, "the security group", "not changed")
+                    , new ResActParamMan(ParamMan.workerselect, "the method to choose a worker event loop", "not changed")
+                    , new ResActParamMan(ParamMan.buffermemorylimit, "max bytes of buffers of accepted connections", "not changed")
+                    , new ResActParamMan(ParamMan.buffermemorypolicy, "what to do when the limit is reached", "not changed")
+                    , new ResActParamMan(ParamMan.corkthreshold, "cork threshold for new connections", "not changed")
+                    , new ResActParamMan(ParamMan.readbudget, "read budget for new connections", "not changed")
+                ),
+                Arrays.asList(
+                    new ResActFlagMan(FlagMan.elasticbuffers, "use elastic buffers for new connections", false),
+                    new ResActFlagMan(FlagMan.fixedbuffers, "use fixed size buffers for new connections", false),
+                    new ResActFlagMan(FlagMan.adaptiveread, "learn the read size of each new connection from its previous reads", false),
+                    new ResActFlagMan(FlagMan.fixedread, "read into the whole free space of the in buffer", false)
                 ),
                 Collections.singletonList(
                     new Tuple<>(
@@ -497,10 +529,15 @@ public class HelpCommand {
                     , new ResActParamMan(ParamMan.inbuffersize, "input buffer size", "16384 (bytes)")
                     , new ResActParamMan(ParamMan.outbuffersize, "output buffer size", "16384 (bytes)")
                     , new ResActParamMan(ParamMan.securitygroup, "specify a security group for the lb", "allow any")
+                    , new ResActParamMan(ParamMan.workerselect, "the method to choose a worker event loop for accepted connections: rr (round robin), lc (least connections), lt (least bytes per second), ll (least loop latency), p2c (compare loop latency of two random loops)", "rr")
+                    , new ResActParamMan(ParamMan.buffermemorylimit, "max bytes of buffers of accepted connections, the process-wide limit also applies", "0 (unlimited)")
+                    , new ResActParamMan(ParamMan.buffermemorypolicy, "what to do when the limit is reached: refuse (close new connections), shrink (use smaller buffers), queue (stop accepting until memory is released)", "refuse")
                 ),
                 Arrays.asList(
                     new ResActFlagMan(FlagMan.allownonbackend, "allow to access non backend endpoints", false),
-                    new ResActFlagMan(FlagMan.denynonbackend, "only enable backend endpoints", true)
+                    new ResActFlagMan(FlagMan.denynonbackend, "only enable backend endpoints", true),
+                    new ResActFlagMan(FlagMan.elasticbuffers, "use elastic buffers for new connections", false),
+                    new ResActFlagMan(FlagMan.fixedbuffers, "use fixed size buffers for new connections", true)
                 ),
                 Collections.singletonList(
                     new Tuple<>(
@@ -521,7 +558,7 @@ public class HelpCommand {
                 Collections.singletonList(
                     new Tuple<>(
                         "list-detail socks5-server",
-                        "1) \"s5 -> acceptor acceptor worker worker bind 127.0.0.1:18081 backends backend-groups in-buffer-size 16384 out-buffer-size 16384 security-group secg0\""
+                        "1) \"s5 -> acceptor acceptor worker worker bind 127.0.0.1:18081 backends backend-groups in-buffer-size 16384 out-buffer-size 16384 buffers fixed buffer-memory-limit 0 buffer-memory-used 65536 buffer-memory-policy refuse worker-select rr security-group secg0\""
                     )
                 ))
             , new ResActMan(ActMan.update, "update in-buffer-size or out-buffer-size of a socks5 server",
@@ -529,10 +566,15 @@ public class HelpCommand {
                     new ResActParamMan(ParamMan.inbuffersize, "input buffer size", "not changed")
                     , new ResActParamMan(ParamMan.outbuffersize, "output buffer size", "not changed")
                     , new ResActParamMan(ParamMan.securitygroup, "the security group", "not changed")
+                    , new ResActParamMan(ParamMan.workerselect, "the method to choose a worker event loop", "not changed")
+                    , new ResActParamMan(ParamMan.buffermemorylimit, "max bytes of buffers of accepted connections", "not changed")
+                    , new ResActParamMan(ParamMan.buffermemorypolicy, "what to do when the limit is reached", "not changed")
                 ),
                 Arrays.asList(
                     new ResActFlagMan(FlagMan.allownonbackend, "allow to access non backend endpoints", false),
-                    new ResActFlagMan(FlagMan.denynonbackend, "only enable backend endpoints", true)
+                    new ResActFlagMan(FlagMan.denynonbackend, "only enable backend endpoints", true),
+                    new ResActFlagMan(FlagMan.elasticbuffers, "use elastic buffers for new connections", false),
+                    new ResActFlagMan(FlagMan.fixedbuffers, "use fixed size buffers for new connections", true)
                 ),
                 Collections.singletonList(
                     new Tuple<>(
@@ -552,11 +594,17 @@ public class HelpCommand {
         eventloopgroup("event-loop-group", "elg", "a group of event loops",
             Arrays.asList(
                 new ResActMan(ActMan.add, "specify a name and create a event loop group",
-                    Collections.emptyList(),
                     Collections.singletonList(
+                        new ResActParamMan(ParamMan.busypoll, "the event loops spin for the specified microseconds before sleeping, which costs cpu but reduces latency. recommended for worker groups of latency sensitive services", "0 (disabled)")
+                    ),
+                    Arrays.asList(
                         new Tuple<>(
                             "add event-loop-group elg0",
                             "\"OK\""
+                        ),
+                        new Tuple<>(
+                            "add event-loop-group worker busy-poll 50",
+                            "\"OK\""
                         )
                     )),
                 new ResActMan(ActMan.list, "retrieve names of all event loop groups",
@@ -708,7 +756,7 @@ public class HelpCommand {
             )),
         eventloop("event-loop", "el", "event loop",
             Arrays.asList(
-                new ResActMan(ActMan.addto, "specify a name, a event loop group, and create a new event loop in the specified group",
+                new ResActMan(ActMan.addto, "specify a name, a event loop group, and create a new event loop in the specified group. idle connections on other loops will be moved to the new loop",
                     Collections.emptyList(),
                     Collections.singletonList(
                         new Tuple<>(
@@ -716,7 +764,7 @@ public class HelpCommand {
                             "\"OK\""
                         )
                     )),
-                new ResActMan(ActMan.list, "retrieve names of all event loops in a event loop group",
+                new ResActMan(ActMan.list, "retrieve names of all event loops in a event loop group. list-detail also shows runtime metrics of the loops",
                     Collections.emptyList(),
                     Arrays.asList(
                         new Tuple<>(
@@ -725,10 +773,10 @@ public class HelpCommand {
                         ),
                         new Tuple<>(
                             "list-detail event-loop in event-loop-group elg0",
-                            "1) \"el0\""
+                            "1) \"el0 -> iterations 1024 select-time 5921ms handler-time 12ms task-time 3ms timer-time 1ms background-time 2ms iteration-end-time 0ms registered-channels 5 selected-keys-per-iteration 1.20 tasks-run 310 timers-fired 96 background-run 40 iteration-end-run 12 max-handler-time 850us stalls 0 buffer-pool-hits 180 buffer-pool-misses 8 buffer-pool-idle-bytes 98304 buffer-pool-in-use-bytes 32768 buffer-pool-dropped 0 write-frames 2048 write-calls 1536 write-calls-per-frame 0.75 cork-flushes 12 connections 4 servers 1\""
                         )
                     )),
-                new ResActMan(ActMan.removefrom, "remove a event loop from event loop group",
+                new ResActMan(ActMan.removefrom, "remove a event loop from event loop group. idle connections on the loop will be moved to other loops",
                     Collections.emptyList(),
                     Collections.singletonList(
                         new Tuple<>(
@@ -1088,6 +1136,104 @@ public class HelpCommand {
                         )
                     ))
             )),
+        packetsin("packets-in", "pin", "statistics: reads with data from remote",
+            Collections.singletonList(
+                new ResActMan(ActMan.list, "get history total reads with data from a resource",
+                    Collections.emptyList(),
+                    Arrays.asList(
+                        new Tuple<>(
+                            "list packets-in in bind-server 127.0.0.1:6380 in tl lb0",
+                            "(integer) 3"
+                        ),
+                        new Tuple<>(
+                            "list packets-in in connection 127.0.0.1:63536/127.0.0.1:6380 in el el0 in elg elg0",
+                            "(integer) 3"
+                        ),
+                        new Tuple<>(
+                            "list packets-in in server svr0 in sg sg0",
+                            "(integer) 12"
+                        )
+                    ))
+            )),
+        packetsout("packets-out", "pout", "statistics: writes with data to remote",
+            Collections.singletonList(
+                new ResActMan(ActMan.list, "get history total writes with data from a resource",
+                    Collections.emptyList(),
+                    Arrays.asList(
+                        new Tuple<>(
+                            "list packets-out in bind-server 127.0.0.1:6380 in tl lb0",
+                            "(integer) 12"
+                        ),
+                        new Tuple<>(
+                            "list packets-out in connection 127.0.0.1:63536/127.0.0.1:6380 in el el0 in elg elg0",
+                            "(integer) 12"
+                        ),
+                        new Tuple<>(
+                            "list packets-out in server svr0 in sg sg0",
+                            "(integer) 3"
+                        )
+                    ))
+            )),
+        bytesinrate("bytes-in-rate", "binrate", "statistics: bytes per second flow from remote to local",
+            Collections.singletonList(
+                new ResActMan(ActMan.list, "get input bytes per second of a resource, calculated at most once per second",
+                    Collections.emptyList(),
+                    Arrays.asList(
+                        new Tuple<>(
+                            "list bytes-in-rate in bind-server 127.0.0.1:6380 in tl lb0",
+                            "(integer) 1024"
+                        ),
+                        new Tuple<>(
+                            "list bytes-in-rate in server svr0 in sg sg0",
+                            "(integer) 65536"
+                        )
+                    ))
+            )),
+        bytesoutrate("bytes-out-rate", "boutrate", "statistics: bytes per second flow from local to remote",
+            Collections.singletonList(
+                new ResActMan(ActMan.list, "get output bytes per second of a resource, calculated at most once per second",
+                    Collections.emptyList(),
+                    Arrays.asList(
+                        new Tuple<>(
+                            "list bytes-out-rate in bind-server 127.0.0.1:6380 in tl lb0",
+                            "(integer) 65536"
+                        ),
+                        new Tuple<>(
+                            "list bytes-out-rate in server svr0 in sg sg0",
+                            "(integer) 1024"
+                        )
+                    ))
+            )),
+        packetsinrate("packets-in-rate", "pinrate", "statistics: reads with data per second from remote",
+            Collections.singletonList(
+                new ResActMan(ActMan.list, "get reads with data per second of a resource, calculated at most once per second",
+                    Collections.emptyList(),
+                    Arrays.asList(
+                        new Tuple<>(
+                            "list packets-in-rate in bind-server 127.0.0.1:6380 in tl lb0",
+                            "(integer) 16"
+                        ),
+                        new Tuple<>(
+                            "list packets-in-rate in server svr0 in sg sg0",
+                            "(integer) 48"
+                        )
+                    ))
+            )),
+        packetsoutrate("packets-out-rate", "poutrate", "statistics: writes with data per second to remote",
+            Collections.singletonList(
+                new ResActMan(ActMan.list, "get writes with data per second of a resource, calculated at most once per second",
+                    Collections.emptyList(),
+                    Arrays.asList(
+                        new Tuple<>(
+                            "list packets-out-rate in bind-server 127.0.0.1:6380 in tl lb0",
+                            "(integer) 48"
+                        ),
+                        new Tuple<>(
+                            "list packets-out-rate in server svr0 in sg sg0",
+                            "(integer) 16"
+                        )
+                    ))
+            )),
         acceptedconncount("accepted-conn-count", null, "Statistics: successfully accpeted connections",
             Collections.singletonList(
                 new ResActMan(ActMan.list, "get history total accepted connection count",
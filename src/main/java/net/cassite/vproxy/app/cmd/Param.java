@@ -26,6 +26,13 @@ public enum Param {
     port("port"),
 
     pass("password"),
+
+    busypoll("busy-poll"),
+    workerselect("worker-select"),
+    buffermemorylimit("buffer-memory-limit"),
+    buffermemorypolicy("buffer-memory-policy"),
+    corkthreshold("cork-threshold"),
+    readbudget("read-budget"),
     ;
     public final String fullname;
 
@@ -13,6 +13,12 @@ public enum ResourceType {
     sess("session"),
     bin("bytes-in"),
     bout("bytes-out"),
+    pin("packets-in"),
+    pout("packets-out"),
+    binrate("bytes-in-rate"),
+    boutrate("bytes-out-rate"),
+    pinrate("packets-in-rate"),
+    poutrate("packets-out-rate"),
     acceptedconncount("accepted-conn-count"),
     secg("security-group"),
     secgr("security-group-rule"),
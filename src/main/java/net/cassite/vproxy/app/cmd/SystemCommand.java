@@ -9,6 +9,7 @@ import net.cassite.vproxy.component.app.StdIOController;
 import net.cassite.vproxy.component.exception.AlreadyExistException;
 import net.cassite.vproxy.component.exception.NotFoundException;
 import net.cassite.vproxy.component.exception.XException;
+import net.cassite.vproxy.component.proxy.BufferBudget;
 import net.cassite.vproxy.util.Callback;
 import net.cassite.vproxy.util.Logger;
 import net.cassite.vproxy.util.Utils;
@@ -35,7 +36,8 @@ public class SystemCommand {
         "\n        System call: remove resp-controller        stop resp controller" +
         "\n                               ${name}" +
         "\n        System call: list-detail resp-controller   check resp controller" +
-        "\n        System call: list config                   show current config";
+        "\n        System call: list config                   show current config" +
+        "\n        System call: list-detail buffer-budget     show the process-wide buffer memory budget";
 
     public static boolean allowNonStdIOController = false;
 
@@ -175,12 +177,22 @@ public class SystemCommand {
                                 handleListController(true, cb);
                                 break outswitch;
                             }
+                        case "buffer-budget":
+                            if (arr.length == 2) {
+                                handleListBufferBudget(cb);
+                                break outswitch;
+                            }
                     }
                 }
                 cb.failed(new XException("unknown or invalid system call `" + cmd + "`"));
         }
     }
 
+    private static void handleListBufferBudget(Callback<CmdResult, ? super XException> cb) {
+        String budget = BufferBudget.global.toString();
+        cb.succeeded(new CmdResult(BufferBudget.global, budget, budget));
+    }
+
     private static void handleListConfig(Callback<CmdResult, ? super XException> cb) {
         String config = Shutdown.currentConfig();
         List<String> lines = Arrays.asList(config.split("\n"));
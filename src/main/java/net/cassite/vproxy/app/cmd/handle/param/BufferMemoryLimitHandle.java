@@ -0,0 +1,24 @@
+package net.cassite.vproxy.app.cmd.handle.param;
+
+import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Param;
+
+public class BufferMemoryLimitHandle {
+    private BufferMemoryLimitHandle() {
+    }
+
+    public static void check(Command cmd) throws Exception {
+        long limit;
+        try {
+            limit = get(cmd);
+        } catch (Exception e) {
+            throw new Exception("invalid " + Param.buffermemorylimit.fullname);
+        }
+        if (limit < 0)
+            throw new Exception("invalid " + Param.buffermemorylimit.fullname + ", should not be negative");
+    }
+
+    public static long get(Command cmd) {
+        return Long.parseLong(cmd.args.get(Param.buffermemorylimit));
+    }
+}
@@ -0,0 +1,23 @@
+package net.cassite.vproxy.app.cmd.handle.param;
+
+import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Param;
+import net.cassite.vproxy.component.proxy.BufferBudgetPolicy;
+
+public class BufferMemoryPolicyHandle {
+    private BufferMemoryPolicyHandle() {
+    }
+
+    public static void check(Command cmd) throws Exception {
+        get(cmd);
+    }
+
+    public static BufferBudgetPolicy get(Command cmd) throws Exception {
+        String policy = cmd.args.get(Param.buffermemorypolicy);
+        try {
+            return BufferBudgetPolicy.valueOf(policy);
+        } catch (IllegalArgumentException e) {
+            throw new Exception("invalid " + Param.buffermemorypolicy.fullname);
+        }
+    }
+}
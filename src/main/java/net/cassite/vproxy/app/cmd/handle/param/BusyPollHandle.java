@@ -0,0 +1,24 @@
+package net.cassite.vproxy.app.cmd.handle.param;
+
+import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Param;
+
+public class BusyPollHandle {
+    private BusyPollHandle() {
+    }
+
+    public static void check(Command cmd) throws Exception {
+        int busyPoll;
+        try {
+            busyPoll = get(cmd);
+        } catch (Exception e) {
+            throw new Exception("invalid " + Param.busypoll.fullname);
+        }
+        if (busyPoll < 0)
+            throw new Exception("invalid " + Param.busypoll.fullname);
+    }
+
+    public static int get(Command cmd) {
+        return Integer.parseInt(cmd.args.get(Param.busypoll));
+    }
+}
@@ -0,0 +1,23 @@
+package net.cassite.vproxy.app.cmd.handle.param;
+
+import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Param;
+import net.cassite.vproxy.component.elgroup.EventLoopSelectMethod;
+
+public class WorkerSelectHandle {
+    private WorkerSelectHandle() {
+    }
+
+    public static void check(Command cmd) throws Exception {
+        get(cmd);
+    }
+
+    public static EventLoopSelectMethod get(Command cmd) throws Exception {
+        String meth = cmd.args.get(Param.workerselect);
+        try {
+            return EventLoopSelectMethod.valueOf(meth);
+        } catch (IllegalArgumentException e) {
+            throw new Exception("invalid " + Param.workerselect.fullname);
+        }
+    }
+}
@@ -2,11 +2,14 @@ package net.cassite.vproxy.app.cmd.handle.resource;
 
 import net.cassite.vproxy.app.Application;
 import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Param;
 import net.cassite.vproxy.app.cmd.Resource;
 import net.cassite.vproxy.app.cmd.ResourceType;
+import net.cassite.vproxy.app.cmd.handle.param.BusyPollHandle;
 import net.cassite.vproxy.component.app.Socks5Server;
 import net.cassite.vproxy.component.app.TcpLB;
 import net.cassite.vproxy.component.elgroup.EventLoopGroup;
+import net.cassite.vproxy.selector.SelectorEventLoopOpts;
 import net.cassite.vproxy.component.svrgroup.ServerGroup;
 
 import java.util.List;
@@ -20,6 +23,11 @@ public class EventLoopGroupHandle {
             throw new Exception(eventLoopGroup.type.fullname + " is on top level");
     }
 
+    public static void checkCreateEventLoopGroup(Command cmd) throws Exception {
+        if (cmd.args.containsKey(Param.busypoll))
+            BusyPollHandle.check(cmd);
+    }
+
     public static EventLoopGroup get(Resource resource) throws Exception {
         return get(resource.alias);
     }
@@ -33,7 +41,13 @@ public class EventLoopGroupHandle {
     }
 
     public static void add(Command cmd) throws Exception {
-        Application.get().eventLoopGroupHolder.add(cmd.resource.alias);
+        if (cmd.args.containsKey(Param.busypoll)) {
+            SelectorEventLoopOpts opts = new SelectorEventLoopOpts()
+                .setBusyPoll(0, BusyPollHandle.get(cmd));
+            Application.get().eventLoopGroupHolder.add(cmd.resource.alias, opts);
+        } else {
+            Application.get().eventLoopGroupHolder.add(cmd.resource.alias);
+        }
     }
 
     public static void preCheck(Command cmd) throws Exception {
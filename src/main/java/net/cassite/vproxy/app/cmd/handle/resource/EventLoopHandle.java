@@ -7,6 +7,7 @@ import net.cassite.vproxy.app.cmd.ResourceType;
 import net.cassite.vproxy.component.elgroup.EventLoopGroup;
 import net.cassite.vproxy.component.elgroup.EventLoopWrapper;
 
+import java.util.LinkedList;
 import java.util.List;
 
 public class EventLoopHandle {
@@ -31,6 +32,15 @@ public class EventLoopHandle {
         return g.names();
     }
 
+    public static List<EventLoopRef> details(Resource targetResource) throws Exception {
+        EventLoopGroup g = EventLoopGroupHandle.get(targetResource);
+        List<EventLoopRef> result = new LinkedList<>();
+        for (EventLoopWrapper w : g.list()) {
+            result.add(new EventLoopRef(w));
+        }
+        return result;
+    }
+
     public static void add(Command cmd) throws Exception {
         EventLoopGroup g = EventLoopGroupHandle.get(cmd.prepositionResource);
         g.add(cmd.resource.alias);
@@ -40,4 +50,23 @@ public class EventLoopHandle {
         EventLoopGroup g = EventLoopGroupHandle.get(cmd.prepositionResource);
         g.remove(cmd.resource.alias);
     }
+
+    public static class EventLoopRef {
+        public final EventLoopWrapper eventLoop;
+
+        public EventLoopRef(EventLoopWrapper eventLoop) {
+            this.eventLoop = eventLoop;
+        }
+
+        @Override
+        public String toString() {
+            return eventLoop.alias + " -> " + eventLoop.getSelectorEventLoop().getStats()
+                + " write-frames " + eventLoop.getWriteFrames()
+                + " write-calls " + eventLoop.getWriteCalls()
+                + " write-calls-per-frame " + String.format("%.2f", eventLoop.getWriteCallsPerFrame())
+                + " cork-flushes " + eventLoop.getCorkFlushes()
+                + " connections " + eventLoop.connectionCount()
+                + " servers " + eventLoop.serverCount();
+        }
+    }
 }
@@ -7,9 +7,12 @@ import net.cassite.vproxy.app.cmd.Flag;
 import net.cassite.vproxy.app.cmd.Param;
 import net.cassite.vproxy.app.cmd.Resource;
 import net.cassite.vproxy.app.cmd.handle.param.AddrHandle;
+import net.cassite.vproxy.app.cmd.handle.param.BufferMemoryLimitHandle;
+import net.cassite.vproxy.app.cmd.handle.param.BufferMemoryPolicyHandle;
 import net.cassite.vproxy.app.cmd.handle.param.InBufferSizeHandle;
 import net.cassite.vproxy.app.cmd.handle.param.OutBufferSizeHandle;
 import net.cassite.vproxy.app.cmd.handle.param.TimeoutHandle;
+import net.cassite.vproxy.app.cmd.handle.param.WorkerSelectHandle;
 import net.cassite.vproxy.component.app.Socks5Server;
 import net.cassite.vproxy.component.elgroup.EventLoopGroup;
 import net.cassite.vproxy.component.exception.NotFoundException;
@@ -55,6 +58,15 @@ public class Socks5ServerHandle {
 
         if (cmd.args.containsKey(Param.timeout))
             TimeoutHandle.get(cmd);
+
+        if (cmd.args.containsKey(Param.workerselect))
+            WorkerSelectHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.buffermemorylimit))
+            BufferMemoryLimitHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.buffermemorypolicy))
+            BufferMemoryPolicyHandle.check(cmd);
     }
 
     public static void checkUpdateSocks5Server(Command cmd) throws Exception {
@@ -63,6 +75,15 @@ public class Socks5ServerHandle {
 
         if (cmd.args.containsKey(Param.outbuffersize))
             OutBufferSizeHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.workerselect))
+            WorkerSelectHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.buffermemorylimit))
+            BufferMemoryLimitHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.buffermemorypolicy))
+            BufferMemoryPolicyHandle.check(cmd);
     }
 
     public static Socks5Server get(Resource socks5) throws NotFoundException {
@@ -112,6 +133,18 @@ public class Socks5ServerHandle {
         } else if (cmd.flags.contains(Flag.denynonbackend)) {
             server.allowNonBackend = false;
         }
+        if (cmd.args.containsKey(Param.workerselect)) {
+            server.setWorkerSelectMethod(WorkerSelectHandle.get(cmd));
+        }
+        if (cmd.args.containsKey(Param.buffermemorylimit)) {
+            server.bufferBudget.setLimit(BufferMemoryLimitHandle.get(cmd));
+        }
+        if (cmd.args.containsKey(Param.buffermemorypolicy)) {
+            server.setBufferBudgetPolicy(BufferMemoryPolicyHandle.get(cmd));
+        }
+        if (cmd.flags.contains(Flag.elasticbuffers)) {
+            server.setElasticBuffers(true);
+        }
     }
 
     public static void forceRemove(Command cmd) throws Exception {
@@ -138,6 +171,20 @@ public class Socks5ServerHandle {
         if (cmd.args.containsKey(Param.secg)) {
             socks5.securityGroup = Application.get().securityGroupHolder.get(cmd.args.get(Param.secg));
         }
+        if (cmd.args.containsKey(Param.workerselect)) {
+            socks5.setWorkerSelectMethod(WorkerSelectHandle.get(cmd));
+        }
+        if (cmd.args.containsKey(Param.buffermemorylimit)) {
+            socks5.bufferBudget.setLimit(BufferMemoryLimitHandle.get(cmd));
+        }
+        if (cmd.args.containsKey(Param.buffermemorypolicy)) {
+            socks5.setBufferBudgetPolicy(BufferMemoryPolicyHandle.get(cmd));
+        }
+        if (cmd.flags.contains(Flag.elasticbuffers)) {
+            socks5.setElasticBuffers(true);
+        } else if (cmd.flags.contains(Flag.fixedbuffers)) {
+            socks5.setElasticBuffers(false);
+        }
     }
 
     public static class Socks5ServerRef {
@@ -154,6 +201,11 @@ public class Socks5ServerHandle {
                 + " backends " + socks5.backends.alias
                 + " timeout " + socks5.getTimeout()
                 + " in-buffer-size " + socks5.getInBufferSize() + " out-buffer-size " + socks5.getOutBufferSize()
+                + " buffers " + (socks5.isElasticBuffers() ? "elastic" : "fixed")
+                + " buffer-memory-limit " + socks5.bufferBudget.getLimit()
+                + " buffer-memory-used " + socks5.bufferBudget.getUsed()
+                + " buffer-memory-policy " + socks5.getBufferBudgetPolicy()
+                + " worker-select " + socks5.getWorkerSelectMethod()
                 + " security-group " + socks5.securityGroup.alias
                 + " " + (socks5.allowNonBackend ? "allow-non-backend" : "deny-non-backend");
         }
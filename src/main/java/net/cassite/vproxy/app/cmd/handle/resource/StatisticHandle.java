@@ -3,6 +3,7 @@ package net.cassite.vproxy.app.cmd.handle.resource;
 import net.cassite.vproxy.app.cmd.Resource;
 import net.cassite.vproxy.app.cmd.ResourceType;
 import net.cassite.vproxy.connection.BindServer;
+import net.cassite.vproxy.connection.TrafficCounter;
 
 public class StatisticHandle {
     private StatisticHandle() {
@@ -30,6 +31,53 @@ public class StatisticHandle {
             throw new Exception("i don't think that " + parent.type + " contains connections");
     }
 
+    public static long packetsIn(Resource parent) throws Exception {
+        if (parent.type == ResourceType.bs) {
+            return BindServerHandle.get(parent).traffic.getFromRemotePackets();
+        } else if (parent.type == ResourceType.conn) {
+            return ConnectionHandle.get(parent).getFromRemotePackets();
+        } else if (parent.type == ResourceType.svr) {
+            return ServerHandle.get(parent).traffic.getFromRemotePackets();
+        } else
+            throw new Exception("i don't think that " + parent.type + " contains connections");
+    }
+
+    public static long packetsOut(Resource parent) throws Exception {
+        if (parent.type == ResourceType.bs) {
+            return BindServerHandle.get(parent).traffic.getToRemotePackets();
+        } else if (parent.type == ResourceType.conn) {
+            return ConnectionHandle.get(parent).getToRemotePackets();
+        } else if (parent.type == ResourceType.svr) {
+            return ServerHandle.get(parent).traffic.getToRemotePackets();
+        } else
+            throw new Exception("i don't think that " + parent.type + " contains connections");
+    }
+
+    private static TrafficCounter traffic(Resource parent) throws Exception {
+        if (parent.type == ResourceType.bs) {
+            return BindServerHandle.get(parent).traffic;
+        } else if (parent.type == ResourceType.svr) {
+            return ServerHandle.get(parent).traffic;
+        } else
+            throw new Exception("rates are not recorded for " + parent.type);
+    }
+
+    public static long bytesInRate(Resource parent) throws Exception {
+        return traffic(parent).getFromRemoteBytesPerSecond();
+    }
+
+    public static long bytesOutRate(Resource parent) throws Exception {
+        return traffic(parent).getToRemoteBytesPerSecond();
+    }
+
+    public static long packetsInRate(Resource parent) throws Exception {
+        return traffic(parent).getFromRemotePacketsPerSecond();
+    }
+
+    public static long packetsOutRate(Resource parent) throws Exception {
+        return traffic(parent).getToRemotePacketsPerSecond();
+    }
+
     public static long acceptedConnCount(Resource parent) throws Exception {
         BindServer bs = BindServerHandle.get(parent);
         return bs.getHistoryAcceptedConnectionCount();
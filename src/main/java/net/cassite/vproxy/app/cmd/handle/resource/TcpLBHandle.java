@@ -3,13 +3,19 @@ package net.cassite.vproxy.app.cmd.handle.resource;
 import net.cassite.vproxy.app.Application;
 import net.cassite.vproxy.app.Config;
 import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Flag;
 import net.cassite.vproxy.app.cmd.Param;
 import net.cassite.vproxy.app.cmd.Resource;
 import net.cassite.vproxy.app.cmd.ResourceType;
 import net.cassite.vproxy.app.cmd.handle.param.AddrHandle;
+import net.cassite.vproxy.app.cmd.handle.param.BufferMemoryLimitHandle;
+import net.cassite.vproxy.app.cmd.handle.param.BufferMemoryPolicyHandle;
+import net.cassite.vproxy.app.cmd.handle.param.CorkThresholdHandle;
 import net.cassite.vproxy.app.cmd.handle.param.InBufferSizeHandle;
 import net.cassite.vproxy.app.cmd.handle.param.OutBufferSizeHandle;
+import net.cassite.vproxy.app.cmd.handle.param.ReadBudgetHandle;
 import net.cassite.vproxy.app.cmd.handle.param.TimeoutHandle;
+import net.cassite.vproxy.app.cmd.handle.param.WorkerSelectHandle;
 import net.cassite.vproxy.component.app.TcpLB;
 import net.cassite.vproxy.component.auto.SmartLBGroup;
 import net.cassite.vproxy.component.elgroup.EventLoopGroup;
@@ -56,6 +62,21 @@ public class TcpLBHandle {
 
         if (cmd.args.containsKey(Param.timeout))
             TimeoutHandle.get(cmd);
+
+        if (cmd.args.containsKey(Param.workerselect))
+            WorkerSelectHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.buffermemorylimit))
+            BufferMemoryLimitHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.buffermemorypolicy))
+            BufferMemoryPolicyHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.corkthreshold))
+            CorkThresholdHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.readbudget))
+            ReadBudgetHandle.check(cmd);
     }
 
     public static void checkUpdateTcpLB(Command cmd) throws Exception {
@@ -64,6 +85,21 @@ public class TcpLBHandle {
 
         if (cmd.args.containsKey(Param.outbuffersize))
             OutBufferSizeHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.workerselect))
+            WorkerSelectHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.buffermemorylimit))
+            BufferMemoryLimitHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.buffermemorypolicy))
+            BufferMemoryPolicyHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.corkthreshold))
+            CorkThresholdHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.readbudget))
+            ReadBudgetHandle.check(cmd);
     }
 
     public static TcpLB get(Resource tcplb) throws NotFoundException {
@@ -107,9 +143,30 @@ public class TcpLBHandle {
         } else {
             timeout = Config.tcpTimeout;
         }
-        Application.get().tcpLBHolder.add(
+        TcpLB tcpLB = Application.get().tcpLBHolder.add(
             alias, acceptor, worker, addr, backend, timeout, inBufferSize, outBufferSize, protocol, secg
         );
+        if (cmd.args.containsKey(Param.workerselect)) {
+            tcpLB.setWorkerSelectMethod(WorkerSelectHandle.get(cmd));
+        }
+        if (cmd.args.containsKey(Param.buffermemorylimit)) {
+            tcpLB.bufferBudget.setLimit(BufferMemoryLimitHandle.get(cmd));
+        }
+        if (cmd.args.containsKey(Param.buffermemorypolicy)) {
+            tcpLB.setBufferBudgetPolicy(BufferMemoryPolicyHandle.get(cmd));
+        }
+        if (cmd.args.containsKey(Param.corkthreshold)) {
+            tcpLB.setCorkThreshold(CorkThresholdHandle.get(cmd));
+        }
+        if (cmd.args.containsKey(Param.readbudget)) {
+            tcpLB.setReadBudget(ReadBudgetHandle.get(cmd));
+        }
+        if (cmd.flags.contains(Flag.elasticbuffers)) {
+            tcpLB.setElasticBuffers(true);
+        }
+        if (cmd.flags.contains(Flag.adaptiveread)) {
+            tcpLB.setAdaptiveRead(true);
+        }
     }
 
     public static void preCheckRemove(Command cmd) throws Exception {
@@ -142,6 +199,31 @@ public class TcpLBHandle {
         if (cmd.args.containsKey(Param.secg)) {
             tcpLB.securityGroup = Application.get().securityGroupHolder.get(cmd.args.get(Param.secg));
         }
+        if (cmd.args.containsKey(Param.workerselect)) {
+            tcpLB.setWorkerSelectMethod(WorkerSelectHandle.get(cmd));
+        }
+        if (cmd.args.containsKey(Param.buffermemorylimit)) {
+            tcpLB.bufferBudget.setLimit(BufferMemoryLimitHandle.get(cmd));
+        }
+        if (cmd.args.containsKey(Param.buffermemorypolicy)) {
+            tcpLB.setBufferBudgetPolicy(BufferMemoryPolicyHandle.get(cmd));
+        }
+        if (cmd.args.containsKey(Param.corkthreshold)) {
+            tcpLB.setCorkThreshold(CorkThresholdHandle.get(cmd));
+        }
+        if (cmd.args.containsKey(Param.readbudget)) {
+            tcpLB.setReadBudget(ReadBudgetHandle.get(cmd));
+        }
+        if (cmd.flags.contains(Flag.elasticbuffers)) {
+            tcpLB.setElasticBuffers(true);
+        } else if (cmd.flags.contains(Flag.fixedbuffers)) {
+            tcpLB.setElasticBuffers(false);
+        }
+        if (cmd.flags.contains(Flag.adaptiveread)) {
+            tcpLB.setAdaptiveRead(true);
+        } else if (cmd.flags.contains(Flag.fixedread)) {
+            tcpLB.setAdaptiveRead(false);
+        }
     }
 
     public static class TcpLBRef {
@@ -158,7 +240,15 @@ public class TcpLBHandle {
                 + " backends " + tcpLB.backends.alias
                 + " timeout " + tcpLB.getTimeout()
                 + " in-buffer-size " + tcpLB.getInBufferSize() + " out-buffer-size " + tcpLB.getOutBufferSize()
+                + " buffers " + (tcpLB.isElasticBuffers() ? "elastic" : "fixed")
+                + " buffer-memory-limit " + tcpLB.bufferBudget.getLimit()
+                + " buffer-memory-used " + tcpLB.bufferBudget.getUsed()
+                + " buffer-memory-policy " + tcpLB.getBufferBudgetPolicy()
+                + " cork-threshold " + tcpLB.getCorkThreshold()
+                + " read-budget " + tcpLB.getReadBudget()
+                + " read " + (tcpLB.isAdaptiveRead() ? "adaptive" : "fixed")
                 + " protocol " + tcpLB.protocol
+                + " worker-select " + tcpLB.getWorkerSelectMethod()
                 + " security-group " + tcpLB.securityGroup.alias;
         }
     }
@@ -9,6 +9,8 @@ import net.cassite.vproxy.component.auto.AutoConfig;
 import net.cassite.vproxy.component.auto.SmartLBGroup;
 import net.cassite.vproxy.component.check.HealthCheckConfig;
 import net.cassite.vproxy.component.elgroup.EventLoopGroup;
+import net.cassite.vproxy.component.elgroup.EventLoopSelectMethod;
+import net.cassite.vproxy.component.proxy.BufferBudgetPolicy;
 import net.cassite.vproxy.component.elgroup.EventLoopWrapper;
 import net.cassite.vproxy.component.exception.NoException;
 import net.cassite.vproxy.component.exception.NotFoundException;
@@ -188,6 +190,9 @@ public class Shutdown {
                 }
 
                 String cmd = "add event-loop-group " + elg.alias;
+                if (elg.getOpts().getSpinMicros() != 0) {
+                    cmd += " busy-poll " + elg.getOpts().getSpinMicros();
+                }
                 commands.add(cmd);
                 eventLoopGroups.add(elg);
                 eventLoopGroupNames.add(name);
@@ -340,6 +345,27 @@ public class Shutdown {
                 if (!tl.securityGroup.alias.equals(SecurityGroup.defaultName)) {
                     cmd += " security-group " + tl.securityGroup.alias;
                 }
+                if (tl.getWorkerSelectMethod() != null && tl.getWorkerSelectMethod() != EventLoopSelectMethod.rr) {
+                    cmd += " worker-select " + tl.getWorkerSelectMethod();
+                }
+                if (tl.isElasticBuffers()) {
+                    cmd += " elastic-buffers";
+                }
+                if (tl.bufferBudget.getLimit() != 0) {
+                    cmd += " buffer-memory-limit " + tl.bufferBudget.getLimit();
+                }
+                if (tl.getBufferBudgetPolicy() != BufferBudgetPolicy.refuse) {
+                    cmd += " buffer-memory-policy " + tl.getBufferBudgetPolicy();
+                }
+                if (tl.getCorkThreshold() != 0) {
+                    cmd += " cork-threshold " + tl.getCorkThreshold();
+                }
+                if (tl.getReadBudget() != 0) {
+                    cmd += " read-budget " + tl.getReadBudget();
+                }
+                if (tl.isAdaptiveRead()) {
+                    cmd += " adaptive-read";
+                }
                 commands.add(cmd);
                 tcpLbs.add(tl);
             }
@@ -382,6 +408,18 @@ public class Shutdown {
                 if (!socks5.securityGroup.alias.equals(SecurityGroup.defaultName)) {
                     cmd += " security-group " + socks5.securityGroup.alias;
                 }
+                if (socks5.getWorkerSelectMethod() != null && socks5.getWorkerSelectMethod() != EventLoopSelectMethod.rr) {
+                    cmd += " worker-select " + socks5.getWorkerSelectMethod();
+                }
+                if (socks5.isElasticBuffers()) {
+                    cmd += " elastic-buffers";
+                }
+                if (socks5.bufferBudget.getLimit() != 0) {
+                    cmd += " buffer-memory-limit " + socks5.bufferBudget.getLimit();
+                }
+                if (socks5.getBufferBudgetPolicy() != BufferBudgetPolicy.refuse) {
+                    cmd += " buffer-memory-policy " + socks5.getBufferBudgetPolicy();
+                }
                 commands.add(cmd);
             }
         }
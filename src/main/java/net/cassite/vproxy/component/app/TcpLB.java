@@ -2,6 +2,8 @@ package net.cassite.vproxy.component.app;
 
 import net.cassite.vproxy.component.elgroup.EventLoopGroup;
 import net.cassite.vproxy.component.elgroup.EventLoopGroupAttach;
+import net.cassite.vproxy.component.elgroup.EventLoopSelectMethod;
+import net.cassite.vproxy.component.elgroup.EventLoopSelectPolicy;
 import net.cassite.vproxy.component.elgroup.EventLoopWrapper;
 import net.cassite.vproxy.component.exception.AlreadyExistException;
 import net.cassite.vproxy.component.exception.ClosedException;
@@ -69,6 +71,16 @@ public class TcpLB {
     private int timeout; // modifiable
     private int inBufferSize; // modifiable
     private int outBufferSize; // modifiable
+    private int acceptBudget = ServerHandler.DEFAULT_ACCEPT_BUDGET; // modifiable
+    private boolean elasticBuffers = false; // modifiable
+    private int corkThreshold = 0; // modifiable
+    private int readBudget = 0; // modifiable
+    private boolean adaptiveRead = false; // modifiable
+    // buffers of the accepted connections are accounted in the budget, the limit is modifiable
+    public final BufferBudget bufferBudget = new BufferBudget(BufferBudget.global);
+    private BufferBudgetPolicy bufferBudgetPolicy = BufferBudgetPolicy.refuse; // modifiable
+    private EventLoopSelectMethod workerSelectMethod = EventLoopSelectMethod.rr; // modifiable
+    private EventLoopSelectPolicy workerSelectPolicy = workerSelectMethod.newPolicy(); // modifiable
     public final String protocol;
     public final Processor processor;
     public SecurityGroup securityGroup;
@@ -174,7 +186,8 @@ public class TcpLB {
             .setConnGen(provideConnectorGen())
             .setHandleLoopProvider(() -> {
                 // get a event loop from group
-                EventLoopWrapper w = workerGroup.next();
+                // the accepted connection will be handed to the loop
+                EventLoopWrapper w = workerGroup.next(workerSelectPolicy);
                 if (w == null)
                     return null; // return null if cannot get any
                 assert Logger.lowLevelDebug("use event loop: " + w.alias);
@@ -183,6 +196,13 @@ public class TcpLB {
             .setTimeout(timeout)
             .setInBufferSize(inBufferSize)
             .setOutBufferSize(outBufferSize)
+            .setAcceptBudget(acceptBudget)
+            .setElasticBuffers(elasticBuffers)
+            .setCorkThreshold(corkThreshold)
+            .setReadBudget(readBudget)
+            .setAdaptiveRead(adaptiveRead)
+            .setBufferBudget(bufferBudget)
+            .setBufferBudgetPolicy(bufferBudgetPolicy)
             .setServer(server)
             .setAcceptLoop(eventLoop);
     }
@@ -297,6 +317,66 @@ public class TcpLB {
         }
     }
 
+    public void setAcceptBudget(int acceptBudget) {
+        this.acceptBudget = acceptBudget;
+        for (Proxy pxy : servers.values()) {
+            pxy.config.setAcceptBudget(acceptBudget);
+        }
+    }
+
+    // the new connections use elastic buffers, which hold memory only when needed
+    public void setElasticBuffers(boolean elasticBuffers) {
+        this.elasticBuffers = elasticBuffers;
+        for (Proxy pxy : servers.values()) {
+            pxy.config.setElasticBuffers(elasticBuffers);
+        }
+    }
+
+    // writes of the new connections are flushed once at the end of the loop iteration,
+    // or when the out buffer holds more bytes than the threshold, 0 means not corked
+    public void setCorkThreshold(int corkThreshold) {
+        this.corkThreshold = corkThreshold;
+        for (Proxy pxy : servers.values()) {
+            pxy.config.setCorkThreshold(corkThreshold);
+        }
+    }
+
+    // max bytes read from one new connection in one loop iteration, 0 means read once in one iteration
+    public void setReadBudget(int readBudget) {
+        this.readBudget = readBudget;
+        for (Proxy pxy : servers.values()) {
+            pxy.config.setReadBudget(readBudget);
+        }
+    }
+
+    // the new connections learn how many bytes to read each time from the previous reads
+    public void setAdaptiveRead(boolean adaptiveRead) {
+        this.adaptiveRead = adaptiveRead;
+        for (Proxy pxy : servers.values()) {
+            pxy.config.setAdaptiveRead(adaptiveRead);
+        }
+    }
+
+    // what to do with new connections when the buffer budget is used up
+    public void setBufferBudgetPolicy(BufferBudgetPolicy bufferBudgetPolicy) {
+        this.bufferBudgetPolicy = bufferBudgetPolicy;
+        for (Proxy pxy : servers.values()) {
+            pxy.config.setBufferBudgetPolicy(bufferBudgetPolicy);
+        }
+    }
+
+    // choose worker loops for accepted connections
+    public void setWorkerSelectMethod(EventLoopSelectMethod workerSelectMethod) {
+        this.workerSelectPolicy = workerSelectMethod.newPolicy();
+        this.workerSelectMethod = workerSelectMethod;
+    }
+
+    // use a customized policy, the select method will be null
+    public void setWorkerSelectPolicy(EventLoopSelectPolicy workerSelectPolicy) {
+        this.workerSelectPolicy = workerSelectPolicy;
+        this.workerSelectMethod = null;
+    }
+
     public int getInBufferSize() {
         return inBufferSize;
     }
@@ -308,4 +388,36 @@ public class TcpLB {
     public int getTimeout() {
         return timeout;
     }
+
+    public int getAcceptBudget() {
+        return acceptBudget;
+    }
+
+    public boolean isElasticBuffers() {
+        return elasticBuffers;
+    }
+
+    public int getCorkThreshold() {
+        return corkThreshold;
+    }
+
+    public int getReadBudget() {
+        return readBudget;
+    }
+
+    public boolean isAdaptiveRead() {
+        return adaptiveRead;
+    }
+
+    public BufferBudgetPolicy getBufferBudgetPolicy() {
+        return bufferBudgetPolicy;
+    }
+
+    public EventLoopSelectMethod getWorkerSelectMethod() {
+        return workerSelectMethod;
+    }
+
+    public EventLoopSelectPolicy getWorkerSelectPolicy() {
+        return workerSelectPolicy;
+    }
 }
@@ -124,7 +124,7 @@ public class TCPHealthCheckClient {
     }
 
     private void periodic() {
-        periodTimer = connectClient.eventLoop.getSelectorEventLoop().delay(period, () -> doCheck(this::periodic));
+        periodTimer = connectClient.eventLoop.getSelectorEventLoop().delayBackground(period, () -> doCheck(this::periodic));
     }
 
     public void stop() {
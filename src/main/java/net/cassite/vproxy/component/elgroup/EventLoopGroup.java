@@ -4,25 +4,40 @@ import net.cassite.vproxy.component.exception.AlreadyExistException;
 import net.cassite.vproxy.component.exception.ClosedException;
 import net.cassite.vproxy.component.exception.NotFoundException;
 import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.selector.SelectorEventLoopOpts;
 import net.cassite.vproxy.util.*;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class EventLoopGroup {
+    private static final int DRAIN_TIMEOUT = 5000; // ms
+
     public final String alias;
     private ArrayList<EventLoopWrapper> eventLoops = new ArrayList<>(0); // use array list to make code look better,
     // it's the same if you use array
     private boolean closed = false; // if true, then all operations are disabled or return default value
     private final AtomicInteger cursor = new AtomicInteger(0); // current cursor of the eventLoops
     private final ConcurrentHashSet<EventLoopGroupAttach> attaches = new ConcurrentHashSet<>();
+    private final SelectorEventLoopOpts opts; // options for event loops created in this group
 
     public EventLoopGroup(String alias) {
+        this(alias, SelectorEventLoopOpts.getDefault());
+    }
+
+    public EventLoopGroup(String alias, SelectorEventLoopOpts opts) {
         this.alias = alias;
+        this.opts = opts;
+    }
+
+    public SelectorEventLoopOpts getOpts() {
+        return opts;
     }
 
     /*
@@ -70,7 +85,7 @@ public class EventLoopGroup {
             if (w.alias.equals(alias))
                 throw new AlreadyExistException();
         }
-        SelectorEventLoop selectorEventLoop = SelectorEventLoop.open();
+        SelectorEventLoop selectorEventLoop = SelectorEventLoop.open(opts);
         EventLoopWrapper el = new EventLoopWrapper(alias, selectorEventLoop);
         ArrayList<EventLoopWrapper> newLs = new ArrayList<>(ls.size() + 1);
         newLs.addAll(ls);
@@ -81,6 +96,7 @@ public class EventLoopGroup {
         assert Logger.lowLevelDebug("event loop added " + alias);
 
         invokeResourcesOnAdd();
+        rebalance();
     }
 
     @Blocking
@@ -101,19 +117,80 @@ public class EventLoopGroup {
         }
         ArrayList<EventLoopWrapper> ls = eventLoops;
         ArrayList<EventLoopWrapper> newLs = new ArrayList<>(ls.size() - 1);
-        boolean found = false;
+        EventLoopWrapper removed = null;
         for (EventLoopWrapper w : ls) {
             if (w.alias.equals(alias)) {
-                found = true;
-                tryCloseLoop(w.getSelectorEventLoop());
+                removed = w;
             } else {
                 newLs.add(w);
             }
         }
-        if (!found)
+        if (removed == null)
             throw new NotFoundException();
 
+        // remove from the list first, so no new connections will be handed to the loop
         eventLoops = newLs;
+        drain(removed, newLs);
+        tryCloseLoop(removed.getSelectorEventLoop());
+    }
+
+    @Blocking
+    // move idle connections to other loops before the loop is closed
+    // the connections still working will be closed with the loop
+    private void drain(EventLoopWrapper w, ArrayList<EventLoopWrapper> others) {
+        if (others.isEmpty() || w.connectionCount() == 0)
+            return;
+        EventLoopSelectPolicy policy = EventLoopSelectPolicy.roundRobin();
+        CountDownLatch latch = new CountDownLatch(1);
+        int[] moved = {0};
+        w.migrateConnections(Integer.MAX_VALUE, () -> policy.select(others), n -> {
+            moved[0] = n;
+            latch.countDown();
+        });
+        try {
+            if (!latch.await(DRAIN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                Logger.warn(LogType.ALERT, "draining event loop " + w.alias + " timed out");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Logger.warn(LogType.ALERT, "draining event loop " + w.alias + " interrupted");
+            return;
+        }
+        Logger.info(LogType.ALERT, moved[0] + " connection(s) moved out of event loop " + w.alias
+            + " before removing, " + w.connectionCount() + " left");
+    }
+
+    /**
+     * move idle connections from loops with more connections to loops with fewer connections.<br>
+     * the method returns immediately, the connections are moved asynchronously.<br>
+     * it's called automatically when a new loop is added
+     */
+    @ThreadSafe
+    public void rebalance() {
+        if (closed)
+            return;
+        ArrayList<EventLoopWrapper> ls = eventLoops;
+        if (ls.size() < 2)
+            return;
+        long total = 0;
+        for (EventLoopWrapper w : ls) {
+            total += w.connectionCount();
+        }
+        long avg = (total + ls.size() - 1) / ls.size();
+        EventLoopSelectPolicy policy = EventLoopSelectPolicy.leastConnections();
+        for (EventLoopWrapper w : ls) {
+            int excess = (int) (w.connectionCount() - avg);
+            if (excess <= 0)
+                continue;
+            // the handoff count is considered when choosing loops
+            // so the connections being moved will not all go to the same loop
+            w.migrateConnections(excess, () -> {
+                EventLoopWrapper target = policy.select(ls);
+                if (target == null || EventLoopSelectPolicy.connections(target) >= avg)
+                    return null;
+                return target;
+            }, n -> Logger.info(LogType.ALERT, n + " connection(s) moved out of event loop " + w.alias + " for rebalancing"));
+        }
     }
 
     /*
@@ -192,6 +269,17 @@ public class EventLoopGroup {
         return next(ls, 0);
     }
 
+    @ThreadSafe
+    public EventLoopWrapper next(EventLoopSelectPolicy policy) {
+        if (closed)
+            return null;
+
+        ArrayList<EventLoopWrapper> ls = eventLoops;
+        if (ls.isEmpty())
+            return null;
+        return policy.select(ls);
+    }
+
     private EventLoopWrapper next(ArrayList<EventLoopWrapper> ls, int recursion) {
         if (recursion > ls.size())
             return null;
@@ -0,0 +1,26 @@
+package net.cassite.vproxy.component.elgroup;
+
+public enum EventLoopSelectMethod {
+    rr, // round robin
+    lc, // least connections
+    lt, // least traffic (bytes per second)
+    ll, // least loop latency
+    p2c, // power of two choices, compare the loop latency of two random loops
+    ;
+
+    public EventLoopSelectPolicy newPolicy() {
+        switch (this) {
+            case lc:
+                return EventLoopSelectPolicy.leastConnections();
+            case lt:
+                return EventLoopSelectPolicy.leastTraffic();
+            case ll:
+                return EventLoopSelectPolicy.leastLatency();
+            case p2c:
+                return EventLoopSelectPolicy.powerOfTwoChoices(EventLoopSelectPolicy::latency);
+            case rr:
+            default:
+                return EventLoopSelectPolicy.roundRobin();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package net.cassite.vproxy.component.elgroup;
+
+import net.cassite.vproxy.util.ThreadSafe;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+
+/**
+ * Choose an event loop from the event loop group.<br>
+ * Used when handing a new connection from the acceptor loop to a worker loop.<br>
+ * The implementation should be thread safe because it's called from all acceptor loops.
+ */
+public interface EventLoopSelectPolicy {
+    /**
+     * @param loops the event loops, not empty
+     * @return the chosen event loop, or null if none is available
+     */
+    @ThreadSafe
+    EventLoopWrapper select(List<EventLoopWrapper> loops);
+
+    static EventLoopSelectPolicy roundRobin() {
+        return new RoundRobin();
+    }
+
+    // choose the loop with the least connections (including connections being handed to the loop)
+    static EventLoopSelectPolicy leastConnections() {
+        return new Least(EventLoopSelectPolicy::connections);
+    }
+
+    // choose the loop with the least bytes per second
+    static EventLoopSelectPolicy leastTraffic() {
+        return new Least(EventLoopSelectPolicy::traffic);
+    }
+
+    // choose the loop with the least smoothed iteration time
+    static EventLoopSelectPolicy leastLatency() {
+        return new Least(EventLoopSelectPolicy::latency);
+    }
+
+    // pick two random loops and choose the one with less load.
+    // the load values are not refreshed immediately after a loop is chosen,
+    // so picking the least one among all loops sends a burst of connections to the same loop,
+    // while the random pair spreads them
+    static EventLoopSelectPolicy powerOfTwoChoices(ToLongFunction<EventLoopWrapper> load) {
+        return new PowerOfTwoChoices(load);
+    }
+
+    static long connections(EventLoopWrapper w) {
+        return w.connectionCount() + w.pendingHandoffCount();
+    }
+
+    static long traffic(EventLoopWrapper w) {
+        return w.getBytesPerSecond();
+    }
+
+    static long latency(EventLoopWrapper w) {
+        return w.getSelectorEventLoop().getLoopLatencyNanos();
+    }
+}
+
+class RoundRobin implements EventLoopSelectPolicy {
+    private final AtomicInteger cursor = new AtomicInteger(0);
+
+    @Override
+    public EventLoopWrapper select(List<EventLoopWrapper> loops) {
+        int size = loops.size();
+        int start = cursor.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < size; ++i) {
+            EventLoopWrapper w = loops.get((start + i) % size);
+            if (!w.getSelectorEventLoop().isClosed())
+                return w;
+        }
+        return null;
+    }
+}
+
+class Least implements EventLoopSelectPolicy {
+    // the scan starts from different positions
+    // so loops with the same load are chosen in turn
+    private final AtomicInteger cursor = new AtomicInteger(0);
+    private final ToLongFunction<EventLoopWrapper> load;
+
+    Least(ToLongFunction<EventLoopWrapper> load) {
+        this.load = load;
+    }
+
+    @Override
+    public EventLoopWrapper select(List<EventLoopWrapper> loops) {
+        int size = loops.size();
+        int start = cursor.getAndIncrement() & Integer.MAX_VALUE;
+        EventLoopWrapper result = null;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < size; ++i) {
+            EventLoopWrapper w = loops.get((start + i) % size);
+            if (w.getSelectorEventLoop().isClosed())
+                continue;
+            long l = load.applyAsLong(w);
+            if (l < min) {
+                min = l;
+                result = w;
+            }
+        }
+        return result;
+    }
+}
+
+class PowerOfTwoChoices implements EventLoopSelectPolicy {
+    private final ToLongFunction<EventLoopWrapper> load;
+    private final Least fallback;
+
+    PowerOfTwoChoices(ToLongFunction<EventLoopWrapper> load) {
+        this.load = load;
+        this.fallback = new Least(load);
+    }
+
+    @Override
+    public EventLoopWrapper select(List<EventLoopWrapper> loops) {
+        int size = loops.size();
+        if (size == 1) {
+            EventLoopWrapper w = loops.get(0);
+            return w.getSelectorEventLoop().isClosed() ? null : w;
+        }
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        int a = rand.nextInt(size);
+        int b = rand.nextInt(size - 1);
+        if (b >= a) {
+            ++b; // make sure the two choices are different
+        }
+        EventLoopWrapper wa = loops.get(a);
+        EventLoopWrapper wb = loops.get(b);
+        if (wa.getSelectorEventLoop().isClosed() || wb.getSelectorEventLoop().isClosed()) {
+            // maybe the list is operated in another thread
+            return fallback.select(loops);
+        }
+        return load.applyAsLong(wa) <= load.applyAsLong(wb) ? wa : wb;
+    }
+}
@@ -9,8 +9,9 @@ import net.cassite.vproxy.util.*;
 
 import java.io.IOException;
 import java.nio.channels.NetworkChannel;
-import java.util.Collection;
-import java.util.Iterator;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public class EventLoopWrapper extends NetEventLoop {
     class ServerHandlerWrapper implements ServerHandler {
@@ -41,10 +42,30 @@ public class EventLoopWrapper extends NetEventLoop {
             servers.remove(ctx.server);
         }
 
+        @Override
+        public void ioBuffersUnused(Tuple<RingBuffer, RingBuffer> ioBuffers) {
+            handler.ioBuffersUnused(ioBuffers);
+        }
+
         @Override
         public void exception(ServerHandlerContext ctx, IOException err) {
             handler.exception(ctx, err);
         }
+
+        @Override
+        public int acceptBudget() {
+            return handler.acceptBudget();
+        }
+
+        @Override
+        public boolean acceptPaused() {
+            return handler.acceptPaused();
+        }
+
+        @Override
+        public ConnectionOpts connectionOpts() {
+            return handler.connectionOpts();
+        }
     }
 
     class ConnectionHandlerWrapper implements ConnectionHandler {
@@ -79,6 +100,11 @@ public class EventLoopWrapper extends NetEventLoop {
             handler.removed(ctx);
             connections.remove(ctx.connection);
         }
+
+        @Override
+        public Connection[] migrationGroup(ConnectionHandlerContext ctx) {
+            return handler.migrationGroup(ctx);
+        }
     }
 
     class ClientConnectionHandlerWrapper extends ConnectionHandlerWrapper implements ClientConnectionHandler {
@@ -140,6 +166,54 @@ public class EventLoopWrapper extends NetEventLoop {
         }
     }
 
+    @Override
+    protected ConnectionHandler migrateOut(Connection connection, ConnectionHandler handler) {
+        connections.remove(connection);
+        return ((ConnectionHandlerWrapper) handler).handler;
+    }
+
+    @Override
+    protected ConnectionHandler migrateIn(Connection connection, ConnectionHandler handler) {
+        connections.add(connection);
+        if (handler instanceof ClientConnectionHandler) {
+            return new ClientConnectionHandlerWrapper((ClientConnectionHandler) handler);
+        } else {
+            return new ConnectionHandlerWrapper(handler);
+        }
+    }
+
+    /**
+     * move idle connections on this loop to other loops.<br>
+     * the operation runs on this loop, connections that cannot be moved are skipped
+     *
+     * @param max     max count of connections to move
+     * @param targets provides the loop to move to, the operation stops if it returns null or this loop
+     * @param cb      called on this loop with count of moved connections
+     */
+    @ThreadSafe
+    public void migrateConnections(int max, Supplier<NetEventLoop> targets, Consumer<Integer> cb) {
+        selectorEventLoop.runOnLoop(() -> {
+            int moved = 0;
+            Set<Connection> handled = new HashSet<>();
+            for (Connection conn : new ArrayList<>(connections)) {
+                if (moved >= max)
+                    break;
+                if (handled.contains(conn))
+                    continue;
+                NetEventLoop target = targets.get();
+                if (target == null || target == this)
+                    break;
+                Connection[] group = migrate(conn, target);
+                if (group == null)
+                    continue;
+                Collections.addAll(handled, group);
+                moved += group.length;
+            }
+            assert Logger.lowLevelDebug(moved + " connections moved from " + alias);
+            cb.accept(moved);
+        });
+    }
+
     @ThreadSafe
     public void attachResource(EventLoopAttach resource) throws AlreadyExistException, ClosedException {
         if (selectorEventLoop.isClosed()) {
@@ -353,7 +353,7 @@ public class Khala {
         khalaNodes.khalaNodes.put(discovery.localNode, new HashSet<>());
 
         // init periodic event
-        discovery.loop.getSelectorEventLoop().period(config.syncPeriod, this::doSync);
+        discovery.loop.getSelectorEventLoop().periodBackground(config.syncPeriod, this::doSync);
 
         // add server handler
         discovery.addExternalHandler(new NodeDataHandler() {
@@ -0,0 +1,121 @@
+package net.cassite.vproxy.component.proxy;
+
+import net.cassite.vproxy.util.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the memory of connection buffers.<br>
+ * Bytes are acquired when buffers of an accepted connection are allocated,
+ * and released when the connection is closed.<br>
+ * A budget may have a parent (e.g. the budget of a tcp-lb has the {@link #global} budget as its parent),
+ * bytes are acquired only when both the budget and its parents have enough room.
+ */
+public class BufferBudget {
+    /**
+     * the process-wide budget, unlimited by default
+     */
+    public static final BufferBudget global = new BufferBudget(null);
+
+    private final BufferBudget parent;
+    private volatile long limit = 0; // 0 means unlimited
+    private final AtomicLong used = new AtomicLong(0);
+    private final AtomicLong refused = new AtomicLong(0); // count of connections refused
+    private final AtomicLong shrunk = new AtomicLong(0); // count of connections with shrunk buffers
+    private final AtomicLong paused = new AtomicLong(0); // count of times accepting is paused
+
+    public BufferBudget(BufferBudget parent) {
+        this.parent = parent;
+    }
+
+    @ThreadSafe
+    public void setLimit(long limit) {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit should not be negative");
+        this.limit = limit;
+    }
+
+    @ThreadSafe
+    public long getLimit() {
+        return limit;
+    }
+
+    @ThreadSafe
+    public long getUsed() {
+        return used.get();
+    }
+
+    @ThreadSafe
+    public long getRefused() {
+        return refused.get();
+    }
+
+    @ThreadSafe
+    public long getShrunk() {
+        return shrunk.get();
+    }
+
+    @ThreadSafe
+    public long getPaused() {
+        return paused.get();
+    }
+
+    /**
+     * @param bytes bytes to acquire
+     * @return true if acquired, the bytes should be released later
+     */
+    @ThreadSafe
+    public boolean tryAcquire(long bytes) {
+        while (true) {
+            long u = used.get();
+            long lim = limit;
+            if (lim != 0 && u + bytes > lim)
+                return false;
+            if (used.compareAndSet(u, u + bytes))
+                break;
+        }
+        if (parent != null && !parent.tryAcquire(bytes)) {
+            used.addAndGet(-bytes);
+            return false;
+        }
+        return true;
+    }
+
+    @ThreadSafe
+    public void release(long bytes) {
+        used.addAndGet(-bytes);
+        if (parent != null) {
+            parent.release(bytes);
+        }
+    }
+
+    /**
+     * @return bytes that can be acquired now, or Long.MAX_VALUE if unlimited
+     */
+    @ThreadSafe
+    public long available() {
+        long lim = limit;
+        long avail = lim == 0 ? Long.MAX_VALUE : Math.max(0, lim - used.get());
+        if (parent != null) {
+            avail = Math.min(avail, parent.available());
+        }
+        return avail;
+    }
+
+    void incRefused() {
+        refused.incrementAndGet();
+    }
+
+    void incShrunk() {
+        shrunk.incrementAndGet();
+    }
+
+    void incPaused() {
+        paused.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return "limit " + limit + " used " + used.get() + " refused " + refused.get() + " shrunk " + shrunk.get() + " paused " + paused.get();
+    }
+}
@@ -0,0 +1,10 @@
+package net.cassite.vproxy.component.proxy;
+
+/**
+ * what to do with new connections when the buffer budget is used up
+ */
+public enum BufferBudgetPolicy {
+    refuse, // accept and close the connection immediately
+    shrink, // use smaller buffers, refuse if even the smallest buffers cannot fit
+    queue, // stop accepting, the connections wait in the backlog of the listening socket until memory is released
+}
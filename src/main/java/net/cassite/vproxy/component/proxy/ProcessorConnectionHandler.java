@@ -8,6 +8,7 @@ import net.cassite.vproxy.util.Logger;
 import net.cassite.vproxy.util.RingBuffer;
 import net.cassite.vproxy.util.ByteArray;
 import net.cassite.vproxy.util.ringbuffer.ProxyOutputRingBuffer;
+import net.cassite.vproxy.util.ringbuffer.SimpleRingBuffer;
 
 import java.io.IOException;
 import java.util.*;
@@ -21,7 +22,13 @@ class ProcessorConnectionHandler implements ConnectionHandler {
     private final Processor.SubContext frontendSubCtx;
     private final NetEventLoop loop;
 
-    private final Map<BackendConnectionHandler, Integer> conn2intMap = new HashMap<>();
+    // the backends in the order of creation, the connId is recorded in the backend handler
+    private final ArrayList<BackendConnectionHandler> backends = new ArrayList<>();
+
+    // used by all feeding calls, the bytes are moved out right after each feeding
+    private final ProcessorOutput output = new ProcessorOutput();
+    // called when zero copy proxying to a backend is done
+    private final Runnable readFrontendOp = this::readFrontend;
 
     private int cursor = 0;
     private final BackendConnectionHandler[] conns = new BackendConnectionHandler[1024 + 1];
@@ -38,13 +45,43 @@ class ProcessorConnectionHandler implements ConnectionHandler {
     }
 
     void recordBackend(BackendConnectionHandler backend, int connId) {
-        conn2intMap.put(backend, connId);
+        backend.connId = connId;
+        backends.add(backend);
         conns[connId] = backend;
     }
 
     void removeBackend(BackendConnectionHandler backend) {
-        int connId = conn2intMap.remove(backend);
-        conns[connId] = null;
+        backends.remove(backend);
+        conns[backend.connId] = null;
+    }
+
+    /**
+     * check whether the processor can be fed with a view of the input buffer
+     *
+     * @param inBuffer the input buffer
+     * @param len      the expected message length
+     * @return true if the view can be used
+     */
+    boolean canFeedView(RingBuffer inBuffer, int len) {
+        // the whole message must fit into the buffer, otherwise it's never fulfilled
+        return processor.FEED_INPUT_VIEW() && inBuffer instanceof SimpleRingBuffer && len <= inBuffer.capacity();
+    }
+
+    /**
+     * consume the viewed bytes from the input buffer after feeding.
+     * the data to send may refer to the view, so copy it before consuming
+     *
+     * @param inBuffer the input buffer
+     * @param len      length of the view
+     * @param toSend   data returned by the processor
+     * @return data to send, which does not refer to the view
+     */
+    ByteArray consumeView(RingBuffer inBuffer, int len, ByteArray toSend) {
+        if (toSend != null) {
+            toSend = toSend.arrange();
+        }
+        ((SimpleRingBuffer) inBuffer).discard(len);
+        return toSend;
     }
 
     /**
@@ -63,7 +100,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         assert Logger.lowLevelDebug("calling utilWriteData, writing from " + sourceConnection + " to " + targetConnection);
 
         if (flow.currentSegment == null) {
-            flow.currentSegment = flow.sendingQueue.poll();
+            flow.pollSegment();
         }
         if (flow.currentSegment == null) {
             return; // still null, which means no data to write now
@@ -87,7 +124,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                         flow.currentSegment.bytesToProxy, () -> {
                             // -----the code is copied -------1
                             assert Logger.lowLevelDebug("proxy done");
-                            flow.currentSegment = flow.sendingQueue.poll(); // poll for the next segment
+                            flow.pollSegment(); // poll for the next segment
                             processor.proxyDone(topCtx, subCtx);
                             // -----the code is copied -------1
 
@@ -96,18 +133,17 @@ class ProcessorConnectionHandler implements ConnectionHandler {
             } else {
                 assert Logger.lowLevelDebug("choose to run without zero copy");
 
-                targetConnection.runNoQuickWrite(() -> {
-                    int n = sourceConnection.getInBuffer()
-                        .writeTo(targetConnection.getOutBuffer(), flow.currentSegment.bytesToProxy);
-                    flow.currentSegment.bytesToProxy -= n;
-                    assert Logger.lowLevelDebug("proxied " + n + " bytes, still have " + flow.currentSegment.bytesToProxy + " left");
-                });
+                flow.source = sourceConnection;
+                flow.target = targetConnection;
+                targetConnection.runNoQuickWrite(flow.proxyBytesOp);
+                flow.source = null;
+                flow.target = null;
                 assert flow.currentSegment.bytesToProxy >= 0;
                 // proxy is done
                 if (flow.currentSegment.bytesToProxy == 0) {
                     // -----the code is copied -------1
                     assert Logger.lowLevelDebug("proxy done");
-                    flow.currentSegment = flow.sendingQueue.poll(); // poll for the next segment
+                    flow.pollSegment(); // poll for the next segment
                     processor.proxyDone(topCtx, subCtx);
                     // -----the code is copied -------1
                 }
@@ -115,12 +151,13 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         } else {
             assert flow.currentSegment.chnl != null;
             assert Logger.lowLevelDebug("sending bytes, flow.chnl.used = " + flow.currentSegment.chnl.used());
-            targetConnection.runNoQuickWrite(() ->
-                targetConnection.getOutBuffer().storeBytesFrom(flow.currentSegment.chnl));
+            flow.target = targetConnection;
+            targetConnection.runNoQuickWrite(flow.sendBytesOp);
+            flow.target = null;
             // check whether this batch sending is done
             assert Logger.lowLevelDebug("now flow.chnl.used == " + flow.currentSegment.chnl.used());
             if (flow.currentSegment.chnl.used() == 0) {
-                flow.currentSegment = flow.sendingQueue.poll(); // poll for the next segment
+                flow.pollSegment(); // poll for the next segment
             }
         }
     }
@@ -153,7 +190,32 @@ class ProcessorConnectionHandler implements ConnectionHandler {
             }
 
             Segment currentSegment = null;
-            final LinkedList<Segment> sendingQueue = new LinkedList<>();
+            final ArrayDeque<Segment> sendingQueue = new ArrayDeque<>();
+            int proxySegmentsInQueue = 0;
+
+            // the connections being written, only set when running the ops
+            // the ops are created once for the flow, so that writing does not create objects every time
+            Connection source;
+            Connection target;
+            final Runnable proxyBytesOp = this::proxyBytes;
+            final Runnable sendBytesOp = this::sendBytes;
+
+            void pollSegment() {
+                currentSegment = sendingQueue.poll();
+                if (currentSegment != null && currentSegment.isProxy) {
+                    --proxySegmentsInQueue;
+                }
+            }
+
+            private void proxyBytes() {
+                int n = source.getInBuffer().writeTo(target.getOutBuffer(), currentSegment.bytesToProxy);
+                currentSegment.bytesToProxy -= n;
+                assert Logger.lowLevelDebug("proxied " + n + " bytes, still have " + currentSegment.bytesToProxy + " left");
+            }
+
+            private void sendBytes() {
+                target.getOutBuffer().storeBytesFrom(currentSegment.chnl);
+            }
 
             void write(ByteArray data) {
                 if (currentSegment == null) {
@@ -170,22 +232,25 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                     if (currentSegment != null && currentSegment.isProxy) {
                         return;
                     }
-                    for (Segment seg : sendingQueue) {
-                        if (seg.isProxy)
-                            return;
+                    if (proxySegmentsInQueue != 0) {
+                        return;
                     }
                 }
                 if (currentSegment == null) {
                     currentSegment = new Segment(len);
                 } else {
                     sendingQueue.add(new Segment(len));
+                    ++proxySegmentsInQueue;
                 }
             }
         }
 
         private final Processor.SubContext subCtx;
         private final ClientConnection conn;
+        private int connId;
         private boolean isConnected = false;
+        // called when zero copy proxying to the frontend is done
+        private final Runnable readBackendOp = this::readBackend;
 
         private ByteArrayChannel chnl = null;
         private final BackendConnectionHandler.ByteFlow backendByteFlow = new BackendConnectionHandler.ByteFlow();
@@ -216,6 +281,40 @@ class ProcessorConnectionHandler implements ConnectionHandler {
             frontendWrite(this);
         }
 
+        /**
+         * store bytes of the output directly into the out buffer of the backend if nothing is pending,
+         * otherwise the bytes are prepended to the data to send
+         *
+         * @param data data to send after the bytes of the output, may be null
+         * @return data to send
+         */
+        ByteArray outputToBackend(ByteArray data) {
+            if (isConnected && backendByteFlow.currentSegment == null && conn.getOutBuffer().free() >= output.used()) {
+                assert Logger.lowLevelDebug("store " + output.used() + " bytes of the output into " + conn);
+                output.storeInto(conn);
+                return data;
+            }
+            return output.prependTo(data);
+        }
+
+        /**
+         * store bytes of the output directly into the out buffer of the frontend if nothing is pending,
+         * otherwise the bytes are prepended to the data to send
+         *
+         * @param data data to send after the bytes of the output, may be null
+         * @return data to send
+         */
+        ByteArray outputToFrontend(ByteArray data) {
+            if ((handlingConnection == null || handlingConnection == this)
+                && frontendByteFlow.currentSegment == null
+                && frontendConnection.getOutBuffer().free() >= output.used()) {
+                assert Logger.lowLevelDebug("store " + output.used() + " bytes of the output into " + frontendConnection);
+                output.storeInto(frontendConnection);
+                return data;
+            }
+            return output.prependTo(data);
+        }
+
         private boolean isWritingBackend = false;
 
         /**
@@ -241,8 +340,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                     break;
                 }
 
-                //noinspection Convert2MethodRef
-                utilWriteData(backendByteFlow, frontendConnection, conn, frontendSubCtx, () -> readFrontend());
+                utilWriteData(backendByteFlow, frontendConnection, conn, frontendSubCtx, readFrontendOp);
 
                 // if it's running proxy and already called proxy on buffer, end the method
                 // NOTE: this must be check AFTER the utilWriteData because the buffer should be alerted of the proxied data input
@@ -287,6 +385,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                     proxyToFrontend(len);
                 }
             } else {
+                int viewLen = 0; // the processor is fed with a view of the in buffer if it's not 0
                 if (chnl == null) {
                     int len = processor.len(topCtx, subCtx);
                     assert Logger.lowLevelDebug("the expected message length is " + len);
@@ -309,25 +408,47 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                         readBackend(); // recursively handle more data
                         return;
                     }
-                    chnl = ByteArrayChannel.fromEmpty(new byte[len]);
+                    if (canFeedView(conn.getInBuffer(), len)) {
+                        if (conn.getInBuffer().used() < len) {
+                            assert Logger.lowLevelDebug("not fulfilled yet, expecting " + (len - conn.getInBuffer().used()) + " length of data");
+                            // expecting more data
+                            return;
+                        }
+                        viewLen = len;
+                    } else {
+                        chnl = ByteArrayChannel.fromEmpty(new byte[len]);
+                    }
                 }
-                conn.getInBuffer().writeTo(chnl);
-                if (chnl.free() != 0) {
-                    assert Logger.lowLevelDebug("not fulfilled yet, expecting " + chnl.free() + " length of data");
-                    // expecting more data
-                    return;
+                ByteArray data;
+                if (viewLen != 0) {
+                    assert Logger.lowLevelDebug("the message is in the buffer, feeding the view to processor");
+                    data = ((SimpleRingBuffer) conn.getInBuffer()).view(viewLen);
+                } else {
+                    conn.getInBuffer().writeTo(chnl);
+                    if (chnl.free() != 0) {
+                        assert Logger.lowLevelDebug("not fulfilled yet, expecting " + chnl.free() + " length of data");
+                        // expecting more data
+                        return;
+                    }
+                    assert Logger.lowLevelDebug("the message is totally read, feeding to processor");
+                    data = ByteArray.from(chnl.get());
+                    chnl = null;
                 }
-                assert Logger.lowLevelDebug("the message is totally read, feeding to processor");
-                ByteArray data = ByteArray.from(chnl.get());
-                chnl = null;
                 ByteArray dataToSend;
                 try {
-                    dataToSend = processor.feed(topCtx, subCtx, data);
+                    dataToSend = processor.feed(topCtx, subCtx, data, output);
                 } catch (Exception e) {
+                    output.clear();
                     Logger.warn(LogType.INVALID_EXTERNAL_DATA, "user code cannot handle data from " + conn + ", which corresponds to " + frontendConnection + ". err=" + e);
                     frontendConnection.close();
                     return;
                 }
+                if (viewLen != 0) {
+                    dataToSend = consumeView(conn.getInBuffer(), viewLen, dataToSend);
+                }
+                if (output.used() != 0) {
+                    dataToSend = outputToFrontend(dataToSend);
+                }
                 assert Logger.lowLevelDebug("the processor return a message of length " + (dataToSend == null ? "null" : dataToSend.length()));
 
                 // check data to write back
@@ -424,7 +545,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                     return; // cannot handle for now, end the method
                 }
 
-                utilWriteData(flow, handlingConnection.conn, frontendConnection, handlingConnection.subCtx, () -> handlingConnection.readBackend());
+                utilWriteData(flow, handlingConnection.conn, frontendConnection, handlingConnection.subCtx, handlingConnection.readBackendOp);
 
                 // if writing done:
                 if (flow.currentSegment == null) {
@@ -447,7 +568,9 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         // and keep writing if have some data to write in other connections
         {
             BackendConnectionHandler next = null;
-            for (BackendConnectionHandler b : conn2intMap.keySet()) {
+            //noinspection ForLoopReplaceableByForEach
+            for (int i = 0; i < backends.size(); ++i) {
+                BackendConnectionHandler b = backends.get(i);
                 BackendConnectionHandler.ByteFlow flow = b.frontendByteFlow;
                 if (flow.currentSegment != null) {
                     next = b;
@@ -492,6 +615,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         } else {
             assert mode == Processor.Mode.handle;
 
+            int viewLen = 0; // the processor is fed with a view of the in buffer if it's not 0
             if (chnl == null) {
                 int len = processor.len(topCtx, frontendSubCtx);
                 assert Logger.lowLevelDebug("expecting message with the length of " + len);
@@ -506,26 +630,45 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                     readFrontend(); // recursively try to handle more data
                     return;
                 }
-                chnl = ByteArrayChannel.fromEmpty(new byte[len]);
+                if (canFeedView(frontendConnection.getInBuffer(), len)) {
+                    if (frontendConnection.getInBuffer().used() < len) {
+                        // want to read more data
+                        assert Logger.lowLevelDebug("not fulfilled yet, waiting for data of length " + (len - frontendConnection.getInBuffer().used()));
+                        return;
+                    }
+                    viewLen = len;
+                } else {
+                    chnl = ByteArrayChannel.fromEmpty(new byte[len]);
+                }
             }
-            frontendConnection.getInBuffer().writeTo(chnl);
-            if (chnl.free() != 0) {
-                // want to read more data
-                assert Logger.lowLevelDebug("not fulfilled yet, waiting for data of length " + chnl.free());
-                return;
+            ByteArray data;
+            if (viewLen != 0) {
+                assert Logger.lowLevelDebug("data is in the buffer, feeding the view");
+                data = ((SimpleRingBuffer) frontendConnection.getInBuffer()).view(viewLen);
+            } else {
+                frontendConnection.getInBuffer().writeTo(chnl);
+                if (chnl.free() != 0) {
+                    // want to read more data
+                    assert Logger.lowLevelDebug("not fulfilled yet, waiting for data of length " + chnl.free());
+                    return;
+                }
+                assert Logger.lowLevelDebug("data reading is done now");
+                data = ByteArray.from(chnl.get());
+                chnl = null;
             }
-            assert Logger.lowLevelDebug("data reading is done now");
-            ByteArray data = ByteArray.from(chnl.get());
-            chnl = null;
             // handle the data
             ByteArray bytesToSend;
             try {
-                bytesToSend = processor.feed(topCtx, frontendSubCtx, data);
+                bytesToSend = processor.feed(topCtx, frontendSubCtx, data, output);
             } catch (Exception e) {
+                output.clear();
                 Logger.warn(LogType.INVALID_EXTERNAL_DATA, "user code cannot handle data from " + frontendConnection + ". err=" + e);
                 frontendConnection.close();
                 return;
             }
+            if (viewLen != 0) {
+                bytesToSend = consumeView(frontendConnection.getInBuffer(), viewLen, bytesToSend);
+            }
 
             int connId = processor.connection(topCtx, frontendSubCtx);
             assert Logger.lowLevelDebug("the processor return data of length " + (bytesToSend == null ? "null" : bytesToSend.length()) + ", sending to connId=" + connId);
@@ -533,8 +676,12 @@ class ProcessorConnectionHandler implements ConnectionHandler {
             if (backend == null) {
                 // for now, we simply close the whole connection when a backend is missing
                 Logger.error(LogType.CONN_ERROR, "failed to retrieve the backend connection for " + frontendConnection + "/" + connId);
+                output.clear();
                 frontendConnection.close();
             } else {
+                if (output.used() != 0) {
+                    bytesToSend = backend.outputToBackend(bytesToSend);
+                }
                 if (bytesToSend == null || bytesToSend.length() == 0) {
                     readFrontend(); // recursively call to handle more data
                 } else {
@@ -567,9 +714,10 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         }
 
         // find a connection if possible
-        for (int existingConnId : conn2intMap.values()) {
-            if (conns[existingConnId].conn.remote.equals(connector.remote)) {
-                BackendConnectionHandler bh = conns[existingConnId];
+        //noinspection ForLoopReplaceableByForEach
+        for (int i = 0; i < backends.size(); ++i) {
+            BackendConnectionHandler bh = backends.get(i);
+            if (bh.conn.remote.equals(connector.remote)) {
                 processor.chosen(topCtx, frontendSubCtx, bh.subCtx);
                 return bh;
             }
@@ -578,9 +726,16 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         // get a new connection
         ClientConnection clientConnection;
         try {
-            clientConnection = connector.connect(
-                new ConnectionOpts().setTimeout(config.timeout),
-                RingBuffer.allocateDirect(config.inBufferSize), ProxyOutputRingBuffer.allocateDirect(config.outBufferSize));
+            RingBuffer in;
+            ProxyOutputRingBuffer out;
+            if (config.elasticBuffers) {
+                in = RingBuffer.allocateElastic(config.inBufferSize);
+                out = ProxyOutputRingBuffer.allocateElastic(config.outBufferSize);
+            } else {
+                in = RingBuffer.allocateDirectPooled(config.inBufferSize);
+                out = ProxyOutputRingBuffer.allocateDirectPooled(config.outBufferSize);
+            }
+            clientConnection = connector.connect(config.newConnectionOpts(), in, out);
         } catch (IOException e) {
             Logger.fatal(LogType.CONN_ERROR, "make passive connection failed, maybe provided endpoint info is invalid", e);
             return null;
@@ -647,9 +802,8 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         closed = true;
 
         assert Logger.lowLevelDebug("close all connections of " + frontendConnection);
-        List<Integer> ints = new ArrayList<>(conn2intMap.values());
-        for (int i : ints) {
-            BackendConnectionHandler be = conns[i];
+        while (!backends.isEmpty()) {
+            BackendConnectionHandler be = backends.get(backends.size() - 1);
             removeBackend(be);
             be.conn.close();
             be.conn.getInBuffer().clean();
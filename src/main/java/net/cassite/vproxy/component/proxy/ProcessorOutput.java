@@ -0,0 +1,140 @@
+package net.cassite.vproxy.component.proxy;
+
+import net.cassite.vproxy.connection.Connection;
+import net.cassite.vproxy.processor.Processor;
+import net.cassite.vproxy.util.ByteArray;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * The output passed to processors when feeding.<br>
+ * The target connection is decided after feeding (see {@link Processor#connection(Processor.Context, Processor.SubContext)}),
+ * so the bytes are kept in an array reused by all feeding calls of the frontend connection,
+ * and stored into the out buffer of the target connection with one bulk copy right after feeding.
+ * The bytes are copied into a new ByteArray only when the target connection has other data pending.
+ */
+class ProcessorOutput implements Processor.Output, ReadableByteChannel, Runnable {
+    static final int CAPACITY = 256;
+
+    private byte[] buf = null; // allocated when used for the first time
+    private int used = 0;
+    private int read = 0;
+    private Connection target = null; // only set when storing
+
+    int used() {
+        return used;
+    }
+
+    void clear() {
+        used = 0;
+        read = 0;
+    }
+
+    private byte[] reserve(int len) {
+        if (CAPACITY - used < len)
+            throw new IndexOutOfBoundsException("free=" + (CAPACITY - used) + ", len=" + len);
+        if (buf == null) {
+            buf = new byte[CAPACITY];
+        }
+        return buf;
+    }
+
+    @Override
+    public int free() {
+        return CAPACITY - used;
+    }
+
+    @Override
+    public Processor.Output write(ByteArray array, int off, int len) {
+        array.copyTo(off, reserve(len), used, len);
+        used += len;
+        return this;
+    }
+
+    @Override
+    public Processor.Output uint8(int val) {
+        reserve(1)[used++] = (byte) val;
+        return this;
+    }
+
+    @Override
+    public Processor.Output int16(int val) {
+        byte[] buf = reserve(2);
+        buf[used++] = (byte) (val >> 8);
+        buf[used++] = (byte) val;
+        return this;
+    }
+
+    @Override
+    public Processor.Output int24(int val) {
+        byte[] buf = reserve(3);
+        buf[used++] = (byte) (val >> 16);
+        buf[used++] = (byte) (val >> 8);
+        buf[used++] = (byte) val;
+        return this;
+    }
+
+    @Override
+    public Processor.Output int32(int val) {
+        byte[] buf = reserve(4);
+        buf[used++] = (byte) (val >> 24);
+        buf[used++] = (byte) (val >> 16);
+        buf[used++] = (byte) (val >> 8);
+        buf[used++] = (byte) val;
+        return this;
+    }
+
+    /**
+     * store the bytes into the out buffer of the target connection, the out buffer must have enough free space
+     */
+    void storeInto(Connection target) {
+        assert target.getOutBuffer().free() >= used;
+        this.target = target;
+        target.runNoQuickWrite(this);
+        this.target = null;
+        clear();
+    }
+
+    @Override
+    public void run() {
+        try {
+            target.getOutBuffer().storeBytesFrom(this);
+        } catch (IOException e) {
+            // it's memory operation, should not raise error
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * copy the bytes out of the output, and prepend them to the data to send
+     *
+     * @param data data to send after the bytes in the output, may be null
+     * @return data to send
+     */
+    ByteArray prependTo(ByteArray data) {
+        ByteArray bytes = ByteArray.from(Arrays.copyOf(buf, used));
+        clear();
+        return data == null ? bytes : bytes.concat(data);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+        int n = Math.min(used - read, dst.remaining());
+        dst.put(buf, read, n);
+        read += n;
+        return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        // we do not close this channel
+    }
+}
@@ -19,6 +19,9 @@ import java.util.*;
  * the session operations will always be handled in the same event loop
  */
 public class Proxy {
+    // buffers are not shrunk below this size when the buffer budget is used up
+    private static final int MIN_SHRUNK_BUFFER_SIZE = 1024;
+
     private static void utilCloseConnection(Connection connection) {
         assert Logger.lowLevelDebug("close connection " + connection);
         connection.close();
@@ -35,6 +38,16 @@ public class Proxy {
         utilCloseConnection(session.passive);
     }
 
+    // the two connections of a session share buffers,
+    // so they should always be moved together
+    private static Connection[] utilSessionMigrationGroup(Session session) {
+        NetEventLoop loop = session.active.getEventLoop();
+        // the active connection is registered after the passive one is connected
+        if (loop == null || loop != session.passive.getEventLoop())
+            return null;
+        return new Connection[]{session.active, session.passive};
+    }
+
     class SessionServerHandler implements ServerHandler {
         @Override
         public void acceptFail(ServerHandlerContext ctx, IOException err) {
@@ -43,6 +56,12 @@ public class Proxy {
 
         @Override
         public void connection(ServerHandlerContext ctx, Connection connection) {
+            // the buffers are acquired from the budget in getIOBuffers
+            // give them back when the connection is closed
+            long bufferBytes = connection.getInBuffer().capacity() + connection.getOutBuffer().capacity();
+            BufferBudget budget = config.bufferBudget;
+            connection.addConnCloseHandler(conn -> budget.release(bufferBytes));
+
             switch (config.connGen.type()) {
                 case processor:
                     handleProcessor(connection);
@@ -74,30 +93,9 @@ public class Proxy {
                 return;
             }
 
-            ClientConnection clientConnection;
-            try {
-                clientConnection = connector.connect(
-                    new ConnectionOpts().setTimeout(config.timeout),
-                    /*switch the two buffers to make a PROXY*/connection.getOutBuffer(), connection.getInBuffer());
-            } catch (IOException e) {
-                Logger.fatal(LogType.CONN_ERROR, "make passive connection failed, maybe provided endpoint info is invalid", e);
-                // it should not happen if user provided endpoint is valid
-                // but if it happens, we close both sides
-
-                utilCloseConnectionAndReleaseBuffers(connection);
-                return;
-            }
-
-            Session session = new Session(connection, clientConnection);
-            ClientConnectionHandler handler = new SessionClientConnectionHandler(session);
-
             // we get a new event loop for handling
             // the event loop is provided by user
             // user may use the same loop as the acceptLoop
-            //
-            // and we only register the passive connection here
-            // the active connection will be registered
-            // when the passive connection is successfully established
             NetEventLoop loop;
             {
                 NetEventLoop foo = connector.loop();
@@ -111,10 +109,42 @@ public class Proxy {
             }
             if (loop == null) {
                 // the loop not exist
-                utilCloseSessionAndReleaseBuffers(session);
-                Logger.warn(LogType.NO_EVENT_LOOP, "cannot get event loop for client connection " + clientConnection);
+                utilCloseConnectionAndReleaseBuffers(connection);
+                Logger.warn(LogType.NO_EVENT_LOOP, "cannot get event loop for connection " + connection);
+                return;
+            }
+            // the connection is not registered to any loop yet
+            // hand it to the loop, the passive connection will be made on that loop
+            loop.handoff(() -> handleDirect(connection, connector, loop), () -> handoffRejected(connection));
+        }
+
+        // the loop is closed before the connection arrives
+        private void handoffRejected(Connection connection) {
+            Logger.warn(LogType.NO_EVENT_LOOP, "the loop is closed before connection " + connection + " arrives");
+            utilCloseConnectionAndReleaseBuffers(connection);
+        }
+
+        private void handleDirect(Connection connection, Connector connector, NetEventLoop loop) {
+            ClientConnection clientConnection;
+            try {
+                clientConnection = connector.connect(
+                    config.newConnectionOpts(),
+                    /*switch the two buffers to make a PROXY*/connection.getOutBuffer(), connection.getInBuffer());
+            } catch (IOException e) {
+                Logger.fatal(LogType.CONN_ERROR, "make passive connection failed, maybe provided endpoint info is invalid", e);
+                // it should not happen if user provided endpoint is valid
+                // but if it happens, we close both sides
+
+                utilCloseConnectionAndReleaseBuffers(connection);
                 return;
             }
+
+            Session session = new Session(connection, clientConnection);
+            ClientConnectionHandler handler = new SessionClientConnectionHandler(session);
+
+            // we only register the passive connection here
+            // the active connection will be registered
+            // when the passive connection is successfully established
             try {
                 loop.addClientConnection(clientConnection, null, handler);
 
@@ -182,7 +212,12 @@ public class Proxy {
                 connection.close();
                 return;
             }
+            // init the handler and register the connection on the handling loop
+            loop.handoff(() -> handleHandler(connection, pHandler, loop), () -> handoffRejected(connection));
+        }
 
+        @SuppressWarnings(/*ignore generics here*/"unchecked")
+        private void handleHandler(Connection connection, ProtocolHandler pHandler, NetEventLoop loop) {
             // create a protocol context and init the handler
             ProtocolHandlerContext pctx = new ProtocolHandlerContext(connection.id(), connection, loop.getSelectorEventLoop(), pHandler);
             pHandler.init(pctx);
@@ -225,7 +260,22 @@ public class Proxy {
 
             // retrieve an event loop
             NetEventLoop loop = config.handleLoopProvider.get();
+            if (loop == null) {
+                // the loop not exist
+                Logger.warn(LogType.NO_EVENT_LOOP, "cannot get event loop for processor");
+                utilCloseConnectionAndReleaseBuffers(frontendConnection);
+                return;
+            }
+            // register the connection on the handling loop
+            loop.handoff(() -> handleProcessor(frontendConnection, processor, topCtx, frontendSubCtx, loop),
+                () -> handoffRejected(frontendConnection));
+        }
 
+        private void handleProcessor(Connection frontendConnection,
+                                     Processor processor,
+                                     Processor.Context topCtx,
+                                     Processor.SubContext frontendSubCtx,
+                                     NetEventLoop loop) {
             // initiate the handler
             ConnectionHandler handler =
                 new ProcessorConnectionHandler(
@@ -248,13 +298,59 @@ public class Proxy {
 
         @Override
         public Tuple<RingBuffer, RingBuffer> getIOBuffers(NetworkChannel channel) {
-            RingBuffer inBuffer = RingBuffer.allocateDirect(config.inBufferSize);
-            RingBuffer outBuffer = config.connGen.type() == ConnectorGen.Type.processor
-                ? ProxyOutputRingBuffer.allocateDirect(config.outBufferSize)
-                : RingBuffer.allocateDirect(config.outBufferSize);
+            int inBufferSize = config.inBufferSize;
+            int outBufferSize = config.outBufferSize;
+            BufferBudget budget = config.bufferBudget;
+            if (!budget.tryAcquire(inBufferSize + outBufferSize)) {
+                if (config.bufferBudgetPolicy != BufferBudgetPolicy.shrink) {
+                    budget.incRefused();
+                    assert Logger.lowLevelDebug("buffer budget used up, refuse the connection " + channel);
+                    return null;
+                }
+                // halve the buffers until they fit
+                int minIn = Math.min(MIN_SHRUNK_BUFFER_SIZE, inBufferSize);
+                int minOut = Math.min(MIN_SHRUNK_BUFFER_SIZE, outBufferSize);
+                while (true) {
+                    if (inBufferSize == minIn && outBufferSize == minOut) {
+                        budget.incRefused();
+                        assert Logger.lowLevelDebug("buffer budget used up, refuse the connection " + channel);
+                        return null;
+                    }
+                    inBufferSize = Math.max(minIn, inBufferSize / 2);
+                    outBufferSize = Math.max(minOut, outBufferSize / 2);
+                    if (budget.tryAcquire(inBufferSize + outBufferSize)) {
+                        budget.incShrunk();
+                        break;
+                    }
+                }
+            }
+
+            boolean processor = config.connGen.type() == ConnectorGen.Type.processor;
+            RingBuffer inBuffer;
+            RingBuffer outBuffer;
+            if (config.elasticBuffers) {
+                inBuffer = RingBuffer.allocateElastic(inBufferSize);
+                outBuffer = processor
+                    ? ProxyOutputRingBuffer.allocateElastic(outBufferSize)
+                    : RingBuffer.allocateElastic(outBufferSize);
+            } else {
+                inBuffer = RingBuffer.allocateDirectPooled(inBufferSize);
+                outBuffer = processor
+                    ? ProxyOutputRingBuffer.allocateDirectPooled(outBufferSize)
+                    : RingBuffer.allocateDirectPooled(outBufferSize);
+            }
             return new Tuple<>(inBuffer, outBuffer);
         }
 
+        @Override
+        public void ioBuffersUnused(Tuple<RingBuffer, RingBuffer> ioBuffers) {
+            // the buffers are acquired from the budget in getIOBuffers
+            long bufferBytes = ioBuffers.left.capacity() + ioBuffers.right.capacity();
+            ioBuffers.left.clean();
+            ioBuffers.right.clean();
+            config.bufferBudget.release(bufferBytes);
+        }
+
         @Override
         public void removed(ServerHandlerContext ctx) {
             handler.serverRemoved(ctx.server);
@@ -262,7 +358,22 @@ public class Proxy {
 
         @Override
         public ConnectionOpts connectionOpts() {
-            return new ConnectionOpts().setTimeout(config.timeout);
+            return config.newConnectionOpts();
+        }
+
+        @Override
+        public int acceptBudget() {
+            return config.acceptBudget;
+        }
+
+        @Override
+        public boolean acceptPaused() {
+            if (config.bufferBudgetPolicy != BufferBudgetPolicy.queue)
+                return false;
+            if (config.bufferBudget.available() >= config.inBufferSize + config.outBufferSize)
+                return false;
+            config.bufferBudget.incPaused();
+            return true;
         }
     }
 
@@ -279,6 +390,8 @@ public class Proxy {
             // and output buffer is attached to remote read buffer
             // as a result,
             // the write and read process is automatically handled by the lib
+            // the bytes are stored into the out buffer of the passive connection
+            session.passive.incWriteFrames();
         }
 
         @Override
@@ -325,6 +438,11 @@ public class Proxy {
         public void removed(ConnectionHandlerContext ctx) {
             utilCloseSessionAndReleaseBuffers(session);
         }
+
+        @Override
+        public Connection[] migrationGroup(ConnectionHandlerContext ctx) {
+            return utilSessionMigrationGroup(session);
+        }
     }
 
     class SessionClientConnectionHandler implements ClientConnectionHandler {
@@ -357,6 +475,8 @@ public class Proxy {
         @Override
         public void readable(ConnectionHandlerContext ctx) {
             // see readable in SessionConnectHandler#readable
+            // the bytes are stored into the out buffer of the active connection
+            session.active.incWriteFrames();
         }
 
         @Override
@@ -408,11 +528,18 @@ public class Proxy {
             utilCloseSessionAndReleaseBuffers(session);
             sessions.remove(session); // remove the session record
         }
+
+        @Override
+        public Connection[] migrationGroup(ConnectionHandlerContext ctx) {
+            if (!isConnected)
+                return null;
+            return utilSessionMigrationGroup(session);
+        }
     }
 
     public final ProxyNetConfig config;
     private final ProxyEventHandler handler;
-    private final ConcurrentHashSet<Session> sessions = new ConcurrentHashSet<>();
+    private final LoopLocalRegistry<Session> sessions = new LoopLocalRegistry<>();
 
     public Proxy(ProxyNetConfig config, ProxyEventHandler handler) {
         this.handler = handler;
@@ -428,10 +555,10 @@ public class Proxy {
     }
 
     public int sessionCount() {
-        return sessions.size();
+        return sessions.count();
     }
 
     public void copySessions(Collection<? super Session> coll) {
-        coll.addAll(sessions);
+        sessions.copyTo(coll);
     }
 }
@@ -2,7 +2,9 @@ package net.cassite.vproxy.component.proxy;
 
 import net.cassite.vproxy.app.Config;
 import net.cassite.vproxy.connection.BindServer;
+import net.cassite.vproxy.connection.ConnectionOpts;
 import net.cassite.vproxy.connection.NetEventLoop;
+import net.cassite.vproxy.connection.ServerHandler;
 
 public class ProxyNetConfig {
     NetEventLoop acceptLoop;
@@ -13,6 +15,13 @@ public class ProxyNetConfig {
 
     int inBufferSize = 128;
     int outBufferSize = 128;
+    int acceptBudget = ServerHandler.DEFAULT_ACCEPT_BUDGET;
+    boolean elasticBuffers = false;
+    int corkThreshold = 0;
+    int readBudget = 0;
+    boolean adaptiveRead = false;
+    BufferBudget bufferBudget = BufferBudget.global;
+    BufferBudgetPolicy bufferBudgetPolicy = BufferBudgetPolicy.refuse;
 
     public ProxyNetConfig setAcceptLoop(NetEventLoop acceptLoop) {
         this.acceptLoop = acceptLoop;
@@ -44,6 +53,58 @@ public class ProxyNetConfig {
         return this;
     }
 
+    public ProxyNetConfig setAcceptBudget(int acceptBudget) {
+        this.acceptBudget = acceptBudget;
+        return this;
+    }
+
+    /**
+     * when enabled, connection buffers hold no memory at first,
+     * grow up to the in/out buffer size when needed, and release the memory when idle
+     */
+    public ProxyNetConfig setElasticBuffers(boolean elasticBuffers) {
+        this.elasticBuffers = elasticBuffers;
+        return this;
+    }
+
+    /**
+     * when positive, writes of the connections are corked,
+     * see {@link ConnectionOpts#setCorkThreshold(int)}
+     */
+    public ProxyNetConfig setCorkThreshold(int corkThreshold) {
+        this.corkThreshold = corkThreshold;
+        return this;
+    }
+
+    /**
+     * see {@link ConnectionOpts#setReadBudget(int)}
+     */
+    public ProxyNetConfig setReadBudget(int readBudget) {
+        this.readBudget = readBudget;
+        return this;
+    }
+
+    /**
+     * see {@link ConnectionOpts#setAdaptiveRead(boolean)}
+     */
+    public ProxyNetConfig setAdaptiveRead(boolean adaptiveRead) {
+        this.adaptiveRead = adaptiveRead;
+        return this;
+    }
+
+    /**
+     * the buffers of accepted connections are accounted in the budget
+     */
+    public ProxyNetConfig setBufferBudget(BufferBudget bufferBudget) {
+        this.bufferBudget = bufferBudget;
+        return this;
+    }
+
+    public ProxyNetConfig setBufferBudgetPolicy(BufferBudgetPolicy bufferBudgetPolicy) {
+        this.bufferBudgetPolicy = bufferBudgetPolicy;
+        return this;
+    }
+
     public NetEventLoop getAcceptLoop() {
         return acceptLoop;
     }
@@ -68,6 +129,43 @@ public class ProxyNetConfig {
         return outBufferSize;
     }
 
+    public int getAcceptBudget() {
+        return acceptBudget;
+    }
+
+    public boolean isElasticBuffers() {
+        return elasticBuffers;
+    }
+
+    public int getCorkThreshold() {
+        return corkThreshold;
+    }
+
+    public int getReadBudget() {
+        return readBudget;
+    }
+
+    public boolean isAdaptiveRead() {
+        return adaptiveRead;
+    }
+
+    // options of the connections made by the proxy
+    ConnectionOpts newConnectionOpts() {
+        return new ConnectionOpts()
+            .setTimeout(timeout)
+            .setCorkThreshold(corkThreshold)
+            .setReadBudget(readBudget)
+            .setAdaptiveRead(adaptiveRead);
+    }
+
+    public BufferBudget getBufferBudget() {
+        return bufferBudget;
+    }
+
+    public BufferBudgetPolicy getBufferBudgetPolicy() {
+        return bufferBudgetPolicy;
+    }
+
     public int getTimeout() {
         return timeout;
     }
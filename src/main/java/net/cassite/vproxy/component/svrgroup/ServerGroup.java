@@ -12,8 +12,8 @@ import net.cassite.vproxy.component.exception.ClosedException;
 import net.cassite.vproxy.component.exception.NotFoundException;
 import net.cassite.vproxy.connection.ConnCloseHandler;
 import net.cassite.vproxy.connection.Connection;
-import net.cassite.vproxy.connection.NetFlowRecorder;
-import net.cassite.vproxy.util.ConcurrentHashSet;
+import net.cassite.vproxy.connection.LoopLocalRegistry;
+import net.cassite.vproxy.connection.TrafficCounter;
 import net.cassite.vproxy.util.LogType;
 import net.cassite.vproxy.util.Logger;
 import net.cassite.vproxy.util.Utils;
@@ -25,12 +25,11 @@ import java.util.*;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class ServerGroup {
-    public class ServerHandle implements EventLoopAttach, NetFlowRecorder, ConnCloseHandler {
+    public class ServerHandle implements EventLoopAttach, ConnCloseHandler {
         class ServerHealthCheckHandler implements HealthCheckHandler {
             @Override
             public void up(SocketAddress remote) {
@@ -113,10 +112,9 @@ public class ServerGroup {
         private boolean logicDelete = false; // if true, it will not be checked for dup alias nor saved to cfg file
         TCPHealthCheckClient healthCheckClient;
 
-        private final LongAdder fromRemoteBytes = new LongAdder();
-        private final LongAdder toRemoteBytes = new LongAdder();
+        public final TrafficCounter traffic = new TrafficCounter();
 
-        private ConcurrentHashSet<Connection> connMap = new ConcurrentHashSet<>();
+        private final LoopLocalRegistry<Connection> connections = new LoopLocalRegistry<>();
 
         public Object data; // the data field, not used by this lib
 
@@ -134,40 +132,30 @@ public class ServerGroup {
         }
 
         // --- START statistics ---
-        @Override
-        public void incToRemoteBytes(long bytes) {
-            toRemoteBytes.add(bytes);
-        }
-
-        @Override
-        public void incFromRemoteBytes(long bytes) {
-            fromRemoteBytes.add(bytes);
-        }
-
         public long getToRemoteBytes() {
-            return toRemoteBytes.longValue();
+            return traffic.getToRemoteBytes();
         }
 
         public long getFromRemoteBytes() {
-            return fromRemoteBytes.longValue();
+            return traffic.getFromRemoteBytes();
         }
         // --- END statistics ---
 
         @Override
         public void onConnClose(Connection conn) {
-            connMap.remove(conn);
+            connections.remove(conn);
         }
 
         void attachConnection(Connection conn) {
-            connMap.add(conn);
+            connections.add(conn);
         }
 
         public int connectionCount() {
-            return connMap.size();
+            return connections.count();
         }
 
         public void copyConnections(Collection<? super Connection> c) {
-            c.addAll(connMap);
+            connections.copyTo(c);
         }
 
         public boolean isLogicDelete() {
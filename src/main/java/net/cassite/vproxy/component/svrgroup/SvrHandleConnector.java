@@ -18,7 +18,7 @@ public class SvrHandleConnector extends Connector {
     @Override
     public ClientConnection connect(ConnectionOpts opts, RingBuffer in, RingBuffer out) throws IOException {
         ClientConnection conn = super.connect(opts, in, out);
-        conn.addNetFlowRecorder(serverHandle);
+        conn.addTrafficCounter(serverHandle.traffic);
         serverHandle.attachConnection(conn);
         conn.addConnCloseHandler(serverHandle);
         return conn;
@@ -1,9 +1,5 @@
-package net.cassite.vproxyx.websocks;
+package net.cassite.vproxy.connection;
 
-import net.cassite.vproxy.connection.ClientConnection;
-import net.cassite.vproxy.connection.ConnectionOpts;
-import net.cassite.vproxy.connection.Connector;
-import net.cassite.vproxy.connection.NetEventLoop;
 import net.cassite.vproxy.util.RingBuffer;
 
 import java.io.IOException;
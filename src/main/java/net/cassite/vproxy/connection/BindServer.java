@@ -9,16 +9,14 @@ import java.net.InetSocketAddress;
 import java.net.StandardSocketOptions;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.ServerSocketChannel;
-import java.util.concurrent.atomic.LongAdder;
 
-public class BindServer implements NetFlowRecorder {
+public class BindServer {
     public final InetSocketAddress bind;
     private final String _id;
     public final SelectableChannel channel;
 
     // statistics
-    private final LongAdder fromRemoteBytes = new LongAdder();
-    private final LongAdder toRemoteBytes = new LongAdder();
+    public final TrafficCounter traffic = new TrafficCounter();
     private long historyAcceptedConnectionCount = 0; // no concurrency when accepting connections
 
     NetEventLoop _eventLoop = null;
@@ -56,21 +54,11 @@ public class BindServer implements NetFlowRecorder {
 
     // --- START statistics ---
     public long getFromRemoteBytes() {
-        return fromRemoteBytes.longValue();
+        return traffic.getFromRemoteBytes();
     }
 
     public long getToRemoteBytes() {
-        return toRemoteBytes.longValue();
-    }
-
-    @Override
-    public void incFromRemoteBytes(long bytes) {
-        fromRemoteBytes.add(bytes);
-    }
-
-    @Override
-    public void incToRemoteBytes(long bytes) {
-        toRemoteBytes.add(bytes);
+        return traffic.getToRemoteBytes();
     }
 
     public void incHistoryAcceptedConnectionCount() {
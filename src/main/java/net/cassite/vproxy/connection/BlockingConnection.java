@@ -0,0 +1,314 @@
+package net.cassite.vproxy.connection;
+
+import net.cassite.vproxy.selector.RejectableTask;
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.Logger;
+import net.cassite.vproxy.util.RingBuffer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A blocking style api of a connection, for code running on its own thread instead of the event loop.<br>
+ * The connection is still handled by the NetEventLoop:
+ * each operation is posted to the loop and the calling thread is parked,
+ * then the loop unparks the thread when the operation is done.<br>
+ * The thread is parked with {@link LockSupport}, so it can be a virtual thread on a newer jdk,
+ * in which case a blocking connection only costs a small stack instead of a platform thread.<br>
+ * When the blocking part (e.g. handshaking) is done, call {@link #detach()} and hand the connection
+ * to the proxy lib (see {@link AlreadyConnectedConnector}),
+ * then the data is transferred between ring buffers on the event loop without copying.<br>
+ * Only one thread can operate a BlockingConnection at the same time,
+ * and the methods must not be called on the event loop thread.
+ */
+public class BlockingConnection {
+    private static final int OP_NONE = 0;
+    private static final int OP_CONNECT = 1;
+    private static final int OP_READ = 2;
+    private static final int OP_WRITE = 3;
+
+    private final NetEventLoop loop;
+    private final Connection connection;
+    private final Handler handler = new Handler();
+
+    // the blocking thread
+    private Thread waiter;
+    // set by the loop thread when the operation is done
+    // result and error are written before this field, and read after it
+    private volatile boolean done;
+    private int result;
+    private IOException error;
+
+    // fields below are only accessed on the loop thread
+    private int op = OP_NONE;
+    private ByteArrayChannel chnl; // the channel of read/write operation
+    private boolean eof = false;
+    private IOException failure; // the connection is not usable after failure is set
+    private boolean detached = false;
+
+    private BlockingConnection(NetEventLoop loop, Connection connection) {
+        this.loop = loop;
+        this.connection = connection;
+    }
+
+    /**
+     * connect to the remote address and block until connected
+     *
+     * @param loop the loop to handle the connection
+     * @return the connected connection
+     * @throws IOException connecting failed
+     */
+    public static BlockingConnection connect(NetEventLoop loop, InetSocketAddress remote, ConnectionOpts opts,
+                                             RingBuffer inBuffer, RingBuffer outBuffer) throws IOException {
+        ClientConnection conn = ClientConnection.create(remote, opts, inBuffer, outBuffer);
+        BlockingConnection bc = new BlockingConnection(loop, conn);
+        try {
+            bc.await(OP_CONNECT, null, () -> {
+                try {
+                    loop.addClientConnection(conn, null, bc.handler);
+                } catch (IOException e) {
+                    bc.fail(e);
+                }
+            });
+        } catch (IOException e) {
+            conn.close();
+            throw e;
+        }
+        return bc;
+    }
+
+    /**
+     * register a connection (e.g. an accepted connection) which is not handled by any loop
+     *
+     * @param loop the loop to handle the connection
+     * @throws IOException registering failed
+     */
+    public static BlockingConnection wrap(NetEventLoop loop, Connection connection) throws IOException {
+        BlockingConnection bc = new BlockingConnection(loop, connection);
+        loop.addConnection(connection, null, bc.handler);
+        return bc;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * block until some bytes are read into the channel
+     *
+     * @param dst the channel to store bytes
+     * @return bytes read, or -1 if the remote write is closed and all bytes are read
+     * @throws IOException the connection got exception or is closed
+     */
+    public int read(ByteArrayChannel dst) throws IOException {
+        if (dst.free() == 0)
+            return 0;
+        return await(OP_READ, dst, this::tryRead);
+    }
+
+    /**
+     * block until the channel is full
+     *
+     * @throws EOFException the remote write is closed before enough bytes are read
+     */
+    public void readFully(ByteArrayChannel dst) throws IOException {
+        while (dst.free() != 0) {
+            if (read(dst) < 0)
+                throw new EOFException("remote closed when reading " + connection);
+        }
+    }
+
+    /**
+     * block until all bytes in the channel are stored into the out buffer of the connection
+     *
+     * @param src the channel to read bytes from
+     * @throws IOException the connection got exception or is closed
+     */
+    public void write(ByteArrayChannel src) throws IOException {
+        if (src.used() == 0)
+            return;
+        await(OP_WRITE, src, this::tryWrite);
+    }
+
+    /**
+     * remove the connection from the loop, the BlockingConnection cannot be used after detaching.<br>
+     * the connection can be handed to the proxy lib or registered with other handlers
+     *
+     * @return the connection
+     * @throws IOException the connection already failed or closed
+     */
+    public Connection detach() throws IOException {
+        await(OP_NONE, null, () -> {
+            if (failure != null) {
+                fail(failure);
+                return;
+            }
+            detached = true;
+            loop.removeConnection(connection);
+            finish(0);
+        });
+        return connection;
+    }
+
+    public void close() {
+        loop.getSelectorEventLoop().runOnLoop(connection::close);
+    }
+
+    private int await(int op, ByteArrayChannel chnl, Runnable onLoop) throws IOException {
+        SelectorEventLoop sLoop = loop.getSelectorEventLoop();
+        if (Thread.currentThread() == sLoop.runningThread)
+            throw new IllegalStateException("cannot block the event loop thread");
+        done = false;
+        error = null;
+        waiter = Thread.currentThread();
+        // the fields are visible to the loop thread because they are written before posting the task
+        sLoop.nextTick(new RejectableTask() {
+            @Override
+            protected void doRun() {
+                if (detached) {
+                    fail(new IOException("the connection is detached"));
+                    return;
+                }
+                BlockingConnection.this.op = op;
+                BlockingConnection.this.chnl = chnl;
+                onLoop.run();
+            }
+
+            @Override
+            protected void rejected() {
+                // the loop is not running anymore, so it's safe to set the state here
+                fail(new IOException("loop closed"));
+            }
+        });
+        boolean interrupted = false;
+        while (!done) {
+            LockSupport.park(this);
+            // the operation cannot be cancelled once posted, keep waiting,
+            // the loop will finally set the state because closing the connection or the loop fails the operation.
+            // clear the flag, otherwise park() returns immediately, and set it back when done
+            if (Thread.interrupted()) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        waiter = null;
+        if (error != null)
+            throw error;
+        return result;
+    }
+
+    // the following methods are called on the loop thread
+
+    private void finish(int result) {
+        op = OP_NONE;
+        chnl = null;
+        this.result = result;
+        done = true;
+        LockSupport.unpark(waiter);
+    }
+
+    private void fail(IOException err) {
+        op = OP_NONE;
+        chnl = null;
+        this.error = err;
+        done = true;
+        LockSupport.unpark(waiter);
+    }
+
+    private void tryRead() {
+        RingBuffer in = connection.getInBuffer();
+        if (in.used() != 0) {
+            finish(in.writeTo(chnl));
+        } else if (eof || connection.remoteClosed) {
+            finish(-1);
+        } else if (failure != null) {
+            fail(failure);
+        }
+        // otherwise wait for the readable event
+    }
+
+    private void tryWrite() {
+        if (failure != null) {
+            fail(failure);
+            return;
+        }
+        if (eof || connection.isClosed()) {
+            fail(new IOException("the connection is closed " + connection));
+            return;
+        }
+        ByteArrayChannel src = chnl;
+        if (connection.getOutBuffer().storeBytesFrom(src) > 0) {
+            connection.incWriteFrames();
+        }
+        // storing may flush the buffer and fire the writable event,
+        // in which the operation may already be finished
+        if (op == OP_WRITE && src.used() == 0) {
+            finish(0);
+        }
+        // otherwise wait for the writable event
+    }
+
+    private class Handler implements ClientConnectionHandler {
+        @Override
+        public void connected(ClientConnectionHandlerContext ctx) {
+            if (op == OP_CONNECT) {
+                finish(0);
+            }
+        }
+
+        @Override
+        public void readable(ConnectionHandlerContext ctx) {
+            if (op == OP_READ) {
+                tryRead();
+            }
+        }
+
+        @Override
+        public void writable(ConnectionHandlerContext ctx) {
+            if (op == OP_WRITE) {
+                tryWrite();
+            }
+        }
+
+        @Override
+        public void exception(ConnectionHandlerContext ctx, IOException err) {
+            assert Logger.lowLevelDebug("blocking connection " + connection + " got exception " + err);
+            failure = err;
+            connection.close();
+            if (op != OP_NONE) {
+                fail(err);
+            }
+        }
+
+        @Override
+        public void closed(ConnectionHandlerContext ctx) {
+            // the bytes left in the in buffer can still be read
+            eof = true;
+            if (op == OP_READ) {
+                tryRead();
+            } else if (op != OP_NONE) {
+                fail(new IOException("the connection is closed " + connection));
+            }
+        }
+
+        @Override
+        public void removed(ConnectionHandlerContext ctx) {
+            if (detached)
+                return;
+            // removed by closing the connection or the loop
+            if (failure == null) {
+                failure = new IOException("the connection is removed from loop " + connection);
+            }
+            if (op == OP_READ) {
+                tryRead();
+            } else if (op != OP_NONE) {
+                fail(failure);
+            }
+        }
+    }
+}
@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -61,14 +62,23 @@ public class Connection implements NetFlowRecorder {
     // data is directly sent to channel
     // reduce the chance of setting OP_WRITE
     // and may gain some performance
+    // when corked, the write is delayed to the end of the loop iteration,
+    // so data stored in the same iteration is sent with one write
     class OutBufferETHandler implements RingBufferETHandler {
         @Override
         public void readableET() {
             assert Logger.lowLevelNetDebug("readableET triggered " + Connection.this);
             NetEventLoop eventLoop = _eventLoop;
-            if (!closed && eventLoop != null) {
+            // the fields are released when closing, which might happen in the user callbacks
+            ConnectionHandlerContext cctx = _cctx;
+            if (!closed && eventLoop != null && cctx != null) {
                 // the buffer is readable means the channel can write data
-                NetEventLoopUtils.resetCloseTimeout(_cctx);
+                NetEventLoopUtils.resetCloseTimeout(cctx);
+
+                if (corkThreshold > 0 && eventLoop.cork(Connection.this)) {
+                    assert Logger.lowLevelDebug("corked, the out buffer will be flushed at the end of the loop iteration " + channel);
+                    return;
+                }
 
                 boolean addWriteOnLoop = true;
                 if (noQuickWrite) {
@@ -80,44 +90,7 @@ public class Connection implements NetFlowRecorder {
                     // all operations about the
                     // buffer should be handled in
                     // the same thread
-
-                    if (getOutBuffer().free() != 0) {
-                        // try to flush buffer in user code
-                        // (we assume user code preserves a buffer to write)
-                        // (since ringBuffer will not extend)
-                        // (which is unnecessary for an lb)
-                        _cctx.handler.writable(_cctx);
-                    }
-
-                    try {
-                        int write = getOutBuffer().writeTo(channel);
-                        assert Logger.lowLevelDebug("wrote " + write + " bytes to " + Connection.this);
-                        if (write > 0) {
-                            incToRemoteBytes(write); // record net flow, it's writing, so is "to remote"
-                            // NOTE: should also record in NetEventLoop writable event
-                        }
-                        if (getOutBuffer().used() == 0) {
-                            // have nothing to write now
-
-                            // at this time, we let user write again
-                            // in case there are still some bytes in
-                            // user buffer
-                            _cctx.handler.writable(_cctx);
-
-                            if (getOutBuffer().used() == 0) {
-                                // outBuffer still empty
-                                // do not add OP_WRITE
-                                assert Logger.lowLevelDebug("the out buffer is still empty, do NOT add op_write. " + channel);
-                                addWriteOnLoop = false;
-                            }
-                            // we do not write again if got any bytes
-                            // let the NetEventLoop handle
-                        }
-                    } catch (IOException e) {
-                        // we ignore the exception
-                        // it should be handled in NetEventLoop
-                        assert Logger.lowLevelDebug("got exception in quick write: " + e);
-                    }
+                    addWriteOnLoop = quickWrite(eventLoop, cctx);
                 }
                 if (addWriteOnLoop) {
                     assert Logger.lowLevelDebug("add OP_WRITE for channel " + channel);
@@ -133,6 +106,83 @@ public class Connection implements NetFlowRecorder {
         }
     }
 
+    // write the out buffer to the channel
+    // return true if OP_WRITE should be added
+    private boolean quickWrite(NetEventLoop eventLoop, ConnectionHandlerContext cctx) {
+        if (getOutBuffer().free() != 0) {
+            // try to flush buffer in user code
+            // (we assume user code preserves a buffer to write)
+            // (since ringBuffer will not extend)
+            // (which is unnecessary for an lb)
+            cctx.handler.writable(cctx);
+        }
+
+        try {
+            int write = getOutBuffer().writeTo(channel);
+            eventLoop.incWriteCalls();
+            assert Logger.lowLevelDebug("wrote " + write + " bytes to " + Connection.this);
+            if (write > 0) {
+                incToRemoteBytes(write); // record net flow, it's writing, so is "to remote"
+                // NOTE: should also record in NetEventLoop writable event
+            }
+            if (getOutBuffer().used() == 0) {
+                // have nothing to write now
+
+                // at this time, we let user write again
+                // in case there are still some bytes in
+                // user buffer
+                cctx.handler.writable(cctx);
+
+                if (getOutBuffer().used() == 0) {
+                    // outBuffer still empty
+                    // do not add OP_WRITE
+                    assert Logger.lowLevelDebug("the out buffer is still empty, do NOT add op_write. " + channel);
+                    return false;
+                }
+                // we do not write again if got any bytes
+                // let the NetEventLoop handle
+            }
+        } catch (IOException e) {
+            // we ignore the exception
+            // it should be handled in NetEventLoop
+            assert Logger.lowLevelDebug("got exception in quick write: " + e);
+        }
+        return true;
+    }
+
+    // called by NetEventLoop at the end of the loop iteration, or when the out buffer crosses the threshold
+    void flushCorked() {
+        corked = false;
+        NetEventLoop eventLoop = _eventLoop;
+        ConnectionHandlerContext cctx = _cctx;
+        if (closed || eventLoop == null || cctx == null) {
+            return;
+        }
+        if (getOutBuffer().used() == 0) {
+            return; // nothing to write
+        }
+        if (!channel.isConnected()) {
+            // OP_WRITE will be added when connected
+            return;
+        }
+        assert Logger.lowLevelDebug("flush corked out buffer for channel " + channel);
+        if (quickWrite(eventLoop, cctx)) {
+            assert Logger.lowLevelDebug("add OP_WRITE for channel " + channel);
+            eventLoop.getSelectorEventLoop().addOps(channel, SelectionKey.OP_WRITE);
+        }
+    }
+
+    boolean overCorkThreshold() {
+        RingBuffer out = getOutBuffer();
+        return out.used() >= corkThreshold || out.free() == 0;
+    }
+
+    private static final TrafficCounter[] EMPTY_TRAFFIC_COUNTERS = new TrafficCounter[0];
+    private static final TrafficCounter.Cell[] EMPTY_TRAFFIC_CELLS = new TrafficCounter.Cell[0];
+
+    static final int MIN_READ_SIZE = 64;
+    static final int INITIAL_READ_SIZE = 2048;
+
     public final InetSocketAddress remote;
     protected InetSocketAddress local; // may be modified if not connected (in this case, local will be null)
     protected String _id; // may be modified if local was null
@@ -142,13 +192,28 @@ public class Connection implements NetFlowRecorder {
     TimerEvent closeTimeout; // the connection should be released after a few minutes if no data at all
     long lastTimestamp;
     public final int timeout;
+    // writes are corked and flushed at the end of the loop iteration,
+    // or when the out buffer holds more bytes than the threshold, 0 means not corked
+    public final int corkThreshold;
+    boolean corked = false; // waiting for flushing, only accessed on the loop thread
+    // max bytes read from the channel in one loop iteration, 0 means read only once
+    public final int readBudget;
+    // the size of each read is learned from the previous reads, see nextReadSize() and recordRead()
+    public final boolean adaptiveRead;
+    private int readSize = INITIAL_READ_SIZE; // only accessed on the loop thread
+    private boolean readSizeDecreasing = false; // the last read was much smaller than the read size
 
     // statistics fields
     // the connection is handled in a single thread, so no need to synchronize
     private long toRemoteBytes = 0; // out bytes
     private long fromRemoteBytes = 0; // in bytes
-    // since it seldom (in most cases: never) changes, so let's just use a copy on write list
-    private final List<NetFlowRecorder> netFlowRecorders = new CopyOnWriteArrayList<>();
+    private long toRemotePackets = 0; // writes with data
+    private long fromRemotePackets = 0; // reads with data
+    // counters of the bind server or the backend server, and the cells of them for the current loop
+    // only accessed on the loop thread
+    private TrafficCounter[] trafficCounters = EMPTY_TRAFFIC_COUNTERS;
+    private TrafficCounter.Cell[] trafficCells = EMPTY_TRAFFIC_CELLS;
+    private NetEventLoop trafficCellsLoop = null;
     private final List<ConnCloseHandler> connCloseHandlers = new CopyOnWriteArrayList<>();
 
     private /*only modified in UNSAFE methods*/ RingBuffer inBuffer;
@@ -171,6 +236,9 @@ public class Connection implements NetFlowRecorder {
 
         this.channel = channel;
         this.timeout = opts.timeout;
+        this.corkThreshold = opts.corkThreshold;
+        this.readBudget = opts.readBudget;
+        this.adaptiveRead = opts.adaptiveRead;
         this.inBuffer = inBuffer;
         this.outBuffer = outBuffer;
         this.remote = remote;
@@ -186,6 +254,41 @@ public class Connection implements NetFlowRecorder {
         // if buffer did not wrote all content, simply ignore the left part
     }
 
+    // how many bytes to read from the channel
+    int nextReadSize(int free) {
+        if (!adaptiveRead)
+            return free;
+        return Math.min(readSize, free);
+    }
+
+    // learn the read size from the result of a read
+    // double the size when the read filled the attempt,
+    // and halve it when two consecutive reads are smaller than half of it
+    void recordRead(int read, int attempt) {
+        if (!adaptiveRead)
+            return;
+        if (read == attempt && attempt == readSize) {
+            readSize = Math.min(readSize << 1, getInBuffer().capacity());
+            readSizeDecreasing = false;
+        } else if (read <= readSize >> 1) {
+            if (readSizeDecreasing) {
+                readSize = Math.max(readSize >> 1, MIN_READ_SIZE);
+                readSizeDecreasing = false;
+            } else {
+                readSizeDecreasing = true;
+            }
+        } else {
+            readSizeDecreasing = false;
+        }
+    }
+
+    /**
+     * @return the size of the next read learned from the previous reads, only meaningful when adaptiveRead is enabled
+     */
+    public int getReadSize() {
+        return readSize;
+    }
+
     // --- START statistics ---
     public long getFromRemoteBytes() {
         return fromRemoteBytes;
@@ -195,26 +298,68 @@ public class Connection implements NetFlowRecorder {
         return toRemoteBytes;
     }
 
+    public long getFromRemotePackets() {
+        return fromRemotePackets;
+    }
+
+    public long getToRemotePackets() {
+        return toRemotePackets;
+    }
+
     @Override
     public void incFromRemoteBytes(long bytes) {
         fromRemoteBytes += bytes;
-        for (NetFlowRecorder nfr : netFlowRecorders) {
-            nfr.incFromRemoteBytes(bytes);
+        ++fromRemotePackets;
+        NetEventLoop eventLoop = _eventLoop;
+        if (eventLoop != null) {
+            eventLoop.incTrafficBytes(bytes);
+        }
+        TrafficCounter.Cell[] cells = trafficCells(eventLoop);
+        //noinspection ForLoopReplaceableByForEach
+        for (int i = 0; i < cells.length; ++i) {
+            cells[i].incFromRemoteBytes(bytes);
         }
     }
 
     @Override
     public void incToRemoteBytes(long bytes) {
         toRemoteBytes += bytes;
-        for (NetFlowRecorder nfr : netFlowRecorders) {
-            nfr.incToRemoteBytes(bytes);
+        ++toRemotePackets;
+        NetEventLoop eventLoop = _eventLoop;
+        if (eventLoop != null) {
+            eventLoop.incTrafficBytes(bytes);
+        }
+        TrafficCounter.Cell[] cells = trafficCells(eventLoop);
+        //noinspection ForLoopReplaceableByForEach
+        for (int i = 0; i < cells.length; ++i) {
+            cells[i].incToRemoteBytes(bytes);
+        }
+    }
+
+    // the cells are retrieved again when the connection is handled by another loop
+    private TrafficCounter.Cell[] trafficCells(NetEventLoop eventLoop) {
+        if (trafficCellsLoop != eventLoop) {
+            for (int i = 0; i < trafficCounters.length; ++i) {
+                trafficCells[i] = trafficCounters[i].cell(eventLoop);
+            }
+            trafficCellsLoop = eventLoop;
         }
+        return trafficCells;
     }
     // --- END statistics ---
 
     // NOTE: this is not thread safe
-    public void addNetFlowRecorder(NetFlowRecorder nfr) {
-        netFlowRecorders.add(nfr);
+    public void addTrafficCounter(TrafficCounter counter) {
+        TrafficCounter[] counters = Arrays.copyOf(trafficCounters, trafficCounters.length + 1);
+        counters[counters.length - 1] = counter;
+        trafficCounters = counters;
+        NetEventLoop eventLoop = _eventLoop;
+        TrafficCounter.Cell[] cells = new TrafficCounter.Cell[counters.length];
+        for (int i = 0; i < counters.length; ++i) {
+            cells[i] = counters[i].cell(eventLoop);
+        }
+        trafficCells = cells;
+        trafficCellsLoop = eventLoop;
     }
 
     // NOTE: this is not thread safe
@@ -237,30 +382,37 @@ public class Connection implements NetFlowRecorder {
     }
 
     // make it synchronized to prevent inside fields inconsistent
-    public synchronized void close() {
-        if (closed)
-            return; // do not close again if already closed
-
-        closed = true;
-
-        // actually there's no need to clear the NetFlowRecorders
-        // because the connection should not be traced in gc root after it's closed
-        // (if you correctly handled all events)
-        // but here we clear it since it doesn't hurt
-        netFlowRecorders.clear();
-
-        // clear close handler here
-        for (ConnCloseHandler h : connCloseHandlers)
-            h.onConnClose(this);
-        connCloseHandlers.clear();
-
-        // no need to check protocol
-        // removing a non-existing element from a collection is safe
-        getInBuffer().removeHandler(inBufferETHandler);
-        getOutBuffer().removeHandler(outBufferETHandler);
-
-        NetEventLoop eventLoop = _eventLoop;
-        _eventLoop = null;
+    public void close() {
+        NetEventLoop eventLoop;
+        synchronized (this) {
+            if (closed)
+                return; // do not close again if already closed
+
+            closed = true;
+
+            // actually there's no need to clear the traffic counters
+            // because the connection should not be traced in gc root after it's closed
+            // (if you correctly handled all events)
+            // but here we clear it since it doesn't hurt
+            trafficCounters = EMPTY_TRAFFIC_COUNTERS;
+            trafficCells = EMPTY_TRAFFIC_CELLS;
+
+            // clear close handler here
+            for (ConnCloseHandler h : connCloseHandlers)
+                h.onConnClose(this);
+            connCloseHandlers.clear();
+
+            // no need to check protocol
+            // removing a non-existing element from a collection is safe
+            getInBuffer().removeHandler(inBufferETHandler);
+            getOutBuffer().removeHandler(outBufferETHandler);
+
+            eventLoop = _eventLoop;
+            _eventLoop = null;
+        }
+        // remove from the loop without holding the lock
+        // the `removed` callback may close other connections,
+        // which may be closing this connection in another thread
         if (eventLoop != null) {
             eventLoop.removeConnection(this);
         }
@@ -286,6 +438,10 @@ public class Connection implements NetFlowRecorder {
         return _eventLoop;
     }
 
+    ConnectionHandlerContext getHandlerContext() {
+        return _cctx;
+    }
+
     public String id() {
         return _id;
     }
@@ -323,7 +479,20 @@ public class Connection implements NetFlowRecorder {
         this.outBuffer = out;
     }
 
+    /**
+     * record a piece of data stored into the out buffer,
+     * it should be called by the code storing data into the out buffer,
+     * because the out buffer only notifies when it turns from empty to non-empty
+     */
+    public void incWriteFrames() {
+        NetEventLoop eventLoop = _eventLoop;
+        if (eventLoop != null) {
+            eventLoop.incWriteFrames();
+        }
+    }
+
     public void runNoQuickWrite(Runnable r) {
+        incWriteFrames();
         noQuickWrite = true;
         r.run();
         noQuickWrite = false;
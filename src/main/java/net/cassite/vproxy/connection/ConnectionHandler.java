@@ -12,4 +12,11 @@ public interface ConnectionHandler {
     void closed(ConnectionHandlerContext ctx);
 
     void removed(ConnectionHandlerContext ctx);
+
+    // the connections which should be moved together with ctx.connection to another loop (including itself)
+    // return null if the connection cannot be moved
+    // see NetEventLoop#migrate
+    default Connection[] migrationGroup(ConnectionHandlerContext ctx) {
+        return null;
+    }
 }
@@ -4,6 +4,9 @@ import net.cassite.vproxy.app.Config;
 
 public class ConnectionOpts {
     int timeout = Config.tcpTimeout;
+    int corkThreshold = 0;
+    int readBudget = 0;
+    boolean adaptiveRead = false;
 
     public static ConnectionOpts getDefault() {
         return DefaultConnectionOpts.defaultConnectionOpts;
@@ -16,6 +19,35 @@ public class ConnectionOpts {
         this.timeout = timeout;
         return this;
     }
+
+    /**
+     * when set to a positive value, the data stored into the out buffer is not written immediately,
+     * it's flushed at the end of the loop iteration,
+     * or when the out buffer holds more bytes than the threshold
+     */
+    public ConnectionOpts setCorkThreshold(int corkThreshold) {
+        this.corkThreshold = corkThreshold;
+        return this;
+    }
+
+    /**
+     * when set to a positive value, the channel is read repeatedly in one loop iteration,
+     * until the budget is used up, the channel is drained, or the in buffer is full.
+     * when set to 0, the channel is read only once in one loop iteration
+     */
+    public ConnectionOpts setReadBudget(int readBudget) {
+        this.readBudget = readBudget;
+        return this;
+    }
+
+    /**
+     * when enabled, each read is limited to a size learned from the previous reads,
+     * instead of the whole free space of the in buffer
+     */
+    public ConnectionOpts setAdaptiveRead(boolean adaptiveRead) {
+        this.adaptiveRead = adaptiveRead;
+        return this;
+    }
 }
 
 final class DefaultConnectionOpts extends ConnectionOpts {
@@ -28,4 +60,19 @@ final class DefaultConnectionOpts extends ConnectionOpts {
     public ConnectionOpts setTimeout(int timeout) {
         throw new UnsupportedOperationException();
     }
+
+    @Override
+    public ConnectionOpts setCorkThreshold(int corkThreshold) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ConnectionOpts setReadBudget(int readBudget) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ConnectionOpts setAdaptiveRead(boolean adaptiveRead) {
+        throw new UnsupportedOperationException();
+    }
 }
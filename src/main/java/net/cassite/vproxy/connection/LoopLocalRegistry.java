@@ -0,0 +1,198 @@
+package net.cassite.vproxy.connection;
+
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.util.ThreadSafe;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+/**
+ * A registry of elements added and removed by many event loops,
+ * e.g. the sessions of a proxy, or the connections to a backend server.<br>
+ * Each event loop records elements in its own shard, a plain set only locked by the loop itself,
+ * so accepting and closing on different loops never write the same memory.
+ * The shard lock is only contended when listing, or when an element is removed by another thread.<br>
+ * The count is aggregated from the counts of the shards,
+ * and the list is merged from the shards when retrieved.<br>
+ * An element may be removed on a different loop from the one it's added on (e.g. it's migrated),
+ * in which case the element is looked up in other shards.<br>
+ * When a loop is closed, the elements left in its shard are moved to the shard of null,
+ * and the shard is dropped when the shards are checked next time, so the registry does not keep closed loops.
+ */
+public class LoopLocalRegistry<E> {
+    private static final Shard<?>[] EMPTY_SHARDS = new Shard<?>[0];
+
+    private static final class Shard<E> {
+        private final SelectorEventLoop loop;
+        private final HashSet<E> set = new HashSet<>();
+        // only updated when holding the lock
+        private volatile int count = 0;
+        // set when the elements are moved out of the shard, nothing can be added after that
+        private boolean retired = false;
+
+        private Shard(SelectorEventLoop loop) {
+            this.loop = loop;
+        }
+
+        // return false if the shard is retired
+        private synchronized boolean add(E e) {
+            if (retired)
+                return false;
+            if (set.add(e)) {
+                //noinspection NonAtomicOperationOnVolatileField
+                ++count;
+            }
+            return true;
+        }
+
+        private synchronized void moveTo(Shard<E> target) {
+            retired = true;
+            for (E e : set) {
+                target.add(e);
+            }
+            set.clear();
+            count = 0;
+        }
+
+        private boolean isOfClosedLoop() {
+            return loop != null && loop.isTerminated();
+        }
+
+        private synchronized boolean remove(E e) {
+            if (set.remove(e)) {
+                //noinspection NonAtomicOperationOnVolatileField
+                --count;
+                return true;
+            }
+            return false;
+        }
+
+        private synchronized void copyTo(Collection<? super E> coll) {
+            coll.addAll(set);
+        }
+    }
+
+    // the shards of closed loops are dropped after the elements are moved to the shard of null
+    private volatile Shard<E>[] shards = emptyShards();
+
+    @SuppressWarnings("unchecked")
+    private static <E> Shard<E>[] emptyShards() {
+        return (Shard<E>[]) EMPTY_SHARDS;
+    }
+
+    // the shard of null is used by threads not running any loop
+    private Shard<E> shard(SelectorEventLoop loop) {
+        Shard<E>[] shards = this.shards;
+        for (Shard<E> s : shards) {
+            if (s.loop == loop)
+                return s;
+        }
+        synchronized (this) {
+            shards = foldClosedLoops();
+            for (Shard<E> s : shards) {
+                if (s.loop == loop)
+                    return s;
+            }
+            Shard<E> s = new Shard<>(loop);
+            shards = Arrays.copyOf(shards, shards.length + 1);
+            shards[shards.length - 1] = s;
+            this.shards = shards;
+            return s;
+        }
+    }
+
+    // get the shards, and fold the shards of closed loops if any
+    private Shard<E>[] shards() {
+        Shard<E>[] shards = this.shards;
+        for (Shard<E> s : shards) {
+            if (s.isOfClosedLoop()) {
+                synchronized (this) {
+                    return foldClosedLoops();
+                }
+            }
+        }
+        return shards;
+    }
+
+    // should be called when holding the lock
+    private Shard<E>[] foldClosedLoops() {
+        Shard<E>[] shards = this.shards;
+        boolean found = false;
+        Shard<E> nullShard = null;
+        for (Shard<E> s : shards) {
+            if (s.loop == null) {
+                nullShard = s;
+            } else if (s.isOfClosedLoop()) {
+                found = true;
+            }
+        }
+        if (!found)
+            return shards;
+        // the shard of null is always the first one after folding
+        Shard<E>[] kept = Arrays.copyOf(shards, shards.length + 1);
+        kept[0] = nullShard == null ? new Shard<>(null) : nullShard;
+        int n = 1;
+        for (Shard<E> s : shards) {
+            if (s.loop == null)
+                continue;
+            if (s.isOfClosedLoop()) {
+                s.moveTo(kept[0]);
+            } else {
+                kept[n++] = s;
+            }
+        }
+        shards = Arrays.copyOf(kept, n);
+        this.shards = shards;
+        return shards;
+    }
+
+    /**
+     * record the element in the shard of the current loop
+     *
+     * @param e the element
+     */
+    @ThreadSafe
+    public void add(E e) {
+        if (!shard(SelectorEventLoop.current()).add(e)) {
+            // the loop is closed and the shard is retired
+            shard(null).add(e);
+        }
+    }
+
+    /**
+     * remove the element, the shard of the current loop is checked first
+     *
+     * @param e the element
+     * @return true if the element is removed, false if not found
+     */
+    @ThreadSafe
+    public boolean remove(E e) {
+        Shard<E> local = shard(SelectorEventLoop.current());
+        if (local.remove(e))
+            return true;
+        for (Shard<E> s : shards()) {
+            if (s != local && s.remove(e))
+                return true;
+        }
+        return false;
+    }
+
+    // it's called frequently (e.g. by the wlc method for every new connection),
+    // so it does not check for closed loops, the elements of closed loops are still counted
+    @ThreadSafe
+    public int count() {
+        int n = 0;
+        for (Shard<E> s : shards) {
+            n += s.count;
+        }
+        return n;
+    }
+
+    @ThreadSafe
+    public void copyTo(Collection<? super E> coll) {
+        for (Shard<E> s : shards()) {
+            s.copyTo(coll);
+        }
+    }
+}
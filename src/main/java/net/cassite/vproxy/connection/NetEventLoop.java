@@ -3,6 +3,7 @@ package net.cassite.vproxy.connection;
 import net.cassite.vproxy.app.Config;
 import net.cassite.vproxy.selector.Handler;
 import net.cassite.vproxy.selector.HandlerContext;
+import net.cassite.vproxy.selector.RejectableTask;
 import net.cassite.vproxy.selector.SelectorEventLoop;
 import net.cassite.vproxy.util.*;
 
@@ -10,6 +11,10 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
 import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 public class NetEventLoop {
     private static final HandlerForTCPServer handlerForTPCServer = new HandlerForTCPServer();
@@ -17,15 +22,206 @@ public class NetEventLoop {
     private static final HandlerForClientConnection handlerForClientConnection = new HandlerForClientConnection();
 
     private final SelectorEventLoop selectorEventLoop;
+    private final AtomicInteger pendingHandoff = new AtomicInteger(0);
+    // the counters are only updated on the loop thread,
+    // so the new values are published with lazySet, which does not require a full fence
+    private static final AtomicLongFieldUpdater<NetEventLoop> TRAFFIC_BYTES = AtomicLongFieldUpdater.newUpdater(NetEventLoop.class, "trafficBytes");
+    private static final AtomicLongFieldUpdater<NetEventLoop> WRITE_FRAMES = AtomicLongFieldUpdater.newUpdater(NetEventLoop.class, "writeFrames");
+    private static final AtomicLongFieldUpdater<NetEventLoop> WRITE_CALLS = AtomicLongFieldUpdater.newUpdater(NetEventLoop.class, "writeCalls");
+    private static final AtomicLongFieldUpdater<NetEventLoop> CORK_FLUSHES = AtomicLongFieldUpdater.newUpdater(NetEventLoop.class, "corkFlushes");
+
+    // bytes read and written by connections on this loop
+    // only updated on the loop thread
+    private volatile long trafficBytes = 0;
+    // the rate is sampled once per second on the loop thread
+    private long trafficRateTime = 0;
+    private long trafficRateBytes = 0;
+    private volatile long bytesPerSecond = 0;
+    // data stored into out buffers of connections on this loop, and the write calls to send them
+    // only updated on the loop thread
+    private volatile long writeFrames = 0;
+    private volatile long writeCalls = 0;
+    private volatile long corkFlushes = 0;
+    // connections corked in the current loop iteration, only accessed on the loop thread
+    private final ArrayList<Connection> corkedConnections = new ArrayList<>();
+    private final Runnable flushCorkedConnectionsFunc = this::flushCorkedConnections;
+    // used when reading less bytes than the free space of the in buffer, only accessed on the loop thread
+    final ReadLimitChannel readLimitChannel = new ReadLimitChannel();
 
     public NetEventLoop(SelectorEventLoop selectorEventLoop) {
         this.selectorEventLoop = selectorEventLoop;
+        RateSampler.register(selectorEventLoop, this, NetEventLoop::sampleTraffic);
     }
 
     public SelectorEventLoop getSelectorEventLoop() {
         return selectorEventLoop;
     }
 
+    /**
+     * run the task on this loop, usually used by an acceptor loop
+     * to let a worker loop register the accepted connection.<br>
+     * the task is posted into the task queue of the loop, so no lock is required,
+     * and the task runs directly if it's already on this loop.<br>
+     * if the loop is closed before the task runs, the `rejected` callback runs instead,
+     * which should release what the task holds, e.g. close the connection
+     *
+     * @param r        the task
+     * @param rejected called on the posting thread or the closing loop thread if the task will never run
+     */
+    @ThreadSafe
+    public void handoff(Runnable r, Runnable rejected) {
+        if (selectorEventLoop.runningThread == Thread.currentThread()) {
+            r.run();
+            return;
+        }
+        pendingHandoff.incrementAndGet();
+        selectorEventLoop.nextTick(new RejectableTask() {
+            @Override
+            protected void doRun() {
+                try {
+                    r.run();
+                } finally {
+                    pendingHandoff.decrementAndGet();
+                }
+            }
+
+            @Override
+            protected void rejected() {
+                try {
+                    rejected.run();
+                } finally {
+                    pendingHandoff.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return count of tasks passed to {@link #handoff(Runnable, Runnable)} but not run yet
+     */
+    @ThreadSafe
+    public int pendingHandoffCount() {
+        return pendingHandoff.get();
+    }
+
+    void incTrafficBytes(long bytes) {
+        TRAFFIC_BYTES.lazySet(this, trafficBytes + bytes);
+    }
+
+    @ThreadSafe
+    public long getTrafficBytes() {
+        return trafficBytes;
+    }
+
+    private void sampleTraffic() {
+        long now = Config.currentTimestamp;
+        long last = trafficRateTime;
+        long delta = now - last;
+        if (delta <= 0)
+            return;
+        long bytes = trafficBytes;
+        if (last != 0) {
+            bytesPerSecond = (bytes - trafficRateBytes) * 1000 / delta;
+        }
+        trafficRateBytes = bytes;
+        trafficRateTime = now;
+    }
+
+    /**
+     * @return bytes read and written per second, sampled once per second
+     */
+    @ThreadSafe
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    void incWriteFrames() {
+        WRITE_FRAMES.lazySet(this, writeFrames + 1);
+    }
+
+    void incWriteCalls() {
+        WRITE_CALLS.lazySet(this, writeCalls + 1);
+    }
+
+    /**
+     * @return count of data pieces stored into out buffers of the connections,
+     * e.g. a frame written by a processor, or bytes proxied from the other connection.
+     * The pieces are recorded by the code storing them, see {@link Connection#incWriteFrames()}
+     */
+    @ThreadSafe
+    public long getWriteFrames() {
+        return writeFrames;
+    }
+
+    /**
+     * @return count of write calls (syscalls) on the connection channels
+     */
+    @ThreadSafe
+    public long getWriteCalls() {
+        return writeCalls;
+    }
+
+    /**
+     * @return count of corked connections being flushed
+     */
+    @ThreadSafe
+    public long getCorkFlushes() {
+        return corkFlushes;
+    }
+
+    @ThreadSafe
+    public double getWriteCallsPerFrame() {
+        long frames = writeFrames;
+        if (frames == 0)
+            return 0;
+        return ((double) writeCalls) / frames;
+    }
+
+    // record the connection to flush at the end of the loop iteration
+    // return false if cannot cork, the caller should write as usual
+    boolean cork(Connection connection) {
+        if (selectorEventLoop.runningThread != Thread.currentThread()) {
+            return false; // the iteration end events can only be added on the loop thread
+        }
+        if (connection.corked) {
+            return true;
+        }
+        connection.corked = true;
+        if (corkedConnections.isEmpty()) {
+            selectorEventLoop.runAtIterationEnd(flushCorkedConnectionsFunc);
+        }
+        corkedConnections.add(connection);
+        return true;
+    }
+
+    // flush the corked connections holding more bytes than the threshold
+    void flushCorkedOverThreshold() {
+        for (int i = 0; i < corkedConnections.size(); ++i) {
+            Connection conn = corkedConnections.get(i);
+            // the flushed ones are kept in the list and skipped when flushing at the end of the iteration
+            if (conn.corked && conn.overCorkThreshold()) {
+                flushCorked(conn);
+            }
+        }
+    }
+
+    private void flushCorkedConnections() {
+        // connections corked when flushing (e.g. written in the writable callbacks)
+        // are added into the list, and also flushed in this loop
+        for (int i = 0; i < corkedConnections.size(); ++i) {
+            Connection conn = corkedConnections.get(i);
+            if (conn.corked) {
+                flushCorked(conn);
+            }
+        }
+        corkedConnections.clear();
+    }
+
+    private void flushCorked(Connection conn) {
+        CORK_FLUSHES.lazySet(this, corkFlushes + 1);
+        conn.flushCorked();
+    }
+
     @ThreadSafe
     public void addServer(BindServer server, Object attachment, ServerHandler handler) throws IOException {
         // synchronize in case the fields being inconsistent
@@ -134,24 +330,167 @@ public class NetEventLoop {
             }
         }
     }
+
+    /**
+     * move an idle connection, together with the connections in its migration group, to another loop.<br>
+     * the connections are taken off this loop without firing the `removed` callback,
+     * and registered on the target loop with the same handlers and attachments.<br>
+     * a connection is idle when it's connected and nothing is buffered,
+     * so no handler on this loop is working with it.<br>
+     * the migration group is provided by {@link ConnectionHandler#migrationGroup(ConnectionHandlerContext)},
+     * connections sharing buffers must be moved together.<br>
+     * should be called on this loop
+     *
+     * @param connection the connection to move
+     * @param target     the loop to move to
+     * @return the moved connections, or null if the connection cannot be moved for now
+     */
+    public Connection[] migrate(Connection connection, NetEventLoop target) {
+        assert selectorEventLoop.runningThread == null || selectorEventLoop.runningThread == Thread.currentThread();
+        if (target == this || target.selectorEventLoop.isClosed())
+            return null;
+        ConnectionHandlerContext cctx = connection.getHandlerContext();
+        if (cctx == null || connection.getEventLoop() != this)
+            return null;
+        Connection[] group = cctx.handler.migrationGroup(cctx);
+        if (group == null)
+            return null;
+
+        // check all connections before touching any of them
+        ConnectionHandlerContext[] contexts = new ConnectionHandlerContext[group.length];
+        for (int i = 0; i < group.length; ++i) {
+            Connection c = group[i];
+            ConnectionHandlerContext ctx = c.getHandlerContext();
+            if (ctx == null || c.getEventLoop() != this || !isIdle(c))
+                return null;
+            contexts[i] = ctx;
+        }
+
+        ConnectionHandler[] handlers = new ConnectionHandler[group.length];
+        for (int i = 0; i < group.length; ++i) {
+            Connection c = group[i];
+            if (c.closeTimeout != null) {
+                c.closeTimeout.cancel();
+                c.closeTimeout = null;
+            }
+            selectorEventLoop.detach(c.channel);
+            // the buffers are empty, release the memory here
+            // because the loop watching them for idle is about to change
+            c.getInBuffer().releaseIdleMemory();
+            c.getOutBuffer().releaseIdleMemory();
+            // buffer events are ignored when the connection is not attached to any loop
+            c.releaseEventLoopRelatedFields();
+            handlers[i] = migrateOut(c, contexts[i].handler);
+        }
+        assert Logger.lowLevelDebug("connections " + Arrays.toString(group) + " leave the loop");
+        target.handoff(() -> {
+            for (int i = 0; i < group.length; ++i) {
+                target.registerMigrated(group[i], contexts[i].attachment, handlers[i]);
+            }
+        }, () -> {
+            // the connections are not on any loop now
+            // close them and let the handlers release the resources
+            Logger.warn(LogType.NO_EVENT_LOOP, "the loop is closed before connections " + Arrays.toString(group) + " arrive");
+            for (int i = 0; i < group.length; ++i) {
+                group[i].close();
+                handlers[i].removed(contexts[i]);
+            }
+        });
+        return group;
+    }
+
+    private static boolean isIdle(Connection c) {
+        return !c.isClosed() && !c.remoteClosed && c.channel.isConnected() && !c.corked
+            && c.getInBuffer().used() == 0 && c.getOutBuffer().used() == 0;
+    }
+
+    private void registerMigrated(Connection connection, Object attachment, ConnectionHandler handler) {
+        handler = migrateIn(connection, handler);
+        int ops = 0;
+        if (connection.getInBuffer().free() > 0) {
+            ops |= SelectionKey.OP_READ;
+        }
+        ConnectionHandlerContext ctx;
+        Handler<SelectableChannel> selectorHandler;
+        if (connection instanceof ClientConnection && handler instanceof ClientConnectionHandler) {
+            ctx = new ClientConnectionHandlerContext(this, (ClientConnection) connection, attachment, (ClientConnectionHandler) handler);
+            selectorHandler = handlerForClientConnection;
+        } else {
+            ctx = new ConnectionHandlerContext(this, connection, attachment, handler);
+            selectorHandler = handlerForConnection;
+        }
+        try {
+            doAddConnection(connection, ops, ctx, selectorHandler);
+        } catch (IOException e) {
+            Logger.error(LogType.EVENT_LOOP_ADD_FAIL, "register the migrated connection " + connection + " failed", e);
+            // the connection is not on any loop now
+            // close it and let the handler release the resources
+            connection.close();
+            handler.removed(ctx);
+            return;
+        }
+        assert Logger.lowLevelDebug("connection " + connection + " migrated to the loop");
+    }
+
+    // called when a connection leaves this loop,
+    // return the handler to be registered on the target loop
+    protected ConnectionHandler migrateOut(Connection connection, ConnectionHandler handler) {
+        return handler;
+    }
+
+    // called when a connection arrives at this loop,
+    // return the handler to register
+    protected ConnectionHandler migrateIn(Connection connection, ConnectionHandler handler) {
+        return handler;
+    }
 }
 
 class HandlerForTCPServer implements Handler<ServerSocketChannel> {
     @Override
     public void accept(HandlerContext<ServerSocketChannel> ctx) {
         ServerHandlerContext sctx = (ServerHandlerContext) ctx.getAttachment();
+        // accept until no pending connections or the budget is used up
+        // the selector will fire again in the next loop if there are still pending connections
+        // so other events on this loop will not wait too long when a lot of connections arrive
+        int budget = sctx.handler.acceptBudget();
+        for (int i = 0; i < budget; ++i) {
+            if (sctx.handler.acceptPaused()) {
+                pauseAccepting(ctx, sctx);
+                break;
+            }
+            if (!acceptOne(ctx, sctx)) {
+                break;
+            }
+        }
+    }
+
+    // stop watching the accept event, and check again later
+    private void pauseAccepting(HandlerContext<ServerSocketChannel> ctx, ServerHandlerContext sctx) {
+        assert Logger.lowLevelDebug("accepting paused for " + sctx.server);
+        ctx.rmOps(SelectionKey.OP_ACCEPT);
+        // the ctx object may be reused for other channels, so do not capture it
+        SelectorEventLoop loop = ctx.getEventLoop();
+        ServerSocketChannel channel = ctx.getChannel();
+        loop.delay(ServerHandler.ACCEPT_PAUSE_RETRY_MILLIS, () -> {
+            if (sctx.server._eventLoop != sctx.eventLoop)
+                return; // the server is already removed from the loop
+            loop.addOps(channel, SelectionKey.OP_ACCEPT);
+        });
+    }
 
+    // return true if a socket is accepted
+    private boolean acceptOne(HandlerContext<ServerSocketChannel> ctx, ServerHandlerContext sctx) {
         ServerSocketChannel server = ctx.getChannel();
         SocketChannel sock;
         try {
             sock = server.accept();
         } catch (IOException e) {
             sctx.handler.acceptFail(sctx, e);
-            return;
+            return false;
         }
         if (sock == null) {
             assert Logger.lowLevelDebug("no socket yet, ignore this event");
-            return;
+            return false;
         }
         Tuple<RingBuffer, RingBuffer> ioBuffers = sctx.handler.getIOBuffers(sock);
         if (ioBuffers == null) { // the user code may return null if refuse to accept
@@ -170,15 +509,20 @@ class HandlerForTCPServer implements Handler<ServerSocketChannel> {
                     ioBuffers.left, ioBuffers.right);
             } catch (IOException e) {
                 Logger.shouldNotHappen("Connection object create failed: " + e);
-                return;
+                try {
+                    sock.close();
+                } catch (IOException e1) {
+                    Logger.shouldNotHappen("close the unaccepted connection failed: " + e1);
+                }
+                sctx.handler.ioBuffersUnused(ioBuffers);
+                return false;
             }
-            conn.addNetFlowRecorder(sctx.server);
+            conn.addTrafficCounter(sctx.server.traffic);
             sctx.handler.connection(sctx, conn);
         }
         // accept succeeded
         sctx.server.incHistoryAcceptedConnectionCount();
-        // then, we try to accept again, in case there are pending connections
-        accept(ctx);
+        return true;
     }
 
     @Override
@@ -285,45 +629,83 @@ class HandlerForConnection implements Handler<SelectableChannel> {
         // reset close timer because now it's active (will read some data)
         NetEventLoopUtils.resetCloseTimeout(cctx);
 
-        if (cctx.connection.getInBuffer().free() == 0) {
+        Connection conn = cctx.connection;
+        if (conn.getInBuffer().free() == 0) {
             Logger.shouldNotHappen("the connection has no space to store data");
             return;
         }
-        int read;
-        try {
-            read = cctx.connection.getInBuffer().storeBytesFrom((ReadableByteChannel) /* it's definitely readable */ ctx.getChannel());
-        } catch (IOException e) {
-            cctx.handler.exception(cctx, e);
-            return;
-        }
-        assert Logger.lowLevelNetDebug("read " + read + " bytes from " + cctx.connection);
-        if (read < 0) {
-            // EOF, the remote write is closed
-            cctx.connection.remoteClosed = true;
-            assert Logger.lowLevelDebug("connection " + cctx.connection + " remote closed");
-            if (cctx.connection.getOutBuffer().used() == 0) {
-                // directly close here if no data needs to be sent
-                cctx.connection.close();
-                cctx.handler.closed(cctx);
-            } else {
-                // remove read event add write event (maybe more bytes to write)
-                ctx.modify(SelectionKey.OP_WRITE);
-                // the connection will be closed after write
+        // without a read budget, the channel is read only once
+        // otherwise, keep reading until the budget is used up, the channel is drained, or the buffer is full
+        // the ctx is shared by all channels of the selector loop and may be changed in the user callbacks,
+        // so the channel is retrieved from the connection and ctx is not used after calling user code
+        SocketChannel channel = conn.channel;
+        int budget = conn.readBudget;
+        int total = 0;
+        while (true) {
+            int free = conn.getInBuffer().free();
+            int attempt = conn.nextReadSize(free);
+            if (budget > 0) {
+                attempt = Math.min(attempt, budget - total);
             }
-            return;
-        }
-        if (read == 0) {
-            Logger.shouldNotHappen("read nothing, the event should not be fired");
-            return;
-        }
-
-        cctx.connection.incFromRemoteBytes(read); // record net flow, it's reading, so is "from remote"
-        cctx.handler.readable(cctx); // the in buffer definitely have some bytes, let client code read
-        if (cctx.connection.getInBuffer().free() == 0) {
-            // the in-buffer is full, and client code cannot read, remove read event
-            assert Logger.lowLevelDebug("the inBuffer is full now, remove READ event " + cctx.connection);
-            if (ctx.getChannel().isOpen()) { // the connection might be closed in readable(), so let's check
-                ctx.rmOps(SelectionKey.OP_READ);
+            int read;
+            try {
+                if (attempt == free) {
+                    read = conn.getInBuffer().storeBytesFrom(channel);
+                } else {
+                    ReadLimitChannel chnl = cctx.eventLoop.readLimitChannel.with(channel, attempt);
+                    try {
+                        read = conn.getInBuffer().storeBytesFrom(chnl);
+                    } finally {
+                        chnl.clear();
+                    }
+                }
+            } catch (IOException e) {
+                cctx.handler.exception(cctx, e);
+                return;
+            }
+            assert Logger.lowLevelNetDebug("read " + read + " bytes from " + conn + ", tried " + attempt + " bytes");
+            if (read < 0) {
+                // EOF, the remote write is closed
+                conn.remoteClosed = true;
+                assert Logger.lowLevelDebug("connection " + conn + " remote closed");
+                if (conn.getOutBuffer().used() == 0) {
+                    // directly close here if no data needs to be sent
+                    conn.close();
+                    cctx.handler.closed(cctx);
+                } else {
+                    // remove read event add write event (maybe more bytes to write)
+                    cctx.eventLoop.getSelectorEventLoop().modify(channel, SelectionKey.OP_WRITE);
+                    // the connection will be closed after write
+                }
+                return;
+            }
+            if (read == 0) {
+                if (total == 0) {
+                    Logger.shouldNotHappen("read nothing, the event should not be fired");
+                }
+                return;
+            }
+            conn.recordRead(read, attempt);
+            total += read;
+
+            conn.incFromRemoteBytes(read); // record net flow, it's reading, so is "from remote"
+            cctx.handler.readable(cctx); // the in buffer definitely have some bytes, let client code read
+            cctx.eventLoop.flushCorkedOverThreshold(); // the client code may write a lot into corked connections
+            if (!channel.isOpen()) {
+                return; // the connection might be closed in readable()
+            }
+            if (conn.getEventLoop() != cctx.eventLoop) {
+                return; // the connection might be removed from the loop in readable()
+            }
+            if (conn.getInBuffer().free() == 0) {
+                // the in-buffer is full, and client code cannot read, remove read event
+                assert Logger.lowLevelDebug("the inBuffer is full now, remove READ event " + conn);
+                cctx.eventLoop.getSelectorEventLoop().rmOps(channel, SelectionKey.OP_READ);
+                return;
+            }
+            if (budget == 0 || total >= budget || read < attempt) {
+                // the budget is used up, or nothing more to read for now
+                return;
             }
         }
     }
@@ -348,6 +730,7 @@ class HandlerForConnection implements Handler<SelectableChannel> {
         int write;
         try {
             write = cctx.connection.getOutBuffer().writeTo((WritableByteChannel) /* it's definitely writable */ ctx.getChannel());
+            cctx.eventLoop.incWriteCalls();
         } catch (IOException e) {
             cctx.handler.exception(cctx, e);
             return;
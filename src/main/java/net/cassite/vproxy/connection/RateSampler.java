@@ -0,0 +1,98 @@
+package net.cassite.vproxy.connection;
+
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.util.LogType;
+import net.cassite.vproxy.util.Logger;
+import net.cassite.vproxy.util.ThreadSafe;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Samples the rates of the registered objects once per second on a selector event loop.<br>
+ * Only one background timer is used for all objects sampled on the same loop.
+ * The objects are weakly referenced, so they are dropped from the sampler when not used anymore,
+ * and the timer stops when no object is left or the loop is closed.
+ */
+class RateSampler implements Runnable {
+    static final int PERIOD = 1000;
+
+    // guarded by the map itself
+    private static final Map<SelectorEventLoop, RateSampler> samplers = new WeakHashMap<>();
+
+    private static class Target<T> {
+        final WeakReference<T> ref;
+        final Consumer<T> sample;
+
+        Target(T t, Consumer<T> sample) {
+            this.ref = new WeakReference<>(t);
+            this.sample = sample;
+        }
+
+        void sample() {
+            T t = ref.get();
+            if (t == null)
+                return; // collected, will be removed in the next round
+            try {
+                sample.accept(t);
+            } catch (Throwable e) {
+                Logger.error(LogType.IMPROPER_USE, "sampling got exception", e);
+            }
+        }
+    }
+
+    // guarded by the map
+    private final ArrayList<Target<?>> targets = new ArrayList<>();
+    // only accessed on the loop thread
+    private final ArrayList<Target<?>> sampling = new ArrayList<>();
+
+    private RateSampler() {
+    }
+
+    /**
+     * sample the object on the loop once per second
+     *
+     * @param loop   the loop to run the sampling
+     * @param t      the object, which is weakly referenced
+     * @param sample the sampling function, should not capture the object
+     */
+    @ThreadSafe
+    static <T> void register(SelectorEventLoop loop, T t, Consumer<T> sample) {
+        RateSampler sampler;
+        boolean start = false;
+        synchronized (samplers) {
+            sampler = samplers.get(loop);
+            if (sampler == null) {
+                sampler = new RateSampler();
+                samplers.put(loop, sampler);
+                start = true;
+            }
+            sampler.targets.add(new Target<>(t, sample));
+        }
+        if (start) {
+            loop.delayBackground(PERIOD, sampler);
+        }
+    }
+
+    @Override
+    public void run() {
+        SelectorEventLoop loop = SelectorEventLoop.current();
+        synchronized (samplers) {
+            targets.removeIf(t -> t.ref.get() == null);
+            if (targets.isEmpty()) {
+                // a new sampler will be created when registering
+                samplers.remove(loop);
+                return;
+            }
+            sampling.addAll(targets);
+        }
+        for (Target<?> t : sampling) {
+            t.sample();
+        }
+        sampling.clear();
+        loop.delayBackground(PERIOD, this);
+    }
+}
@@ -0,0 +1,95 @@
+package net.cassite.vproxy.connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ScatteringByteChannel;
+
+/**
+ * Limit the bytes read from the channel.<br>
+ * It's used to read at most a specified count of bytes into a ring buffer,
+ * the buffers passed in are cut to the limit when reading, and restored after reading.<br>
+ * One object is reused by all connections on a loop, so it's not thread safe
+ */
+class ReadLimitChannel implements ScatteringByteChannel {
+    private ScatteringByteChannel channel;
+    private int limit;
+
+    ReadLimitChannel with(ScatteringByteChannel channel, int limit) {
+        this.channel = channel;
+        this.limit = limit;
+        return this;
+    }
+
+    // release the ref of the channel
+    void clear() {
+        this.channel = null;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (limit == 0)
+            return 0;
+        int lim = dst.limit();
+        if (dst.remaining() > limit) {
+            dst.limit(dst.position() + limit);
+        }
+        try {
+            int n = channel.read(dst);
+            if (n > 0) {
+                limit -= n;
+            }
+            return n;
+        } finally {
+            dst.limit(lim);
+        }
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        if (limit == 0)
+            return 0;
+        int end = offset + length;
+        int left = limit;
+        int n = offset;
+        int cut = -1; // index of the buffer being cut
+        int cutLimit = 0; // the original limit of the cut buffer
+        while (n < end) {
+            ByteBuffer b = dsts[n++];
+            if (b.remaining() >= left) {
+                if (b.remaining() > left) {
+                    cut = n - 1;
+                    cutLimit = b.limit();
+                    b.limit(b.position() + left);
+                }
+                break;
+            }
+            left -= b.remaining();
+        }
+        try {
+            long read = channel.read(dsts, offset, n - offset);
+            if (read > 0) {
+                limit -= read;
+            }
+            return read;
+        } finally {
+            if (cut != -1) {
+                dsts[cut].limit(cutLimit);
+            }
+        }
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts) throws IOException {
+        return read(dsts, 0, dsts.length);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() {
+        // the channel is closed by the connection
+    }
+}
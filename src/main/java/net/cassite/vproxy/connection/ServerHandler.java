@@ -7,6 +7,9 @@ import java.io.IOException;
 import java.nio.channels.NetworkChannel;
 
 public interface ServerHandler {
+    int DEFAULT_ACCEPT_BUDGET = 64;
+    int ACCEPT_PAUSE_RETRY_MILLIS = 20;
+
     void acceptFail(ServerHandlerContext ctx, IOException err);
 
     void connection(ServerHandlerContext ctx, Connection connection);
@@ -16,6 +19,14 @@ public interface ServerHandler {
 
     void removed(ServerHandlerContext ctx);
 
+    // called when the buffers retrieved from getIOBuffers are not used by any connection,
+    // e.g. the connection object cannot be created for the accepted socket.
+    // the buffers should be released here, and anything acquired for them should be given back
+    default void ioBuffersUnused(Tuple<RingBuffer, RingBuffer> ioBuffers) {
+        ioBuffers.left.clean();
+        ioBuffers.right.clean();
+    }
+
     default void exception(ServerHandlerContext ctx, IOException err) {
         // do nothing
     }
@@ -23,4 +34,16 @@ public interface ServerHandler {
     default ConnectionOpts connectionOpts() {
         return DefaultConnectionOpts.defaultConnectionOpts;
     }
+
+    // max connections to accept in one readiness event
+    // the rest will be accepted in the next loop iteration
+    default int acceptBudget() {
+        return DEFAULT_ACCEPT_BUDGET;
+    }
+
+    // return true to stop accepting for now, the pending connections are kept in the backlog
+    // the loop will check again after ACCEPT_PAUSE_RETRY_MILLIS
+    default boolean acceptPaused() {
+        return false;
+    }
 }
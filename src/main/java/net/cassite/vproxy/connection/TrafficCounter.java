@@ -0,0 +1,295 @@
+package net.cassite.vproxy.connection;
+
+import net.cassite.vproxy.app.Config;
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.util.ThreadSafe;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Traffic statistics of a resource used by connections on many event loops,
+ * e.g. a bind server or a backend server.<br>
+ * Each event loop updates its own cell, so the loops never write the same memory,
+ * and the cells are padded to cache lines to avoid false sharing.
+ * The totals are aggregated from the cells when retrieved,
+ * and the rates are sampled once per second on the loop of one of the cells.<br>
+ * When a loop is closed, its cell is folded into a base cell when the cells are checked next time,
+ * so the counter does not keep closed loops.<br>
+ * A packet is a read or a write carrying data on a connection.
+ */
+public class TrafficCounter {
+    private static final Cell[] EMPTY_CELLS = new Cell[0];
+
+    private static final AtomicLongFieldUpdater<CellValues> FROM_REMOTE_BYTES = updater("fromRemoteBytes");
+    private static final AtomicLongFieldUpdater<CellValues> TO_REMOTE_BYTES = updater("toRemoteBytes");
+    private static final AtomicLongFieldUpdater<CellValues> FROM_REMOTE_PACKETS = updater("fromRemotePackets");
+    private static final AtomicLongFieldUpdater<CellValues> TO_REMOTE_PACKETS = updater("toRemotePackets");
+
+    private static AtomicLongFieldUpdater<CellValues> updater(String field) {
+        return AtomicLongFieldUpdater.newUpdater(CellValues.class, field);
+    }
+
+    // the fields are split into classes to make sure the padding fields are laid out around the values
+    @SuppressWarnings("unused")
+    static class CellLhsPadding {
+        long p0, p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    static class CellValues extends CellLhsPadding {
+        // only updated by the thread of the loop,
+        // so the new values are published with lazySet, which does not require a full fence
+        volatile long fromRemoteBytes = 0;
+        volatile long toRemoteBytes = 0;
+        volatile long fromRemotePackets = 0;
+        volatile long toRemotePackets = 0;
+    }
+
+    /**
+     * the counters of one event loop
+     */
+    @SuppressWarnings("unused")
+    public static final class Cell extends CellValues {
+        long q0, q1, q2, q3, q4, q5, q6, q7;
+
+        private final NetEventLoop loop;
+        // the totals of the cells of closed loops, never updated after created
+        private final boolean base;
+
+        Cell(NetEventLoop loop) {
+            this.loop = loop;
+            this.base = false;
+        }
+
+        // create a base cell
+        private Cell(Cell base, Cell toFold) {
+            this.loop = null;
+            this.base = true;
+            if (base != null) {
+                fromRemoteBytes = base.fromRemoteBytes;
+                toRemoteBytes = base.toRemoteBytes;
+                fromRemotePackets = base.fromRemotePackets;
+                toRemotePackets = base.toRemotePackets;
+            }
+            fromRemoteBytes += toFold.fromRemoteBytes;
+            toRemoteBytes += toFold.toRemoteBytes;
+            fromRemotePackets += toFold.fromRemotePackets;
+            toRemotePackets += toFold.toRemotePackets;
+        }
+
+        private boolean isOfClosedLoop() {
+            return !base && loop != null && loop.getSelectorEventLoop().isTerminated();
+        }
+
+        void incFromRemoteBytes(long bytes) {
+            FROM_REMOTE_BYTES.lazySet(this, fromRemoteBytes + bytes);
+            FROM_REMOTE_PACKETS.lazySet(this, fromRemotePackets + 1);
+        }
+
+        void incToRemoteBytes(long bytes) {
+            TO_REMOTE_BYTES.lazySet(this, toRemoteBytes + bytes);
+            TO_REMOTE_PACKETS.lazySet(this, toRemotePackets + 1);
+        }
+    }
+
+    // the cells of closed loops are replaced with one base cell retaining the totals,
+    // the array is replaced as a whole, so the totals read from one array are consistent
+    private volatile Cell[] cells = EMPTY_CELLS;
+
+    // the loop sampling the rates, guarded by the lock
+    private SelectorEventLoop samplingLoop = null;
+    // the values when the rates were sampled last time
+    private long rateTime = 0;
+    private long rateFromRemoteBytes = 0;
+    private long rateToRemoteBytes = 0;
+    private long rateFromRemotePackets = 0;
+    private long rateToRemotePackets = 0;
+    // rates per second
+    private volatile long fromRemoteBytesPerSecond = 0;
+    private volatile long toRemoteBytesPerSecond = 0;
+    private volatile long fromRemotePacketsPerSecond = 0;
+    private volatile long toRemotePacketsPerSecond = 0;
+
+    /**
+     * get the cell of the loop, the cell is created if not exists.<br>
+     * it's usually called only once for each connection and loop,
+     * the connection keeps the cell and updates it directly
+     *
+     * @param loop the loop updating the cell, may be null if the connection is not handled by a loop,
+     *             and the cell of null may be updated by different threads
+     * @return the cell
+     */
+    @ThreadSafe
+    Cell cell(NetEventLoop loop) {
+        Cell[] cells = this.cells;
+        for (Cell c : cells) {
+            if (!c.base && c.loop == loop)
+                return c;
+        }
+        synchronized (this) {
+            cells = foldClosedLoops();
+            for (Cell c : cells) {
+                if (!c.base && c.loop == loop)
+                    return c;
+            }
+            Cell c = new Cell(loop);
+            cells = Arrays.copyOf(cells, cells.length + 1);
+            cells[cells.length - 1] = c;
+            this.cells = cells;
+            ensureSampling(cells);
+            return c;
+        }
+    }
+
+    // get the cells, and fold the cells of closed loops if any
+    private Cell[] cells() {
+        Cell[] cells = this.cells;
+        for (Cell c : cells) {
+            if (c.isOfClosedLoop()) {
+                synchronized (this) {
+                    return foldClosedLoops();
+                }
+            }
+        }
+        return cells;
+    }
+
+    // should be called when holding the lock
+    private Cell[] foldClosedLoops() {
+        Cell[] cells = this.cells;
+        boolean found = false;
+        Cell base = null;
+        for (Cell c : cells) {
+            if (c.base) {
+                base = c;
+            } else if (c.isOfClosedLoop()) {
+                found = true;
+            }
+        }
+        if (!found)
+            return cells;
+        // the base cell is always the first one after folding
+        Cell[] kept = new Cell[cells.length + 1];
+        int n = 1;
+        for (Cell c : cells) {
+            if (c.base)
+                continue;
+            if (c.isOfClosedLoop()) {
+                base = new Cell(base, c);
+            } else {
+                kept[n++] = c;
+            }
+        }
+        kept[0] = base;
+        cells = Arrays.copyOf(kept, n);
+        this.cells = cells;
+        ensureSampling(cells);
+        return cells;
+    }
+
+    @ThreadSafe
+    public long getFromRemoteBytes() {
+        long n = 0;
+        for (Cell c : cells()) {
+            n += c.fromRemoteBytes;
+        }
+        return n;
+    }
+
+    @ThreadSafe
+    public long getToRemoteBytes() {
+        long n = 0;
+        for (Cell c : cells()) {
+            n += c.toRemoteBytes;
+        }
+        return n;
+    }
+
+    @ThreadSafe
+    public long getFromRemotePackets() {
+        long n = 0;
+        for (Cell c : cells()) {
+            n += c.fromRemotePackets;
+        }
+        return n;
+    }
+
+    @ThreadSafe
+    public long getToRemotePackets() {
+        long n = 0;
+        for (Cell c : cells()) {
+            n += c.toRemotePackets;
+        }
+        return n;
+    }
+
+    // it's called by the RateSampler on the sampling loop once per second
+    private synchronized void sample() {
+        long now = Config.currentTimestamp;
+        long last = rateTime;
+        long delta = now - last;
+        if (delta <= 0) {
+            return;
+        }
+        long fromRemoteBytes = getFromRemoteBytes();
+        long toRemoteBytes = getToRemoteBytes();
+        long fromRemotePackets = getFromRemotePackets();
+        long toRemotePackets = getToRemotePackets();
+        if (last != 0) {
+            fromRemoteBytesPerSecond = (fromRemoteBytes - rateFromRemoteBytes) * 1000 / delta;
+            toRemoteBytesPerSecond = (toRemoteBytes - rateToRemoteBytes) * 1000 / delta;
+            fromRemotePacketsPerSecond = (fromRemotePackets - rateFromRemotePackets) * 1000 / delta;
+            toRemotePacketsPerSecond = (toRemotePackets - rateToRemotePackets) * 1000 / delta;
+        }
+        rateFromRemoteBytes = fromRemoteBytes;
+        rateToRemoteBytes = toRemoteBytes;
+        rateFromRemotePackets = fromRemotePackets;
+        rateToRemotePackets = toRemotePackets;
+        rateTime = now;
+    }
+
+    // should be called when holding the lock
+    // make sure the rates are sampled on a loop which is still running
+    private void ensureSampling(Cell[] cells) {
+        if (samplingLoop != null && !samplingLoop.isTerminated())
+            return;
+        // the timer is gone with the closed loop
+        samplingLoop = null;
+        for (Cell c : cells) {
+            if (!c.base && c.loop != null && !c.loop.getSelectorEventLoop().isTerminated()) {
+                samplingLoop = c.loop.getSelectorEventLoop();
+                RateSampler.register(samplingLoop, this, TrafficCounter::sample);
+                return;
+            }
+        }
+        // no loop is using the counter, so there's no traffic
+        rateTime = 0;
+        fromRemoteBytesPerSecond = 0;
+        toRemoteBytesPerSecond = 0;
+        fromRemotePacketsPerSecond = 0;
+        toRemotePacketsPerSecond = 0;
+    }
+
+    /**
+     * @return bytes from remote per second, sampled once per second
+     */
+    @ThreadSafe
+    public long getFromRemoteBytesPerSecond() {
+        return fromRemoteBytesPerSecond;
+    }
+
+    @ThreadSafe
+    public long getToRemoteBytesPerSecond() {
+        return toRemoteBytesPerSecond;
+    }
+
+    @ThreadSafe
+    public long getFromRemotePacketsPerSecond() {
+        return fromRemotePacketsPerSecond;
+    }
+
+    @ThreadSafe
+    public long getToRemotePacketsPerSecond() {
+        return toRemotePacketsPerSecond;
+    }
+}
@@ -60,7 +60,7 @@ public class Resolver implements IResolver {
 
             if (ttl > 0) {
                 // start a timer to clear the record
-                te = loop.getSelectorEventLoop().delay(ttl, Cache.this::remove);
+                te = loop.getSelectorEventLoop().delayBackground(ttl, Cache.this::remove);
             } else {
                 te = null;
             }
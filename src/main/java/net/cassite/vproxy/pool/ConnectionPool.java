@@ -73,7 +73,7 @@ public class ConnectionPool {
 
         fill();
         // run keepalive for every 15 seconds
-        loop.getSelectorEventLoop().period(15_000, this::keepalive);
+        loop.getSelectorEventLoop().periodBackground(15_000, this::keepalive);
     }
 
     private void fill() {
@@ -101,7 +101,7 @@ public class ConnectionPool {
 
         // fix the delay to 1 second, the delay is not important
         // we just don't want to make too much connections at the same time
-        loop.getSelectorEventLoop().delay(1_000, () -> {
+        loop.getSelectorEventLoop().delayBackground(1_000, () -> {
             isPendingProviding = false;
             assert Logger.lowLevelDebug("pool delay triggers");
             fill();
@@ -86,6 +86,17 @@ class HeadPayloadSubContext extends OOSubContext<HeadPayloadContext> {
         return data;
     }
 
+    @Override
+    public ByteArray feed(ByteArray data, Processor.Output output) throws Exception {
+        data = feed(data);
+        if (output.free() < data.length()) {
+            return data;
+        }
+        // the head is not modified, so copy it into the output directly
+        output.write(data);
+        return null;
+    }
+
     @Override
     public ByteArray produce() {
         return null; // always produce nothing
@@ -136,4 +147,9 @@ public abstract class HeadPayloadProcessor extends OOProcessor<HeadPayloadContex
     public String name() {
         return this.name;
     }
+
+    @Override
+    public boolean FEED_INPUT_VIEW() {
+        return true; // the head is only read, and returned as is
+    }
 }
@@ -18,6 +18,11 @@ public abstract class OOProcessor<CTX extends OOContext<SUB>, SUB extends OOSubC
         return sub.feed(data);
     }
 
+    @Override
+    public ByteArray feed(CTX ctx, SUB sub, ByteArray data, Output output) throws Exception {
+        return sub.feed(data, output);
+    }
+
     @Override
     public ByteArray produce(CTX ctx, SUB sub) {
         return sub.produce();
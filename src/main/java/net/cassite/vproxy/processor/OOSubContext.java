@@ -17,6 +17,10 @@ public abstract class OOSubContext<CTX extends OOContext> extends Processor.SubC
 
     public abstract ByteArray feed(ByteArray data) throws Exception;
 
+    public ByteArray feed(ByteArray data, Processor.Output output) throws Exception {
+        return feed(data);
+    }
+
     public abstract ByteArray produce();
 
     public abstract void proxyDone();
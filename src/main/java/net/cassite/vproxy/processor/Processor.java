@@ -71,6 +71,61 @@ public interface Processor<CTX extends Processor.Context, SUB extends Processor.
      */
     ByteArray feed(CTX ctx, SUB sub, ByteArray data) throws Exception;
 
+    /**
+     * an output for writing data to send without building ByteArray objects,
+     * e.g. a modified frame header can be written with a few int writes.
+     * the bytes written into the output are sent before the data returned from `feed`
+     */
+    interface Output {
+        /**
+         * @return count of bytes which can still be written into the output
+         */
+        int free();
+
+        /**
+         * write bytes of the array into the output
+         *
+         * @param array the array to copy from
+         * @param off   offset in the array
+         * @param len   count of bytes to write
+         * @return the output itself
+         * @throws IndexOutOfBoundsException the output does not have enough free space
+         */
+        Output write(ByteArray array, int off, int len);
+
+        default Output write(ByteArray array) {
+            return write(array, 0, array.length());
+        }
+
+        Output uint8(int val);
+
+        Output int16(int val);
+
+        Output int24(int val);
+
+        Output int32(int val);
+    }
+
+    /**
+     * feed data to the processor and get data to send, the processor can write data to send into the output.<br>
+     * the processor should check the free space of the output before writing,
+     * and return data with a ByteArray when it's not enough.<br>
+     * the data in the output is written directly into the out buffer of the target connection when possible
+     * (the target connection has nothing else pending to send),
+     * otherwise it's copied and sent in the same way as the returned data.
+     * by default, the output is not used.
+     *
+     * @param ctx    context
+     * @param sub    sub context
+     * @param data   feed data
+     * @param output the output to write data to send
+     * @return data to send after the bytes in the output, or null if nothing else to send
+     * @throws Exception raise exception if handling failed
+     */
+    default ByteArray feed(CTX ctx, SUB sub, ByteArray data, Output output) throws Exception {
+        return feed(ctx, sub, data);
+    }
+
     /**
      * produce some data to the connection represented by the sub context<br>
      * this method will be checked after `feed` is called,
@@ -130,4 +185,20 @@ public interface Processor<CTX extends Processor.Context, SUB extends Processor.
     default int PROXY_ZERO_COPY_THRESHOLD() {
         return Config.recommendedMinPayloadLength;
     }
+
+    /**
+     * copying data out of the input buffer is not free either.
+     * e.g. when processing http2 frames, the processor only reads a few bytes of the 9 bytes frame header,
+     * and some frames are dropped.
+     * when enabled, the data fed to the processor may be a read-only view of the input buffer of the connection
+     * (instead of a copy), and the bytes are consumed from the buffer after `feed` returns.<br>
+     * the processor must not modify the view or use it after `feed` returns,
+     * call {@link ByteArray#arrange()} to get a modifiable copy if needed.
+     * the data returned from `feed` can be (or contain) the view, it will be copied before the bytes are consumed.
+     *
+     * @return true if the processor accepts views of the input buffer
+     */
+    default boolean FEED_INPUT_VIEW() {
+        return false;
+    }
 }
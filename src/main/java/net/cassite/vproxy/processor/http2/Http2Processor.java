@@ -31,4 +31,9 @@ public class Http2Processor extends OOProcessor<Http2Context, Http2SubContext> {
     public int PROXY_ZERO_COPY_THRESHOLD() {
         return HTTP2_ZERO_COPY_THRESHOLD;
     }
+
+    @Override
+    public boolean FEED_INPUT_VIEW() {
+        return true;
+    }
 }
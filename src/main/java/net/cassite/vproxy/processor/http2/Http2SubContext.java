@@ -186,6 +186,11 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
 
     private Map<Integer, Integer> streamIdBack2Front = new HashMap<>();
 
+    // the output of the current feeding, only set when handling a frame head
+    // when it's set, modifications of the frame head are not applied to the input bytes,
+    // instead, they are recorded in the frame object and the head is written into the output
+    private Processor.Output output = null;
+
     // the ack of settings frame
     private ByteArray syntheticAck = null;
     private boolean syntheticAckFlag;
@@ -265,6 +270,7 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
         switch (state) {
             case 0:
                 assert data.length() == SEQ_PREFACE_MAGIC.length() + LEN_FRAME_HEAD;
+                data = data.arrange(); // the frame part will be modified and recorded
                 // check the preface
                 ByteArray prefacePart = data.sub(0, SEQ_PREFACE_MAGIC.length());
                 if (!prefacePart.equals(SEQ_PREFACE_MAGIC)) {
@@ -299,6 +305,7 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
                 state = 1;
                 return data;
             case 6:
+                data = data.arrange(); // the promised stream id may be modified
                 translatePromisedStreamId(data, frame.padded ? LEN_PADDING : 0);
                 state = 7;
                 return data;
@@ -314,6 +321,19 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
         }
     }
 
+    @Override
+    public ByteArray feed(ByteArray data, Processor.Output output) throws Exception {
+        if (state != 1 || output.free() < LEN_FRAME_HEAD) {
+            return feed(data);
+        }
+        this.output = output;
+        try {
+            return feed(data);
+        } finally {
+            this.output = null;
+        }
+    }
+
     @Override
     public ByteArray produce() {
         ByteArray ret = syntheticAck;
@@ -388,7 +408,10 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
 
             assert Logger.lowLevelDebug("the translatedStreamId is " + translatedStreamId);
             if (!translatedStreamId.equals(frame.streamIdentifier)) {
-                utilModifyStreamId(frameBytes, 5, translatedStreamId);
+                if (output == null) {
+                    frameBytes = frameBytes.arrange(); // the input may be a read-only view
+                    utilModifyStreamId(frameBytes, 5, translatedStreamId);
+                }
                 frame.streamIdentifier = translatedStreamId;
             }
         }
@@ -400,36 +423,59 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
         if (frame.type == Http2Frame.Type.HEADERS && frame.priority) {
             assert Logger.lowLevelDebug("got HEADERS frame with priority, we should remove the priority");
             state = 3;
+            if (output == null) {
+                frameBytes = frameBytes.arrange(); // the input may be a read-only view
+            }
             {
                 // reset the length
                 int forwardLen = frame.length - LEN_E_STREAMDEPENDENCY_WEIGHT;
                 assert Logger.lowLevelDebug("the old length was " + frame.length + " new length is " + forwardLen);
-                utilModifyFrameLength(frameBytes, forwardLen);
+                if (output == null) {
+                    utilModifyFrameLength(frameBytes, forwardLen);
+                }
                 frame.length = forwardLen;
             }
             {
                 // unset the priority bit
-                frameBytes.set(4, (byte) (frameBytes.get(4) & 0b1101_1111));
+                if (output == null) {
+                    frameBytes.set(4, (byte) (frameBytes.get(4) & 0b1101_1111));
+                }
                 frame.priority = false;
             }
-            return frameBytes;
+            return headToSend(frameBytes);
         } else if (frame.type == Http2Frame.Type.SETTINGS) {
-            return handleSettingsFramePart(frameBytes);
+            // settings frames may be modified and recorded, and they are rare, so always copy the input
+            return handleSettingsFramePart(frameBytes.arrange());
         } else if (frame.type == Http2Frame.Type.PUSH_PROMISE) {
             state = 6;
-            return frameBytes;
+            return headToSend(frameBytes);
         } else if (frame.type == Http2Frame.Type.IGNORE) {
             assert Logger.lowLevelDebug("got an ignored frame of length " + frame.length);
             state = -1;
             return null;
         } else {
             state = 2; // default: do proxy
+            return headToSend(frameBytes);
+        }
+    }
+
+    // write the frame head into the output if it's set, otherwise return the frame head
+    // the length, the priority flag and the stream id are taken from the frame object, which may be modified
+    private ByteArray headToSend(ByteArray frameBytes) {
+        if (output == null) {
             return frameBytes;
         }
+        int flags = frameBytes.uint8(4);
+        if (!frame.priority) {
+            flags &= 0b1101_1111;
+        }
+        output.int24(frame.length).write(frameBytes, 3, 1).uint8(flags).int32(frame.streamIdentifier);
+        return null;
     }
 
     // NOTE: this method should only return the frameBytes object or null
     // should not create a new object when returning
+    // the frameBytes must be modifiable
     private ByteArray handleSettingsFramePart(ByteArray frameBytes) {
         if (connId == 0) {
             // frontend
@@ -486,7 +532,8 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
     private ByteArray handleSettings(ByteArray payload) {
         // make a bigger payload
         {
-            payload = payload.concat(ByteArray.from(new byte[LEN_SETTING]));
+            // the input may be a read-only view, so arrange it before modifying
+            payload = payload.arrange().concat(ByteArray.from(new byte[LEN_SETTING]));
         }
         // try to find the SETTINGS_HEADER_TABLE_SIZE and change the value
         {
@@ -48,6 +48,9 @@ public class ProtocolHandlerContext<T> {
             {
                 int size = outBuffer.storeBytesFrom(chnl);
                 // the chnl might be null because buffer ET writable handler called
+                if (size > 0) {
+                    connection.incWriteFrames();
+                }
 
                 if (size == 0) {
                     break; // stored nothing, so just break
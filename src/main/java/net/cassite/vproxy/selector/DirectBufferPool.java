@@ -0,0 +1,247 @@
+package net.cassite.vproxy.selector;
+
+import net.cassite.vproxy.app.Config;
+import net.cassite.vproxy.util.MPSCQueue;
+import net.cassite.vproxy.util.ThreadSafe;
+import net.cassite.vproxy.util.Utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A pool of direct buffers owned by a {@link SelectorEventLoop}.<br>
+ * Buffers are grouped by capacity. There are usually only a few capacities in one process
+ * (the in/out buffer sizes of the lbs), so each capacity is a size class of fixed-size chunks.<br>
+ * <br>
+ * Only the loop thread allocates from the pool, which requires no lock.
+ * A buffer can be released on any thread: the loop thread puts it back into the size class directly,
+ * and other threads post it into a queue, which is drained by the loop thread when allocating.
+ * This is common because connections are accepted on one loop and handled (then closed) on another.<br>
+ * <br>
+ * Idle buffers are kept until the pooled bytes reach the limit,
+ * buffers released after that are freed immediately.<br>
+ * <br>
+ * The pool also watches elastic buffers which became empty on the loop,
+ * and asks them to release their memory when they stay empty for a while.
+ */
+public class DirectBufferPool {
+    private static final int RETURN_QUEUE_CAPACITY = 1024;
+    // the counters written by the loop thread are published with lazySet, which does not require a full fence
+    private static final AtomicLongFieldUpdater<DirectBufferPool> HITS = AtomicLongFieldUpdater.newUpdater(DirectBufferPool.class, "hits");
+    private static final AtomicLongFieldUpdater<DirectBufferPool> MISSES = AtomicLongFieldUpdater.newUpdater(DirectBufferPool.class, "misses");
+    private static final AtomicLongFieldUpdater<DirectBufferPool> POOLED_BYTES = AtomicLongFieldUpdater.newUpdater(DirectBufferPool.class, "pooledBytes");
+
+    private final SelectorEventLoop loop;
+    private final long maxPooledBytes;
+    private final int idleReleaseMillis;
+    private final MPSCQueue<ByteBuffer> returned = new MPSCQueue<>(RETURN_QUEUE_CAPACITY);
+    private volatile boolean closed = false;
+    // only accessed by the loop thread
+    private SizeClass[] classes = new SizeClass[0];
+    private final ArrayDeque<IdleMemoryHolder> idleHolders = new ArrayDeque<>();
+    private boolean sweeping = false;
+
+    // written by the loop thread
+    private volatile long hits;
+    private volatile long misses;
+    private volatile long pooledBytes; // bytes of idle buffers in the pool
+    // written by any thread
+    private final AtomicLong inUseBytes = new AtomicLong(0); // bytes allocated from the pool and not released
+    private final AtomicLong dropped = new AtomicLong(0); // count of released buffers freed because the pool is full
+
+    private static class SizeClass {
+        final int size;
+        final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+        SizeClass(int size) {
+            this.size = size;
+        }
+    }
+
+    /**
+     * an object holding memory which can be released when it's not used
+     */
+    public interface IdleMemoryHolder {
+        /**
+         * called by the pool on the loop thread
+         *
+         * @param pool the pool which is watching the holder
+         * @param now  current timestamp in millis
+         * @param idle the holder should release the memory if it's not used for this long
+         * @return true if the pool should check the holder again later
+         */
+        boolean checkIdle(DirectBufferPool pool, long now, int idle);
+    }
+
+    DirectBufferPool(SelectorEventLoop loop, long maxPooledBytes, int idleReleaseMillis) {
+        this.loop = loop;
+        this.maxPooledBytes = maxPooledBytes;
+        this.idleReleaseMillis = idleReleaseMillis;
+    }
+
+    /**
+     * get the pool of the current event loop
+     *
+     * @return the pool, or null if not running on an event loop or the pool is disabled
+     */
+    public static DirectBufferPool current() {
+        SelectorEventLoop loop = SelectorEventLoop.current();
+        if (loop == null)
+            return null;
+        DirectBufferPool pool = loop.getBufferPool();
+        if (pool.maxPooledBytes == 0)
+            return null;
+        return pool;
+    }
+
+    private SizeClass sizeClass(int size) {
+        // the array is very small, so simply iterate it
+        for (SizeClass c : classes) {
+            if (c.size == size)
+                return c;
+        }
+        SizeClass c = new SizeClass(size);
+        SizeClass[] arr = new SizeClass[classes.length + 1];
+        System.arraycopy(classes, 0, arr, 0, classes.length);
+        arr[classes.length] = c;
+        classes = arr;
+        return c;
+    }
+
+    /**
+     * allocate a buffer, must be called on the loop thread.<br>
+     * the returned buffer is cleared, and its content is undefined
+     *
+     * @param size capacity of the buffer
+     * @return the buffer, should be released with {@link #release(ByteBuffer)}
+     */
+    public ByteBuffer allocate(int size) {
+        assert Thread.currentThread() == loop.runningThread;
+        SizeClass c = sizeClass(size);
+        if (c.free.isEmpty()) {
+            drainReturned();
+        }
+        ByteBuffer buf = c.free.pollLast(); // the most recently used one is more likely to be in cache
+        if (buf == null) {
+            MISSES.lazySet(this, misses + 1);
+            buf = ByteBuffer.allocateDirect(size);
+        } else {
+            HITS.lazySet(this, hits + 1);
+            POOLED_BYTES.lazySet(this, pooledBytes - size);
+            buf.clear();
+        }
+        inUseBytes.addAndGet(size);
+        return buf;
+    }
+
+    /**
+     * return a buffer allocated from this pool, the buffer must not be used after releasing
+     */
+    @ThreadSafe
+    public void release(ByteBuffer buf) {
+        inUseBytes.addAndGet(-buf.capacity());
+        if (closed) {
+            Utils.clean(buf);
+        } else if (Thread.currentThread() == loop.runningThread) {
+            putBack(buf);
+        } else {
+            // if the pool is closed after adding, the buffer is left in the queue
+            // and it's freed by gc, which is ok because it's rare
+            returned.add(buf);
+        }
+    }
+
+    private void drainReturned() {
+        ByteBuffer buf;
+        while ((buf = returned.poll()) != null) {
+            putBack(buf);
+        }
+    }
+
+    // called on the loop thread
+    private void putBack(ByteBuffer buf) {
+        int size = buf.capacity();
+        if (pooledBytes + size > maxPooledBytes) {
+            dropped.incrementAndGet();
+            Utils.clean(buf);
+            return;
+        }
+        sizeClass(size).free.addLast(buf);
+        POOLED_BYTES.lazySet(this, pooledBytes + size);
+    }
+
+    /**
+     * check the holder periodically until it returns false, must be called on the loop thread.<br>
+     * this works even if pooling is disabled
+     */
+    public void watchIdle(IdleMemoryHolder holder) {
+        assert Thread.currentThread() == loop.runningThread;
+        idleHolders.add(holder);
+        if (!sweeping) {
+            sweeping = true;
+            loop.delayBackground(idleReleaseMillis, this::sweep);
+        }
+    }
+
+    private void sweep() {
+        long now = Config.currentTimestamp;
+        // only check the holders already in the queue
+        for (int i = idleHolders.size(); i > 0; --i) {
+            IdleMemoryHolder h = idleHolders.poll();
+            if (h.checkIdle(this, now, idleReleaseMillis)) {
+                idleHolders.add(h);
+            }
+        }
+        if (idleHolders.isEmpty()) {
+            sweeping = false;
+        } else {
+            loop.delayBackground(idleReleaseMillis, this::sweep);
+        }
+    }
+
+    // called when the loop is closed, the loop thread is already stopped
+    void close() {
+        closed = true;
+        drainReturned();
+        for (SizeClass c : classes) {
+            ByteBuffer buf;
+            while ((buf = c.free.poll()) != null) {
+                Utils.clean(buf);
+            }
+        }
+        pooledBytes = 0;
+        idleHolders.clear();
+    }
+
+    @ThreadSafe
+    public long getHits() {
+        return hits;
+    }
+
+    @ThreadSafe
+    public long getMisses() {
+        return misses;
+    }
+
+    @ThreadSafe
+    public long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    @ThreadSafe
+    public long getInUseBytes() {
+        return inUseBytes.get();
+    }
+
+    @ThreadSafe
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @ThreadSafe
+    public long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+}
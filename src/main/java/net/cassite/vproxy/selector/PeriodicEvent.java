@@ -4,20 +4,26 @@ public class PeriodicEvent {
     private final Runnable runnable;
     private final SelectorEventLoop loop;
     private final int delay;
+    private final boolean background;
     private boolean running = false;
     private TimerEvent te;
 
-    PeriodicEvent(Runnable runnable, SelectorEventLoop loop, int delay) {
+    PeriodicEvent(Runnable runnable, SelectorEventLoop loop, int delay, boolean background) {
         this.runnable = runnable;
         this.loop = loop;
         this.delay = delay;
+        this.background = background;
+    }
+
+    private TimerEvent delay() {
+        return background ? loop.delayBackground(delay, this::run) : loop.delay(delay, this::run);
     }
 
     // no need to handle concurrency of this function
     // it's only called once and called on event loop
     void start() {
         running = true;
-        te = loop.delay(delay, this::run);
+        te = delay();
     }
 
     private void run() {
@@ -25,7 +31,7 @@ public class PeriodicEvent {
             runnable.run();
             // at this time, it might be canceled
             if (running) {
-                te = loop.delay(delay, this::run);
+                te = delay();
             } else {
                 te = null; // set to null in case concurrency
             }
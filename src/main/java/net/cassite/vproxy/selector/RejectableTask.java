@@ -0,0 +1,34 @@
+package net.cassite.vproxy.selector;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A task posted by {@link SelectorEventLoop#nextTick(RejectableTask)}.<br>
+ * Exactly one of {@link #doRun()} and {@link #rejected()} is called:
+ * the task is rejected if the loop is closed before the task runs,
+ * so the resources held by the task can be released.
+ */
+public abstract class RejectableTask implements Runnable {
+    private static final AtomicIntegerFieldUpdater<RejectableTask> DONE = AtomicIntegerFieldUpdater.newUpdater(RejectableTask.class, "done");
+
+    private volatile int done = 0;
+
+    @Override
+    public final void run() {
+        if (DONE.compareAndSet(this, 0, 1)) {
+            doRun();
+        }
+    }
+
+    final void reject() {
+        if (DONE.compareAndSet(this, 0, 1)) {
+            rejected();
+        }
+    }
+
+    // called on the loop thread
+    protected abstract void doRun();
+
+    // called on the thread posting the task or the loop thread being closed
+    protected abstract void rejected();
+}
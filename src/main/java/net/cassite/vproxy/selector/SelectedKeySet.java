@@ -0,0 +1,134 @@
+package net.cassite.vproxy.selector;
+
+import net.cassite.vproxy.util.LogType;
+import net.cassite.vproxy.util.Logger;
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An array backed set for selected keys.<br>
+ * It replaces the HashSet inside the jdk selector implementation,
+ * so adding a key is only an array store, and the loop can iterate the keys by index.<br>
+ * <br>
+ * The jdk selector adds a key only once in one select() call,
+ * and the loop resets the set after handling all keys,
+ * so the set does not have to check duplication.
+ * contains() and remove() always return false.<br>
+ * <br>
+ * NOTE: this class is not thread safe, it should only be used on the event loop.
+ */
+final class SelectedKeySet extends AbstractSet<SelectionKey> {
+    private static final long SELECTED_KEYS_OFFSET;
+    private static final long PUBLIC_SELECTED_KEYS_OFFSET;
+    private static final Unsafe U;
+
+    static {
+        long selectedKeysOffset = -1;
+        long publicSelectedKeysOffset = -1;
+        Unsafe u = null;
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            u = (Unsafe) field.get(null);
+            Class<?> selectorImpl = Class.forName("sun.nio.ch.SelectorImpl", false, ClassLoader.getSystemClassLoader());
+            // use offsets instead of Field.set()
+            // because the jdk package is not opened to this module
+            //noinspection deprecation
+            selectedKeysOffset = u.objectFieldOffset(selectorImpl.getDeclaredField("selectedKeys"));
+            //noinspection deprecation
+            publicSelectedKeysOffset = u.objectFieldOffset(selectorImpl.getDeclaredField("publicSelectedKeys"));
+        } catch (Throwable t) {
+            Logger.warn(LogType.ALERT, "cannot use the array based selected key set, fallback to the jdk implementation: " + t);
+            u = null;
+        }
+        U = u;
+        SELECTED_KEYS_OFFSET = selectedKeysOffset;
+        PUBLIC_SELECTED_KEYS_OFFSET = publicSelectedKeysOffset;
+    }
+
+    SelectionKey[] keys = new SelectionKey[1024];
+    int size = 0;
+
+    private SelectedKeySet() {
+    }
+
+    /**
+     * install the set into the selector
+     *
+     * @param selector the selector
+     * @return the installed set, or null if the selector is not supported
+     */
+    static SelectedKeySet install(Selector selector) {
+        if (U == null)
+            return null;
+        try {
+            Class<?> selectorImpl = Class.forName("sun.nio.ch.SelectorImpl", false, ClassLoader.getSystemClassLoader());
+            if (!selectorImpl.isInstance(selector))
+                return null;
+        } catch (Throwable t) {
+            return null;
+        }
+        SelectedKeySet set = new SelectedKeySet();
+        U.putObjectVolatile(selector, SELECTED_KEYS_OFFSET, set);
+        U.putObjectVolatile(selector, PUBLIC_SELECTED_KEYS_OFFSET, set);
+        return set;
+    }
+
+    @Override
+    public boolean add(SelectionKey key) {
+        if (key == null)
+            return false;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size << 1);
+        }
+        keys[size++] = key;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<SelectionKey> iterator() {
+        return new Iterator<>() {
+            private int idx = 0;
+
+            @Override
+            public boolean hasNext() {
+                return idx < size;
+            }
+
+            @Override
+            public SelectionKey next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return keys[idx++];
+            }
+        };
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(keys, 0, size, null);
+        size = 0;
+    }
+}
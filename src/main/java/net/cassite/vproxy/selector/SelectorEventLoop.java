@@ -6,13 +6,38 @@ import net.cassite.vproxy.util.*;
 import java.io.IOException;
 import java.nio.channels.*;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
 public class SelectorEventLoop {
     static class RegisterData {
         Handler handler;
         Object att;
+        boolean removed = false; // make sure the removed callback is only called once
+    }
+
+    // operations posted by non-loop threads when queuedRegistration is enabled
+    static class RegisterCommand {
+        static final int ADD = 0;
+        static final int MODIFY = 1;
+        static final int ADD_OPS = 2;
+        static final int RM_OPS = 3;
+        static final int REMOVE = 4;
+
+        final int type;
+        final SelectableChannel channel;
+        final int ops;
+        final RegisterData registerData;
+        final SelectionKey key;
+
+        RegisterCommand(int type, SelectableChannel channel, int ops, RegisterData registerData, SelectionKey key) {
+            this.type = type;
+            this.channel = channel;
+            this.ops = ops;
+            this.registerData = registerData;
+            this.key = key;
+        }
     }
 
     private static final ThreadLocal<SelectorEventLoop> loopThreadLocal = new ThreadLocal<>();
@@ -22,8 +47,46 @@ public class SelectorEventLoop {
     }
 
     private final Selector selector;
-    private final TimeQueue<Runnable> timeQueue = new TimeQueue<>();
-    private final ConcurrentLinkedQueue<Runnable> runOnLoopEvents = new ConcurrentLinkedQueue<>();
+    private final TimeQueue<Runnable> timeQueue = TimeQueue.create();
+    private final MPSCQueue<Runnable> runOnLoopEvents;
+    // the background lane: maintenance work such as health checks and keepalive
+    // runs after the normal tasks and timers, and only for a bounded time in one iteration
+    private final TimeQueue<Runnable> backgroundTimeQueue = TimeQueue.create();
+    private final MPSCQueue<Runnable> backgroundEvents;
+    private final long backgroundSliceNanos;
+    private final int taskBudget;
+    // reused in every loop iteration, avoid allocating in the loop
+    private final Runnable[] tasksToRun;
+    private final ArrayList<Runnable> timersToRun = new ArrayList<>();
+    // run after all other events of the iteration are handled, just before select()
+    // only accessed by the loop thread
+    private final ArrayList<Runnable> iterationEndEvents = new ArrayList<>();
+    // set when wakeup() is called, and cleared just before select()
+    // so multiple wakeup calls between two selects only make one syscall
+    private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+    private final LongAdder wakeupIssued = new LongAdder();
+    private final LongAdder wakeupCoalesced = new LongAdder();
+    // when true, non-loop threads post register/modify/remove operations into the queue
+    // instead of operating the selector with OPERATE_SELECTOR_LOCK
+    private final boolean queuedRegistration;
+    private final MPSCQueue<RegisterCommand> registerCommands;
+    // busy poll: spin with selectNow() before blocking in select()
+    private final int spinIterations;
+    private final long spinNanos;
+    // null if not using the array based selected key set
+    private final SelectedKeySet selectedKeySet;
+    // the smoothed time spent in one loop iteration, not including the time blocked in select()
+    // only written by the loop thread
+    private volatile long loopLatencyNanos = 0;
+    private final SelectorEventLoopStats stats = new SelectorEventLoopStats(this);
+    private final DirectBufferPool bufferPool;
+    // the watchdog reports the loop when an iteration takes longer than this, 0 means not watched
+    final int stallThresholdMillis;
+    // the time when the current iteration started, 0 when blocking in select() or not running
+    // only written by the loop thread
+    volatile long busySince = 0;
+    // the busySince value of the last reported stall, only accessed by the watchdog thread
+    long lastStall = 0;
     private final HandlerContext ctx = new HandlerContext(this); // always reuse the ctx object
     public volatile Thread runningThread;
 
@@ -34,12 +97,28 @@ public class SelectorEventLoop {
     // see comments in add()/modify()/remove() and loop()
     private final Object OPERATE_SELECTOR_LOCK = new Object();
 
-    private SelectorEventLoop() throws IOException {
+    private SelectorEventLoop(SelectorEventLoopOpts opts) throws IOException {
         this.selector = Selector.open();
+        this.runOnLoopEvents = new MPSCQueue<>(opts.taskQueueCapacity);
+        this.backgroundEvents = new MPSCQueue<>(opts.taskQueueCapacity);
+        this.backgroundSliceNanos = opts.backgroundSliceMicros * 1000L;
+        this.taskBudget = opts.taskBudget;
+        this.tasksToRun = new Runnable[opts.taskBudget];
+        this.queuedRegistration = opts.queuedRegistration;
+        this.registerCommands = opts.queuedRegistration ? new MPSCQueue<>(opts.taskQueueCapacity) : null;
+        this.spinIterations = opts.spinIterations;
+        this.spinNanos = opts.spinMicros * 1000L;
+        this.selectedKeySet = opts.arraySelectedKeys ? SelectedKeySet.install(selector) : null;
+        this.stallThresholdMillis = opts.stallThresholdMillis;
+        this.bufferPool = new DirectBufferPool(this, opts.bufferPoolMaxBytes, opts.bufferIdleReleaseMillis);
     }
 
     public static SelectorEventLoop open() throws IOException {
-        return new SelectorEventLoop();
+        return open(SelectorEventLoopOpts.getDefault());
+    }
+
+    public static SelectorEventLoop open(SelectorEventLoopOpts opts) throws IOException {
+        return new SelectorEventLoop(opts);
     }
 
     private void tryRunnable(Runnable r) {
@@ -51,81 +130,317 @@ public class SelectorEventLoop {
         }
     }
 
-    private void handleNonSelectEvents() {
+    // return the time when all events are handled
+    private long handleNonSelectEvents() {
+        long start = System.nanoTime();
+        if (queuedRegistration) {
+            handleRegisterCommands();
+        }
         handleRunOnLoopEvents();
+        long afterTasks = System.nanoTime();
         handleTimeEvents();
+        long afterTimers = System.nanoTime();
+        long afterBackground = handleBackgroundEvents(afterTimers);
+        long end = afterBackground;
+        if (!iterationEndEvents.isEmpty()) {
+            handleIterationEndEvents();
+            end = System.nanoTime();
+        }
+        stats.add(SelectorEventLoopStats.TASK_NANOS, afterTasks - start);
+        stats.add(SelectorEventLoopStats.TIMER_NANOS, afterTimers - afterTasks);
+        stats.add(SelectorEventLoopStats.BACKGROUND_NANOS, afterBackground - afterTimers);
+        stats.add(SelectorEventLoopStats.ITERATION_END_NANOS, end - afterBackground);
+        return end;
+    }
+
+    private void handleIterationEndEvents() {
+        // events added when running are also handled,
+        // otherwise they might wait until the blocking select() returns
+        for (int i = 0; i < iterationEndEvents.size(); ++i) {
+            tryRunnable(iterationEndEvents.get(i));
+        }
+        stats.add(SelectorEventLoopStats.ITERATION_END_RUN, iterationEndEvents.size());
+        iterationEndEvents.clear();
+    }
+
+    // run background tasks and timers until both are empty or the time slice is used up
+    // at least one is run in each iteration, so the background lane will not starve
+    // return the time when the handling ends
+    private long handleBackgroundEvents(long start) {
+        long now = start;
+        int n = 0;
+        while (true) {
+            Runnable r = backgroundEvents.poll();
+            if (r == null && backgroundTimeQueue.nextTime() == 0) {
+                r = backgroundTimeQueue.pop();
+            }
+            if (r == null)
+                break;
+            tryRunnable(r);
+            ++n;
+            now = System.nanoTime();
+            if (now - start >= backgroundSliceNanos)
+                break;
+        }
+        stats.add(SelectorEventLoopStats.BACKGROUND_RUN, n);
+        return now;
     }
 
     private void handleRunOnLoopEvents() {
+        // retrieve tasks first, then run them
+        // tasks added when running will be handled in the next loop
+        // and at most `taskBudget` tasks are handled in one loop,
+        // the rest will be handled after selected keys are handled
         Runnable r;
-        List<Runnable> toRun = new LinkedList<>();
-        while ((r = runOnLoopEvents.poll()) != null) {
-            toRun.add(r);
+        int n = 0;
+        while (n < taskBudget && (r = runOnLoopEvents.poll()) != null) {
+            tasksToRun[n++] = r;
         }
-        for (Runnable rr : toRun) {
+        for (int i = 0; i < n; ++i) {
+            Runnable rr = tasksToRun[i];
+            tasksToRun[i] = null; // release the ref
             tryRunnable(rr);
         }
+        stats.add(SelectorEventLoopStats.TASKS_RUN, n);
+    }
+
+    private void handleRegisterCommands() {
+        // all commands are applied, the commands are cheap
+        // and the loop should see the channels as soon as possible
+        RegisterCommand cmd;
+        while ((cmd = registerCommands.poll()) != null) {
+            try {
+                applyRegisterCommand(cmd);
+            } catch (Throwable t) {
+                Logger.error(LogType.IMPROPER_USE, "applying register command got exception", t);
+            }
+        }
+    }
+
+    private void applyRegisterCommand(RegisterCommand cmd) {
+        SelectableChannel channel = cmd.channel;
+        if (cmd.type == RegisterCommand.ADD) {
+            try {
+                add0(channel, cmd.ops, cmd.registerData);
+            } catch (IOException e) {
+                // the caller already returned, so we cannot throw the exception
+                // alert the handler that the channel is not (and will not be) registered
+                assert Logger.lowLevelDebug("register channel " + channel + " failed: " + e);
+                triggerRemovedCallback(channel, cmd.registerData);
+            }
+            return;
+        }
+        if (cmd.type == RegisterCommand.REMOVE) {
+            SelectionKey key = cmd.key;
+            if (key == null) {
+                key = channel.keyFor(selector);
+                if (key == null)
+                    return; // not registered
+            }
+            key.cancel();
+            triggerRemovedCallback(channel, (RegisterData) key.attachment());
+            return;
+        }
+        SelectionKey key = channel.keyFor(selector);
+        if (key == null || !key.isValid()) {
+            assert Logger.lowLevelDebug("channel " + channel + " is removed before modifying ops");
+            return;
+        }
+        int ops;
+        if (cmd.type == RegisterCommand.ADD_OPS) {
+            ops = key.interestOps() | cmd.ops;
+        } else if (cmd.type == RegisterCommand.RM_OPS) {
+            ops = key.interestOps() & ~cmd.ops;
+        } else {
+            ops = cmd.ops;
+        }
+        key.interestOps(ops);
+    }
+
+    private boolean hasTasks() {
+        return !runOnLoopEvents.isEmpty() || (queuedRegistration && !registerCommands.isEmpty())
+            || !backgroundEvents.isEmpty() || backgroundTimeQueue.nextTime() == 0;
+    }
+
+    // timeout == 0 means wait until an event arrives
+    private int blockingSelect(int timeout) throws IOException {
+        if (spinIterations == 0 && spinNanos == 0) {
+            return timeout == 0 ? selector.select() : selector.select(timeout);
+        }
+        // busy poll
+        // spin with selectNow() until events arrive or the spin limit is reached,
+        // then go to the blocking select()
+        long start = System.nanoTime();
+        long timeoutNanos = timeout * 1_000_000L;
+        int iterations = 0;
+        while (true) {
+            int n = selector.selectNow();
+            if (n > 0)
+                return n;
+            // the wakeup might be consumed by selectNow()
+            // so check the flag after each selectNow(),
+            // return if anyone (nextTick or add/modify/remove) tried to wake the loop
+            if (wakeupPending.get())
+                return 0;
+            long spent = System.nanoTime() - start;
+            if (timeout != 0 && spent >= timeoutNanos)
+                return 0; // timer event
+            ++iterations;
+            if ((spinIterations != 0 && iterations >= spinIterations) || (spinNanos != 0 && spent >= spinNanos)) {
+                if (timeout == 0) {
+                    return selector.select();
+                }
+                return selector.select(Math.max(1, timeout - spent / 1_000_000));
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private boolean needQueue() {
+        return queuedRegistration && needLockAndWake();
+    }
+
+    private void postRegisterCommand(RegisterCommand cmd) {
+        registerCommands.add(cmd);
+        wakeup();
     }
 
     private void handleTimeEvents() {
-        List<Runnable> toRun = new LinkedList<>();
         while (timeQueue.nextTime() == 0) {
             Runnable r = timeQueue.pop();
-            toRun.add(r);
+            timersToRun.add(r);
         }
-        for (Runnable r : toRun) {
-            tryRunnable(r);
+        int size = timersToRun.size();
+        for (int i = 0; i < size; ++i) {
+            tryRunnable(timersToRun.get(i));
         }
+        timersToRun.clear();
+        stats.add(SelectorEventLoopStats.TIMERS_FIRED, size);
     }
 
-    @SuppressWarnings("unchecked")
-    private void doHandling(Iterator<SelectionKey> keys) {
+    public int getTaskBudget() {
+        return taskBudget;
+    }
+
+    public boolean isArraySelectedKeys() {
+        return selectedKeySet != null;
+    }
+
+    /**
+     * @return the smoothed time (nanoseconds) the loop spends in one iteration,
+     * the time blocked in select() is not included.
+     * a larger value means events on this loop wait longer before being handled
+     */
+    @ThreadSafe
+    public long getLoopLatencyNanos() {
+        return loopLatencyNanos;
+    }
+
+    public int getStallThresholdMillis() {
+        return stallThresholdMillis;
+    }
+
+    @ThreadSafe
+    public SelectorEventLoopStats getStats() {
+        return stats;
+    }
+
+    public DirectBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    int registeredChannelCount() {
+        try {
+            return selector.keys().size();
+        } catch (ClosedSelectorException e) {
+            return 0;
+        }
+    }
+
+    // the handling time of each key is recorded
+    // the end time of the previous key is used as the start time of the next key
+    // return the time when all keys are handled
+    private long doHandling(Iterator<SelectionKey> keys, long start) {
+        long last = start;
+        int n = 0;
         while (keys.hasNext()) {
             SelectionKey key = keys.next();
             keys.remove();
+            handleKey(key);
+            last = recordHandlerTime(last);
+            ++n;
+        }
+        stats.add(SelectorEventLoopStats.SELECTED_KEYS, n);
+        return last;
+    }
 
-            RegisterData registerData = (RegisterData) key.attachment();
+    // iterate the array by index, no iterator and no hash set removal
+    private long doHandling(SelectedKeySet set, long start) {
+        SelectionKey[] keys = set.keys;
+        int size = set.size;
+        long last = start;
+        for (int i = 0; i < size; ++i) {
+            SelectionKey key = keys[i];
+            keys[i] = null; // release the ref
+            handleKey(key);
+            last = recordHandlerTime(last);
+        }
+        set.size = 0;
+        stats.add(SelectorEventLoopStats.SELECTED_KEYS, size);
+        return last;
+    }
 
-            SelectableChannel channel = key.channel();
-            Handler handler = registerData.handler;
+    private long recordHandlerTime(long start) {
+        long now = System.nanoTime();
+        long cost = now - start;
+        if (cost > stats.maxHandlerNanos) {
+            stats.set(SelectorEventLoopStats.MAX_HANDLER_NANOS, cost);
+        }
+        return now;
+    }
 
-            ctx.channel = channel;
-            ctx.attachment = registerData.att;
+    @SuppressWarnings("unchecked")
+    private void handleKey(SelectionKey key) {
+        RegisterData registerData = (RegisterData) key.attachment();
 
-            if (!key.isValid()) {
-                //noinspection UnnecessaryContinue
-                continue;
-            } else if (!channel.isOpen()) {
-                Logger.stderr("channel is closed but still firing");
-            } else {
-                int readyOps = key.readyOps();
-                // handle read first because it's most likely to happen
-                if ((readyOps & SelectionKey.OP_READ) != 0) {
-                    try {
-                        handler.readable(ctx);
-                    } catch (Throwable t) {
-                        Logger.error(LogType.IMPROPER_USE, "the readable callback got exception", t);
-                    }
-                } else if ((readyOps & SelectionKey.OP_CONNECT) != 0) {
-                    try {
-                        handler.connected(ctx);
-                    } catch (Throwable t) {
-                        Logger.error(LogType.IMPROPER_USE, "the connected callback got exception", t);
-                    }
-                } else if ((readyOps & SelectionKey.OP_ACCEPT) != 0) {
-                    try {
-                        handler.accept(ctx);
-                    } catch (Throwable t) {
-                        Logger.error(LogType.IMPROPER_USE, "the accept callback got exception", t);
-                    }
+        SelectableChannel channel = key.channel();
+        Handler handler = registerData.handler;
+
+        ctx.channel = channel;
+        ctx.attachment = registerData.att;
+
+        if (!key.isValid()) {
+            return;
+        } else if (!channel.isOpen()) {
+            Logger.stderr("channel is closed but still firing");
+        } else {
+            int readyOps = key.readyOps();
+            // handle read first because it's most likely to happen
+            if ((readyOps & SelectionKey.OP_READ) != 0) {
+                try {
+                    handler.readable(ctx);
+                } catch (Throwable t) {
+                    Logger.error(LogType.IMPROPER_USE, "the readable callback got exception", t);
                 }
-                // read and write may happen in the same loop round
-                if ((readyOps & SelectionKey.OP_WRITE) != 0) {
-                    try {
-                        handler.writable(ctx);
-                    } catch (Throwable t) {
-                        Logger.error(LogType.IMPROPER_USE, "the writable callback got exception", t);
-                    }
+            } else if ((readyOps & SelectionKey.OP_CONNECT) != 0) {
+                try {
+                    handler.connected(ctx);
+                } catch (Throwable t) {
+                    Logger.error(LogType.IMPROPER_USE, "the connected callback got exception", t);
+                }
+            } else if ((readyOps & SelectionKey.OP_ACCEPT) != 0) {
+                try {
+                    handler.accept(ctx);
+                } catch (Throwable t) {
+                    Logger.error(LogType.IMPROPER_USE, "the accept callback got exception", t);
+                }
+            }
+            // read and write may happen in the same loop round
+            if ((readyOps & SelectionKey.OP_WRITE) != 0) {
+                try {
+                    handler.writable(ctx);
+                } catch (Throwable t) {
+                    Logger.error(LogType.IMPROPER_USE, "the writable callback got exception", t);
                 }
             }
         }
@@ -137,6 +452,35 @@ public class SelectorEventLoop {
             RegisterData att = tuple.right;
             triggerRemovedCallback(channel, att);
         }
+        if (queuedRegistration) {
+            // the channels still in the queue will never be registered
+            RegisterCommand cmd;
+            while ((cmd = registerCommands.poll()) != null) {
+                if (cmd.type == RegisterCommand.ADD) {
+                    triggerRemovedCallback(cmd.channel, cmd.registerData);
+                } else if (cmd.type == RegisterCommand.REMOVE && cmd.key != null) {
+                    triggerRemovedCallback(cmd.channel, (RegisterData) cmd.key.attachment());
+                }
+            }
+        }
+        rejectTasks();
+        // buffers may be released in the removed callbacks, so close the pool at last
+        bufferPool.close();
+    }
+
+    // the tasks left in the queue will never run, let them release the resources
+    private void rejectTasks() {
+        while (!runOnLoopEvents.isEmpty()) {
+            Runnable r = runOnLoopEvents.poll();
+            if (r == null) {
+                // a producer is still writing into the queue
+                Thread.yield();
+                continue;
+            }
+            if (r instanceof RejectableTask) {
+                ((RejectableTask) r).reject();
+            }
+        }
     }
 
     @Blocking // will block until the loop actually starts
@@ -156,6 +500,11 @@ public class SelectorEventLoop {
         // set thread
         runningThread = Thread.currentThread();
         loopThreadLocal.set(this);
+        long afterSelect = 0;
+        long beforeSelect;
+        if (stallThresholdMillis > 0) {
+            SelectorEventLoopWatchdog.watch(this);
+        }
         // run
         while (selector.isOpen()) {
             synchronized (CLOSE_LOCK) {
@@ -169,23 +518,36 @@ public class SelectorEventLoop {
 
                 // handle some non select events
                 Config.currentTimestamp = System.currentTimeMillis();
-                handleNonSelectEvents();
+                if (busySince == 0) {
+                    busySince = System.nanoTime(); // the first iteration, or select() failed
+                }
+                beforeSelect = handleNonSelectEvents();
             }
             // here we do not lock select()
             // let close() have chance to run
 
+            if (afterSelect != 0) {
+                long busy = beforeSelect - afterSelect;
+                loopLatencyNanos += (busy - loopLatencyNanos) >> 3; // ewma, alpha = 1/8
+            }
+
             final int selectedSize;
+            busySince = 0; // the iteration is finished
+            // clear the flag before checking the events
+            // wakeup() called after this point will wake the selector
+            wakeupPending.set(false);
             try {
-                if (timeQueue.isEmpty() && runOnLoopEvents.isEmpty()) {
-                    selectedSize = selector.select(); // let it sleep
-                } else if (!runOnLoopEvents.isEmpty()) {
+                boolean hasTasks = hasTasks();
+                if (timeQueue.isEmpty() && backgroundTimeQueue.isEmpty() && !hasTasks) {
+                    selectedSize = blockingSelect(0); // let it sleep
+                } else if (hasTasks) {
                     selectedSize = selector.selectNow(); // immediately return
                 } else {
-                    int time = timeQueue.nextTime();
+                    int time = Math.min(timeQueue.nextTime(), backgroundTimeQueue.nextTime());
                     if (time == 0) {
                         selectedSize = selector.selectNow(); // immediately return
                     } else {
-                        selectedSize = selector.select(time); // wait until the nearest timer
+                        selectedSize = blockingSelect(time); // wait until the nearest timer
                     }
                 }
             } catch (IOException | ClosedSelectorException e) {
@@ -193,11 +555,18 @@ public class SelectorEventLoop {
                 // if it's closed, the next loop will not run
                 continue;
             }
+            afterSelect = System.nanoTime();
+            busySince = afterSelect;
+            stats.add(SelectorEventLoopStats.SELECT_NANOS, afterSelect - beforeSelect);
+            stats.add(SelectorEventLoopStats.ITERATIONS, 1);
 
             // we lock the OPERATE_SELECTOR_LOCK
             // to make sure the add() is finished
             // and the selectionKeys will be working in the next loop
-            synchronized (OPERATE_SELECTOR_LOCK) { // do nothing, just wait for lock to release
+            // no need to lock if operations are posted into the queue
+            if (!queuedRegistration) {
+                synchronized (OPERATE_SELECTOR_LOCK) { // do nothing, just wait for lock to release
+                }
             }
 
             // here we lock again
@@ -208,13 +577,23 @@ public class SelectorEventLoop {
                 if (!selector.isOpen())
                     break; // break if it's closed
 
-                if (selectedSize > 0) {
+                long afterHandling = afterSelect;
+                if (selectedKeySet != null) {
+                    if (selectedKeySet.size > 0) {
+                        afterHandling = doHandling(selectedKeySet, afterSelect);
+                    }
+                } else if (selectedSize > 0) {
                     Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
-                    doHandling(keys);
+                    afterHandling = doHandling(keys, afterSelect);
                 }
+                stats.add(SelectorEventLoopStats.HANDLER_NANOS, afterHandling - afterSelect);
             }
             // while-loop ends here
         }
+        busySince = 0;
+        if (stallThresholdMillis > 0) {
+            SelectorEventLoopWatchdog.unwatch(this);
+        }
         runningThread = null; // it's not running now, set to null
         loopThreadLocal.remove(); // remove from thread local
         // do the final release
@@ -230,7 +609,54 @@ public class SelectorEventLoop {
         runOnLoopEvents.add(r);
         if (runningThread == null || Thread.currentThread() == runningThread)
             return; // we do not need to wakeup because it's not started or is already waken up
-        selector.wakeup(); // wake the selector because new event is added
+        wakeup(); // wake the selector because new event is added
+    }
+
+    /**
+     * run the task on the loop, or reject it if the loop is closed before the task runs
+     *
+     * @param r the task
+     */
+    @ThreadSafe
+    public void nextTick(RejectableTask r) {
+        nextTick((Runnable) r);
+        if (isClosed()) {
+            // the loop may be closed before or after the tasks are drained,
+            // so the task is rejected here as well, it only takes effect once
+            r.reject();
+        }
+    }
+
+    private void wakeup() {
+        if (wakeupPending.compareAndSet(false, true)) {
+            wakeupIssued.increment();
+            selector.wakeup();
+        } else {
+            // the selector is already woken up and did not go to select again
+            wakeupCoalesced.increment();
+        }
+    }
+
+    @ThreadSafe
+    public long getWakeupIssued() {
+        return wakeupIssued.longValue();
+    }
+
+    @ThreadSafe
+    public long getWakeupCoalesced() {
+        return wakeupCoalesced.longValue();
+    }
+
+    /**
+     * run the event after all events of the current iteration are handled, just before the loop goes to select().<br>
+     * the event runs only once, e.g. to flush data written by many handlers in one iteration.
+     * should only be called on the loop thread
+     *
+     * @param r the event
+     */
+    public void runAtIterationEnd(Runnable r) {
+        assert runningThread == null || Thread.currentThread() == runningThread;
+        iterationEndEvents.add(r);
     }
 
     @ThreadSafe
@@ -247,13 +673,59 @@ public class SelectorEventLoop {
         TimerEvent e = new TimerEvent(this);
         // timeQueue is not thread safe
         // modify it in the event loop's thread
-        nextTick(() -> e.setEvent(timeQueue.push(timeout, r)));
+        if (Thread.currentThread() == runningThread) {
+            e.setEvent(timeQueue.push(timeout, r));
+        } else {
+            nextTick(() -> e.setEvent(timeQueue.push(timeout, r)));
+        }
         return e;
     }
 
     @ThreadSafe
     public PeriodicEvent period(int timeout, Runnable r) {
-        PeriodicEvent pe = new PeriodicEvent(r, this, timeout);
+        PeriodicEvent pe = new PeriodicEvent(r, this, timeout, false);
+        pe.start();
+        return pe;
+    }
+
+    /**
+     * run the task in the background lane.
+     * background tasks run after normal tasks and timers,
+     * and only take a bounded time slice in one loop iteration.
+     * use it for maintenance work that does not care about latency
+     */
+    @ThreadSafe
+    public void nextTickBackground(Runnable r) {
+        backgroundEvents.add(r);
+        if (runningThread == null || Thread.currentThread() == runningThread)
+            return;
+        wakeup();
+    }
+
+    /**
+     * the background lane version of {@link #delay(int, Runnable)}
+     *
+     * @see #nextTickBackground(Runnable)
+     */
+    @ThreadSafe
+    public TimerEvent delayBackground(int timeout, Runnable r) {
+        TimerEvent e = new TimerEvent(this);
+        if (Thread.currentThread() == runningThread) {
+            e.setEvent(backgroundTimeQueue.push(timeout, r));
+        } else {
+            nextTick(() -> e.setEvent(backgroundTimeQueue.push(timeout, r)));
+        }
+        return e;
+    }
+
+    /**
+     * the background lane version of {@link #period(int, Runnable)}
+     *
+     * @see #nextTickBackground(Runnable)
+     */
+    @ThreadSafe
+    public PeriodicEvent periodBackground(int timeout, Runnable r) {
+        PeriodicEvent pe = new PeriodicEvent(r, this, timeout, true);
         pe.start();
         return pe;
     }
@@ -265,9 +737,11 @@ public class SelectorEventLoop {
         RegisterData registerData = new RegisterData();
         registerData.att = attachment;
         registerData.handler = handler;
-        if (needLockAndWake()) {
+        if (needQueue()) {
+            postRegisterCommand(new RegisterCommand(RegisterCommand.ADD, channel, ops, registerData, null));
+        } else if (needLockAndWake()) {
             synchronized (OPERATE_SELECTOR_LOCK) { // lock it to make sure register is done
-                selector.wakeup();
+                wakeup();
                 add0(channel, ops, registerData);
             }
         } else {
@@ -306,7 +780,7 @@ public class SelectorEventLoop {
         // so we consider a lock and wake
         if (needLockAndWake()) {
             synchronized (OPERATE_SELECTOR_LOCK) {
-                selector.wakeup();
+                wakeup();
                 key.interestOps(ops);
             }
         } else {
@@ -316,18 +790,30 @@ public class SelectorEventLoop {
 
     @ThreadSafe
     public void modify(SelectableChannel channel, int ops) {
+        if (needQueue()) {
+            postRegisterCommand(new RegisterCommand(RegisterCommand.MODIFY, channel, ops, null, null));
+            return;
+        }
         SelectionKey key = getKeyCheckNull(channel);
         doModify(key, ops);
     }
 
     @ThreadSafe
     public void addOps(SelectableChannel channel, int ops) {
+        if (needQueue()) {
+            postRegisterCommand(new RegisterCommand(RegisterCommand.ADD_OPS, channel, ops, null, null));
+            return;
+        }
         SelectionKey key = getKeyCheckNull(channel);
         doModify(key, key.interestOps() | ops);
     }
 
     @ThreadSafe
     public void rmOps(SelectableChannel channel, int ops) {
+        if (needQueue()) {
+            postRegisterCommand(new RegisterCommand(RegisterCommand.RM_OPS, channel, ops, null, null));
+            return;
+        }
         SelectionKey key = getKeyCheckNull(channel);
         doModify(key, key.interestOps() & ~ops);
     }
@@ -340,13 +826,20 @@ public class SelectorEventLoop {
         //noinspection SynchronizationOnLocalVariableOrMethodParameter
         synchronized (channel) {
             key = channel.keyFor(selector);
+            if (needQueue()) {
+                // the key might be null if the channel is still in the queue to register,
+                // so let the loop retrieve the key in that case
+                // otherwise, use the key now because it might be deregistered if the channel is closed
+                postRegisterCommand(new RegisterCommand(RegisterCommand.REMOVE, channel, 0, null, key));
+                return;
+            }
             if (key == null)
                 return;
         }
         RegisterData att = (RegisterData) key.attachment();
         if (needLockAndWake()) {
             synchronized (OPERATE_SELECTOR_LOCK) { // lock it to make sure cancel is done
-                selector.wakeup();
+                wakeup();
                 key.cancel();
             }
         } else {
@@ -355,6 +848,27 @@ public class SelectorEventLoop {
         triggerRemovedCallback(channel, att);
     }
 
+    /**
+     * remove the channel from the selector without firing the `removed` callback.<br>
+     * it's used when the channel is moved to another event loop,
+     * the channel can be registered into another selector right after this method returns.<br>
+     * should be called on the loop thread
+     *
+     * @param channel the channel to detach
+     * @return the attachment of the channel, or null if not registered
+     */
+    public Object detach(SelectableChannel channel) {
+        assert runningThread == null || Thread.currentThread() == runningThread;
+        SelectionKey key = channel.keyFor(selector);
+        if (key == null || !key.isValid())
+            return null;
+        RegisterData att = (RegisterData) key.attachment();
+        // the selector will not fire the callback when closing
+        att.removed = true;
+        key.cancel();
+        return att.att;
+    }
+
     @ThreadSafe
     public int getOps(SelectableChannel channel) {
         SelectionKey key = getKeyCheckNull(channel);
@@ -377,6 +891,9 @@ public class SelectorEventLoop {
     @SuppressWarnings("unchecked")
     private void triggerRemovedCallback(SelectableChannel channel, RegisterData registerData) {
         assert registerData != null;
+        if (registerData.removed)
+            return;
+        registerData.removed = true;
         ctx.channel = channel;
         ctx.attachment = registerData.att;
         try {
@@ -391,6 +908,14 @@ public class SelectorEventLoop {
         return !selector.isOpen();
     }
 
+    /**
+     * @return true if the loop is closed and the loop thread is not running anymore
+     */
+    @ThreadSafe
+    public boolean isTerminated() {
+        return isClosed() && runningThread == null;
+    }
+
     @Blocking
     // wait until it's actually closed if closing on a non event loop thread
     @ThreadSafe
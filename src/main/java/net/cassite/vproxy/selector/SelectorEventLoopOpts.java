@@ -0,0 +1,225 @@
+package net.cassite.vproxy.selector;
+
+public class SelectorEventLoopOpts {
+    int taskBudget = 4096; // max count of nextTick tasks to run in one loop iteration
+    int taskQueueCapacity = 4096; // capacity of the array backing the task queue
+    boolean queuedRegistration = false; // non-loop threads post register operations into a queue instead of locking
+    int spinIterations = 0; // busy poll: max selectNow() calls before blocking, 0 means no limit on iterations
+    int spinMicros = 0; // busy poll: max time spinning before blocking, 0 means no limit on time
+    boolean arraySelectedKeys = true; // replace the HashSet of selected keys inside the jdk selector with an array
+    int backgroundSliceMicros = 1000; // max time running background tasks and timers in one loop iteration
+    int stallThresholdMillis = 1000; // report the loop when an iteration takes longer than this, 0 means disabled
+    long bufferPoolMaxBytes = 32 * 1024 * 1024; // max bytes of idle direct buffers kept in the pool, 0 means disabled
+    int bufferIdleReleaseMillis = 5000; // elastic buffers release their memory after being empty for this long
+
+    public static SelectorEventLoopOpts getDefault() {
+        return DefaultSelectorEventLoopOpts.defaultSelectorEventLoopOpts;
+    }
+
+    public SelectorEventLoopOpts() {
+    }
+
+    public SelectorEventLoopOpts(SelectorEventLoopOpts opts) {
+        this.taskBudget = opts.taskBudget;
+        this.taskQueueCapacity = opts.taskQueueCapacity;
+        this.queuedRegistration = opts.queuedRegistration;
+        this.spinIterations = opts.spinIterations;
+        this.spinMicros = opts.spinMicros;
+        this.arraySelectedKeys = opts.arraySelectedKeys;
+        this.backgroundSliceMicros = opts.backgroundSliceMicros;
+        this.stallThresholdMillis = opts.stallThresholdMillis;
+        this.bufferPoolMaxBytes = opts.bufferPoolMaxBytes;
+        this.bufferIdleReleaseMillis = opts.bufferIdleReleaseMillis;
+    }
+
+    public SelectorEventLoopOpts setTaskBudget(int taskBudget) {
+        if (taskBudget <= 0)
+            throw new IllegalArgumentException("taskBudget = " + taskBudget + " <= 0");
+        this.taskBudget = taskBudget;
+        return this;
+    }
+
+    public SelectorEventLoopOpts setTaskQueueCapacity(int taskQueueCapacity) {
+        if (taskQueueCapacity <= 0)
+            throw new IllegalArgumentException("taskQueueCapacity = " + taskQueueCapacity + " <= 0");
+        this.taskQueueCapacity = taskQueueCapacity;
+        return this;
+    }
+
+    /**
+     * when enabled, add/modify/addOps/rmOps/remove called from non-loop threads
+     * are posted into a queue and applied by the loop thread in bulk.
+     * the methods return before the operation is applied,
+     * and the registering failure is reported by the `removed` callback instead of an exception
+     */
+    public SelectorEventLoopOpts setQueuedRegistration(boolean queuedRegistration) {
+        this.queuedRegistration = queuedRegistration;
+        return this;
+    }
+
+    /**
+     * busy poll: the loop spins with selectNow() before falling back to the blocking select().
+     * spinning stops when either limit is reached. set both to 0 to disable busy poll (the default).
+     * it costs cpu but reduces the latency of waking up the loop
+     */
+    public SelectorEventLoopOpts setBusyPoll(int spinIterations, int spinMicros) {
+        if (spinIterations < 0)
+            throw new IllegalArgumentException("spinIterations = " + spinIterations + " < 0");
+        if (spinMicros < 0)
+            throw new IllegalArgumentException("spinMicros = " + spinMicros + " < 0");
+        this.spinIterations = spinIterations;
+        this.spinMicros = spinMicros;
+        return this;
+    }
+
+    /**
+     * when enabled (the default), the loop tries to replace the selected key set inside the jdk selector
+     * with an array, and iterates the keys by index.
+     * if the jdk implementation is not supported, the loop falls back to the original set
+     */
+    public SelectorEventLoopOpts setArraySelectedKeys(boolean arraySelectedKeys) {
+        this.arraySelectedKeys = arraySelectedKeys;
+        return this;
+    }
+
+    /**
+     * the loop stops running background tasks and timers in one iteration
+     * when the time spent on them exceeds the slice, the rest run in later iterations.
+     * at least one background task or timer runs in each iteration
+     */
+    public SelectorEventLoopOpts setBackgroundSliceMicros(int backgroundSliceMicros) {
+        if (backgroundSliceMicros <= 0)
+            throw new IllegalArgumentException("backgroundSliceMicros = " + backgroundSliceMicros + " <= 0");
+        this.backgroundSliceMicros = backgroundSliceMicros;
+        return this;
+    }
+
+    /**
+     * a watchdog thread checks whether the loop is stuck in one iteration longer than the threshold,
+     * which usually means some blocking code runs on the loop.
+     * the stack of the loop thread is logged once for each stall, and the stall is counted in the stats.
+     * set to 0 to disable the watchdog for the loop
+     */
+    public SelectorEventLoopOpts setStallThresholdMillis(int stallThresholdMillis) {
+        if (stallThresholdMillis < 0)
+            throw new IllegalArgumentException("stallThresholdMillis = " + stallThresholdMillis + " < 0");
+        this.stallThresholdMillis = stallThresholdMillis;
+        return this;
+    }
+
+    /**
+     * connection buffers allocated on the loop are taken from the pool of the loop,
+     * and returned into the pool when released.
+     * the pool keeps at most this many bytes of idle buffers, the others are freed.
+     * set to 0 to disable the pool, then buffers are allocated and freed every time
+     */
+    public SelectorEventLoopOpts setBufferPoolMaxBytes(long bufferPoolMaxBytes) {
+        if (bufferPoolMaxBytes < 0)
+            throw new IllegalArgumentException("bufferPoolMaxBytes = " + bufferPoolMaxBytes + " < 0");
+        this.bufferPoolMaxBytes = bufferPoolMaxBytes;
+        return this;
+    }
+
+    /**
+     * an elastic buffer which became empty on the loop releases its memory
+     * if it stays empty for this long
+     */
+    public SelectorEventLoopOpts setBufferIdleReleaseMillis(int bufferIdleReleaseMillis) {
+        if (bufferIdleReleaseMillis <= 0)
+            throw new IllegalArgumentException("bufferIdleReleaseMillis = " + bufferIdleReleaseMillis + " <= 0");
+        this.bufferIdleReleaseMillis = bufferIdleReleaseMillis;
+        return this;
+    }
+
+    public int getTaskBudget() {
+        return taskBudget;
+    }
+
+    public int getTaskQueueCapacity() {
+        return taskQueueCapacity;
+    }
+
+    public boolean isQueuedRegistration() {
+        return queuedRegistration;
+    }
+
+    public int getSpinIterations() {
+        return spinIterations;
+    }
+
+    public int getSpinMicros() {
+        return spinMicros;
+    }
+
+    public boolean isArraySelectedKeys() {
+        return arraySelectedKeys;
+    }
+
+    public int getBackgroundSliceMicros() {
+        return backgroundSliceMicros;
+    }
+
+    public int getStallThresholdMillis() {
+        return stallThresholdMillis;
+    }
+
+    public long getBufferPoolMaxBytes() {
+        return bufferPoolMaxBytes;
+    }
+
+    public int getBufferIdleReleaseMillis() {
+        return bufferIdleReleaseMillis;
+    }
+}
+
+final class DefaultSelectorEventLoopOpts extends SelectorEventLoopOpts {
+    static final DefaultSelectorEventLoopOpts defaultSelectorEventLoopOpts = new DefaultSelectorEventLoopOpts();
+
+    private DefaultSelectorEventLoopOpts() {
+    }
+
+    @Override
+    public SelectorEventLoopOpts setTaskBudget(int taskBudget) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SelectorEventLoopOpts setTaskQueueCapacity(int taskQueueCapacity) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SelectorEventLoopOpts setQueuedRegistration(boolean queuedRegistration) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SelectorEventLoopOpts setBusyPoll(int spinIterations, int spinMicros) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SelectorEventLoopOpts setArraySelectedKeys(boolean arraySelectedKeys) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SelectorEventLoopOpts setStallThresholdMillis(int stallThresholdMillis) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SelectorEventLoopOpts setBackgroundSliceMicros(int backgroundSliceMicros) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SelectorEventLoopOpts setBufferPoolMaxBytes(long bufferPoolMaxBytes) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SelectorEventLoopOpts setBufferIdleReleaseMillis(int bufferIdleReleaseMillis) {
+        throw new UnsupportedOperationException();
+    }
+}
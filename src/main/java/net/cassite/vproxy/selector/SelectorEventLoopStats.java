@@ -0,0 +1,173 @@
+package net.cassite.vproxy.selector;
+
+import net.cassite.vproxy.util.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Counters of a {@link SelectorEventLoop}.<br>
+ * All fields are only written by the loop thread
+ * (except that stalls is written by the watchdog thread),
+ * so they are simply added without any lock or cas,
+ * and the new values are published with lazySet, which does not require a full fence.
+ * Other threads may read a slightly stale value.
+ */
+public class SelectorEventLoopStats {
+    private final SelectorEventLoop loop;
+
+    volatile long iterations;
+    volatile long selectNanos; // time blocked in select()
+    volatile long handlerNanos; // time spent in handlers of selected keys
+    volatile long taskNanos; // time spent in tasks and register commands
+    volatile long timerNanos; // time spent in timers
+    volatile long backgroundNanos; // time spent in background tasks and timers
+    volatile long iterationEndNanos; // time spent in events run at the end of iterations
+    volatile long selectedKeys;
+    volatile long tasksRun;
+    volatile long timersFired;
+    volatile long backgroundRun; // count of background tasks and timers run
+    volatile long iterationEndRun; // count of events run at the end of iterations
+    volatile long maxHandlerNanos;
+    volatile long stalls; // count of iterations reported by the watchdog
+
+    static final AtomicLongFieldUpdater<SelectorEventLoopStats> ITERATIONS = updater("iterations");
+    static final AtomicLongFieldUpdater<SelectorEventLoopStats> SELECT_NANOS = updater("selectNanos");
+    static final AtomicLongFieldUpdater<SelectorEventLoopStats> HANDLER_NANOS = updater("handlerNanos");
+    static final AtomicLongFieldUpdater<SelectorEventLoopStats> TASK_NANOS = updater("taskNanos");
+    static final AtomicLongFieldUpdater<SelectorEventLoopStats> TIMER_NANOS = updater("timerNanos");
+    static final AtomicLongFieldUpdater<SelectorEventLoopStats> BACKGROUND_NANOS = updater("backgroundNanos");
+    static final AtomicLongFieldUpdater<SelectorEventLoopStats> ITERATION_END_NANOS = updater("iterationEndNanos");
+    static final AtomicLongFieldUpdater<SelectorEventLoopStats> SELECTED_KEYS = updater("selectedKeys");
+    static final AtomicLongFieldUpdater<SelectorEventLoopStats> TASKS_RUN = updater("tasksRun");
+    static final AtomicLongFieldUpdater<SelectorEventLoopStats> TIMERS_FIRED = updater("timersFired");
+    static final AtomicLongFieldUpdater<SelectorEventLoopStats> BACKGROUND_RUN = updater("backgroundRun");
+    static final AtomicLongFieldUpdater<SelectorEventLoopStats> ITERATION_END_RUN = updater("iterationEndRun");
+    static final AtomicLongFieldUpdater<SelectorEventLoopStats> MAX_HANDLER_NANOS = updater("maxHandlerNanos");
+    static final AtomicLongFieldUpdater<SelectorEventLoopStats> STALLS = updater("stalls");
+
+    private static AtomicLongFieldUpdater<SelectorEventLoopStats> updater(String field) {
+        return AtomicLongFieldUpdater.newUpdater(SelectorEventLoopStats.class, field);
+    }
+
+    SelectorEventLoopStats(SelectorEventLoop loop) {
+        this.loop = loop;
+    }
+
+    // only called by the writer thread of the field
+    void add(AtomicLongFieldUpdater<SelectorEventLoopStats> field, long delta) {
+        field.lazySet(this, field.get(this) + delta);
+    }
+
+    // only called by the writer thread of the field
+    void set(AtomicLongFieldUpdater<SelectorEventLoopStats> field, long value) {
+        field.lazySet(this, value);
+    }
+
+    @ThreadSafe
+    public long getIterations() {
+        return iterations;
+    }
+
+    @ThreadSafe
+    public long getSelectNanos() {
+        return selectNanos;
+    }
+
+    @ThreadSafe
+    public long getHandlerNanos() {
+        return handlerNanos;
+    }
+
+    @ThreadSafe
+    public long getTaskNanos() {
+        return taskNanos;
+    }
+
+    @ThreadSafe
+    public long getTimerNanos() {
+        return timerNanos;
+    }
+
+    @ThreadSafe
+    public long getBackgroundNanos() {
+        return backgroundNanos;
+    }
+
+    @ThreadSafe
+    public long getIterationEndNanos() {
+        return iterationEndNanos;
+    }
+
+    @ThreadSafe
+    public long getSelectedKeys() {
+        return selectedKeys;
+    }
+
+    @ThreadSafe
+    public long getTasksRun() {
+        return tasksRun;
+    }
+
+    @ThreadSafe
+    public long getTimersFired() {
+        return timersFired;
+    }
+
+    @ThreadSafe
+    public long getBackgroundRun() {
+        return backgroundRun;
+    }
+
+    @ThreadSafe
+    public long getIterationEndRun() {
+        return iterationEndRun;
+    }
+
+    @ThreadSafe
+    public long getMaxHandlerNanos() {
+        return maxHandlerNanos;
+    }
+
+    @ThreadSafe
+    public long getStalls() {
+        return stalls;
+    }
+
+    @ThreadSafe
+    public int getRegisteredChannels() {
+        return loop.registeredChannelCount();
+    }
+
+    // average selected keys in one iteration
+    @ThreadSafe
+    public double getSelectedKeysPerIteration() {
+        long it = iterations;
+        if (it == 0)
+            return 0;
+        return ((double) selectedKeys) / it;
+    }
+
+    @Override
+    public String toString() {
+        return "iterations " + iterations
+            + " select-time " + (selectNanos / 1_000_000) + "ms"
+            + " handler-time " + (handlerNanos / 1_000_000) + "ms"
+            + " task-time " + (taskNanos / 1_000_000) + "ms"
+            + " timer-time " + (timerNanos / 1_000_000) + "ms"
+            + " background-time " + (backgroundNanos / 1_000_000) + "ms"
+            + " iteration-end-time " + (iterationEndNanos / 1_000_000) + "ms"
+            + " registered-channels " + getRegisteredChannels()
+            + " selected-keys-per-iteration " + String.format("%.2f", getSelectedKeysPerIteration())
+            + " tasks-run " + tasksRun
+            + " timers-fired " + timersFired
+            + " background-run " + backgroundRun
+            + " iteration-end-run " + iterationEndRun
+            + " max-handler-time " + (maxHandlerNanos / 1000) + "us"
+            + " stalls " + stalls
+            + " buffer-pool-hits " + loop.getBufferPool().getHits()
+            + " buffer-pool-misses " + loop.getBufferPool().getMisses()
+            + " buffer-pool-idle-bytes " + loop.getBufferPool().getPooledBytes()
+            + " buffer-pool-in-use-bytes " + loop.getBufferPool().getInUseBytes()
+            + " buffer-pool-dropped " + loop.getBufferPool().getDropped();
+    }
+}
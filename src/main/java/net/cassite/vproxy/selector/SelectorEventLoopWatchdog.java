@@ -0,0 +1,81 @@
+package net.cassite.vproxy.selector;
+
+import net.cassite.vproxy.util.LogType;
+import net.cassite.vproxy.util.Logger;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A daemon thread checking whether any event loop is stuck in one iteration.<br>
+ * When a loop has not reached select() within its stall threshold,
+ * the stack of the loop thread is captured and logged.
+ * One stall is logged only once however long it lasts.
+ */
+class SelectorEventLoopWatchdog {
+    private static final int MIN_CHECK_INTERVAL = 10; // ms
+    private static final int MAX_CHECK_INTERVAL = 500; // ms
+
+    private static final CopyOnWriteArrayList<SelectorEventLoop> loops = new CopyOnWriteArrayList<>();
+    private static Thread thread; // guarded by the class
+
+    private SelectorEventLoopWatchdog() {
+    }
+
+    static synchronized void watch(SelectorEventLoop loop) {
+        loops.add(loop);
+        if (thread == null) {
+            thread = new Thread(SelectorEventLoopWatchdog::run, "SelectorEventLoopWatchdog");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    static void unwatch(SelectorEventLoop loop) {
+        loops.remove(loop);
+    }
+
+    private static void run() {
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            int interval = MAX_CHECK_INTERVAL;
+            for (SelectorEventLoop loop : loops) {
+                check(loop);
+                // check 4 times within the threshold
+                interval = Math.min(interval, loop.stallThresholdMillis / 4);
+            }
+            try {
+                Thread.sleep(Math.max(interval, MIN_CHECK_INTERVAL));
+            } catch (InterruptedException ignore) {
+                // ignore the interruption
+            }
+        }
+    }
+
+    private static void check(SelectorEventLoop loop) {
+        long busySince = loop.busySince;
+        if (busySince == 0)
+            return; // blocking in select() or not running
+        if (busySince == loop.lastStall)
+            return; // already reported
+        long cost = (System.nanoTime() - busySince) / 1_000_000;
+        if (cost < loop.stallThresholdMillis)
+            return;
+        Thread t = loop.runningThread;
+        if (t == null)
+            return;
+        StackTraceElement[] stack = t.getStackTrace();
+        if (busySince != loop.busySince)
+            return; // the iteration finished when capturing the stack
+
+        loop.lastStall = busySince;
+        loop.getStats().add(SelectorEventLoopStats.STALLS, 1);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("event loop thread ").append(t.getName())
+            .append(" has not finished an iteration for ").append(cost).append("ms, the stack is:");
+        for (StackTraceElement e : stack) {
+            sb.append("\n\tat ").append(e);
+        }
+        Logger.warn(LogType.EVENT_LOOP_STALL, sb.toString());
+    }
+}
@@ -0,0 +1,67 @@
+package net.cassite.vproxy.socks;
+
+import net.cassite.vproxy.connection.Connection;
+import net.cassite.vproxy.connection.Connector;
+import net.cassite.vproxy.connection.NetEventLoop;
+import net.cassite.vproxy.util.LogType;
+import net.cassite.vproxy.util.Logger;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+
+/**
+ * A connector provider written in blocking style.<br>
+ * Each request runs on a new thread from the thread factory,
+ * where blocking operations (e.g. {@link net.cassite.vproxy.connection.BlockingConnection}) are allowed.<br>
+ * On a newer jdk, pass a virtual thread factory (Thread.ofVirtual().factory())
+ * to handle a large number of requests at the same time.
+ */
+public abstract class BlockingSocks5ConnectorProvider implements Socks5ConnectorProvider {
+    private final ThreadFactory threadFactory;
+
+    protected BlockingSocks5ConnectorProvider() {
+        this(r -> {
+            Thread t = new Thread(r, "BlockingSocks5ConnectorProvider");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    protected BlockingSocks5ConnectorProvider(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+
+    @Override
+    public final void provide(Connection accepted, AddressType type, String address, int port, Consumer<Connector> providedCallback) {
+        NetEventLoop loop = accepted.getEventLoop();
+        if (loop == null) {
+            Logger.shouldNotHappen("the loop should be attached to the connection");
+            providedCallback.accept(null);
+            return;
+        }
+        threadFactory.newThread(() -> {
+            Connector connector;
+            try {
+                connector = provide(loop, accepted, type, address, port);
+            } catch (Exception e) {
+                Logger.error(LogType.CONN_ERROR, "providing connector for " + address + ":" + port + " failed", e);
+                connector = null;
+            }
+            Connector finalConnector = connector;
+            loop.getSelectorEventLoop().runOnLoop(() -> providedCallback.accept(finalConnector));
+        }).start();
+    }
+
+    /**
+     * provide a connector in blocking style.<br>
+     * the accepted connection is handled by the event loop, do not operate it in this method
+     *
+     * @param loop     the loop of the accepted connection,
+     *                 connections created in this method should be handled by this loop
+     *                 so that the proxy lib can use them directly
+     * @param accepted the accepted connection
+     * @return the connector, or null if the request cannot be handled
+     * @throws Exception any exception will be logged and the request will be refused
+     */
+    protected abstract Connector provide(NetEventLoop loop, Connection accepted, AddressType type, String address, int port) throws Exception;
+}
@@ -1,9 +1,12 @@
 package net.cassite.vproxy.util;
 
-import net.cassite.vproxy.util.bytearray.CompositeByteArray;
+import net.cassite.vproxy.util.bytearray.DirectByteArray;
+import net.cassite.vproxy.util.bytearray.RopeByteArray;
 import net.cassite.vproxy.util.bytearray.SimpleByteArray;
 import net.cassite.vproxy.util.bytearray.SubByteArray;
 
+import java.nio.ByteBuffer;
+
 public interface ByteArray {
     static ByteArray from(byte[] array) {
         return new SimpleByteArray(array);
@@ -17,6 +20,18 @@ public interface ByteArray {
         return from(bytes);
     }
 
+    /**
+     * wrap the bytes between position and limit of the buffer,
+     * the array shares content with the buffer
+     */
+    static ByteArray from(ByteBuffer buffer) {
+        return new DirectByteArray(buffer);
+    }
+
+    static ByteArray allocateDirect(int len) {
+        return new DirectByteArray(ByteBuffer.allocateDirect(len));
+    }
+
     byte get(int idx);
 
     ByteArray set(int idx, byte value);
@@ -28,15 +43,46 @@ public interface ByteArray {
     }
 
     default ByteArray concat(ByteArray array) {
-        return new CompositeByteArray(this, array);
+        return RopeByteArray.concat(this, array);
+    }
+
+    /**
+     * copy bytes into the java array.<br>
+     * implementations should override this method with bulk copying
+     *
+     * @param srcOff the offset in this array to start copying from
+     * @param dst    the java array to copy into
+     * @param dstOff the offset in the java array to start copying to
+     * @param len    count of bytes to copy
+     */
+    default void copyTo(int srcOff, byte[] dst, int dstOff, int len) {
+        if (srcOff < 0 || len < 0 || srcOff + len > length())
+            throw new ArrayIndexOutOfBoundsException("srcOff=" + srcOff + ", len=" + len + ", length=" + length());
+        for (int i = 0; i < len; ++i) {
+            dst[dstOff + i] = get(srcOff + i);
+        }
+    }
+
+    /**
+     * copy bytes into the buffer, starting at the buffer position.<br>
+     * the position of the buffer is increased by len
+     *
+     * @param srcOff the offset in this array to start copying from
+     * @param dst    the buffer to copy into
+     * @param len    count of bytes to copy
+     */
+    default void copyTo(int srcOff, ByteBuffer dst, int len) {
+        if (srcOff < 0 || len < 0 || srcOff + len > length())
+            throw new ArrayIndexOutOfBoundsException("srcOff=" + srcOff + ", len=" + len + ", length=" + length());
+        for (int i = 0; i < len; ++i) {
+            dst.put(get(srcOff + i));
+        }
     }
 
     default byte[] toJavaArray() {
         int len = length();
         byte[] array = new byte[len];
-        for (int i = 0; i < len; ++i) {
-            array[i] = get(i);
-        }
+        copyTo(0, array, 0, len);
         return array;
     }
 
@@ -0,0 +1,104 @@
+package net.cassite.vproxy.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A multi-producer single-consumer queue backed by an array.<br>
+ * Adding and polling elements do not allocate memory,
+ * unless the array is full, in which case elements are stored into an overflow queue.<br>
+ * The order of elements added by the same thread is always kept.<br>
+ * <br>
+ * The algorithm is the bounded queue by Dmitry Vyukov:
+ * each cell records a sequence number, producers compete on the tail with CAS,
+ * and the consumer releases the cell by setting the sequence to the next round.
+ */
+public class MPSCQueue<E> {
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong(0);
+    private long head = 0; // only accessed by the consumer
+    private final ConcurrentLinkedQueue<E> overflow = new ConcurrentLinkedQueue<>();
+
+    public MPSCQueue(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity = " + capacity + " <= 0");
+        int cap = 1;
+        while (cap < capacity) {
+            cap <<= 1;
+        }
+        this.mask = cap - 1;
+        this.elements = new AtomicReferenceArray<>(cap);
+        this.sequences = new AtomicLongArray(cap);
+        for (int i = 0; i < cap; ++i) {
+            sequences.set(i, i);
+        }
+    }
+
+    @ThreadSafe
+    public void add(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        // keep the order: if elements are already in the overflow queue, the new one should follow
+        if (overflow.isEmpty() && offerArray(e)) {
+            return;
+        }
+        overflow.add(e);
+    }
+
+    private boolean offerArray(E e) {
+        while (true) {
+            long pos = tail.get();
+            int idx = (int) (pos & mask);
+            long seq = sequences.get(idx);
+            long dif = seq - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    elements.lazySet(idx, e);
+                    sequences.set(idx, pos + 1); // publish
+                    return true;
+                }
+            } else if (dif < 0) {
+                return false; // full
+            }
+            // otherwise another producer took the cell, retry
+        }
+    }
+
+    /**
+     * this method should only be called on the consumer thread
+     *
+     * @return the first element, or null if no element
+     */
+    public E poll() {
+        int idx = (int) (head & mask);
+        long seq = sequences.get(idx);
+        if (seq == head + 1) {
+            E e = elements.get(idx);
+            elements.lazySet(idx, null);
+            sequences.set(idx, head + mask + 1); // release the cell for the next round
+            ++head;
+            return e;
+        }
+        if (tail.get() != head) {
+            // a producer claimed the cell but is still writing into it,
+            // the element will be retrieved in the next poll.
+            // do not poll the overflow queue here, elements in the array added before
+            // the ones in the overflow queue by the same thread must be retrieved first
+            return null;
+        }
+        // the array is empty
+        return overflow.poll();
+    }
+
+    /**
+     * this method should only be called on the consumer thread
+     */
+    public boolean isEmpty() {
+        int idx = (int) (head & mask);
+        return sequences.get(idx) != head + 1 && tail.get() == head && overflow.isEmpty();
+    }
+}
@@ -14,6 +14,14 @@ public interface RingBuffer {
         return SimpleRingBuffer.allocateDirect(cap);
     }
 
+    static SimpleRingBuffer allocateDirectPooled(int cap) {
+        return SimpleRingBuffer.allocateDirectPooled(cap);
+    }
+
+    static SimpleRingBuffer allocateElastic(int cap) {
+        return SimpleRingBuffer.allocateElastic(cap);
+    }
+
     static SimpleRingBuffer allocate(int cap) {
         return SimpleRingBuffer.allocate(cap);
     }
@@ -86,6 +94,14 @@ public interface RingBuffer {
 
     void clear();
 
+    /**
+     * release the memory not used for now, e.g. the memory of an empty elastic buffer.<br>
+     * should be called on the loop handling the buffer
+     */
+    default void releaseIdleMemory() {
+        // default: do nothing
+    }
+
     class RejectSwitchException extends Exception {
         public RejectSwitchException(String msg) {
             super(msg);
@@ -1,37 +1,34 @@
 package net.cassite.vproxy.util;
 
-import net.cassite.vproxy.app.Config;
+import net.cassite.vproxy.util.timer.PriorityTimeQueue;
+import net.cassite.vproxy.util.timer.TimingWheel;
 
-import java.util.PriorityQueue;
-
-public class TimeQueue<T> {
-    PriorityQueue<TimeElem<T>> queue = new PriorityQueue<>((a, b) -> (int) (a.triggerTime - b.triggerTime));
-
-    public TimeElem<T> push(int timeout, T elem) {
-        TimeElem<T> event = new TimeElem<>(Config.currentTimestamp + timeout, elem, this);
-        queue.add(event);
-        return event;
+public interface TimeQueue<T> {
+    /**
+     * the default time queue, O(1) for adding and removing elements
+     */
+    static <T> TimeQueue<T> create() {
+        return new TimingWheel<>();
     }
 
-    public T pop() {
-        TimeElem<T> elem = queue.poll();
-        if (elem == null)
-            return null;
-        return elem.elem;
+    /**
+     * the time queue backed by a binary heap, O(log n) for adding and removing elements
+     */
+    static <T> TimeQueue<T> createPriorityQueue() {
+        return new PriorityTimeQueue<>();
     }
 
-    public boolean isEmpty() {
-        return queue.isEmpty();
-    }
+    TimeElem<T> push(int timeout, T elem);
+
+    /**
+     * @return the nearest element, or null if no element
+     */
+    T pop();
+
+    boolean isEmpty();
 
     /**
      * @return time left to the nearest timeout, Integer.MAX_VALUE means no timer event
      */
-    public int nextTime() {
-        TimeElem<T> elem = queue.peek();
-        if (elem == null)
-            return Integer.MAX_VALUE;
-        long triggerTime = elem.triggerTime;
-        return Math.max((int) (triggerTime - Config.currentTimestamp), 0);
-    }
+    int nextTime();
 }
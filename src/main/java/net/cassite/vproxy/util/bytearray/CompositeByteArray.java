@@ -2,6 +2,8 @@ package net.cassite.vproxy.util.bytearray;
 
 import net.cassite.vproxy.util.ByteArray;
 
+import java.nio.ByteBuffer;
+
 public class CompositeByteArray extends AbstractByteArray implements ByteArray {
     private final ByteArray first;
     private final ByteArray second;
@@ -41,4 +43,37 @@ public class CompositeByteArray extends AbstractByteArray implements ByteArray {
     public int length() {
         return len;
     }
+
+    @Override
+    public void copyTo(int srcOff, byte[] dst, int dstOff, int len) {
+        if (srcOff < 0 || len < 0 || srcOff + len > this.len)
+            throw new ArrayIndexOutOfBoundsException("srcOff=" + srcOff + ", len=" + len + ", length=" + this.len);
+        int firstLen = first.length();
+        if (srcOff < firstLen) {
+            int n = Math.min(len, firstLen - srcOff);
+            first.copyTo(srcOff, dst, dstOff, n);
+            dstOff += n;
+            srcOff += n;
+            len -= n;
+        }
+        if (len > 0) {
+            second.copyTo(srcOff - firstLen, dst, dstOff, len);
+        }
+    }
+
+    @Override
+    public void copyTo(int srcOff, ByteBuffer dst, int len) {
+        if (srcOff < 0 || len < 0 || srcOff + len > this.len)
+            throw new ArrayIndexOutOfBoundsException("srcOff=" + srcOff + ", len=" + len + ", length=" + this.len);
+        int firstLen = first.length();
+        if (srcOff < firstLen) {
+            int n = Math.min(len, firstLen - srcOff);
+            first.copyTo(srcOff, dst, n);
+            srcOff += n;
+            len -= n;
+        }
+        if (len > 0) {
+            second.copyTo(srcOff - firstLen, dst, len);
+        }
+    }
 }
@@ -0,0 +1,60 @@
+package net.cassite.vproxy.util.bytearray;
+
+import net.cassite.vproxy.util.ByteArray;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A byte array backed by a ByteBuffer (usually a direct buffer).<br>
+ * The array covers bytes between position and limit of the buffer when it's created,
+ * and it uses absolute get/put, so the position and limit of the buffer are not modified.
+ */
+public class DirectByteArray extends AbstractByteArray implements ByteArray {
+    private final ByteBuffer buffer;
+    private final int off;
+    private final int len;
+
+    public DirectByteArray(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.off = buffer.position();
+        this.len = buffer.limit() - off;
+    }
+
+    @Override
+    public byte get(int idx) {
+        if (idx >= len || idx < 0)
+            throw new ArrayIndexOutOfBoundsException("index=" + idx + ", length=" + len);
+        return buffer.get(off + idx);
+    }
+
+    @Override
+    public ByteArray set(int idx, byte value) {
+        if (idx >= len || idx < 0)
+            throw new ArrayIndexOutOfBoundsException("index=" + idx + ", length=" + len);
+        buffer.put(off + idx, value);
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return len;
+    }
+
+    private ByteBuffer view(int srcOff, int len) {
+        if (srcOff < 0 || len < 0 || srcOff + len > this.len)
+            throw new ArrayIndexOutOfBoundsException("srcOff=" + srcOff + ", len=" + len + ", length=" + this.len);
+        ByteBuffer view = buffer.duplicate();
+        view.limit(off + srcOff + len).position(off + srcOff);
+        return view;
+    }
+
+    @Override
+    public void copyTo(int srcOff, byte[] dst, int dstOff, int len) {
+        view(srcOff, len).get(dst, dstOff, len);
+    }
+
+    @Override
+    public void copyTo(int srcOff, ByteBuffer dst, int len) {
+        dst.put(view(srcOff, len));
+    }
+}
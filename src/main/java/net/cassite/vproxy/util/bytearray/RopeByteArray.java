@@ -0,0 +1,143 @@
+package net.cassite.vproxy.util.bytearray;
+
+import net.cassite.vproxy.util.ByteArray;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Byte arrays (chunks) concatenated together.<br>
+ * Concatenating ropes copies the chunk references into a flat list instead of nesting them,
+ * and the start offset of each chunk is indexed,
+ * so accessing a byte is a binary search in the index (O(log k) for k chunks),
+ * or O(1) when it's in the same or the next chunk of the last access.<br>
+ * Chunks are not copied, modifying the rope modifies the chunks.
+ */
+public class RopeByteArray extends AbstractByteArray implements ByteArray {
+    private final ByteArray[] chunks;
+    private final int[] offsets; // offsets[i] is where chunks[i] starts, offsets[chunks.length] is the total length
+    private int lastChunk = 0; // only a hint, so it's not synchronized
+
+    private RopeByteArray(ByteArray[] chunks, int[] offsets) {
+        this.chunks = chunks;
+        this.offsets = offsets;
+    }
+
+    private static int chunkCount(ByteArray array) {
+        if (array instanceof RopeByteArray) {
+            return ((RopeByteArray) array).chunks.length;
+        }
+        return 1;
+    }
+
+    private static int addChunks(ByteArray array, ByteArray[] chunks, int[] offsets, int i) {
+        if (array instanceof RopeByteArray) {
+            RopeByteArray rope = (RopeByteArray) array;
+            for (ByteArray c : rope.chunks) {
+                chunks[i] = c;
+                offsets[i + 1] = offsets[i] + c.length();
+                ++i;
+            }
+        } else {
+            chunks[i] = array;
+            offsets[i + 1] = offsets[i] + array.length();
+            ++i;
+        }
+        return i;
+    }
+
+    public static ByteArray concat(ByteArray first, ByteArray second) {
+        if (second.length() == 0)
+            return first;
+        if (first.length() == 0)
+            return second;
+        int n = chunkCount(first) + chunkCount(second);
+        ByteArray[] chunks = new ByteArray[n];
+        int[] offsets = new int[n + 1];
+        int i = addChunks(first, chunks, offsets, 0);
+        addChunks(second, chunks, offsets, i);
+        return new RopeByteArray(chunks, offsets);
+    }
+
+    private int chunkIndex(int idx) {
+        int i = lastChunk;
+        if (idx >= offsets[i]) {
+            if (idx < offsets[i + 1])
+                return i;
+            // sequential access usually goes into the next chunk
+            if (i + 2 < offsets.length && idx < offsets[i + 2]) {
+                lastChunk = i + 1;
+                return i + 1;
+            }
+        }
+        // find the last chunk which starts before or at idx
+        int lo = 0;
+        int hi = chunks.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (offsets[mid] <= idx) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        lastChunk = lo;
+        return lo;
+    }
+
+    @Override
+    public byte get(int idx) {
+        if (idx >= length() || idx < 0)
+            throw new ArrayIndexOutOfBoundsException("index=" + idx + ", length=" + length());
+        int i = chunkIndex(idx);
+        return chunks[i].get(idx - offsets[i]);
+    }
+
+    @Override
+    public ByteArray set(int idx, byte value) {
+        if (idx >= length() || idx < 0)
+            throw new ArrayIndexOutOfBoundsException("index=" + idx + ", length=" + length());
+        int i = chunkIndex(idx);
+        chunks[i].set(idx - offsets[i], value);
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return offsets[chunks.length];
+    }
+
+    @Override
+    public void copyTo(int srcOff, byte[] dst, int dstOff, int len) {
+        if (srcOff < 0 || len < 0 || srcOff + len > length())
+            throw new ArrayIndexOutOfBoundsException("srcOff=" + srcOff + ", len=" + len + ", length=" + length());
+        if (len == 0)
+            return;
+        int i = chunkIndex(srcOff);
+        while (len > 0) {
+            int off = srcOff - offsets[i];
+            int n = Math.min(len, chunks[i].length() - off);
+            chunks[i].copyTo(off, dst, dstOff, n);
+            srcOff += n;
+            dstOff += n;
+            len -= n;
+            ++i;
+        }
+    }
+
+    @Override
+    public void copyTo(int srcOff, ByteBuffer dst, int len) {
+        if (srcOff < 0 || len < 0 || srcOff + len > length())
+            throw new ArrayIndexOutOfBoundsException("srcOff=" + srcOff + ", len=" + len + ", length=" + length());
+        if (len == 0)
+            return;
+        int i = chunkIndex(srcOff);
+        while (len > 0) {
+            int off = srcOff - offsets[i];
+            int n = Math.min(len, chunks[i].length() - off);
+            chunks[i].copyTo(off, dst, n);
+            srcOff += n;
+            len -= n;
+            ++i;
+        }
+    }
+}
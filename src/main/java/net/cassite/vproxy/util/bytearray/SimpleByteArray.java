@@ -2,6 +2,8 @@ package net.cassite.vproxy.util.bytearray;
 
 import net.cassite.vproxy.util.ByteArray;
 
+import java.nio.ByteBuffer;
+
 public class SimpleByteArray extends AbstractByteArray implements ByteArray {
     private final byte[] array;
 
@@ -25,6 +27,16 @@ public class SimpleByteArray extends AbstractByteArray implements ByteArray {
         return array.length;
     }
 
+    @Override
+    public void copyTo(int srcOff, byte[] dst, int dstOff, int len) {
+        System.arraycopy(array, srcOff, dst, dstOff, len);
+    }
+
+    @Override
+    public void copyTo(int srcOff, ByteBuffer dst, int len) {
+        dst.put(array, srcOff, len);
+    }
+
     @Override
     public byte[] toJavaArray() {
         return array;
@@ -2,6 +2,8 @@ package net.cassite.vproxy.util.bytearray;
 
 import net.cassite.vproxy.util.ByteArray;
 
+import java.nio.ByteBuffer;
+
 public class SubByteArray extends AbstractByteArray implements ByteArray {
     private final ByteArray source;
     private final int from;
@@ -35,4 +37,21 @@ public class SubByteArray extends AbstractByteArray implements ByteArray {
     public int length() {
         return len;
     }
+
+    private void checkRange(int srcOff, int len) {
+        if (srcOff < 0 || len < 0 || srcOff + len > this.len)
+            throw new ArrayIndexOutOfBoundsException("srcOff=" + srcOff + ", len=" + len + ", length=" + this.len);
+    }
+
+    @Override
+    public void copyTo(int srcOff, byte[] dst, int dstOff, int len) {
+        checkRange(srcOff, len);
+        source.copyTo(from + srcOff, dst, dstOff, len);
+    }
+
+    @Override
+    public void copyTo(int srcOff, ByteBuffer dst, int len) {
+        checkRange(srcOff, len);
+        source.copyTo(from + srcOff, dst, len);
+    }
 }
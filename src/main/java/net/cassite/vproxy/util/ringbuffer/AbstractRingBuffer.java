@@ -3,14 +3,11 @@ package net.cassite.vproxy.util.ringbuffer;
 import net.cassite.vproxy.util.RingBuffer;
 import net.cassite.vproxy.util.RingBufferETHandler;
 
-import java.util.HashSet;
 import java.util.Set;
 
 public abstract class AbstractRingBuffer implements RingBuffer {
     private boolean operating = false;
-    private Set<RingBufferETHandler> handler = new HashSet<>();
-    private Set<RingBufferETHandler> handlerToAdd = new HashSet<>();
-    private Set<RingBufferETHandler> handlerToRemove = new HashSet<>();
+    private final ETHandlers handler = new ETHandlers();
 
     protected boolean isOperating() {
         return operating;
@@ -18,46 +15,35 @@ public abstract class AbstractRingBuffer implements RingBuffer {
 
     protected void setOperating(boolean operating) {
         if (this.operating && !operating) {
-            handler.removeAll(handlerToRemove);
-            handler.addAll(handlerToAdd);
+            handler.applyPending();
         }
         this.operating = operating;
     }
 
     protected void triggerReadable() {
-        for (RingBufferETHandler aHandler : handler) {
-            aHandler.readableET();
+        for (int i = 0; i < handler.size(); ++i) {
+            handler.get(i).readableET();
         }
     }
 
     protected void triggerWritable() {
-        for (RingBufferETHandler aHandler : handler) {
-            aHandler.writableET();
+        for (int i = 0; i < handler.size(); ++i) {
+            handler.get(i).writableET();
         }
     }
 
     @Override
     public void addHandler(RingBufferETHandler h) {
-        if (operating) {
-            handlerToRemove.remove(h);
-            handlerToAdd.add(h);
-        } else {
-            handler.add(h);
-        }
+        handler.add(h, operating);
     }
 
     @Override
     public void removeHandler(RingBufferETHandler h) {
-        if (operating) {
-            handlerToAdd.remove(h);
-            handlerToRemove.add(h);
-        } else {
-            handler.remove(h);
-        }
+        handler.remove(h, operating);
     }
 
     @Override
     public Set<RingBufferETHandler> getHandlers() {
-        return new HashSet<>(handler);
+        return handler.toSet();
     }
 }
@@ -0,0 +1,100 @@
+package net.cassite.vproxy.util.ringbuffer;
+
+import net.cassite.vproxy.util.RingBufferETHandler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The et handlers of a ring buffer.<br>
+ * The handlers are kept in an array and iterated by index,
+ * because they are triggered on every store/write operation, and iterating a set allocates an iterator each time.<br>
+ * Adding or removing handlers when the buffer is operating is deferred until {@link #applyPending()} is called.
+ */
+class ETHandlers {
+    private static final RingBufferETHandler[] EMPTY = new RingBufferETHandler[0];
+
+    private RingBufferETHandler[] handlers = EMPTY;
+    private int size = 0;
+    private final ArrayList<RingBufferETHandler> toAdd = new ArrayList<>(0);
+    private final ArrayList<RingBufferETHandler> toRemove = new ArrayList<>(0);
+
+    int size() {
+        return size;
+    }
+
+    RingBufferETHandler get(int idx) {
+        return handlers[idx];
+    }
+
+    void add(RingBufferETHandler h, boolean operating) {
+        if (operating) {
+            toRemove.remove(h);
+            if (!toAdd.contains(h)) {
+                toAdd.add(h);
+            }
+        } else {
+            doAdd(h);
+        }
+    }
+
+    void remove(RingBufferETHandler h, boolean operating) {
+        if (operating) {
+            toAdd.remove(h);
+            if (!toRemove.contains(h)) {
+                toRemove.add(h);
+            }
+        } else {
+            doRemove(h);
+        }
+    }
+
+    void applyPending() {
+        if (!toRemove.isEmpty()) {
+            //noinspection ForLoopReplaceableByForEach
+            for (int i = 0; i < toRemove.size(); ++i) {
+                doRemove(toRemove.get(i));
+            }
+            toRemove.clear();
+        }
+        if (!toAdd.isEmpty()) {
+            //noinspection ForLoopReplaceableByForEach
+            for (int i = 0; i < toAdd.size(); ++i) {
+                doAdd(toAdd.get(i));
+            }
+            toAdd.clear();
+        }
+    }
+
+    Set<RingBufferETHandler> toSet() {
+        return new HashSet<>(Arrays.asList(handlers).subList(0, size));
+    }
+
+    private int indexOf(RingBufferETHandler h) {
+        for (int i = 0; i < size; ++i) {
+            if (handlers[i].equals(h))
+                return i;
+        }
+        return -1;
+    }
+
+    private void doAdd(RingBufferETHandler h) {
+        if (indexOf(h) != -1)
+            return;
+        if (size == handlers.length) {
+            handlers = Arrays.copyOf(handlers, size == 0 ? 2 : size * 2);
+        }
+        handlers[size++] = h;
+    }
+
+    private void doRemove(RingBufferETHandler h) {
+        int idx = indexOf(h);
+        if (idx == -1)
+            return;
+        // keep the order of the handlers
+        System.arraycopy(handlers, idx + 1, handlers, idx, size - idx - 1);
+        handlers[--size] = null;
+    }
+}
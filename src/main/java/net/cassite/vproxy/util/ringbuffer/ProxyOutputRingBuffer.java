@@ -5,6 +5,8 @@ import net.cassite.vproxy.util.RingBuffer;
 import net.cassite.vproxy.util.RingBufferETHandler;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 
@@ -60,6 +62,10 @@ public class ProxyOutputRingBuffer extends AbstractRingBuffer {
     private int proxyLen;
     private ProxyDoneCallback proxyDoneCallback;
 
+    // views of the default buffer and the proxied buffer, for gathering writes
+    private final ByteBuffer[] views = new ByteBuffer[4];
+    private GatherWrite gatherWrite; // created when writing both buffers for the first time
+
     private ProxyOutputRingBuffer(SimpleRingBuffer defaultBuffer) {
         this.defaultBuffer = defaultBuffer;
         this.cap = defaultBuffer.capacity();
@@ -70,6 +76,20 @@ public class ProxyOutputRingBuffer extends AbstractRingBuffer {
         return new ProxyOutputRingBuffer(SimpleRingBuffer.allocateDirect(cap));
     }
 
+    /**
+     * @see SimpleRingBuffer#allocateDirectPooled(int)
+     */
+    public static ProxyOutputRingBuffer allocateDirectPooled(int cap) {
+        return new ProxyOutputRingBuffer(SimpleRingBuffer.allocateDirectPooled(cap));
+    }
+
+    /**
+     * @see SimpleRingBuffer#allocateElastic(int)
+     */
+    public static ProxyOutputRingBuffer allocateElastic(int cap) {
+        return new ProxyOutputRingBuffer(SimpleRingBuffer.allocateElastic(cap));
+    }
+
     public void proxy(RingBuffer proxied, int proxyLen, ProxyDoneCallback cb) {
         if (this.proxied != null)
             throw new IllegalStateException("has a proxied buffer, with proxyLen = " + proxyLen);
@@ -102,6 +122,13 @@ public class ProxyOutputRingBuffer extends AbstractRingBuffer {
         return defaultBuffer.storeBytesFrom(channel);
     }
 
+    // the buffer which bytes are stored into, the same as storeBytesFrom(...)
+    SimpleRingBuffer bufferToStore() {
+        if (proxied != null)
+            throw new IllegalStateException("has a proxied buffer, with proxyLen = " + proxyLen);
+        return defaultBuffer;
+    }
+
     @Override
     public int writeTo(WritableByteChannel channel, int maxBytesToWrite) throws IOException {
         if (isProxy) {
@@ -109,27 +136,102 @@ public class ProxyOutputRingBuffer extends AbstractRingBuffer {
             int wrote = proxied.writeTo(channel, toWrite);
             proxyLen -= wrote;
             if (proxyLen == 0) {
-                isProxy = false;
-                proxied.removeHandler(proxiedETHandler);
-                proxied = null;
-                ProxyDoneCallback cb = proxyDoneCallback;
-                proxyDoneCallback = null;
-                assert Logger.lowLevelDebug("proxy end, calling proxy done callback");
-                cb.proxyDone();
+                proxyDone();
             }
             return wrote;
         } else {
+            if (proxied instanceof SimpleRingBuffer && channel instanceof GatheringByteChannel
+                && defaultBuffer.used() != 0 && proxied.used() != 0) {
+                return writeDefaultAndProxied((GatheringByteChannel) channel, maxBytesToWrite);
+            }
             int wrote = defaultBuffer.writeTo(channel, maxBytesToWrite);
             if (wrote == maxBytesToWrite)
                 return wrote;
             if (proxied == null)
                 return wrote;
+            if (defaultBuffer.used() != 0)
+                return wrote; // the channel cannot write more for now
             assert Logger.lowLevelDebug("wrote all data from defaultBuffer, switch to proxy mode");
             isProxy = true;
             return wrote + writeTo(channel, maxBytesToWrite - wrote);
         }
     }
 
+    // write the rest of the default buffer and the beginning of the proxied buffer with one call
+    private int writeDefaultAndProxied(GatheringByteChannel channel, int maxBytesToWrite) throws IOException {
+        SimpleRingBuffer proxied = (SimpleRingBuffer) this.proxied;
+        // the op is reused, so no op is created for each write
+        if (gatherWrite == null) {
+            gatherWrite = new GatherWrite();
+        }
+        gatherWrite.channel = channel;
+        gatherWrite.maxBytesToWrite = maxBytesToWrite;
+        gatherWrite.proxied = proxied;
+        int wrote;
+        int pWrote;
+        try {
+            wrote = defaultBuffer.operateOnViewsWriteOut(maxBytesToWrite, views, 0, gatherWrite);
+            pWrote = gatherWrite.proxiedWrote;
+        } finally {
+            gatherWrite.channel = null;
+            gatherWrite.proxied = null;
+            gatherWrite.proxiedWrote = 0;
+        }
+        // the proxied buffer may already be detached in the callbacks
+        if (this.proxied == proxied) {
+            proxyLen -= pWrote;
+            if (proxyLen == 0) {
+                proxyDone();
+            } else if (defaultBuffer.used() == 0) {
+                assert Logger.lowLevelDebug("wrote all data from defaultBuffer, switch to proxy mode");
+                isProxy = true;
+            }
+        }
+        return wrote + pWrote;
+    }
+
+    // append the views of the proxied buffer to the views of the default buffer, then write them all
+    private class GatherWrite implements SimpleRingBuffer.ViewsWriteOutOp {
+        GatheringByteChannel channel;
+        int maxBytesToWrite;
+        SimpleRingBuffer proxied;
+        int proxiedWrote;
+        private boolean appended; // true when the views of the proxied buffer are appended
+
+        @Override
+        public void accept(ByteBuffer[] views, int count) throws IOException {
+            if (appended) {
+                channel.write(views, 0, count);
+                return;
+            }
+            int defaultPart = 0;
+            for (int i = 0; i < count; ++i) {
+                defaultPart += views[i].remaining();
+            }
+            int toWrite = Math.min(maxBytesToWrite - defaultPart, proxyLen);
+            if (toWrite == 0) {
+                channel.write(views, 0, count);
+                return;
+            }
+            appended = true;
+            try {
+                proxiedWrote = proxied.operateOnViewsWriteOut(toWrite, views, count, this);
+            } finally {
+                appended = false;
+            }
+        }
+    }
+
+    private void proxyDone() {
+        isProxy = false;
+        proxied.removeHandler(proxiedETHandler);
+        proxied = null;
+        ProxyDoneCallback cb = proxyDoneCallback;
+        proxyDoneCallback = null;
+        assert Logger.lowLevelDebug("proxy end, calling proxy done callback");
+        cb.proxyDone();
+    }
+
     @Override
     public int free() {
         return cap - used();
@@ -177,4 +279,9 @@ public class ProxyOutputRingBuffer extends AbstractRingBuffer {
     public void clear() {
         defaultBuffer.clear();
     }
+
+    @Override
+    public void releaseIdleMemory() {
+        defaultBuffer.releaseIdleMemory();
+    }
 }
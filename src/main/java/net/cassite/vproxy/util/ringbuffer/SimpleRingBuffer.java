@@ -1,13 +1,18 @@
 package net.cassite.vproxy.util.ringbuffer;
 
+import net.cassite.vproxy.app.Config;
+import net.cassite.vproxy.selector.DirectBufferPool;
+import net.cassite.vproxy.selector.SelectorEventLoop;
 import net.cassite.vproxy.util.*;
+import net.cassite.vproxy.util.bytearray.AbstractByteArray;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -26,40 +31,96 @@ import java.util.Set;
  * maybe we have
  * ..........................->(cannot write into buf any more)
  * [----------------------ePos,sPos--------]
+ * <br>
+ * An elastic buffer starts without memory, the backing buffer is allocated when storing data,
+ * and replaced with a larger one (doubled, at most CAP) when it's full.
+ * When the buffer stays empty for a while, the memory is released,
+ * see {@link net.cassite.vproxy.selector.SelectorEventLoopOpts#setBufferIdleReleaseMillis(int)}.
+ * The ring positions are based on the capacity of the current backing buffer,
+ * while free() and capacity() are based on CAP, so elastic buffers look the same as normal ones.
  */
-public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
+public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer, DirectBufferPool.IdleMemoryHolder {
+    private static final int ELASTIC_INITIAL_CAPACITY = 1024;
+    // used by elastic buffers when the memory is released
+    // the position and limit are always 0, so it's ok to share the object
+    private static final ByteBuffer NO_MEMORY = ByteBuffer.allocate(0);
+
     private final boolean isDirect;
+    private final boolean pooled; // take direct buffers from the pool of the current loop
+    private final boolean elastic;
     private /*may change after defragment*/ ByteBuffer buffer;
+    private /*may change after defragment*/ DirectBufferPool pool; // the pool which the buffer is taken from, or null
+    // another view of the buffer, used as the part after wrapping around in vectored io
+    private /*may change after defragment*/ ByteBuffer wrapView;
+    private final ByteBuffer[] views = new ByteBuffer[2];
+    private /*may change after defragment*/ ByteBuffer readView; // used by views of the buffer, the limit is kept as bufCap
     private int ePos; // end pos
     private int sPos; // start pos
     private final int cap;
+    private /*may change if elastic*/ int bufCap; // capacity of the backing buffer
+    private long drainedAt; // the timestamp when the elastic buffer became empty
+    private DirectBufferPool idleWatchedBy; // the pool of the loop watching the elastic buffer, only accessed on loop threads
     private boolean ePosIsAfterSPos = true; // true then end is limit, otherwise start is limit
     private boolean closed = false;
+    private long consumed = 0; // total bytes written out of the buffer, used to check whether views are still valid
 
     private boolean notFirstOperator = false;
     private boolean operating = false;
     private boolean operatingBuffer = false;
-    private Set<RingBufferETHandler> handler = new HashSet<>();
-    private Set<RingBufferETHandler> handlerToAdd = new HashSet<>();
-    private Set<RingBufferETHandler> handlerToRemove = new HashSet<>();
+    private final ETHandlers handler = new ETHandlers();
+    private Transfer transfer; // created when writing to another buffer for the first time
 
     public static SimpleRingBuffer allocateDirect(int cap) {
-        return new SimpleRingBuffer(true, ByteBuffer.allocateDirect(cap));
+        return new SimpleRingBuffer(true, false, false, ByteBuffer.allocateDirect(cap), cap);
+    }
+
+    /**
+     * take the direct buffer from the pool of the current event loop,
+     * the buffer is returned to the pool when cleaned.<br>
+     * same as {@link #allocateDirect(int)} if not called on an event loop
+     */
+    public static SimpleRingBuffer allocateDirectPooled(int cap) {
+        DirectBufferPool pool = DirectBufferPool.current();
+        if (pool == null)
+            return new SimpleRingBuffer(true, true, false, ByteBuffer.allocateDirect(cap), cap);
+        SimpleRingBuffer buf = new SimpleRingBuffer(true, true, false, pool.allocate(cap), cap);
+        buf.pool = pool;
+        return buf;
+    }
+
+    /**
+     * an elastic direct buffer, which holds no memory until data is stored,
+     * and grows up to the cap when needed.<br>
+     * the direct buffers are taken from the pool of the current event loop if possible
+     */
+    public static SimpleRingBuffer allocateElastic(int cap) {
+        return new SimpleRingBuffer(true, true, true, NO_MEMORY, cap);
     }
 
     public static SimpleRingBuffer allocate(int cap) {
-        return new SimpleRingBuffer(false, ByteBuffer.allocate(cap));
+        return new SimpleRingBuffer(false, false, false, ByteBuffer.allocate(cap), cap);
     }
 
-    private SimpleRingBuffer(boolean isDirect, ByteBuffer buffer) {
+    private SimpleRingBuffer(boolean isDirect, boolean pooled, boolean elastic, ByteBuffer buffer, int cap) {
         this.isDirect = isDirect;
+        this.pooled = pooled;
+        this.elastic = elastic;
         this.buffer = buffer;
-        this.cap = buffer.capacity();
+        this.cap = cap;
+        this.bufCap = buffer.capacity();
+    }
+
+    private static void releaseDirect(ByteBuffer buffer, DirectBufferPool pool) {
+        if (pool == null) {
+            Utils.clean(buffer);
+        } else {
+            pool.release(buffer);
+        }
     }
 
     private int storeLimit() {
         if (ePosIsAfterSPos) {
-            return cap - ePos; // we can store until capacity
+            return bufCap - ePos; // we can store until capacity
         } else {
             return sPos - ePos; // we can store until the `start` pos
         }
@@ -69,7 +130,7 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         if (ePosIsLimit) {
             return ePos - sPos; // we can retrieve until end
         } else {
-            return cap - sPos; // we can retrieve until capacity
+            return bufCap - sPos; // we can retrieve until capacity
         }
     }
 
@@ -82,7 +143,10 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
      */
     @Override
     public int storeBytesFrom(ReadableByteChannel channel) throws IOException {
-        return operateOnByteBufferStoreIn(b -> channel.read(b) != -1);
+        // the free space may wrap around, read into both parts with one call if possible
+        ScatteringByteChannel scatter = channel instanceof ScatteringByteChannel ? (ScatteringByteChannel) channel : null;
+        // the channel is passed instead of an op, so no object is created for each read
+        return operateOnByteBufferStoreIn(null, channel, scatter);
     }
 
     private void resetCursors() {
@@ -94,7 +158,78 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
 
     @Override
     public int writeTo(WritableByteChannel channel, int maxBytesToWrite) throws IOException {
-        return operateOnByteBufferWriteOut(maxBytesToWrite, channel::write);
+        if (!ePosIsAfterSPos && channel instanceof GatheringByteChannel) {
+            // the data wraps around, write both parts with one call
+            GatheringByteChannel gather = (GatheringByteChannel) channel;
+            return operateOnViewsWriteOut(maxBytesToWrite, views, 0, null, gather);
+        }
+        // the channel is passed instead of an op, so no object is created for each write
+        return operateOnByteBufferWriteOut(maxBytesToWrite, null, channel);
+    }
+
+    @Override
+    public int writeTo(RingBuffer buffer, int maxBytesToWrite) {
+        if (buffer instanceof ProxyOutputRingBuffer) {
+            buffer = ((ProxyOutputRingBuffer) buffer).bufferToStore();
+        }
+        if (!(buffer instanceof ByteBufferRingBuffer)) {
+            return ByteBufferRingBuffer.super.writeTo(buffer, maxBytesToWrite);
+        }
+        if (maxBytesToWrite < 0) {
+            throw new IllegalArgumentException("input parameter maxBytesToWrite = " + maxBytesToWrite + " < 0");
+        }
+        // the transfer op is reused, so no op is created for each call
+        if (transfer == null) {
+            transfer = new Transfer();
+        }
+        transfer.target = (ByteBufferRingBuffer) buffer;
+        try {
+            return operateOnByteBufferWriteOut(maxBytesToWrite, transfer);
+        } catch (IOException e) {
+            // will not happen, it's memory operation
+            throw new RuntimeException(e);
+        } finally {
+            transfer.target = null;
+        }
+    }
+
+    // copy bytes from the buffer being written out into the target buffer
+    private static class Transfer implements ByteBufferRingBuffer.WriteOutOp, ByteBufferRingBuffer.StoreInOp {
+        ByteBufferRingBuffer target;
+        private ByteBuffer srcBuf;
+
+        @Override
+        public void accept(ByteBuffer srcBuf) throws IOException {
+            this.srcBuf = srcBuf;
+            try {
+                target.operateOnByteBufferStoreIn(this);
+            } finally {
+                this.srcBuf = null;
+            }
+        }
+
+        @Override
+        public boolean test(ByteBuffer tarBuf) {
+            // check and set srcBuf limit
+            final int backupSrcBufLim = srcBuf.limit();
+
+            int srcLen = backupSrcBufLim - srcBuf.position();
+            int tarLen = tarBuf.limit() - tarBuf.position();
+
+            if (srcLen > tarLen) {
+                // reduce the limit to make it suit target buffer
+                srcBuf.limit(srcBuf.position() + tarLen);
+            }
+
+            // store into target
+            tarBuf.put(srcBuf);
+
+            // restore the limit
+            srcBuf.limit(backupSrcBufLim);
+
+            // memory operation, always success
+            return true;
+        }
     }
 
     @Override
@@ -107,7 +242,7 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         if (ePosIsAfterSPos) {
             return ePos - sPos;
         } else {
-            return ePos + cap - sPos;
+            return ePos + bufCap - sPos;
         }
     }
 
@@ -136,6 +271,116 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         return arr;
     }
 
+    /**
+     * get a read-only view of the first len bytes in the buffer without copying or consuming them.<br>
+     * the view reads the buffer in place and is valid until any byte is written out of the buffer,
+     * accessing it after that throws IllegalStateException.
+     * storing more bytes into the buffer (even when an elastic buffer grows) does not affect the view
+     *
+     * @param len length of the view, must not be greater than used()
+     * @return the view
+     */
+    public ByteArray view(int len) {
+        if (len < 0 || len > used())
+            throw new IllegalArgumentException("len=" + len + ", used=" + used());
+        return new View(len);
+    }
+
+    /**
+     * consume bytes without copying them out, e.g. after the bytes are handled with a view
+     *
+     * @param maxBytesToDiscard max bytes to consume
+     * @return bytes consumed
+     */
+    public int discard(int maxBytesToDiscard) {
+        try {
+            return operateOnByteBufferWriteOut(maxBytesToDiscard, b -> b.position(b.limit()));
+        } catch (IOException e) {
+            // it's not possible
+            throw new RuntimeException(e);
+        }
+    }
+
+    private ByteBuffer readView() {
+        if (readView == null) {
+            readView = buffer.duplicate();
+            readView.limit(bufCap);
+        }
+        return readView;
+    }
+
+    private class View extends AbstractByteArray {
+        private final int len;
+        private final long stamp;
+
+        private View(int len) {
+            this.len = len;
+            this.stamp = consumed;
+        }
+
+        private void check(int off, int len) {
+            if (stamp != consumed)
+                throw new IllegalStateException("the view is invalid because bytes are consumed from the buffer");
+            if (off < 0 || len < 0 || off + len > this.len)
+                throw new ArrayIndexOutOfBoundsException("off=" + off + ", len=" + len + ", length=" + this.len);
+        }
+
+        @Override
+        public byte get(int idx) {
+            check(idx, 1);
+            int pos = sPos + idx;
+            if (pos >= bufCap) {
+                pos -= bufCap;
+            }
+            return readView().get(pos);
+        }
+
+        @Override
+        public ByteArray set(int idx, byte value) {
+            throw new UnsupportedOperationException("the view is read-only");
+        }
+
+        @Override
+        public int length() {
+            return len;
+        }
+
+        @Override
+        public void copyTo(int srcOff, byte[] dst, int dstOff, int len) {
+            check(srcOff, len);
+            int pos = sPos + srcOff;
+            if (pos >= bufCap) {
+                pos -= bufCap;
+            }
+            int firstLen = Math.min(len, bufCap - pos);
+            ByteBuffer buf = readView();
+            buf.position(pos);
+            buf.get(dst, dstOff, firstLen);
+            if (firstLen < len) {
+                buf.position(0);
+                buf.get(dst, dstOff + firstLen, len - firstLen);
+            }
+        }
+
+        @Override
+        public void copyTo(int srcOff, ByteBuffer dst, int len) {
+            check(srcOff, len);
+            int pos = sPos + srcOff;
+            if (pos >= bufCap) {
+                pos -= bufCap;
+            }
+            int firstLen = Math.min(len, bufCap - pos);
+            ByteBuffer buf = readView();
+            buf.limit(pos + firstLen).position(pos);
+            dst.put(buf);
+            if (firstLen < len) {
+                buf.limit(len - firstLen).position(0);
+                dst.put(buf);
+            }
+            buf.limit(bufCap);
+        }
+    }
+
     @Override
     public String toString() {
         byte[] bytes = getBytes();
@@ -144,27 +389,17 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
 
     @Override
     public void addHandler(RingBufferETHandler h) {
-        if (operating) {
-            handlerToRemove.remove(h);
-            handlerToAdd.add(h);
-        } else {
-            handler.add(h);
-        }
+        handler.add(h, operating);
     }
 
     @Override
     public void removeHandler(RingBufferETHandler h) {
-        if (operating) {
-            handlerToAdd.remove(h);
-            handlerToRemove.add(h);
-        } else {
-            handler.remove(h);
-        }
+        handler.remove(h, operating);
     }
 
     @Override
     public Set<RingBufferETHandler> getHandlers() {
-        return new HashSet<>(handler);
+        return handler.toSet();
     }
 
     @Override
@@ -183,9 +418,10 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         if (cleaned)
             return;
         cleaned = true;
-        if (isDirect) {
-            Utils.clean(buffer);
+        if (isDirect && bufCap != 0) {
+            releaseDirect(buffer, pool);
         }
+        idleWatchedBy = null;
     }
 
     // clear the buffer
@@ -218,12 +454,16 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         operating = false;
         notFirstOperator = false;
 
-        handler.removeAll(handlerToRemove);
-        handler.addAll(handlerToAdd);
+        handler.applyPending();
     }
 
     @Override
     public int operateOnByteBufferWriteOut(int maxBytesToWrite, ByteBufferRingBuffer.WriteOutOp op) throws IOException {
+        return operateOnByteBufferWriteOut(maxBytesToWrite, op, null);
+    }
+
+    // write to the channel when the op is null
+    private int operateOnByteBufferWriteOut(int maxBytesToWrite, ByteBufferRingBuffer.WriteOutOp op, WritableByteChannel channel) throws IOException {
         if (closed)
             return 0; // handle nothing because it's closed
         if (operatingBuffer) {
@@ -256,7 +496,11 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
             buffer.limit(newLimit).position(sPos);
 
             // run the op
-            op.accept(buffer);
+            if (op == null) {
+                channel.write(buffer);
+            } else {
+                op.accept(buffer);
+            }
             // and calculate writing bytes
             if (newLimit != buffer.limit()) {
                 // limit of the buffer changed, which is illegal for writing
@@ -268,7 +512,7 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
 
             triggerWritable = triggerWritablePre && write > 0;
 
-            if (sPos == cap) {
+            if (sPos == bufCap) {
                 sPos = 0;
                 ePosIsAfterSPos = true;
             }
@@ -285,7 +529,11 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
                 buffer.limit(newLimit).position(sPos);
 
                 // run the op
-                op.accept(buffer);
+                if (op == null) {
+                    channel.write(buffer);
+                } else {
+                    op.accept(buffer);
+                }
                 // and calculate writing bytes
                 if (newLimit != buffer.limit()) {
                     // limit of the buffer changed, which is illegal for writing
@@ -305,30 +553,133 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
                 return write;
             }
         } finally { // do trigger here
-            assert Logger.lowLevelNetDebug("after operate write out, sPos=" + sPos);
+            afterWriteOut(bytesBeforeOperating, triggerWritable, firstOperator);
+        }
+    }
 
-            // was > 0 and now nothing
-            // which means all data had been flushed out
-            boolean flushAwareCondition = bytesBeforeOperating > 0 && used() == 0;
+    interface ViewsWriteOutOp {
+        void accept(ByteBuffer[] views, int count) throws IOException;
+    }
 
-            operatingBuffer = false;
-            if (triggerWritable || flushAwareCondition /*precondition, would check whether the handler is aware of*/) {
-                assert Logger.lowLevelNetDebug("trigger writable for " + handler.size() + " times");
-                for (RingBufferETHandler aHandler : handler) {
-                    // because the preconditions are checked, so
-                    // if not triggerWritable, then flushAwareCondition is definitely true
-                    // no need to check for it again here
-                    if (triggerWritable || aHandler.flushAware()) {
-                        aHandler.writableET();
-                    }
+    /**
+     * put the data (at most maxBytesToWrite) into the array as at most two views starting from the offset,
+     * then run the op with the array and the count of views in the array.
+     * the op should write out the views in order, usually with one gathering write,
+     * and it may append views of other buffers after the ones of this buffer
+     *
+     * @return bytes written out from this buffer
+     */
+    int operateOnViewsWriteOut(int maxBytesToWrite, ByteBuffer[] views, int offset, ViewsWriteOutOp op) throws IOException {
+        return operateOnViewsWriteOut(maxBytesToWrite, views, offset, op, null);
+    }
+
+    // write the views to the channel with one gathering write when the op is null
+    private int operateOnViewsWriteOut(int maxBytesToWrite, ByteBuffer[] views, int offset, ViewsWriteOutOp op, GatheringByteChannel gather) throws IOException {
+        if (closed)
+            return 0; // handle nothing because it's closed
+        if (operatingBuffer) {
+            throw new IllegalStateException("this buffer is operating");
+        }
+
+        boolean firstOperator = isFirstOperate();
+        operatingBuffer = true;
+
+        boolean triggerWritable = false;
+        int bytesBeforeOperating = used();
+
+        assert Logger.lowLevelNetDebug("before operate views write out, sPos=" + sPos);
+
+        try { // only use try-finally here, we do not catch
+
+            // is for triggering writable event
+            boolean triggerWritablePre = free() == 0;
+
+            int lim = retrieveLimit();
+            int firstLen = Math.min(lim, maxBytesToWrite);
+            buffer.limit(sPos + firstLen).position(sPos);
+            views[offset] = buffer;
+            int count = offset + 1;
+            int secondLen = 0;
+            if (!ePosIsAfterSPos && firstLen == lim) {
+                secondLen = Math.min(ePos, maxBytesToWrite - firstLen);
+            }
+            if (secondLen > 0) {
+                if (wrapView == null) {
+                    wrapView = buffer.duplicate();
                 }
+                wrapView.limit(secondLen).position(0);
+                views[count++] = wrapView;
             }
-            resetFirst(firstOperator);
+
+            // run the op
+            if (op == null) {
+                gather.write(views, 0, count);
+            } else {
+                op.accept(views, count);
+            }
+            // and calculate writing bytes
+            if (buffer.limit() != sPos + firstLen || (secondLen > 0 && wrapView.limit() != secondLen)) {
+                throw new IllegalStateException("should only write out");
+            }
+            int write = buffer.position() - sPos;
+            sPos += write;
+            if (sPos == bufCap) {
+                sPos = 0;
+                ePosIsAfterSPos = true;
+            }
+            if (secondLen > 0) {
+                int write2 = wrapView.position();
+                sPos += write2;
+                write += write2;
+            }
+            if (ePosIsAfterSPos && sPos == ePos) {
+                // buffer is empty now
+                resetCursors();
+            }
+
+            triggerWritable = triggerWritablePre && write > 0;
+            return write;
+        } finally { // do trigger here
+            afterWriteOut(bytesBeforeOperating, triggerWritable, firstOperator);
         }
     }
 
+    private void afterWriteOut(int bytesBeforeOperating, boolean triggerWritable, boolean firstOperator) {
+        assert Logger.lowLevelNetDebug("after operate write out, sPos=" + sPos);
+
+        consumed += bytesBeforeOperating - used();
+
+        // was > 0 and now nothing
+        // which means all data had been flushed out
+        boolean flushAwareCondition = bytesBeforeOperating > 0 && used() == 0;
+        if (flushAwareCondition && elastic) {
+            drained();
+        }
+
+        operatingBuffer = false;
+        if (triggerWritable || flushAwareCondition /*precondition, would check whether the handler is aware of*/) {
+            assert Logger.lowLevelNetDebug("trigger writable for " + handler.size() + " times");
+            for (int i = 0; i < handler.size(); ++i) {
+                RingBufferETHandler aHandler = handler.get(i);
+                // because the preconditions are checked, so
+                // if not triggerWritable, then flushAwareCondition is definitely true
+                // no need to check for it again here
+                if (triggerWritable || aHandler.flushAware()) {
+                    aHandler.writableET();
+                }
+            }
+        }
+        resetFirst(firstOperator);
+    }
+
     @Override
     public int operateOnByteBufferStoreIn(ByteBufferRingBuffer.StoreInOp op) throws IOException {
+        return operateOnByteBufferStoreIn(op, null, null);
+    }
+
+    // read from the channel when the op is null
+    // when the scatter channel is provided, it's used to read when the free space wraps around
+    private int operateOnByteBufferStoreIn(ByteBufferRingBuffer.StoreInOp op, ReadableByteChannel channel, ScatteringByteChannel scatter) throws IOException {
         if (closed)
             return -1; // handle nothing because it's already closed
         if (operatingBuffer) {
@@ -347,56 +698,79 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
             // is for triggering readable event
             boolean triggerReadablePre = used() == 0;
 
-            int lim = storeLimit();
-            if (lim == 0)
-                return 0; // buffer is full
-            int newLimit = ePos + lim;
-            buffer.limit(newLimit).position(ePos);
-
-            // run the op
-            boolean succeeded = op.test(buffer);
-            // calculate reading bytes
-            if (newLimit != buffer.limit()) {
-                // limit of the buffer changed, which is illegal
-                assert Logger.lowLevelDebug("newLimit=" + newLimit + ", buffer.limit()=" + buffer.limit());
-                throw new IllegalStateException("should only read in");
-            }
-            int read = buffer.position() - ePos;
-            ePos += read;
-            if (!succeeded)
-                return -1; // some error occurred, maybe EOF
+            // usually the op runs at most twice: until capacity, then until the `start` pos
+            // an elastic buffer may grow when it's full, then the op runs again
+            int total = 0;
+            while (true) {
+                if (scatter != null && ePosIsAfterSPos && sPos != 0 && ePos != bufCap) {
+                    // the free space is [ePos, cap) and [0, sPos)
+                    int firstLen = bufCap - ePos;
+                    buffer.limit(bufCap).position(ePos);
+                    if (wrapView == null) {
+                        wrapView = buffer.duplicate();
+                    }
+                    wrapView.limit(sPos).position(0);
+                    views[0] = buffer;
+                    views[1] = wrapView;
+                    long n = scatter.read(views, 0, 2);
+                    if (n < 0) {
+                        if (total == 0)
+                            return -1; // EOF
+                        return total;
+                    }
+                    int read = (int) n;
+                    if (read < firstLen) {
+                        ePos += read;
+                    } else {
+                        ePos = read - firstLen;
+                        ePosIsAfterSPos = false;
+                    }
+                    total += read;
 
-            triggerReadable = triggerReadablePre && read > 0;
+                    triggerReadable = triggerReadablePre && total > 0;
 
-            if (ePos == cap) {
-                ePos = 0;
-                ePosIsAfterSPos = false;
-            }
-            if (read == lim) {
-                // maybe have more bytes to read
-                lim = storeLimit();
-                if (lim == 0)
-                    return read; // buffer is full now
-                newLimit = ePos + lim;
+                    if (read != firstLen + sPos) {
+                        return total;
+                    }
+                    // the buffer is full, maybe it can grow
+                    continue;
+                }
+                int lim = storeLimit();
+                if (lim == 0) {
+                    if (!grow())
+                        return total; // buffer is full
+                    lim = storeLimit();
+                }
+                int newLimit = ePos + lim;
                 buffer.limit(newLimit).position(ePos);
 
                 // run the op
-                succeeded = op.test(buffer);
+                boolean succeeded = op == null ? channel.read(buffer) != -1 : op.test(buffer);
                 // calculate reading bytes
                 if (newLimit != buffer.limit()) {
-                    // limit of the buffer changed, which is illegal for reading
+                    // limit of the buffer changed, which is illegal
                     assert Logger.lowLevelDebug("newLimit=" + newLimit + ", buffer.limit()=" + buffer.limit());
                     throw new IllegalStateException("should only read in");
                 }
-                int read2 = buffer.position() - ePos;
-                ePos += read2;
+                int read = buffer.position() - ePos;
+                ePos += read;
                 if (!succeeded) {
-                    read2 = 0; // ignore error here, because the first read is ok
+                    if (total == 0)
+                        return -1; // some error occurred, maybe EOF
+                    return total; // ignore error here, because the previous read is ok
                 }
-                // this time, ePos will not reach cap
-                return read + read2;
-            } else {
-                return read;
+                total += read;
+
+                triggerReadable = triggerReadablePre && total > 0;
+
+                if (ePos == bufCap) {
+                    ePos = 0;
+                    ePosIsAfterSPos = false;
+                }
+                if (read != lim) {
+                    return total;
+                }
+                // maybe have more bytes to read
             }
         } finally { // do trigger here
             assert Logger.lowLevelNetDebug("after operate store in, ePos=" + ePos);
@@ -404,8 +778,8 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
             operatingBuffer = false;
             if (triggerReadable) {
                 assert Logger.lowLevelNetDebug("trigger readable for " + handler.size() + " times");
-                for (RingBufferETHandler aHandler : handler) {
-                    aHandler.readableET();
+                for (int i = 0; i < handler.size(); ++i) {
+                    handler.get(i).readableET();
                 }
             }
             resetFirst(firstOperator);
@@ -429,32 +803,120 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         // and store data into the new buffer
         //
         // then we make a swap
+        replaceBuffer(bufCap);
+    }
+
+    // move the data into a new buffer with the capacity, and release the old buffer
+    private void replaceBuffer(int newCap) {
         ByteBuffer newBuffer;
-        if (isDirect) {
-            newBuffer = ByteBuffer.allocateDirect(cap);
+        DirectBufferPool newPool = null;
+        if (newCap == 0) {
+            newBuffer = NO_MEMORY;
+        } else if (pooled) {
+            // the buffer may be handled on another loop now
+            newPool = DirectBufferPool.current();
+            newBuffer = newPool == null ? ByteBuffer.allocateDirect(newCap) : newPool.allocate(newCap);
+        } else if (isDirect) {
+            newBuffer = ByteBuffer.allocateDirect(newCap);
         } else {
-            newBuffer = ByteBuffer.allocate(cap);
+            newBuffer = ByteBuffer.allocate(newCap);
         }
 
-        if (ePosIsAfterSPos) {
-            buffer.limit(ePos).position(sPos); // sPos, ePos, cap
-        } else {
-            buffer.limit(cap).position(sPos); // ePos, sPos, cap
-        }
-        newBuffer.put(buffer);
-        if (!ePosIsAfterSPos) {
-            // still have some bytes
-            buffer.limit(ePos).position(0);
+        if (used() != 0) {
+            if (ePosIsAfterSPos) {
+                buffer.limit(ePos).position(sPos); // sPos, ePos, cap
+            } else {
+                buffer.limit(bufCap).position(sPos); // ePos, sPos, cap
+            }
             newBuffer.put(buffer);
+            if (!ePosIsAfterSPos) {
+                // still have some bytes
+                buffer.limit(ePos).position(0);
+                newBuffer.put(buffer);
+            }
         }
 
-        if (isDirect) {
-            Utils.clean(buffer); // clean the old buffer
+        if (isDirect && bufCap != 0) {
+            releaseDirect(buffer, pool); // clean the old buffer
         }
 
         sPos = 0;
         ePos = newBuffer.position();
         ePosIsAfterSPos = true;
+        wrapView = null;
+        readView = null;
+        if (newCap != 0 && ePos == newCap) {
+            // the buffer is full
+            ePos = 0;
+            ePosIsAfterSPos = false;
+        }
         buffer = newBuffer;
+        bufCap = newCap;
+        pool = newPool;
+    }
+
+    // called when storing data into a full buffer
+    // return true if the buffer grew
+    private boolean grow() {
+        if (!elastic || bufCap == cap || cleaned)
+            return false;
+        int newCap;
+        if (bufCap == 0) {
+            newCap = Math.min(ELASTIC_INITIAL_CAPACITY, cap);
+        } else {
+            newCap = (int) Math.min(2L * bufCap, cap);
+        }
+        assert Logger.lowLevelNetDebug("elastic buffer grows from " + bufCap + " to " + newCap);
+        replaceBuffer(newCap);
+        return true;
+    }
+
+    // called when an elastic buffer became empty
+    private void drained() {
+        drainedAt = Config.currentTimestamp;
+        if (idleWatchedBy != null || bufCap == 0 || cleaned)
+            return;
+        SelectorEventLoop loop = SelectorEventLoop.current();
+        if (loop == null)
+            return; // not on any loop, cannot be watched
+        idleWatchedBy = loop.getBufferPool();
+        idleWatchedBy.watchIdle(this);
+    }
+
+    @Override
+    public boolean checkIdle(DirectBufferPool pool, long now, int idle) {
+        if (idleWatchedBy != pool)
+            return false; // watched by another loop or already released
+        if (operating || used() != 0 || cleaned || bufCap == 0) {
+            // it will be watched again when drained
+            idleWatchedBy = null;
+            return false;
+        }
+        if (now - drainedAt < idle)
+            return true;
+        releaseIdleMemory();
+        return false;
+    }
+
+    /**
+     * release the memory of an elastic buffer if it's empty,
+     * should be called on the loop handling the buffer, e.g. before moving the buffer to another loop
+     */
+    @Override
+    public void releaseIdleMemory() {
+        if (!elastic || operating || used() != 0 || bufCap == 0 || cleaned)
+            return;
+        assert Logger.lowLevelNetDebug("elastic buffer releases " + bufCap + " bytes");
+        replaceBuffer(0);
+        idleWatchedBy = null;
+    }
+
+    public boolean isElastic() {
+        return elastic;
+    }
+
+    // capacity of the memory currently held by the buffer
+    public int memoryCapacity() {
+        return bufCap;
     }
 }
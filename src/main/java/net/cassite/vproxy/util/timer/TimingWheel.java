@@ -0,0 +1,315 @@
+package net.cassite.vproxy.util.timer;
+
+import net.cassite.vproxy.app.Config;
+import net.cassite.vproxy.util.TimeElem;
+import net.cassite.vproxy.util.TimeQueue;
+
+/**
+ * A hierarchical timing wheel, the same idea as the linux kernel timer wheel.<br>
+ * Level 0 has 256 slots and each slot is 1 millisecond.<br>
+ * Level 1 to 4 have 64 slots each, and one slot covers a whole round of the lower level.<br>
+ * Elements are linked in doubly linked lists, so push and remove are O(1).<br>
+ * When time goes by, elements in the higher levels are cascaded into the lower levels.<br>
+ * <br>
+ * NOTE: this class is not thread safe, it should only be used on the event loop.
+ */
+public class TimingWheel<T> implements TimeQueue<T> {
+    private static final int L0_BITS = 8;
+    private static final int LN_BITS = 6;
+    private static final int L0_SIZE = 1 << L0_BITS;
+    private static final int LN_SIZE = 1 << LN_BITS;
+    private static final long L0_MASK = L0_SIZE - 1;
+    private static final long LN_MASK = LN_SIZE - 1;
+    private static final int LEVELS = 5; // 8 + 6 * 4 = 32 bits, enough for an int timeout
+
+    private static final int LEVEL_EXPIRED = -1;
+    private static final int LEVEL_DETACHED = -2;
+
+    private static class Elem<T> implements TimeElem<T> {
+        final long triggerTime;
+        final T elem;
+        private final TimingWheel<T> wheel;
+
+        Elem<T> prev;
+        Elem<T> next;
+        int level = LEVEL_DETACHED;
+        int idx;
+
+        Elem(long triggerTime, T elem, TimingWheel<T> wheel) {
+            this.triggerTime = triggerTime;
+            this.elem = elem;
+            this.wheel = wheel;
+        }
+
+        @Override
+        public long triggerTime() {
+            return triggerTime;
+        }
+
+        @Override
+        public T get() {
+            return elem;
+        }
+
+        @Override
+        public void removeSelf() {
+            wheel.remove(this);
+        }
+    }
+
+    private final Elem<T>[][] slots; // list heads
+    private final long[][] bitmaps; // a bit is set when the slot is not empty
+    private long base; // the next tick to handle
+    private int wheelCount = 0; // count of elements in slots (expired elements not included)
+    private Elem<T> expiredHead;
+    private Elem<T> expiredTail;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel() {
+        this.base = Config.currentTimestamp;
+        this.slots = (Elem<T>[][]) new Elem<?>[LEVELS][];
+        this.bitmaps = new long[LEVELS][];
+        slots[0] = newSlots(L0_SIZE);
+        bitmaps[0] = new long[L0_SIZE / 64];
+        for (int i = 1; i < LEVELS; ++i) {
+            slots[i] = newSlots(LN_SIZE);
+            bitmaps[i] = new long[1];
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Elem<T>[] newSlots(int n) {
+        return (Elem<T>[]) new Elem<?>[n];
+    }
+
+    private static int shift(int level) {
+        if (level == 0)
+            return 0;
+        return L0_BITS + LN_BITS * (level - 1);
+    }
+
+    @Override
+    public TimeElem<T> push(int timeout, T elem) {
+        Elem<T> e = new Elem<>(Config.currentTimestamp + timeout, elem, this);
+        place(e);
+        return e;
+    }
+
+    @Override
+    public T pop() {
+        advance(Config.currentTimestamp);
+        Elem<T> e = expiredHead;
+        if (e == null)
+            return null;
+        remove(e);
+        return e.elem;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return wheelCount == 0 && expiredHead == null;
+    }
+
+    @Override
+    public int nextTime() {
+        advance(Config.currentTimestamp);
+        if (expiredHead != null)
+            return 0;
+        if (wheelCount == 0)
+            return Integer.MAX_VALUE;
+
+        long nearest = Long.MAX_VALUE;
+        // level 0 records the exact trigger time
+        {
+            int idx0 = (int) (base & L0_MASK);
+            long roundStart = base & ~L0_MASK;
+            int i = nextSetBit0(idx0);
+            if (i != -1) {
+                nearest = roundStart + i;
+            } else {
+                i = nextSetBit0(0);
+                if (i != -1) {
+                    nearest = roundStart + L0_SIZE + i;
+                }
+            }
+        }
+        // higher levels: elements will not trigger before their slot is cascaded
+        // so the time of cascading is a safe lower bound
+        for (int level = 1; level < LEVELS; ++level) {
+            long bits = bitmaps[level][0];
+            if (bits == 0)
+                continue;
+            int s = shift(level);
+            int cur = (int) ((base >> s) & LN_MASK);
+            long rotated = Long.rotateRight(bits, cur);
+            int d;
+            if ((base & ((1L << s) - 1)) == 0) {
+                // the current slot is not cascaded yet
+                d = Long.numberOfTrailingZeros(rotated);
+            } else {
+                // the current slot is already cascaded
+                // elements inside it belong to the next round
+                long others = rotated & ~1L;
+                d = others == 0 ? LN_SIZE : Long.numberOfTrailingZeros(others);
+            }
+            long t = ((base >> s) + d) << s;
+            if (t < nearest) {
+                nearest = t;
+            }
+        }
+        long delta = nearest - Config.currentTimestamp;
+        if (delta <= 0)
+            return 0;
+        if (delta > Integer.MAX_VALUE)
+            return Integer.MAX_VALUE;
+        return (int) delta;
+    }
+
+    private int nextSetBit0(int from) {
+        long[] bitmap = bitmaps[0];
+        int w = from >>> 6;
+        long word = bitmap[w] & (-1L << from);
+        while (true) {
+            if (word != 0)
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            if (++w == bitmap.length)
+                return -1;
+            word = bitmap[w];
+        }
+    }
+
+    private void place(Elem<T> e) {
+        long t = e.triggerTime;
+        if (t < base) {
+            appendExpired(e);
+            return;
+        }
+        long delta = t - base;
+        int level;
+        int idx;
+        if (delta < L0_SIZE) {
+            level = 0;
+            idx = (int) (t & L0_MASK);
+        } else {
+            level = 1;
+            while (level < LEVELS - 1 && delta >= (1L << shift(level + 1))) {
+                ++level;
+            }
+            int s = shift(level);
+            long max = 1L << (s + LN_BITS);
+            if (delta >= max) {
+                // too far away, put it into the last slot
+                // it will be re-placed when cascading
+                t = base + max - 1;
+            }
+            idx = (int) ((t >> s) & LN_MASK);
+        }
+        Elem<T> head = slots[level][idx];
+        e.prev = null;
+        e.next = head;
+        if (head != null) {
+            head.prev = e;
+        }
+        slots[level][idx] = e;
+        bitmaps[level][idx >>> 6] |= 1L << idx;
+        e.level = level;
+        e.idx = idx;
+        ++wheelCount;
+    }
+
+    private void appendExpired(Elem<T> e) {
+        e.prev = expiredTail;
+        e.next = null;
+        if (expiredTail == null) {
+            expiredHead = e;
+        } else {
+            expiredTail.next = e;
+        }
+        expiredTail = e;
+        e.level = LEVEL_EXPIRED;
+    }
+
+    private void remove(Elem<T> e) {
+        if (e.level == LEVEL_DETACHED)
+            return;
+        if (e.level == LEVEL_EXPIRED) {
+            if (e.prev == null) {
+                expiredHead = e.next;
+            } else {
+                e.prev.next = e.next;
+            }
+            if (e.next == null) {
+                expiredTail = e.prev;
+            } else {
+                e.next.prev = e.prev;
+            }
+        } else {
+            if (e.prev == null) {
+                slots[e.level][e.idx] = e.next;
+                if (e.next == null) {
+                    bitmaps[e.level][e.idx >>> 6] &= ~(1L << e.idx);
+                }
+            } else {
+                e.prev.next = e.next;
+            }
+            if (e.next != null) {
+                e.next.prev = e.prev;
+            }
+            --wheelCount;
+        }
+        e.prev = null;
+        e.next = null;
+        e.level = LEVEL_DETACHED;
+    }
+
+    // detach the whole slot and return the list head
+    private Elem<T> takeSlot(int level, int idx) {
+        Elem<T> head = slots[level][idx];
+        if (head == null)
+            return null;
+        slots[level][idx] = null;
+        bitmaps[level][idx >>> 6] &= ~(1L << idx);
+        for (Elem<T> e = head; e != null; e = e.next) {
+            --wheelCount;
+        }
+        return head;
+    }
+
+    private void cascade(int level) {
+        int idx = (int) ((base >> shift(level)) & LN_MASK);
+        Elem<T> e = takeSlot(level, idx);
+        while (e != null) {
+            Elem<T> next = e.next;
+            place(e);
+            e = next;
+        }
+        if (idx == 0 && level + 1 < LEVELS) {
+            cascade(level + 1);
+        }
+    }
+
+    private void advance(long now) {
+        while (base <= now) {
+            if (wheelCount == 0) {
+                base = now + 1;
+                break;
+            }
+            int idx0 = (int) (base & L0_MASK);
+            if (idx0 == 0) {
+                cascade(1);
+            }
+            if (bitmaps[0][0] == 0 && bitmaps[0][1] == 0 && bitmaps[0][2] == 0 && bitmaps[0][3] == 0) {
+                // nothing in level 0, jump to the next round
+                base = Math.min((base | L0_MASK) + 1, now + 1);
+                continue;
+            }
+            Elem<T> e = takeSlot(0, idx0);
+            while (e != null) {
+                Elem<T> next = e.next;
+                appendExpired(e);
+                e = next;
+            }
+            ++base;
+        }
+    }
+}
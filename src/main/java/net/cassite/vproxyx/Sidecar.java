@@ -17,7 +17,7 @@ public class Sidecar {
             System.exit(exitCode);
         }
         // start sync task
-        Application.get().controlEventLoop.getSelectorEventLoop().period(10 * 1000,
+        Application.get().controlEventLoop.getSelectorEventLoop().periodBackground(10 * 1000,
             ServiceMeshResourceSynchronizer::sync);
         Config.configModifyDisabled = true;
     }
@@ -97,7 +97,7 @@ public class WebSocksProxyAgentConnectorProvider implements Socks5ConnectorProvi
                 } else {
                     conn = connector.connect(
                         WebSocksUtils.getConnectionOpts(),
-                        RingBuffer.allocateDirect(16384), RingBuffer.allocateDirect(16384));
+                        RingBuffer.allocateDirectPooled(16384), RingBuffer.allocateDirectPooled(16384));
                 }
             } catch (IOException e) {
                 Logger.error(LogType.CONN_ERROR, "make websocks connection for the pool failed", e);
@@ -650,7 +650,7 @@ public class WebSocksProxyAgentConnectorProvider implements Socks5ConnectorProvi
                     } else {
                         conn = connector.connect(
                             WebSocksUtils.getConnectionOpts(),
-                            RingBuffer.allocateDirect(16384), RingBuffer.allocateDirect(16384));
+                            RingBuffer.allocateDirectPooled(16384), RingBuffer.allocateDirectPooled(16384));
                     }
                 } catch (IOException e) {
                     Logger.error(LogType.CONN_ERROR, "connect to " + connector + " failed", e);
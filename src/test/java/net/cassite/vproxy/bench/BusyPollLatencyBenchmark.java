@@ -0,0 +1,61 @@
+package net.cassite.vproxy.bench;
+
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.selector.SelectorEventLoopOpts;
+import net.cassite.vproxy.test.tool.EchoServer;
+
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+// loopback echo round trip latency, with and without busy poll
+// the client sends 1 byte and waits for the echo before sending the next one
+public class BusyPollLatencyBenchmark {
+    private static final int ROUNDS = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        int port = 19090;
+        // warm up
+        run("warm-up", SelectorEventLoopOpts.getDefault(), port++, false);
+        run("warm-up", new SelectorEventLoopOpts().setBusyPoll(0, 50), port++, false);
+
+        run("blocking-select", SelectorEventLoopOpts.getDefault(), port++, true);
+        run("busy-poll-50us", new SelectorEventLoopOpts().setBusyPoll(0, 50), port++, true);
+        run("busy-poll-500us", new SelectorEventLoopOpts().setBusyPoll(0, 500), port, true);
+    }
+
+    private static void run(String name, SelectorEventLoopOpts opts, int port, boolean print) throws Exception {
+        SelectorEventLoop loop = SelectorEventLoop.open(opts);
+        loop.loop(r -> new Thread(r, "EventLoop"));
+        new EchoServer(loop, port);
+
+        long[] costs = new long[ROUNDS];
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("127.0.0.1", port))) {
+            client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            ByteBuffer buf = ByteBuffer.allocateDirect(1);
+            for (int i = 0; i < ROUNDS; ++i) {
+                buf.clear();
+                buf.put((byte) i);
+                buf.flip();
+                long start = System.nanoTime();
+                client.write(buf);
+                buf.clear();
+                while (client.read(buf) == 0) {
+                    // blocking read, should not be zero
+                }
+                costs[i] = System.nanoTime() - start;
+            }
+        }
+        loop.close();
+
+        if (!print)
+            return;
+        Arrays.sort(costs);
+        System.out.println(name
+            + " p50=" + (costs[ROUNDS / 2] / 1000.0) + "us"
+            + " p99=" + (costs[ROUNDS * 99 / 100] / 1000.0) + "us"
+            + " max=" + (costs[ROUNDS - 1] / 1000.0) + "us");
+    }
+}
@@ -0,0 +1,102 @@
+package net.cassite.vproxy.bench;
+
+import net.cassite.vproxy.util.ByteArray;
+import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.bytearray.AbstractByteArray;
+
+import java.util.function.BinaryOperator;
+
+// the http2 frame path of the processor lib:
+// frame head and payload arrive as separate arrays, the processor parses the head,
+// rewrites the stream id, concatenates some arrays (e.g. the preface and extra settings),
+// then the result is turned into a channel and written into the out buffer
+// nested: the old recursive composite array, copying one byte at a time
+// rope: the current ByteArray.concat
+// usage: ByteArrayBenchmark [frames] [arrays concatenated per frame] [payload length]
+public class ByteArrayBenchmark {
+    public static void main(String[] args) {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int parts = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int payloadLen = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+        run("warm-up-nested", NestedByteArray::new, frames / 4, parts, payloadLen, false);
+        run("warm-up-rope", ByteArray::concat, frames / 4, parts, payloadLen, false);
+        run("nested", NestedByteArray::new, frames, parts, payloadLen, true);
+        run("rope", ByteArray::concat, frames, parts, payloadLen, true);
+    }
+
+    private static void run(String name, BinaryOperator<ByteArray> concat,
+                            int frames, int parts, int payloadLen, boolean print) {
+        ByteArray head = ByteArray.from(0, 0, payloadLen, 1, 4, 0, 0, 0, 1);
+        ByteArray[] payloads = new ByteArray[parts];
+        for (int i = 0; i < parts; ++i) {
+            payloads[i] = ByteArray.from(new byte[payloadLen]);
+        }
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int f = 0; f < frames; ++f) {
+            ByteArray frame = head;
+            for (ByteArray p : payloads) {
+                frame = concat.apply(frame, p);
+            }
+            // parse and rewrite the head, then read the last bytes of the payload
+            int len = frame.uint24(0);
+            int streamId = frame.int32(5);
+            frame.int32(5, streamId + 2);
+            sum += len + frame.uint8(frame.length() - 1);
+            ByteArrayChannel chnl = frame.toChannel();
+            sum += chnl.used();
+        }
+        long cost = System.nanoTime() - start;
+        if (!print)
+            return;
+        System.out.println(name + " frames=" + frames + " parts=" + parts + " payload=" + payloadLen
+            + " cost=" + (cost / 1_000_000) + "ms"
+            + " " + String.format("%.1f", cost / (double) frames) + "ns/frame"
+            + " (" + sum + ")");
+    }
+
+    // the composite array before the rope was introduced
+    static class NestedByteArray extends AbstractByteArray {
+        private final ByteArray first;
+        private final ByteArray second;
+        private final int len;
+
+        NestedByteArray(ByteArray first, ByteArray second) {
+            this.first = first;
+            this.second = second;
+            this.len = first.length() + second.length();
+        }
+
+        @Override
+        public byte get(int idx) {
+            if (idx < first.length()) {
+                return first.get(idx);
+            } else {
+                return second.get(idx - first.length());
+            }
+        }
+
+        @Override
+        public ByteArray set(int idx, byte value) {
+            if (idx < first.length()) {
+                first.set(idx, value);
+            } else {
+                second.set(idx - first.length(), value);
+            }
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return len;
+        }
+
+        @Override
+        public void copyTo(int srcOff, byte[] dst, int dstOff, int len) {
+            for (int i = 0; i < len; ++i) {
+                dst[dstOff + i] = get(srcOff + i);
+            }
+        }
+    }
+}
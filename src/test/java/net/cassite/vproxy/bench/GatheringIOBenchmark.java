@@ -0,0 +1,188 @@
+package net.cassite.vproxy.bench;
+
+import net.cassite.vproxy.util.ringbuffer.SimpleRingBuffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+
+// relay data from one socket to another through a ring buffer, like the proxy lib does
+// count the read/write calls on the channels when the ring buffer data wraps around
+// vectored: the channels support scattering/gathering io, each readiness event needs one call
+// plain: the channels only support ByteBuffer io, a wrapped buffer needs two calls
+// usage: GatheringIOBenchmark [MB to transfer] [ring buffer size]
+public class GatheringIOBenchmark {
+    private static final int port = 19290;
+
+    public static void main(String[] args) throws Exception {
+        int mb = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int bufSize = args.length > 1 ? Integer.parseInt(args[1]) : 16384;
+
+        run("warm-up-vectored", true, mb / 4, bufSize, false);
+        run("warm-up-plain", false, mb / 4, bufSize, false);
+        run("vectored", true, mb, bufSize, true);
+        run("plain", false, mb, bufSize, true);
+    }
+
+    private static void run(String name, boolean vectored, int mb, int bufSize, boolean print) throws Exception {
+        long total = (long) mb * 1024 * 1024;
+
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", port));
+        // the client sends data to the relay, the relay sends data to the sink
+        Socket client = new Socket("127.0.0.1", port);
+        SocketChannel fromClient = server.accept();
+        Socket sink = new Socket();
+        // small socket buffers on the sink side, so writes of the relay are usually partial
+        // and the data left in the ring buffer wraps around
+        sink.setReceiveBufferSize(bufSize / 2);
+        sink.connect(new InetSocketAddress("127.0.0.1", port));
+        SocketChannel toSink = server.accept();
+        toSink.socket().setSendBufferSize(bufSize / 2);
+        server.close();
+
+        Thread sender = new Thread(() -> {
+            byte[] b = new byte[65536];
+            try {
+                OutputStream os = client.getOutputStream();
+                long left = total;
+                while (left > 0) {
+                    int n = (int) Math.min(b.length, left);
+                    os.write(b, 0, n);
+                    left -= n;
+                }
+                client.shutdownOutput();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        Thread receiver = new Thread(() -> {
+            byte[] b = new byte[65536];
+            try {
+                InputStream is = sink.getInputStream();
+                //noinspection StatementWithEmptyBody
+                while (is.read(b) >= 0) {
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        sender.start();
+        receiver.start();
+
+        CountingChannel in = vectored ? new VectoredCountingChannel(fromClient) : new CountingChannel(fromClient);
+        CountingChannel out = vectored ? new VectoredCountingChannel(toSink) : new CountingChannel(toSink);
+
+        long start = System.nanoTime();
+        relay(fromClient, toSink, in, out, SimpleRingBuffer.allocateDirect(bufSize));
+        long cost = System.nanoTime() - start;
+
+        toSink.close();
+        receiver.join();
+        sender.join();
+        fromClient.close();
+        client.close();
+        sink.close();
+
+        if (!print)
+            return;
+        System.out.println(name + " bytes=" + in.bytes
+            + " reads=" + in.calls + " writes=" + out.calls
+            + " reads/MB=" + String.format("%.1f", in.calls / (double) mb)
+            + " writes/MB=" + String.format("%.1f", out.calls / (double) mb)
+            + " cost=" + (cost / 1_000_000) + "ms");
+    }
+
+    private static void relay(SocketChannel from, SocketChannel to,
+                              CountingChannel in, CountingChannel out,
+                              SimpleRingBuffer buf) throws IOException {
+        from.configureBlocking(false);
+        to.configureBlocking(false);
+        Selector selector = Selector.open();
+        SelectionKey readKey = from.register(selector, SelectionKey.OP_READ);
+        SelectionKey writeKey = to.register(selector, 0);
+        boolean eof = false;
+        while (!eof || buf.used() != 0) {
+            selector.select();
+            selector.selectedKeys().clear();
+            if (!eof && buf.free() != 0 && readKey.isReadable()) {
+                if (buf.storeBytesFrom(in) < 0) {
+                    eof = true;
+                }
+            }
+            if (buf.used() != 0) {
+                buf.writeTo(out, Integer.MAX_VALUE);
+            }
+            readKey.interestOps(!eof && buf.free() != 0 ? SelectionKey.OP_READ : 0);
+            writeKey.interestOps(buf.used() != 0 ? SelectionKey.OP_WRITE : 0);
+        }
+        selector.close();
+    }
+
+    static class CountingChannel implements ByteChannel {
+        final SocketChannel channel;
+        long calls;
+        long bytes;
+
+        CountingChannel(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        long count(long n) {
+            ++calls;
+            if (n > 0)
+                bytes += n;
+            return n;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return (int) count(channel.read(dst));
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return (int) count(channel.write(src));
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    static class VectoredCountingChannel extends CountingChannel implements ScatteringByteChannel, GatheringByteChannel {
+        VectoredCountingChannel(SocketChannel channel) {
+            super(channel);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return count(channel.read(dsts, offset, length));
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts) throws IOException {
+            return read(dsts, 0, dsts.length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return count(channel.write(srcs, offset, length));
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) throws IOException {
+            return write(srcs, 0, srcs.length);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package net.cassite.vproxy.bench;
+
+import net.cassite.vproxy.processor.Processor;
+import net.cassite.vproxy.processor.http2.Http2Processor;
+import net.cassite.vproxy.util.ByteArray;
+import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.ringbuffer.SimpleRingBuffer;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+// feed http2 frames from the in buffer of the frontend connection to the processor,
+// the same way as the processor lib does, and measure the bytes allocated per frame
+// copy: the message is copied out of the in buffer into a new array before feeding
+// view: the processor is fed with a view of the in buffer (Processor#FEED_INPUT_VIEW)
+// output: fed with a view, and the frame head is written into the out buffer with Processor.Output
+// the frames are DATA frames (the head is handled and the payload is proxied)
+// followed by WINDOW_UPDATE frames (dropped by the processor)
+// usage: ProcessorFeedBenchmark [frames] [copy|view|output, default all]
+public class ProcessorFeedBenchmark {
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
+    private static final int DATA_LEN = 32;
+
+    public static void main(String[] args) throws Exception {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        String mode = args.length > 1 ? args[1] : "all";
+
+        for (String m : new String[]{"copy", "view", "output"}) {
+            if (mode.equals("all") || mode.equals(m))
+                run("warm-up-" + m, m, frames / 4, false);
+        }
+        for (String m : new String[]{"copy", "view", "output"}) {
+            if (mode.equals("all") || mode.equals(m))
+                run(m, m, frames, true);
+        }
+    }
+
+    private static byte[] batch() {
+        // 64 pairs of frames
+        int pairLen = 9 + DATA_LEN + 9 + 4;
+        byte[] b = new byte[pairLen * 64];
+        for (int i = 0; i < 64; ++i) {
+            int off = i * pairLen;
+            // DATA, stream 1
+            b[off + 2] = DATA_LEN;
+            b[off + 8] = 1;
+            off += 9 + DATA_LEN;
+            // WINDOW_UPDATE, stream 1
+            b[off + 2] = 4;
+            b[off + 3] = 8;
+            b[off + 8] = 1;
+            b[off + 12] = 1;
+        }
+        return b;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void run(String name, String mode, int frames, boolean print) throws Exception {
+        Processor processor = new Http2Processor();
+        Processor.Context ctx = processor.init();
+        Processor.SubContext sub = processor.initSub(ctx, 0);
+        SimpleRingBuffer in = SimpleRingBuffer.allocateDirect(16384);
+        SimpleRingBuffer out = SimpleRingBuffer.allocateDirect(16384);
+
+        // handshake: preface and an empty settings frame
+        byte[] handshake = new byte[PREFACE.length + 9];
+        System.arraycopy(PREFACE, 0, handshake, 0, PREFACE.length);
+        handshake[PREFACE.length + 3] = 4;
+        in.storeBytesFrom(ByteArrayChannel.fromFull(handshake));
+        feedAll(processor, ctx, sub, in, out, mode);
+
+        ByteArrayChannel batch = ByteArrayChannel.fromFull(batch());
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long handled = 0;
+        long allocatedBefore = mx.getThreadAllocatedBytes(tid);
+        long start = System.nanoTime();
+        while (handled < frames) {
+            batch.reset();
+            in.storeBytesFrom(batch);
+            handled += feedAll(processor, ctx, sub, in, out, mode);
+        }
+        long cost = System.nanoTime() - start;
+        long allocated = mx.getThreadAllocatedBytes(tid) - allocatedBefore;
+        if (!print)
+            return;
+        System.out.println(name + " frames=" + handled
+            + " allocated=" + String.format("%.1f", allocated / (double) handled) + "bytes/frame"
+            + " cost=" + String.format("%.1f", cost / (double) handled) + "ns/frame");
+    }
+
+    // return handled frames
+    @SuppressWarnings("unchecked")
+    private static int feedAll(Processor processor, Processor.Context ctx, Processor.SubContext sub,
+                               SimpleRingBuffer in, SimpleRingBuffer out, String mode) throws Exception {
+        OutBufferOutput output = new OutBufferOutput(out);
+        int frames = 0;
+        while (true) {
+            int len = processor.len(ctx, sub);
+            if (processor.mode(ctx, sub) == Processor.Mode.proxy) {
+                // the payload is proxied from the in buffer
+                in.discard(len);
+                processor.proxyDone(ctx, sub);
+                continue;
+            }
+            if (len == 0) {
+                processor.feed(ctx, sub, ByteArray.from(new byte[0]));
+                continue;
+            }
+            if (in.used() < len)
+                return frames;
+            if (len == 9)
+                ++frames;
+            ByteArray toSend;
+            if (mode.equals("output")) {
+                toSend = processor.feed(ctx, sub, in.view(len), output);
+                if (toSend != null)
+                    toSend = toSend.arrange();
+                in.discard(len);
+                output.flush();
+            } else if (mode.equals("view")) {
+                toSend = processor.feed(ctx, sub, in.view(len));
+                if (toSend != null)
+                    toSend = toSend.arrange();
+                in.discard(len);
+            } else {
+                ByteArrayChannel chnl = ByteArrayChannel.fromEmpty(new byte[len]);
+                in.writeTo(chnl);
+                toSend = processor.feed(ctx, sub, ByteArray.from(chnl.get()));
+            }
+            if (toSend != null) {
+                // the lib turns the data into a channel to write into the out buffer
+                toSend.toChannel();
+            }
+        }
+    }
+
+    // write into the out buffer through a small reused array, similar to the output used by the processor lib
+    static class OutBufferOutput implements Processor.Output, ReadableByteChannel {
+        private final SimpleRingBuffer out;
+        private final byte[] buf = new byte[256];
+        private int used = 0;
+        private int read = 0;
+
+        OutBufferOutput(SimpleRingBuffer out) {
+            this.out = out;
+        }
+
+        void flush() throws IOException {
+            if (used == 0)
+                return;
+            out.storeBytesFrom(this);
+            out.discard(used); // drop the bytes, the benchmark does not send them
+            used = 0;
+            read = 0;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            int n = Math.min(used - read, dst.remaining());
+            dst.put(buf, read, n);
+            read += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public int free() {
+            return buf.length - used;
+        }
+
+        @Override
+        public Processor.Output write(ByteArray array, int off, int len) {
+            array.copyTo(off, buf, used, len);
+            used += len;
+            return this;
+        }
+
+        @Override
+        public Processor.Output uint8(int val) {
+            buf[used++] = (byte) val;
+            return this;
+        }
+
+        @Override
+        public Processor.Output int16(int val) {
+            return uint8(val >> 8).uint8(val);
+        }
+
+        @Override
+        public Processor.Output int24(int val) {
+            return uint8(val >> 16).int16(val);
+        }
+
+        @Override
+        public Processor.Output int32(int val) {
+            return int16(val >> 16).int16(val);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package net.cassite.vproxy.bench;
+
+import net.cassite.vproxy.selector.Handler;
+import net.cassite.vproxy.selector.HandlerContext;
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.selector.SelectorEventLoopOpts;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+// echo server on one event loop with many active connections
+// every round the client writes 1 byte into each connection and waits for all echoes
+// so that every select() of the server returns a large number of keys
+// compare the array based selected key set with the jdk HashSet
+// usage: SelectedKeySetBenchmark [connections] [rounds]
+public class SelectedKeySetBenchmark {
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int port = 19190;
+
+        run("warm-up-array", true, connections, rounds / 4, port++, false);
+        run("warm-up-hashset", false, connections, rounds / 4, port++, false);
+        run("array", true, connections, rounds, port++, true);
+        run("hashset", false, connections, rounds, port, true);
+    }
+
+    private static void run(String name, boolean arraySelectedKeys, int connections, int rounds, int port, boolean print) throws Exception {
+        SelectorEventLoop loop = SelectorEventLoop.open(new SelectorEventLoopOpts().setArraySelectedKeys(arraySelectedKeys));
+        loop.loop(r -> new Thread(r, "EventLoop"));
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", port), 65535);
+        loop.add(server, SelectionKey.OP_ACCEPT, null, new AcceptHandler());
+        if (print) {
+            System.out.println(name + " installed=" + loop.isArraySelectedKeys());
+        }
+
+        Selector selector = Selector.open();
+        SocketChannel[] clients = new SocketChannel[connections];
+        InetSocketAddress remote = new InetSocketAddress("127.0.0.1", port);
+        for (int i = 0; i < connections; ++i) {
+            SocketChannel client = SocketChannel.open(remote);
+            client.configureBlocking(false);
+            client.register(selector, SelectionKey.OP_READ);
+            clients[i] = client;
+        }
+
+        ByteBuffer one = ByteBuffer.allocateDirect(1);
+        ByteBuffer readBuf = ByteBuffer.allocateDirect(64);
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; ++r) {
+            for (SocketChannel client : clients) {
+                one.clear();
+                client.write(one);
+            }
+            int received = 0;
+            while (received < connections) {
+                selector.select();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    readBuf.clear();
+                    received += ((SocketChannel) key.channel()).read(readBuf);
+                }
+            }
+        }
+        long cost = System.nanoTime() - start;
+
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+        selector.close();
+        loop.close();
+        server.close();
+
+        if (!print)
+            return;
+        long events = (long) connections * rounds;
+        System.out.println(name + " connections=" + connections + " rounds=" + rounds
+            + " cost=" + (cost / 1_000_000) + "ms"
+            + " " + (events * 1_000_000_000L / cost) + " echo/s");
+    }
+
+    // the test tool echo handlers print logs for every event, so use a quiet one here
+    private static class AcceptHandler implements Handler<ServerSocketChannel> {
+        private final EchoHandler echoHandler = new EchoHandler();
+
+        @Override
+        public void accept(HandlerContext<ServerSocketChannel> ctx) {
+            try {
+                SocketChannel client = ctx.getChannel().accept();
+                client.configureBlocking(false);
+                ctx.getEventLoop().add(client, SelectionKey.OP_READ, null, echoHandler);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void connected(HandlerContext<ServerSocketChannel> ctx) {
+        }
+
+        @Override
+        public void readable(HandlerContext<ServerSocketChannel> ctx) {
+        }
+
+        @Override
+        public void writable(HandlerContext<ServerSocketChannel> ctx) {
+        }
+
+        @Override
+        public void removed(HandlerContext<ServerSocketChannel> ctx) {
+        }
+    }
+
+    private static class EchoHandler implements Handler<SocketChannel> {
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(64);
+
+        @Override
+        public void accept(HandlerContext<SocketChannel> ctx) {
+        }
+
+        @Override
+        public void connected(HandlerContext<SocketChannel> ctx) {
+        }
+
+        @Override
+        public void readable(HandlerContext<SocketChannel> ctx) {
+            buf.clear();
+            try {
+                if (ctx.getChannel().read(buf) < 0) {
+                    ctx.remove();
+                    return;
+                }
+                buf.flip();
+                ctx.getChannel().write(buf); // tiny data, always writable
+            } catch (IOException e) {
+                ctx.remove();
+            }
+        }
+
+        @Override
+        public void writable(HandlerContext<SocketChannel> ctx) {
+        }
+
+        @Override
+        public void removed(HandlerContext<SocketChannel> ctx) {
+            try {
+                ctx.getChannel().close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package net.cassite.vproxy.bench;
+
+import net.cassite.vproxy.component.app.TcpLB;
+import net.cassite.vproxy.component.check.HealthCheckConfig;
+import net.cassite.vproxy.component.elgroup.EventLoopGroup;
+import net.cassite.vproxy.component.secure.SecurityGroup;
+import net.cassite.vproxy.component.svrgroup.Method;
+import net.cassite.vproxy.component.svrgroup.ServerGroup;
+import net.cassite.vproxy.component.svrgroup.ServerGroups;
+import net.cassite.vproxy.connection.LoopLocalRegistry;
+import net.cassite.vproxy.connection.NetEventLoop;
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.test.tool.IdServer;
+import net.cassite.vproxy.util.ConcurrentHashSet;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// short connections handled by many worker loops
+// registry: every loop records and removes sessions the same way as an accept and a close,
+//           and reads the connection count of each backend the same way as the wlc method,
+//           compare a global ConcurrentHashSet with LoopLocalRegistry
+// lb: clients connect to a wlc TcpLB, send 1 byte, read the 1 byte id from the backend and close,
+//     measure connections per second
+// usage: ShortConnectionBenchmark [loops, default 8] [registry|lb, default all]
+public class ShortConnectionBenchmark {
+    private static final int BACKENDS = 4;
+
+    interface Registry {
+        void add(Object o);
+
+        void remove(Object o);
+
+        int count();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int loops = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        String mode = args.length > 1 ? args[1] : "all";
+
+        if (mode.equals("all") || mode.equals("registry")) {
+            registry("warm-up-chs", loops, ShortConnectionBenchmark::chs, 200_000, false);
+            registry("warm-up-loop-local", loops, ShortConnectionBenchmark::loopLocal, 200_000, false);
+            registry("chs", loops, ShortConnectionBenchmark::chs, 2_000_000, true);
+            registry("loop-local", loops, ShortConnectionBenchmark::loopLocal, 2_000_000, true);
+        }
+        if (mode.equals("all") || mode.equals("lb")) {
+            lb(loops);
+        }
+        System.exit(0);
+    }
+
+    private static Registry chs() {
+        ConcurrentHashSet<Object> set = new ConcurrentHashSet<>();
+        return new Registry() {
+            @Override
+            public void add(Object o) {
+                set.add(o);
+            }
+
+            @Override
+            public void remove(Object o) {
+                set.remove(o);
+            }
+
+            @Override
+            public int count() {
+                return set.size();
+            }
+        };
+    }
+
+    private static Registry loopLocal() {
+        LoopLocalRegistry<Object> reg = new LoopLocalRegistry<>();
+        return new Registry() {
+            @Override
+            public void add(Object o) {
+                reg.add(o);
+            }
+
+            @Override
+            public void remove(Object o) {
+                reg.remove(o);
+            }
+
+            @Override
+            public int count() {
+                return reg.count();
+            }
+        };
+    }
+
+    private static void registry(String name, int loops, Supplier<Registry> supplier,
+                                 int connsPerLoop, boolean print) throws Exception {
+        Registry sessions = supplier.get();
+        Registry[] backends = new Registry[BACKENDS];
+        for (int i = 0; i < BACKENDS; ++i) {
+            backends[i] = supplier.get();
+        }
+        SelectorEventLoop[] els = new SelectorEventLoop[loops];
+        for (int i = 0; i < loops; ++i) {
+            els[i] = SelectorEventLoop.open();
+            els[i].loop(r -> new Thread(r, "EventLoop"));
+        }
+        CountDownLatch latch = new CountDownLatch(loops);
+        long start = System.nanoTime();
+        for (SelectorEventLoop el : els) {
+            el.runOnLoop(new Runnable() {
+                int handled = 0;
+
+                @Override
+                public void run() {
+                    // handle a batch in one loop iteration, so the loop is not considered stalled
+                    int batchEnd = Math.min(handled + 10_000, connsPerLoop);
+                    for (; handled < batchEnd; ++handled) {
+                        Object session = new Object();
+                        // accept
+                        sessions.add(session);
+                        int m = 0;
+                        for (int i = 1; i < BACKENDS; ++i) {
+                            if (backends[i].count() < backends[m].count())
+                                m = i;
+                        }
+                        Registry backend = backends[m];
+                        backend.add(session);
+                        // close
+                        backend.remove(session);
+                        sessions.remove(session);
+                    }
+                    if (handled < connsPerLoop) {
+                        el.nextTick(this);
+                    } else {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        latch.await();
+        long cost = System.nanoTime() - start;
+        for (SelectorEventLoop el : els) {
+            el.close();
+        }
+        if (!print)
+            return;
+        long total = (long) connsPerLoop * loops;
+        System.out.println(name + " loops=" + loops
+            + " conns=" + total
+            + " throughput=" + (total * 1_000_000_000L / cost) + "conn/s");
+    }
+
+    private static void lb(int loops) throws Exception {
+        SelectorEventLoop serverLoop = SelectorEventLoop.open();
+        serverLoop.loop(r -> new Thread(r, "serverLoop"));
+        NetEventLoop serverNetLoop = new NetEventLoop(serverLoop);
+
+        EventLoopGroup acceptor = new EventLoopGroup("acceptor");
+        acceptor.add("acceptor0");
+        EventLoopGroup worker = new EventLoopGroup("worker");
+        for (int i = 0; i < loops; ++i) {
+            worker.add("worker" + i);
+        }
+        ServerGroup sg = new ServerGroup("sg", worker,
+            new HealthCheckConfig(400, /* disable health check */24 * 60 * 60 * 1000, 2, 3), Method.wlc);
+        for (int i = 0; i < BACKENDS; ++i) {
+            new IdServer("" + i, serverNetLoop, 21090 + i);
+            sg.add("svr" + i, new InetSocketAddress("127.0.0.1", 21090 + i), 10);
+        }
+        for (ServerGroup.ServerHandle h : sg.getServerHandles()) {
+            h.healthy = true;
+        }
+        ServerGroups sgs = new ServerGroups("sgs");
+        sgs.add(sg, 10);
+        TcpLB lb = new TcpLB("lb", acceptor, worker, new InetSocketAddress("127.0.0.1", 21080), sgs,
+            60_000, 16384, 16384, SecurityGroup.allowAll());
+        lb.start();
+
+        run("warm-up-lb", loops, 2_000, false);
+        run("lb", loops, 10_000, true);
+    }
+
+    private static void run(String name, int loops, long millis, boolean print) throws Exception {
+        AtomicLong conns = new AtomicLong();
+        long end = System.currentTimeMillis() + millis;
+        Thread[] clients = new Thread[loops * 2];
+        for (int i = 0; i < clients.length; ++i) {
+            clients[i] = new Thread(() -> {
+                byte[] b = new byte[1];
+                while (System.currentTimeMillis() < end) {
+                    try (Socket s = new Socket("127.0.0.1", 21080)) {
+                        s.setTcpNoDelay(true);
+                        OutputStream os = s.getOutputStream();
+                        InputStream is = s.getInputStream();
+                        os.write(b);
+                        if (is.read(b) == 1) {
+                            conns.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        // ignore and retry
+                    }
+                }
+            });
+            clients[i].start();
+        }
+        for (Thread t : clients) {
+            t.join();
+        }
+        if (!print)
+            return;
+        System.out.println(name + " loops=" + loops
+            + " conns=" + conns.get()
+            + " throughput=" + (conns.get() * 1000 / millis) + "conn/s");
+    }
+}
@@ -0,0 +1,280 @@
+package net.cassite.vproxy.bench;
+
+import net.cassite.vproxy.app.Config;
+import net.cassite.vproxy.component.app.Socks5Server;
+import net.cassite.vproxy.component.elgroup.EventLoopGroup;
+import net.cassite.vproxy.component.proxy.ConnectorGen;
+import net.cassite.vproxy.component.proxy.Proxy;
+import net.cassite.vproxy.component.proxy.ProxyNetConfig;
+import net.cassite.vproxy.component.secure.SecurityGroup;
+import net.cassite.vproxy.component.svrgroup.ServerGroups;
+import net.cassite.vproxy.connection.*;
+import net.cassite.vproxy.protocol.ProtocolHandler;
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.socks.*;
+import net.cassite.vproxy.test.tool.IdServer;
+import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.Callback;
+import net.cassite.vproxy.util.RingBuffer;
+import net.cassite.vproxy.util.Tuple;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// a socks5 agent which forwards requests to an upstream socks5 server (like the websocks agent)
+// the agent does the socks5 client handshake with the upstream, then hands the connection to the proxy lib
+// compare the handshake implemented with callbacks and with BlockingConnection
+// after handing over, both use the same ring buffer data path
+// usage: Socks5HandlerBenchmark [client threads] [sessions per thread]
+public class Socks5HandlerBenchmark {
+    private static final int backendPort = 19280;
+    private static final int upstreamPort = 19281;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+        SelectorEventLoop backendLoop = SelectorEventLoop.open();
+        backendLoop.loop(r -> new Thread(r, "backend"));
+        new IdServer("0", new NetEventLoop(backendLoop), backendPort);
+
+        EventLoopGroup upstreamGroup = new EventLoopGroup("upstream");
+        upstreamGroup.add("upstream");
+        Socks5Server upstream = new Socks5Server("upstream", upstreamGroup, upstreamGroup,
+            new InetSocketAddress("127.0.0.1", upstreamPort), new ServerGroups("upstream"),
+            Config.tcpTimeout, 16384, 16384, SecurityGroup.allowAll());
+        upstream.allowNonBackend = true;
+        upstream.start();
+
+        int port = 19282;
+        run("warm-up-callback", new CallbackProvider(), port++, threads, sessions / 4, false);
+        run("warm-up-blocking", new BlockingProvider(), port++, threads, sessions / 4, false);
+        run("callback", new CallbackProvider(), port++, threads, sessions, true);
+        run("blocking", new BlockingProvider(), port, threads, sessions, true);
+
+        upstreamGroup.close();
+        backendLoop.close();
+    }
+
+    private static void run(String name, Socks5ConnectorProvider provider, int port,
+                            int threads, int sessions, boolean print) throws Exception {
+        SelectorEventLoop loop = SelectorEventLoop.open();
+        loop.loop(r -> new Thread(r, "agent"));
+        NetEventLoop netLoop = new NetEventLoop(loop);
+
+        ProtocolHandler<Tuple<Socks5ProxyContext, Callback<Connector, IOException>>> handler =
+            new Socks5ProxyProtocolHandler(provider);
+        Proxy proxy = new Proxy(new ProxyNetConfig()
+            .setAcceptLoop(netLoop)
+            .setHandleLoopProvider(() -> netLoop)
+            .setServer(BindServer.create(new InetSocketAddress("127.0.0.1", port)))
+            .setInBufferSize(16384)
+            .setOutBufferSize(16384)
+            .setConnGen(new ConnectorGen<Socks5ProxyContext>() {
+                @Override
+                public Type type() {
+                    return Type.handler;
+                }
+
+                @Override
+                public ProtocolHandler<Tuple<Socks5ProxyContext, Callback<Connector, IOException>>> handler() {
+                    return handler;
+                }
+
+                @Override
+                public Connector genConnector(Connection accepted) {
+                    return null; // will not be called because type is `handler`
+                }
+            }), s -> {
+        });
+        proxy.handle();
+
+        long[] failed = {0};
+        List<Thread> clients = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; ++t) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < sessions; ++i) {
+                    try {
+                        session(port);
+                    } catch (IOException e) {
+                        synchronized (failed) {
+                            ++failed[0];
+                        }
+                    }
+                }
+            });
+            clients.add(thread);
+            thread.start();
+        }
+        for (Thread thread : clients) {
+            thread.join();
+        }
+        long cost = System.nanoTime() - start;
+
+        proxy.stop();
+        loop.close();
+
+        if (!print)
+            return;
+        long total = (long) threads * sessions;
+        System.out.println(name + " sessions=" + total + " failed=" + failed[0]
+            + " cost=" + (cost / 1_000_000) + "ms"
+            + " " + (total * 1_000_000_000L / cost) + " sessions/s");
+    }
+
+    // socks5 handshake with the agent, then one request/response
+    private static void session(int port) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("127.0.0.1", port));
+            socket.setTcpNoDelay(true);
+            OutputStream os = socket.getOutputStream();
+            InputStream is = socket.getInputStream();
+            os.write(new byte[]{5, 1, 0});
+            readFully(is, 2);
+            os.write(connectRequest(backendPort));
+            byte[] resp = readFully(is, 10);
+            if (resp[1] != 0)
+                throw new IOException("connect failed " + resp[1]);
+            os.write('a');
+            readFully(is, 1);
+        }
+    }
+
+    private static byte[] readFully(InputStream is, int len) throws IOException {
+        byte[] b = new byte[len];
+        int off = 0;
+        while (off < len) {
+            int n = is.read(b, off, len - off);
+            if (n < 0)
+                throw new IOException("remote closed");
+            off += n;
+        }
+        return b;
+    }
+
+    private static byte[] connectRequest(int port) {
+        return new byte[]{
+            5, 1, 0, AddressType.ipv4.code,
+            127, 0, 0, 1,
+            (byte) ((port >> 8) & 0xff), (byte) (port & 0xff)};
+    }
+
+    private static RingBuffer buf() {
+        return RingBuffer.allocateDirect(16384);
+    }
+
+    private static InetSocketAddress upstream() {
+        return new InetSocketAddress("127.0.0.1", upstreamPort);
+    }
+
+    // the handshake with the upstream written as callbacks
+    static class CallbackProvider implements Socks5ConnectorProvider {
+        @Override
+        public void provide(Connection accepted, AddressType type, String address, int port, Consumer<Connector> providedCallback) {
+            NetEventLoop loop = accepted.getEventLoop();
+            ClientConnection conn;
+            try {
+                conn = ClientConnection.create(upstream(), ConnectionOpts.getDefault(), buf(), buf());
+                loop.addClientConnection(conn, null, new UpstreamHandshakeHandler(port, providedCallback));
+            } catch (IOException e) {
+                providedCallback.accept(null);
+            }
+        }
+    }
+
+    static class UpstreamHandshakeHandler implements ClientConnectionHandler {
+        private final int port;
+        private final Consumer<Connector> providedCallback;
+        // 0: expecting auth method exchange, 1: expecting connect result
+        private int step = 0;
+        private ByteArrayChannel resp = ByteArrayChannel.fromEmpty(new byte[2]);
+
+        UpstreamHandshakeHandler(int port, Consumer<Connector> providedCallback) {
+            this.port = port;
+            this.providedCallback = providedCallback;
+        }
+
+        private void fail(ConnectionHandlerContext ctx) {
+            providedCallback.accept(null);
+            ctx.connection.close();
+        }
+
+        @Override
+        public void connected(ClientConnectionHandlerContext ctx) {
+            ctx.connection.getOutBuffer().storeBytesFrom(ByteArrayChannel.fromFull(new byte[]{5, 1, 0}));
+        }
+
+        @Override
+        public void readable(ConnectionHandlerContext ctx) {
+            ctx.connection.getInBuffer().writeTo(resp);
+            if (resp.free() != 0)
+                return; // want more data
+            byte[] b = resp.get();
+            if (b[0] != 5 || b[1] != 0) {
+                fail(ctx);
+                return;
+            }
+            if (step == 0) {
+                step = 1;
+                resp = ByteArrayChannel.fromEmpty(new byte[10]);
+                ctx.connection.getOutBuffer().storeBytesFrom(ByteArrayChannel.fromFull(connectRequest(port)));
+                return;
+            }
+            ctx.eventLoop.removeConnection(ctx.connection);
+            providedCallback.accept(new AlreadyConnectedConnector(
+                ctx.connection.remote, (ClientConnection) ctx.connection, ctx.eventLoop));
+        }
+
+        @Override
+        public void writable(ConnectionHandlerContext ctx) {
+            // do nothing, the buffer is large enough
+        }
+
+        @Override
+        public void exception(ConnectionHandlerContext ctx, IOException err) {
+            fail(ctx);
+        }
+
+        @Override
+        public void closed(ConnectionHandlerContext ctx) {
+            fail(ctx);
+        }
+
+        @Override
+        public void removed(ConnectionHandlerContext ctx) {
+            // ignore
+        }
+    }
+
+    // the same handshake written as blocking code
+    static class BlockingProvider extends BlockingSocks5ConnectorProvider {
+        @Override
+        protected Connector provide(NetEventLoop loop, Connection accepted, AddressType type, String address, int port) throws Exception {
+            BlockingConnection conn = BlockingConnection.connect(loop, upstream(), ConnectionOpts.getDefault(), buf(), buf());
+            try {
+                conn.write(ByteArrayChannel.fromFull(new byte[]{5, 1, 0}));
+                ByteArrayChannel resp = ByteArrayChannel.fromEmpty(new byte[2]);
+                conn.readFully(resp);
+                if (resp.get()[1] != 0)
+                    throw new IOException("auth method not accepted");
+                conn.write(ByteArrayChannel.fromFull(connectRequest(port)));
+                resp = ByteArrayChannel.fromEmpty(new byte[10]);
+                conn.readFully(resp);
+                if (resp.get()[1] != 0)
+                    throw new IOException("connect failed");
+            } catch (IOException e) {
+                conn.close();
+                throw e;
+            }
+            ClientConnection c = (ClientConnection) conn.detach();
+            return new AlreadyConnectedConnector(c.remote, c, loop);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package net.cassite.vproxy.bench;
+
+import net.cassite.vproxy.app.Config;
+import net.cassite.vproxy.util.TimeElem;
+import net.cassite.vproxy.util.TimeQueue;
+
+import java.util.Random;
+import java.util.function.Supplier;
+
+// compare the timing wheel with the priority queue
+// timers are generated like connection close timeouts: a large random timeout for each one
+// half of the timers are canceled, the rest are popped while the clock moves on
+public class TimeQueueBenchmark {
+    private static final int MAX_TIMEOUT = 15 * 60_000;
+
+    public static void main(String[] args) {
+        int[] counts = {100_000, 1_000_000};
+        // warm up
+        for (int i = 0; i < 3; ++i) {
+            run("warm-up", TimeQueue::create, 100_000, false);
+            run("warm-up", TimeQueue::createPriorityQueue, 100_000, false);
+        }
+        for (int count : counts) {
+            run("timing-wheel", TimeQueue::create, count, true);
+            run("priority-queue", TimeQueue::createPriorityQueue, count, true);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void run(String name, Supplier<TimeQueue<Integer>> queueSupplier, int count, boolean print) {
+        Random rand = new Random(1);
+        long now = 0;
+        Config.currentTimestamp = now;
+        TimeQueue<Integer> queue = queueSupplier.get();
+        TimeElem<Integer>[] elems = new TimeElem[count];
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < count; ++i) {
+            elems[i] = queue.push(rand.nextInt(MAX_TIMEOUT), i);
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < count; i += 2) {
+            elems[i].removeSelf();
+        }
+        long t2 = System.nanoTime();
+        int popped = 0;
+        while (!queue.isEmpty()) {
+            now += 100; // the clock moves 100ms for each loop
+            Config.currentTimestamp = now;
+            while (queue.nextTime() == 0) {
+                queue.pop();
+                ++popped;
+            }
+        }
+        long t3 = System.nanoTime();
+
+        if (!print)
+            return;
+        System.out.println(name + " timers=" + count
+            + " push=" + ((t1 - t0) / count) + "ns/op"
+            + " cancel=" + ((t2 - t1) / (count / 2)) + "ns/op"
+            + " expire=" + ((t3 - t2) / Math.max(popped, 1)) + "ns/op"
+            + " (popped " + popped + ")");
+    }
+}
@@ -10,7 +10,9 @@ import org.junit.runners.Suite;
 
     TestTcpLB.class,
     TestNetMask.class,
+    TestByteArray.class,
     TestTimer.class,
+    TestSelectorEventLoop.class,
     TestResolver.class,
     TestSocks5.class,
     TestDiscovery.class,
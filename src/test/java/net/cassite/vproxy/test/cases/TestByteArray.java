@@ -0,0 +1,160 @@
+package net.cassite.vproxy.test.cases;
+
+import net.cassite.vproxy.util.ByteArray;
+import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.bytearray.RopeByteArray;
+import net.cassite.vproxy.util.ringbuffer.SimpleRingBuffer;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class TestByteArray {
+    private static ByteArray seq(int from, int len) {
+        byte[] b = new byte[len];
+        for (int i = 0; i < len; ++i) {
+            b[i] = (byte) (from + i);
+        }
+        return ByteArray.from(b);
+    }
+
+    @Test
+    public void ropeConcat() {
+        ByteArray a = seq(0, 3);
+        ByteArray b = seq(3, 4);
+        ByteArray rope = a.concat(b).concat(seq(7, 5)).concat(seq(12, 1));
+        assertTrue(rope instanceof RopeByteArray);
+        assertEquals(13, rope.length());
+        assertEquals(seq(0, 13), rope);
+        // random access
+        for (int i = 12; i >= 0; --i) {
+            assertEquals(i, rope.get(i));
+        }
+        for (int i = 0; i < 13; i += 5) {
+            assertEquals(i, rope.get(i));
+        }
+
+        // ropes are flattened when concatenated
+        ByteArray rope2 = rope.concat(seq(13, 2).concat(seq(15, 2)));
+        assertEquals(seq(0, 17), rope2);
+
+        // concat empty arrays
+        assertSame(rope, rope.concat(ByteArray.from(new byte[0])));
+        assertSame(rope, ByteArray.from(new byte[0]).concat(rope));
+
+        // modify through the rope
+        rope.int32(2, 0x01020304);
+        assertEquals(0x01020304, a.concat(b).int32(2));
+        assertEquals(0x01020304, rope2.int32(2));
+
+        try {
+            rope.get(13);
+            fail();
+        } catch (ArrayIndexOutOfBoundsException ignore) {
+        }
+    }
+
+    @Test
+    public void copyTo() {
+        ByteArray rope = seq(0, 4).concat(seq(4, 4).sub(1, 3).concat(seq(8, 6)));
+        // 0,1,2,3,5,6,7,8,9,10,11,12,13
+        byte[] expected = {0, 1, 2, 3, 5, 6, 7, 8, 9, 10, 11, 12, 13};
+        assertArrayEquals(expected, rope.toJavaArray());
+        assertArrayEquals(expected, rope.arrange().toJavaArray());
+
+        byte[] dst = new byte[7];
+        rope.copyTo(3, dst, 1, 5);
+        assertArrayEquals(new byte[]{0, 3, 5, 6, 7, 8, 0}, dst);
+
+        ByteBuffer buf = ByteBuffer.allocate(10);
+        buf.put((byte) 100);
+        rope.copyTo(2, buf, 6);
+        assertEquals(7, buf.position());
+        buf.flip();
+        assertEquals(100, buf.get());
+        byte[] read = new byte[6];
+        buf.get(read);
+        assertArrayEquals(new byte[]{2, 3, 5, 6, 7, 8}, read);
+
+        assertArrayEquals(expected, rope.toChannel().get());
+    }
+
+    @Test
+    public void direct() {
+        ByteArray direct = ByteArray.allocateDirect(8);
+        direct.int32(0, 0x01020304).int32(4, 0x05060708);
+        assertEquals(seq(1, 8), direct);
+        assertArrayEquals(seq(1, 8).toJavaArray(), direct.toJavaArray());
+
+        // wraps position to limit
+        ByteBuffer buf = ByteBuffer.allocateDirect(16);
+        buf.put(seq(0, 16).toJavaArray());
+        buf.position(4).limit(10);
+        ByteArray view = ByteArray.from(buf);
+        assertEquals(6, view.length());
+        assertEquals(seq(4, 6), view);
+        view.set(0, (byte) 100);
+        assertEquals(100, buf.get(4));
+        assertEquals(4, buf.position());
+        assertEquals(10, buf.limit());
+
+        ByteArray rope = seq(0, 2).concat(view).concat(direct);
+        byte[] arr = rope.toJavaArray();
+        assertEquals(16, arr.length);
+        assertEquals(100, arr[2]);
+        assertEquals(5, arr[3]);
+        assertEquals(8, arr[15]);
+
+        try {
+            view.get(6);
+            fail();
+        } catch (ArrayIndexOutOfBoundsException ignore) {
+        }
+    }
+
+    @Test
+    public void ringBufferView() {
+        SimpleRingBuffer buf = SimpleRingBuffer.allocateDirect(16);
+        buf.storeBytesFrom(ByteArrayChannel.fromFull(new byte[12]));
+        assertEquals(10, buf.discard(10));
+        // the data wraps around: [10, 16) and [0, 8)
+        buf.storeBytesFrom(seq(0, 12).toChannel());
+        assertEquals(14, buf.used());
+
+        ByteArray view = buf.view(13);
+        assertEquals(13, view.length());
+        assertEquals(0, view.get(0));
+        assertEquals(0, view.get(1));
+        for (int i = 2; i < 13; ++i) {
+            assertEquals(i - 2, view.get(i));
+        }
+        assertEquals(0x01020304, view.int32(3));
+        byte[] expected = {0, 0, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+        assertArrayEquals(expected, view.toJavaArray());
+        assertEquals(ByteArray.from(expected), view.sub(0, 4).concat(view.sub(4, 9)));
+        ByteBuffer dst = ByteBuffer.allocate(8);
+        view.copyTo(4, dst, 8);
+        assertArrayEquals(new byte[]{2, 3, 4, 5, 6, 7, 8, 9}, dst.array());
+        // not consumed
+        assertEquals(14, buf.used());
+
+        try {
+            view.set(0, (byte) 1);
+            fail();
+        } catch (UnsupportedOperationException ignore) {
+        }
+
+        // storing does not affect the view
+        buf.storeBytesFrom(ByteArrayChannel.fromFull(new byte[2]));
+        assertEquals(10, view.get(12));
+
+        buf.discard(2);
+        try {
+            view.get(0);
+            fail();
+        } catch (IllegalStateException ignore) {
+        }
+        assertArrayEquals(seq(0, 12).concat(ByteArray.from(new byte[2])).toJavaArray(), buf.view(14).toJavaArray());
+    }
+}
@@ -0,0 +1,690 @@
+package net.cassite.vproxy.test.cases;
+
+import net.cassite.vproxy.connection.LoopLocalRegistry;
+import net.cassite.vproxy.selector.DirectBufferPool;
+import net.cassite.vproxy.selector.Handler;
+import net.cassite.vproxy.selector.HandlerContext;
+import net.cassite.vproxy.selector.RejectableTask;
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.selector.SelectorEventLoopOpts;
+import net.cassite.vproxy.selector.SelectorEventLoopStats;
+import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.MPSCQueue;
+import net.cassite.vproxy.util.RingBuffer;
+import net.cassite.vproxy.util.RingBufferETHandler;
+import net.cassite.vproxy.util.ringbuffer.ProxyOutputRingBuffer;
+import net.cassite.vproxy.util.ringbuffer.SimpleRingBuffer;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.junit.Assert.*;
+
+public class TestSelectorEventLoop {
+    private SelectorEventLoop loop;
+
+    private void start(SelectorEventLoopOpts opts) throws Exception {
+        loop = SelectorEventLoop.open(opts);
+        loop.loop(r -> new Thread(r, "EventLoop"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (loop != null) {
+            loop.close();
+        }
+    }
+
+    @Test
+    public void nextTickFromManyThreads() throws Exception {
+        start(new SelectorEventLoopOpts().setTaskQueueCapacity(16));
+
+        int threads = 8;
+        int tasks = 10000;
+        int[] last = new int[threads];
+        boolean[] wrongOrder = {false};
+        CountDownLatch latch = new CountDownLatch(threads * tasks);
+        for (int t = 0; t < threads; ++t) {
+            int tid = t;
+            new Thread(() -> {
+                for (int i = 1; i <= tasks; ++i) {
+                    int n = i;
+                    loop.nextTick(() -> {
+                        if (last[tid] + 1 != n) {
+                            wrongOrder[0] = true;
+                        }
+                        last[tid] = n;
+                        latch.countDown();
+                    });
+                }
+            }).start();
+        }
+        assertTrue("all tasks should run", latch.await(10, TimeUnit.SECONDS));
+        assertFalse("tasks from one thread should run in order", wrongOrder[0]);
+    }
+
+    @Test
+    public void mpscQueueOrderWhenProducerStalls() throws Exception {
+        MPSCQueue<String> q = new MPSCQueue<>(4);
+        // simulate a producer which won the cas on the tail, but has not published the element yet
+        Field tailField = MPSCQueue.class.getDeclaredField("tail");
+        tailField.setAccessible(true);
+        ((AtomicLong) tailField.get(q)).incrementAndGet();
+
+        // another thread fills the rest of the array, then the next element goes to the overflow queue
+        q.add("x1");
+        q.add("x2");
+        q.add("x3");
+        q.add("y");
+        assertNull("should not skip the claimed cell", q.poll());
+        assertFalse(q.isEmpty());
+
+        // the stalled producer publishes the element
+        Field elementsField = MPSCQueue.class.getDeclaredField("elements");
+        elementsField.setAccessible(true);
+        Field sequencesField = MPSCQueue.class.getDeclaredField("sequences");
+        sequencesField.setAccessible(true);
+        //noinspection unchecked
+        ((AtomicReferenceArray<String>) elementsField.get(q)).set(0, "c");
+        ((AtomicLongArray) sequencesField.get(q)).set(0, 1);
+
+        assertEquals("c", q.poll());
+        assertEquals("x1", q.poll());
+        assertEquals("x2", q.poll());
+        assertEquals("x3", q.poll());
+        assertEquals("y", q.poll());
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+    }
+
+    @Test
+    public void loopLocalRegistryOfClosedLoop() throws Exception {
+        start(SelectorEventLoopOpts.getDefault());
+        LoopLocalRegistry<String> registry = new LoopLocalRegistry<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        loop.runOnLoop(() -> {
+            registry.add("a");
+            registry.add("b");
+            latch.countDown();
+        });
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        registry.add("c"); // not on any loop
+        assertEquals(3, registry.count());
+
+        SelectorEventLoop closed = loop;
+        loop = null; // closed here
+        closed.close();
+        assertTrue(closed.isTerminated());
+
+        // the elements are moved out of the shard of the closed loop when listing
+        List<String> list = new ArrayList<>();
+        registry.copyTo(list);
+        Collections.sort(list);
+        assertEquals(Arrays.asList("a", "b", "c"), list);
+        Field shardsField = LoopLocalRegistry.class.getDeclaredField("shards");
+        shardsField.setAccessible(true);
+        Object[] shards = (Object[]) shardsField.get(registry);
+        assertEquals("the shard of the closed loop should be dropped", 1, shards.length);
+        Field loopField = shards[0].getClass().getDeclaredField("loop");
+        loopField.setAccessible(true);
+        assertNull(loopField.get(shards[0]));
+
+        assertEquals(3, registry.count());
+        assertTrue(registry.remove("a"));
+        assertFalse(registry.remove("a"));
+        assertEquals(2, registry.count());
+    }
+
+    private static RejectableTask countingTask(AtomicInteger ran, AtomicInteger rejected) {
+        return new RejectableTask() {
+            @Override
+            protected void doRun() {
+                ran.incrementAndGet();
+            }
+
+            @Override
+            protected void rejected() {
+                rejected.incrementAndGet();
+            }
+        };
+    }
+
+    @Test
+    public void rejectTasksWhenClosed() throws Exception {
+        start(SelectorEventLoopOpts.getDefault());
+        AtomicInteger ran = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        SelectorEventLoop closed = loop;
+        loop = null; // closed here
+        closed.nextTick(() -> {
+            // tasks added when running are handled in the next loop, which never comes
+            closed.nextTick(countingTask(ran, rejected));
+            try {
+                closed.close();
+            } catch (IOException ignore) {
+            }
+        });
+        // the tasks are rejected after the loop thread stops
+        long end = System.currentTimeMillis() + 5000;
+        while (rejected.get() == 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(1);
+        }
+        assertTrue(closed.isTerminated());
+        assertEquals(0, ran.get());
+        assertEquals("the task left in the queue should be rejected", 1, rejected.get());
+
+        closed.nextTick(countingTask(ran, rejected));
+        assertEquals(0, ran.get());
+        assertEquals("the task posted after closed should be rejected", 2, rejected.get());
+    }
+
+    @Test
+    public void taskBudget() throws Exception {
+        start(new SelectorEventLoopOpts().setTaskBudget(10));
+        assertEquals(10, loop.getTaskBudget());
+
+        int tasks = 1000;
+        CountDownLatch latch = new CountDownLatch(tasks);
+        loop.nextTick(() -> {
+            for (int i = 0; i < tasks; ++i) {
+                loop.nextTick(latch::countDown);
+            }
+        });
+        assertTrue("tasks exceeding the budget should still run", latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void runAtIterationEnd() throws Exception {
+        start(SelectorEventLoopOpts.getDefault());
+
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(1);
+        loop.nextTick(() -> {
+            events.add("task");
+            loop.nextTick(() -> {
+                events.add("next-iteration");
+                latch.countDown();
+            });
+            loop.runAtIterationEnd(() -> events.add("end-0"));
+            loop.runAtIterationEnd(() -> {
+                events.add("end-1");
+                // added when running, should run before the loop sleeps
+                loop.runAtIterationEnd(() -> events.add("end-2"));
+            });
+            events.add("task-done");
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("task", "task-done", "end-0", "end-1", "end-2", "next-iteration"), events);
+        assertEquals(3, loop.getStats().getIterationEndRun());
+    }
+
+    @Test
+    public void wakeupCoalescing() throws Exception {
+        start(SelectorEventLoopOpts.getDefault());
+
+        int tasks = 10000;
+        CountDownLatch latch = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; ++i) {
+            loop.nextTick(latch::countDown);
+        }
+        assertTrue("all tasks should run", latch.await(5, TimeUnit.SECONDS));
+        assertEquals("every wakeup is either issued or coalesced",
+            tasks, loop.getWakeupIssued() + loop.getWakeupCoalesced());
+        assertTrue("some wakeups should be coalesced", loop.getWakeupCoalesced() > 0);
+    }
+
+    @Test
+    public void queuedRegistrationStress() throws Exception {
+        start(new SelectorEventLoopOpts().setQueuedRegistration(true).setTaskQueueCapacity(64));
+
+        // keep the loop busy
+        AtomicBoolean stop = new AtomicBoolean(false);
+        Runnable[] busy = {null};
+        busy[0] = () -> {
+            long end = System.nanoTime() + 200_000;
+            //noinspection StatementWithEmptyBody
+            while (System.nanoTime() < end) {
+            }
+            if (!stop.get()) {
+                loop.nextTick(busy[0]);
+            }
+        };
+        loop.nextTick(busy[0]);
+
+        int threads = 8;
+        int perThread = 50;
+        CountDownLatch readLatch = new CountDownLatch(threads * perThread);
+        AtomicInteger removed = new AtomicInteger();
+        boolean[] notOnLoop = {false};
+        Handler<Pipe.SourceChannel> handler = new Handler<Pipe.SourceChannel>() {
+            @Override
+            public void accept(HandlerContext<Pipe.SourceChannel> ctx) {
+            }
+
+            @Override
+            public void connected(HandlerContext<Pipe.SourceChannel> ctx) {
+            }
+
+            @Override
+            public void readable(HandlerContext<Pipe.SourceChannel> ctx) {
+                try {
+                    if (ctx.getChannel().read(ByteBuffer.allocate(16)) > 0) {
+                        readLatch.countDown();
+                    }
+                } catch (IOException e) {
+                    fail("read failed " + e);
+                }
+            }
+
+            @Override
+            public void writable(HandlerContext<Pipe.SourceChannel> ctx) {
+            }
+
+            @Override
+            public void removed(HandlerContext<Pipe.SourceChannel> ctx) {
+                if (Thread.currentThread() != loop.runningThread) {
+                    notOnLoop[0] = true;
+                }
+                removed.incrementAndGet();
+            }
+        };
+
+        List<Pipe> pipes = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threadList = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < perThread; ++i) {
+                        Pipe pipe = Pipe.open();
+                        pipes.add(pipe);
+                        loop.add(pipe.source(), 0, null, handler);
+                        loop.modify(pipe.source(), SelectionKey.OP_READ);
+                        loop.rmOps(pipe.source(), SelectionKey.OP_READ);
+                        loop.addOps(pipe.source(), SelectionKey.OP_READ);
+                        pipe.sink().write(ByteBuffer.wrap(new byte[]{1}));
+                    }
+                } catch (IOException e) {
+                    fail("operating pipes failed " + e);
+                }
+            });
+            threadList.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threadList) {
+            thread.join();
+        }
+        assertTrue("all channels should be readable", readLatch.await(10, TimeUnit.SECONDS));
+
+        for (Pipe pipe : pipes) {
+            loop.remove(pipe.source());
+        }
+        long end = System.currentTimeMillis() + 5000;
+        while (removed.get() != threads * perThread && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        stop.set(true);
+        assertEquals("all channels should be removed", threads * perThread, removed.get());
+        assertFalse("removed callbacks should run on the loop thread", notOnLoop[0]);
+
+        for (Pipe pipe : pipes) {
+            pipe.source().close();
+            pipe.sink().close();
+        }
+    }
+
+    @Test
+    public void busyPoll() throws Exception {
+        start(new SelectorEventLoopOpts().setBusyPoll(0, 1000));
+
+        // tasks and timers should still run while the loop is spinning
+        int tasks = 1000;
+        CountDownLatch latch = new CountDownLatch(tasks + 1);
+        for (int i = 0; i < tasks; ++i) {
+            loop.nextTick(latch::countDown);
+            if (i % 100 == 0) {
+                Thread.sleep(1);
+            }
+        }
+        loop.nextTick(() -> loop.delay(10, latch::countDown));
+        assertTrue("all tasks and timers should run", latch.await(5, TimeUnit.SECONDS));
+    }
+
+    private void readManyPipes() throws Exception {
+        int count = 2000;
+        CountDownLatch latch = new CountDownLatch(count);
+        Handler<Pipe.SourceChannel> handler = new Handler<Pipe.SourceChannel>() {
+            @Override
+            public void accept(HandlerContext<Pipe.SourceChannel> ctx) {
+            }
+
+            @Override
+            public void connected(HandlerContext<Pipe.SourceChannel> ctx) {
+            }
+
+            @Override
+            public void readable(HandlerContext<Pipe.SourceChannel> ctx) {
+                try {
+                    if (ctx.getChannel().read(ByteBuffer.allocate(16)) > 0) {
+                        latch.countDown();
+                    }
+                } catch (IOException e) {
+                    fail("read failed " + e);
+                }
+            }
+
+            @Override
+            public void writable(HandlerContext<Pipe.SourceChannel> ctx) {
+            }
+
+            @Override
+            public void removed(HandlerContext<Pipe.SourceChannel> ctx) {
+            }
+        };
+        List<Pipe> pipes = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            Pipe pipe = Pipe.open();
+            pipe.source().configureBlocking(false);
+            loop.add(pipe.source(), SelectionKey.OP_READ, null, handler);
+            pipes.add(pipe);
+        }
+        // all pipes become readable at the same time
+        // so one select returns many keys
+        for (Pipe pipe : pipes) {
+            pipe.sink().write(ByteBuffer.wrap(new byte[]{1}));
+        }
+        assertTrue("all pipes should be read", latch.await(5, TimeUnit.SECONDS));
+        for (Pipe pipe : pipes) {
+            loop.remove(pipe.source());
+            pipe.source().close();
+            pipe.sink().close();
+        }
+    }
+
+    @Test
+    public void arraySelectedKeys() throws Exception {
+        start(SelectorEventLoopOpts.getDefault());
+        assertTrue("the array selected key set should be installed", loop.isArraySelectedKeys());
+        readManyPipes();
+    }
+
+    @Test
+    public void jdkSelectedKeys() throws Exception {
+        start(new SelectorEventLoopOpts().setArraySelectedKeys(false));
+        assertFalse(loop.isArraySelectedKeys());
+        readManyPipes();
+    }
+
+    @Test
+    public void stats() throws Exception {
+        start(SelectorEventLoopOpts.getDefault());
+        SelectorEventLoopStats stats = loop.getStats();
+
+        int tasks = 100;
+        CountDownLatch latch = new CountDownLatch(tasks + 1);
+        for (int i = 0; i < tasks; ++i) {
+            loop.nextTick(latch::countDown);
+        }
+        loop.nextTick(() -> loop.delay(10, latch::countDown));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        readManyPipes();
+
+        // the counters are updated after the callbacks return
+        Thread.sleep(50);
+        assertTrue(stats.getIterations() > 0);
+        assertTrue("tasks should be counted", stats.getTasksRun() >= tasks + 1);
+        assertTrue("timers should be counted", stats.getTimersFired() >= 1);
+        assertTrue("selected keys should be counted", stats.getSelectedKeys() >= 2000);
+        assertTrue(stats.getSelectedKeysPerIteration() > 0);
+        assertTrue(stats.getSelectNanos() > 0);
+        assertTrue(stats.getHandlerNanos() > 0);
+        assertTrue(stats.getMaxHandlerNanos() > 0);
+        assertTrue(stats.getMaxHandlerNanos() <= stats.getHandlerNanos());
+        assertEquals("all pipes are removed", 0, stats.getRegisteredChannels());
+    }
+
+    @Test
+    public void stallWatchdog() throws Exception {
+        start(new SelectorEventLoopOpts().setStallThresholdMillis(50));
+        SelectorEventLoopStats stats = loop.getStats();
+
+        CountDownLatch latch = new CountDownLatch(1);
+        loop.nextTick(() -> {
+            try {
+                Thread.sleep(500); // blocking code on the loop
+            } catch (InterruptedException ignore) {
+            }
+            latch.countDown();
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals("one stall should be reported only once", 1, stats.getStalls());
+
+        // normal iterations are not reported
+        CountDownLatch latch2 = new CountDownLatch(1);
+        loop.delay(200, latch2::countDown);
+        assertTrue(latch2.await(5, TimeUnit.SECONDS));
+        assertEquals(1, stats.getStalls());
+    }
+
+    @Test
+    public void backgroundLane() throws Exception {
+        start(new SelectorEventLoopOpts().setBackgroundSliceMicros(1000));
+
+        int tasks = 100;
+        CountDownLatch latch = new CountDownLatch(tasks);
+        int[] ranSinceLastTick = {0};
+        int[] maxInOneIteration = {0};
+        AtomicBoolean stop = new AtomicBoolean(false);
+        Runnable[] tick = {null};
+        tick[0] = () -> {
+            maxInOneIteration[0] = Math.max(maxInOneIteration[0], ranSinceLastTick[0]);
+            ranSinceLastTick[0] = 0;
+            if (!stop.get()) {
+                loop.nextTick(tick[0]);
+            }
+        };
+        loop.nextTick(() -> {
+            for (int i = 0; i < tasks; ++i) {
+                loop.nextTickBackground(() -> {
+                    long end = System.nanoTime() + 500_000;
+                    //noinspection StatementWithEmptyBody
+                    while (System.nanoTime() < end) {
+                    }
+                    ++ranSinceLastTick[0];
+                    latch.countDown();
+                });
+            }
+            tick[0].run();
+        });
+        assertTrue("all background tasks should run", latch.await(5, TimeUnit.SECONDS));
+        stop.set(true);
+        assertTrue("background tasks should be bounded by the slice, but got " + maxInOneIteration[0],
+            maxInOneIteration[0] <= 3);
+
+        CountDownLatch periodLatch = new CountDownLatch(3);
+        loop.periodBackground(10, periodLatch::countDown);
+        assertTrue("background timers should fire", periodLatch.await(5, TimeUnit.SECONDS));
+        assertTrue(loop.getStats().getBackgroundRun() >= tasks);
+    }
+
+    @Test
+    public void bufferPool() throws Exception {
+        start(new SelectorEventLoopOpts().setBufferPoolMaxBytes(3 * 1024));
+        DirectBufferPool pool = loop.getBufferPool();
+
+        // not on a loop thread, so not pooled
+        RingBuffer notPooled = RingBuffer.allocateDirectPooled(1024);
+        notPooled.clean();
+        assertEquals(0, pool.getMisses());
+
+        // allocate on the loop and release on the loop
+        RingBuffer[] bufs = new RingBuffer[4];
+        CountDownLatch latch = new CountDownLatch(1);
+        loop.nextTick(() -> {
+            for (int i = 0; i < bufs.length; ++i) {
+                bufs[i] = RingBuffer.allocateDirectPooled(1024);
+            }
+            bufs[0].clean();
+            bufs[0] = RingBuffer.allocateDirectPooled(1024);
+            latch.countDown();
+        });
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertEquals(4, pool.getMisses());
+        assertEquals(1, pool.getHits());
+        assertEquals(4 * 1024, pool.getInUseBytes());
+        assertEquals(0, pool.getPooledBytes());
+
+        // release on another thread, the buffers are taken back when the loop allocates
+        for (RingBuffer b : bufs) {
+            b.clean();
+        }
+        assertEquals(0, pool.getInUseBytes());
+        CountDownLatch latch2 = new CountDownLatch(1);
+        loop.nextTick(() -> {
+            bufs[0] = RingBuffer.allocateDirectPooled(1024);
+            latch2.countDown();
+        });
+        assertTrue(latch2.await(1, TimeUnit.SECONDS));
+        assertEquals(2, pool.getHits());
+        // only 3k is kept
+        assertEquals(1, pool.getDropped());
+        assertEquals(2 * 1024, pool.getPooledBytes());
+        assertEquals(1024, pool.getInUseBytes());
+    }
+
+    @Test
+    public void elasticBuffer() throws Exception {
+        start(new SelectorEventLoopOpts().setBufferIdleReleaseMillis(50));
+        DirectBufferPool pool = loop.getBufferPool();
+
+        SimpleRingBuffer[] buf = {null};
+        int[] readable = {0};
+        int[] writable = {0};
+        byte[] data = new byte[3000];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) i;
+        }
+        byte[] result = new byte[data.length];
+        CountDownLatch latch = new CountDownLatch(1);
+        loop.nextTick(() -> {
+            SimpleRingBuffer b = SimpleRingBuffer.allocateElastic(4000);
+            buf[0] = b;
+            b.addHandler(new RingBufferETHandler() {
+                @Override
+                public void readableET() {
+                    ++readable[0];
+                }
+
+                @Override
+                public void writableET() {
+                    ++writable[0];
+                }
+            });
+            assertEquals(0, b.memoryCapacity());
+            assertEquals(4000, b.capacity());
+            assertEquals(4000, b.free());
+
+            // grow when storing
+            assertEquals(1000, b.storeBytesFrom(ByteArrayChannel.from(data, 0, 1000, 0)));
+            assertEquals(1024, b.memoryCapacity());
+            assertEquals(2000, b.storeBytesFrom(ByteArrayChannel.from(data, 1000, 3000, 0)));
+            assertEquals(4000, b.memoryCapacity());
+            assertEquals(3000, b.used());
+            assertEquals(1000, b.free());
+            assertEquals("readable is only triggered when the buffer becomes non-empty", 1, readable[0]);
+
+            // wrap around
+            assertEquals(2500, b.writeTo(ByteArrayChannel.fromEmpty(new byte[2500])));
+            assertEquals(3500, b.storeBytesFrom(ByteArrayChannel.fromFull(new byte[3600])));
+            assertEquals(0, b.free());
+            ByteArrayChannel out = ByteArrayChannel.fromEmpty(result);
+            assertEquals(3000, b.writeTo(out));
+            for (int i = 0; i < 500; ++i) {
+                assertEquals(data[2500 + i], result[i]);
+            }
+            assertEquals("writable is triggered when the buffer is no longer full", 1, writable[0]);
+            assertEquals(1000, b.writeTo(ByteArrayChannel.fromEmpty(new byte[1000])));
+            assertEquals(0, b.used());
+            latch.countDown();
+        });
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+
+        // the memory is released when idle
+        long end = System.currentTimeMillis() + 2000;
+        while (buf[0].memoryCapacity() != 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals("idle memory should be released", 0, buf[0].memoryCapacity());
+        assertEquals(0, pool.getInUseBytes());
+    }
+
+    @Test
+    public void vectoredIO() throws Exception {
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        byte[] data = new byte[1500];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) i;
+        }
+
+        // make the data wrap around: [sPos=600, cap=1000) + [0, 500)
+        SimpleRingBuffer b = SimpleRingBuffer.allocate(1000);
+        b.storeBytesFrom(ByteArrayChannel.fromFull(new byte[600]));
+        b.writeTo(ByteArrayChannel.fromEmpty(new byte[600]));
+        assertEquals(900, b.storeBytesFrom(ByteArrayChannel.from(data, 0, 900, 0)));
+        // gathering write of both parts
+        assertEquals(900, b.writeTo(pipe.sink(), Integer.MAX_VALUE));
+        assertEquals(0, b.used());
+
+        // the free space wraps around: [ePos=600, cap) + [0, sPos=500)
+        b.storeBytesFrom(ByteArrayChannel.fromFull(new byte[600]));
+        b.writeTo(ByteArrayChannel.fromEmpty(new byte[500]));
+        // scattering read into both parts
+        assertEquals(900, b.storeBytesFrom(pipe.source()));
+        assertEquals(1000, b.used());
+        b.writeTo(ByteArrayChannel.fromEmpty(new byte[100]));
+        byte[] result = new byte[900];
+        assertEquals(900, b.writeTo(ByteArrayChannel.fromEmpty(result)));
+        for (int i = 0; i < 900; ++i) {
+            assertEquals(data[i], result[i]);
+        }
+
+        // the default buffer and the proxied buffer are written together
+        ProxyOutputRingBuffer out = ProxyOutputRingBuffer.allocateDirect(1000);
+        out.storeBytesFrom(ByteArrayChannel.from(data, 0, 300, 0));
+        SimpleRingBuffer proxied = SimpleRingBuffer.allocate(1000);
+        proxied.storeBytesFrom(ByteArrayChannel.from(data, 300, 1000, 0));
+        boolean[] done = {false};
+        out.proxy(proxied, 700, () -> done[0] = true);
+        assertEquals(800, out.writeTo(pipe.sink(), 800));
+        assertFalse(done[0]);
+        assertEquals(200, out.writeTo(pipe.sink(), Integer.MAX_VALUE));
+        assertTrue(done[0]);
+        ByteBuffer received = ByteBuffer.allocate(1000);
+        while (received.hasRemaining()) {
+            assertTrue(pipe.source().read(received) > 0);
+        }
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(data[i], received.get(i));
+        }
+
+        pipe.sink().close();
+        pipe.source().close();
+    }
+}
@@ -8,13 +8,25 @@ import net.cassite.vproxy.component.secure.SecurityGroup;
 import net.cassite.vproxy.component.svrgroup.Method;
 import net.cassite.vproxy.component.svrgroup.ServerGroup;
 import net.cassite.vproxy.component.svrgroup.ServerGroups;
-import net.cassite.vproxy.connection.NetEventLoop;
+import net.cassite.vproxy.component.proxy.ConnectorGen;
+import net.cassite.vproxy.component.proxy.Proxy;
+import net.cassite.vproxy.component.proxy.ProxyNetConfig;
+import net.cassite.vproxy.connection.*;
+import net.cassite.vproxy.protocol.ProtocolHandler;
 import net.cassite.vproxy.selector.SelectorEventLoop;
 import net.cassite.vproxy.socks.AddressType;
+import net.cassite.vproxy.socks.BlockingSocks5ConnectorProvider;
+import net.cassite.vproxy.socks.Socks5ProxyContext;
+import net.cassite.vproxy.socks.Socks5ProxyProtocolHandler;
 import net.cassite.vproxy.test.tool.IdServer;
 import net.cassite.vproxy.test.tool.Socks5Client;
+import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.Callback;
+import net.cassite.vproxy.util.RingBuffer;
+import net.cassite.vproxy.util.Tuple;
 import org.junit.*;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.LinkedList;
@@ -22,6 +34,7 @@ import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TestSocks5 {
     private static final int lbPort = 18080;
@@ -137,4 +150,88 @@ public class TestSocks5 {
         assertTrue("weight same, so two count and three count should be the same",
             three - two > -2 && two - three < 2);
     }
+
+    @Test
+    public void blockingConnectorProvider() throws Exception {
+        // the provider talks to the backend in blocking style before handing the connection to the proxy
+        BlockingSocks5ConnectorProvider provider = new BlockingSocks5ConnectorProvider() {
+            @Override
+            protected Connector provide(NetEventLoop loop, Connection accepted, AddressType type, String address, int port) throws Exception {
+                BlockingConnection conn = BlockingConnection.connect(loop, new InetSocketAddress(address, port),
+                    ConnectionOpts.getDefault(), RingBuffer.allocateDirect(16384), RingBuffer.allocateDirect(16384));
+                conn.write(ByteArrayChannel.fromFull("hello".getBytes()));
+                ByteArrayChannel id = ByteArrayChannel.fromEmpty(new byte[1]);
+                conn.readFully(id);
+                if (id.get()[0] != '2')
+                    throw new IOException("unexpected id " + id.get()[0]);
+                ClientConnection c = (ClientConnection) conn.detach();
+                return new AlreadyConnectedConnector(c.remote, c, loop);
+            }
+        };
+        ProtocolHandler<Tuple<Socks5ProxyContext, Callback<Connector, IOException>>> handler =
+            new Socks5ProxyProtocolHandler(provider);
+        NetEventLoop loop = elg0.next();
+        Proxy proxy = new Proxy(new ProxyNetConfig()
+            .setAcceptLoop(loop)
+            .setHandleLoopProvider(() -> loop)
+            .setServer(BindServer.create(new InetSocketAddress("127.0.0.1", lbPort + 1)))
+            .setInBufferSize(16384)
+            .setOutBufferSize(16384)
+            .setConnGen(new ConnectorGen<Socks5ProxyContext>() {
+                @Override
+                public Type type() {
+                    return Type.handler;
+                }
+
+                @Override
+                public ProtocolHandler<Tuple<Socks5ProxyContext, Callback<Connector, IOException>>> handler() {
+                    return handler;
+                }
+
+                @Override
+                public Connector genConnector(Connection accepted) {
+                    return null; // will not be called because type is `handler`
+                }
+            }), s -> {
+        });
+        proxy.handle();
+        try {
+            for (int i = 0; i < 20; ++i) {
+                Socks5Client client = new Socks5Client(lbPort + 1);
+                client.connect(AddressType.ipv4, "127.0.0.1", 19082);
+                String res = client.sendAndRecv("anything", 1);
+                assertEquals("the data is proxied after the blocking handshake", "2", res);
+            }
+        } finally {
+            proxy.stop();
+        }
+    }
+
+    @Test
+    public void blockingConnectionLoopClosedOrInterrupted() throws Exception {
+        // an interrupted caller still waits for the operation, and the flag is kept
+        NetEventLoop loop = elg0.next();
+        Thread.currentThread().interrupt();
+        BlockingConnection conn;
+        try {
+            conn = BlockingConnection.connect(loop, new InetSocketAddress("127.0.0.1", 19080),
+                ConnectionOpts.getDefault(), RingBuffer.allocate(16384), RingBuffer.allocate(16384));
+        } finally {
+            assertTrue("the interrupt flag should be kept", Thread.interrupted());
+        }
+        conn.close();
+
+        // the operation posted to a closed loop fails instead of blocking forever
+        SelectorEventLoop closedLoop = SelectorEventLoop.open();
+        closedLoop.loop(r -> new Thread(r, "closedLoop"));
+        NetEventLoop closedNetLoop = new NetEventLoop(closedLoop);
+        closedLoop.close();
+        try {
+            BlockingConnection.connect(closedNetLoop, new InetSocketAddress("127.0.0.1", 19080),
+                ConnectionOpts.getDefault(), RingBuffer.allocate(16384), RingBuffer.allocate(16384));
+            fail("the loop is closed");
+        } catch (IOException e) {
+            assertEquals("loop closed", e.getMessage());
+        }
+    }
 }
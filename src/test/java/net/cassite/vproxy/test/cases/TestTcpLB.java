@@ -4,6 +4,10 @@ import net.cassite.vproxy.app.Config;
 import net.cassite.vproxy.component.app.TcpLB;
 import net.cassite.vproxy.component.check.HealthCheckConfig;
 import net.cassite.vproxy.component.elgroup.EventLoopGroup;
+import net.cassite.vproxy.component.elgroup.EventLoopSelectMethod;
+import net.cassite.vproxy.component.elgroup.EventLoopSelectPolicy;
+import net.cassite.vproxy.component.elgroup.EventLoopWrapper;
+import net.cassite.vproxy.component.proxy.BufferBudgetPolicy;
 import net.cassite.vproxy.component.proxy.Session;
 import net.cassite.vproxy.component.secure.SecurityGroup;
 import net.cassite.vproxy.component.secure.SecurityGroupRule;
@@ -12,21 +16,41 @@ import net.cassite.vproxy.component.svrgroup.ServerGroup;
 import net.cassite.vproxy.component.svrgroup.ServerGroups;
 import net.cassite.vproxy.connection.BindServer;
 import net.cassite.vproxy.connection.Connection;
+import net.cassite.vproxy.connection.ConnectionHandler;
+import net.cassite.vproxy.connection.ConnectionHandlerContext;
+import net.cassite.vproxy.connection.ConnectionOpts;
 import net.cassite.vproxy.connection.NetEventLoop;
 import net.cassite.vproxy.connection.Protocol;
+import net.cassite.vproxy.connection.ServerHandler;
+import net.cassite.vproxy.connection.ServerHandlerContext;
+import net.cassite.vproxy.connection.TrafficCounter;
 import net.cassite.vproxy.selector.SelectorEventLoop;
 import net.cassite.vproxy.test.tool.CaseUtils;
 import net.cassite.vproxy.test.tool.Client;
 import net.cassite.vproxy.test.tool.EchoServer;
 import net.cassite.vproxy.test.tool.IdServer;
+import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.RingBuffer;
+import net.cassite.vproxy.util.Tuple;
 import net.cassite.vproxy.util.Utils;
+import net.cassite.vproxy.util.ringbuffer.SimpleRingBuffer;
 import org.junit.*;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.NetworkChannel;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -713,4 +737,636 @@ public class TestTcpLB {
         assertNotSame("the old server is removed", old, list.get(0));
         assertFalse("the new server is not logic deleted", list.get(0).isLogicDelete());
     }
+
+    @Test
+    public void acceptorWorkerSplit() throws Exception {
+        sgs0.add(sgEcho, 10);
+
+        EventLoopGroup workerGroup = new EventLoopGroup("worker");
+        workerGroup.add("w0");
+        workerGroup.add("w1");
+        TcpLB lb1 = new TcpLB("lb1", elg0, workerGroup,
+            new InetSocketAddress("127.0.0.1", lbPort + 1), sgs0,
+            Config.tcpTimeout, 16384, 16384, secg0);
+        lb1.setAcceptBudget(1);
+        lb1.setWorkerSelectPolicy(EventLoopSelectPolicy.leastConnections());
+        lb1.start();
+        try {
+            List<Client> workerClients = new LinkedList<>();
+            for (int i = 0; i < 4; ++i) {
+                Client client = new Client(lbPort + 1);
+                client.connect();
+                workerClients.add(client);
+                assertEquals("hello", client.sendAndRecv("hello", 5));
+            }
+            assertEquals("connections should not be handled on the acceptor loop", 0, elg0.get("el0").connectionCount());
+            assertEquals("connections should be spread to worker loops", 4, workerGroup.get("w0").connectionCount());
+            assertEquals("connections should be spread to worker loops", 4, workerGroup.get("w1").connectionCount());
+            assertEquals(4, lb1.sessionCount());
+            for (Client client : workerClients) {
+                client.close();
+            }
+        } finally {
+            lb1.destroy();
+            workerGroup.close();
+        }
+    }
+
+    @Test
+    public void trafficCountersOfWorkerLoops() throws Exception {
+        sgs0.add(sgEcho, 10);
+        for (ServerGroup.ServerHandle h : sgEcho.getServerHandles()) {
+            h.healthy = true; // do not wait for the health check
+        }
+        ServerGroup.ServerHandle echo = sgEcho.getServerHandles().get(0);
+
+        EventLoopGroup workerGroup = new EventLoopGroup("worker");
+        workerGroup.add("w0");
+        workerGroup.add("w1");
+        TcpLB lb1 = new TcpLB("lb1", elg0, workerGroup,
+            new InetSocketAddress("127.0.0.1", lbPort + 1), sgs0,
+            Config.tcpTimeout, 16384, 16384, secg0);
+        lb1.start();
+        try {
+            BindServer server = lb1.servers.keySet().stream().findFirst().get();
+
+            List<Client> workerClients = new LinkedList<>();
+            for (int i = 0; i < 4; ++i) {
+                Client client = new Client(lbPort + 1);
+                client.connect();
+                workerClients.add(client);
+                assertEquals("hello", client.sendAndRecv("hello", 5));
+                assertEquals("hello", client.sendAndRecv("hello", 5));
+            }
+            assertEquals("connections should be spread to worker loops", 4, workerGroup.get("w0").connectionCount());
+            assertEquals("connections should be spread to worker loops", 4, workerGroup.get("w1").connectionCount());
+
+            // the bytes are counted after written
+            long end = System.currentTimeMillis() + 5000;
+            while ((server.getToRemoteBytes() < 40 || echo.getFromRemoteBytes() < 40)
+                && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            // counted on both loops, and aggregated when retrieved
+            assertEquals(40, server.getFromRemoteBytes());
+            assertEquals(40, server.getToRemoteBytes());
+            assertEquals(40, echo.getFromRemoteBytes());
+            assertEquals(40, echo.getToRemoteBytes());
+            assertEquals("each message is read once", 8, server.traffic.getFromRemotePackets());
+            assertEquals("each message is written once", 8, echo.traffic.getToRemotePackets());
+            long pout = server.traffic.getToRemotePackets();
+            assertTrue("the replies may be split by the echo server, got " + pout, pout >= 8 && pout <= 16);
+
+            // the rates are sampled periodically, keep the traffic until they turn up
+            end = System.currentTimeMillis() + 5000;
+            while ((server.traffic.getFromRemoteBytesPerSecond() == 0
+                || server.traffic.getToRemoteBytesPerSecond() == 0
+                || server.traffic.getFromRemotePacketsPerSecond() == 0
+                || server.traffic.getToRemotePacketsPerSecond() == 0
+                || echo.traffic.getToRemoteBytesPerSecond() == 0)
+                && System.currentTimeMillis() < end) {
+                assertEquals("hello", workerClients.get(0).sendAndRecv("hello", 5));
+                Thread.sleep(50);
+            }
+            assertTrue(server.traffic.getFromRemoteBytesPerSecond() > 0);
+            assertTrue(server.traffic.getToRemoteBytesPerSecond() > 0);
+            assertTrue(server.traffic.getFromRemotePacketsPerSecond() > 0);
+            assertTrue(server.traffic.getToRemotePacketsPerSecond() > 0);
+            assertTrue(echo.traffic.getToRemoteBytesPerSecond() > 0);
+
+            // the cell of a closed loop is folded, and the totals are kept
+            EventLoopWrapper w0 = workerGroup.get("w0");
+            long bin = server.getFromRemoteBytes();
+            workerGroup.remove("w0");
+            assertEquals(bin, server.getFromRemoteBytes());
+            assertFalse("the closed loop should not be kept", trafficCounterLoops(server.traffic).contains(w0));
+            for (Client client : workerClients) {
+                assertEquals("hello", client.sendAndRecv("hello", 5));
+            }
+            end = System.currentTimeMillis() + 5000;
+            while (server.getToRemoteBytes() < bin + 20 && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            assertEquals(bin + 20, server.getFromRemoteBytes());
+            assertEquals(bin + 20, server.getToRemoteBytes());
+
+            for (Client client : workerClients) {
+                client.close();
+            }
+        } finally {
+            lb1.destroy();
+            workerGroup.close();
+        }
+    }
+
+    private static List<Object> trafficCounterLoops(TrafficCounter counter) throws Exception {
+        Field cellsField = TrafficCounter.class.getDeclaredField("cells");
+        cellsField.setAccessible(true);
+        Field loopField = TrafficCounter.Cell.class.getDeclaredField("loop");
+        loopField.setAccessible(true);
+        List<Object> loops = new LinkedList<>();
+        for (Object cell : (Object[]) cellsField.get(counter)) {
+            loops.add(loopField.get(cell));
+        }
+        return loops;
+    }
+
+    @Test
+    public void leastTrafficWorkerSelect() throws Exception {
+        sgs0.add(sgEcho, 10);
+
+        EventLoopGroup workerGroup = new EventLoopGroup("worker");
+        workerGroup.add("w0");
+        workerGroup.add("w1");
+        TcpLB lb1 = new TcpLB("lb1", elg0, workerGroup,
+            new InetSocketAddress("127.0.0.1", lbPort + 1), sgs0,
+            Config.tcpTimeout, 16384, 16384, secg0);
+        lb1.setWorkerSelectMethod(EventLoopSelectMethod.lt);
+        assertEquals(EventLoopSelectMethod.lt, lb1.getWorkerSelectMethod());
+        lb1.start();
+        try {
+            Client busy = new Client(lbPort + 1);
+            busy.connect();
+            String data = "0123456789abcdef0123456789abcdef";
+            for (int i = 0; i < 100; ++i) {
+                assertEquals(data, busy.sendAndRecv(data, data.length()));
+            }
+            EventLoopWrapper busyLoop = workerGroup.get("w0").connectionCount() > 0
+                ? workerGroup.get("w0") : workerGroup.get("w1");
+            EventLoopWrapper idleLoop = busyLoop == workerGroup.get("w0")
+                ? workerGroup.get("w1") : workerGroup.get("w0");
+            assertTrue("traffic should be recorded on the loop", busyLoop.getTrafficBytes() > 0);
+            assertEquals(0, idleLoop.getTrafficBytes());
+
+            // the rate is sampled periodically, keep the traffic until it turns up
+            long end = System.currentTimeMillis() + 5000;
+            while (busyLoop.getBytesPerSecond() == 0 && System.currentTimeMillis() < end) {
+                assertEquals(data, busy.sendAndRecv(data, data.length()));
+                Thread.sleep(50);
+            }
+
+            for (int i = 0; i < 3; ++i) {
+                Client client = new Client(lbPort + 1);
+                client.connect();
+                assertEquals("hello", client.sendAndRecv("hello", 5));
+                client.close();
+            }
+            assertTrue("the busy loop should have bytes per second", busyLoop.getBytesPerSecond() > 0);
+            assertTrue("new connections should be handled on the idle loop",
+                idleLoop.getTrafficBytes() > 0);
+            assertEquals("new connections should not be handled on the busy loop",
+                2, busyLoop.connectionCount());
+            busy.close();
+        } finally {
+            lb1.destroy();
+            workerGroup.close();
+        }
+    }
+
+    @Test
+    public void rateSamplerDoesNotKeepLoops() throws Exception {
+        // the rates of all NetEventLoops on the same selector loop are sampled by one timer,
+        // which only keeps weak references
+        WeakReference<NetEventLoop> ref = new WeakReference<>(new NetEventLoop(loop));
+        long end = System.currentTimeMillis() + 5000;
+        while (ref.get() != null && System.currentTimeMillis() < end) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("the NetEventLoop should not be kept by the sampler", ref.get());
+    }
+
+    @Test
+    public void migrateIdleSessions() throws Exception {
+        sgs0.add(sgEcho, 10);
+
+        EventLoopGroup workerGroup = new EventLoopGroup("worker");
+        workerGroup.add("w0");
+        TcpLB lb1 = new TcpLB("lb1", elg0, workerGroup,
+            new InetSocketAddress("127.0.0.1", lbPort + 1), sgs0,
+            Config.tcpTimeout, 16384, 16384, secg0);
+        lb1.start();
+        try {
+            List<Client> workerClients = new LinkedList<>();
+            for (int i = 0; i < 4; ++i) {
+                Client client = new Client(lbPort + 1);
+                client.connect();
+                workerClients.add(client);
+                assertEquals("hello", client.sendAndRecv("hello", 5));
+            }
+            EventLoopWrapper w0 = workerGroup.get("w0");
+            assertEquals(8, w0.connectionCount());
+
+            // adding a loop moves idle sessions to the new loop
+            workerGroup.add("w1");
+            EventLoopWrapper w1 = workerGroup.get("w1");
+            long end = System.currentTimeMillis() + 5000;
+            while (w1.connectionCount() != 4 && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            assertEquals("sessions should be rebalanced", 4, w0.connectionCount());
+            assertEquals("sessions should be rebalanced", 4, w1.connectionCount());
+            for (Client client : workerClients) {
+                assertEquals("moved sessions should still work", "world", client.sendAndRecv("world", 5));
+            }
+
+            // removing a loop moves its idle sessions to other loops
+            workerGroup.remove("w0");
+            assertEquals("sessions should be drained", 8, w1.connectionCount());
+            for (Client client : workerClients) {
+                assertEquals("drained sessions should still work", "again", client.sendAndRecv("again", 5));
+            }
+            assertEquals(4, lb1.sessionCount());
+            List<Session> sessions = new LinkedList<>();
+            lb1.copySessions(sessions);
+            assertEquals(4, sessions.size());
+            ServerGroup.ServerHandle echo = sgEcho.getServerHandles().get(0);
+            assertEquals(4, echo.connectionCount());
+
+            for (Client client : workerClients) {
+                client.close();
+            }
+            // the sessions are recorded on w0 and removed on w1
+            end = System.currentTimeMillis() + 5000;
+            while ((lb1.sessionCount() != 0 || echo.connectionCount() != 0) && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            assertEquals("migrated sessions should be removed", 0, lb1.sessionCount());
+            assertEquals("migrated connections should be removed", 0, echo.connectionCount());
+        } finally {
+            lb1.destroy();
+            workerGroup.close();
+        }
+    }
+
+    @Test
+    public void elasticBuffers() throws Exception {
+        sgs0.add(sgEcho, 10);
+        lb0.setElasticBuffers(true);
+
+        Client client = new Client(lbPort);
+        client.connect();
+        clients.add(client);
+        assertEquals("hello", client.sendAndRecv("hello", 5));
+
+        List<Session> sessions = new LinkedList<>();
+        lb0.copySessions(sessions);
+        assertEquals(1, sessions.size());
+        SimpleRingBuffer in = (SimpleRingBuffer) sessions.get(0).active.getInBuffer();
+        assertTrue(in.isElastic());
+        assertEquals("the logical capacity is the configured size", 16384, in.capacity());
+        assertTrue("only a small piece of memory is used", in.memoryCapacity() <= 1024);
+
+        // send more data than the initial memory
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 12000; ++i) {
+            sb.append((char) ('a' + i % 26));
+        }
+        String large = sb.toString();
+        assertEquals("large data should be proxied", large, client.sendAndRecv(large, large.length()));
+        assertEquals("hello", client.sendAndRecv("hello", 5));
+
+        lb0.setElasticBuffers(false);
+        Client client2 = new Client(lbPort);
+        client2.connect();
+        clients.add(client2);
+        assertEquals("hello", client2.sendAndRecv("hello", 5));
+        sessions.clear();
+        lb0.copySessions(sessions);
+        for (Session sess : sessions) {
+            if (sess.active.getInBuffer() != in) {
+                assertFalse(((SimpleRingBuffer) sess.active.getInBuffer()).isElastic());
+            }
+        }
+    }
+
+    @Test
+    public void ioBuffersUnusedWhenConnectionCreateFails() throws Exception {
+        NetEventLoop netLoop = new NetEventLoop(loop);
+        BindServer server = BindServer.create(new InetSocketAddress("127.0.0.1", lbPort + 2));
+        // updated on the loop thread
+        AtomicInteger unused = new AtomicInteger();
+        AtomicInteger connections = new AtomicInteger();
+        CountDownLatch unusedLatch = new CountDownLatch(1);
+        netLoop.addServer(server, null, new ServerHandler() {
+            @Override
+            public void acceptFail(ServerHandlerContext ctx, IOException err) {
+            }
+
+            @Override
+            public void connection(ServerHandlerContext ctx, Connection connection) {
+                connections.incrementAndGet();
+            }
+
+            @Override
+            public Tuple<RingBuffer, RingBuffer> getIOBuffers(NetworkChannel channel) {
+                // the connection object cannot be created for a closed channel
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return new Tuple<>(RingBuffer.allocate(16), RingBuffer.allocate(16));
+            }
+
+            @Override
+            public void ioBuffersUnused(Tuple<RingBuffer, RingBuffer> ioBuffers) {
+                unused.incrementAndGet();
+                unusedLatch.countDown();
+            }
+
+            @Override
+            public void removed(ServerHandlerContext ctx) {
+            }
+        });
+        try (Socket sock = new Socket("127.0.0.1", lbPort + 2)) {
+            sock.setSoTimeout(1000);
+            assertEquals("the socket should be closed", -1, sock.getInputStream().read());
+        } finally {
+            server.close();
+        }
+        assertTrue("the buffers should be given back", unusedLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, unused.get());
+        assertEquals(0, connections.get());
+    }
+
+    @Test
+    public void readBudgetStopsWhenConnectionRemoved() throws Exception {
+        NetEventLoop netLoop = new NetEventLoop(loop);
+        BindServer server = BindServer.create(new InetSocketAddress("127.0.0.1", lbPort + 3));
+        AtomicInteger readable = new AtomicInteger();
+        ConnectionHandler handler = new ConnectionHandler() {
+            @Override
+            public void readable(ConnectionHandlerContext ctx) {
+                readable.incrementAndGet();
+                ctx.connection.getInBuffer().writeTo(ByteArrayChannel.fromEmpty(new byte[65536]));
+                // the connection leaves the loop, it should not be read any more in this event
+                ctx.eventLoop.removeConnection(ctx.connection);
+            }
+
+            @Override
+            public void writable(ConnectionHandlerContext ctx) {
+            }
+
+            @Override
+            public void exception(ConnectionHandlerContext ctx, IOException err) {
+            }
+
+            @Override
+            public void closed(ConnectionHandlerContext ctx) {
+            }
+
+            @Override
+            public void removed(ConnectionHandlerContext ctx) {
+            }
+        };
+        netLoop.addServer(server, null, new ServerHandler() {
+            @Override
+            public void acceptFail(ServerHandlerContext ctx, IOException err) {
+            }
+
+            @Override
+            public void connection(ServerHandlerContext ctx, Connection connection) {
+                try {
+                    Thread.sleep(100); // let the data arrive, so more than one read is possible
+                    netLoop.addConnection(connection, null, handler);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public Tuple<RingBuffer, RingBuffer> getIOBuffers(NetworkChannel channel) {
+                return new Tuple<>(RingBuffer.allocate(65536), RingBuffer.allocate(16));
+            }
+
+            @Override
+            public void removed(ServerHandlerContext ctx) {
+            }
+
+            @Override
+            public ConnectionOpts connectionOpts() {
+                return new ConnectionOpts().setAdaptiveRead(true).setReadBudget(65536);
+            }
+        });
+        try (Socket sock = new Socket("127.0.0.1", lbPort + 3)) {
+            sock.getOutputStream().write(new byte[32768]);
+            long end = System.currentTimeMillis() + 5000;
+            while (readable.get() == 0 && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            // the event is handled when the task runs
+            CountDownLatch handled = new CountDownLatch(1);
+            loop.runOnLoop(handled::countDown);
+            assertTrue(handled.await(1, TimeUnit.SECONDS));
+            assertEquals("the removed connection should not be read again", 1, readable.get());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void bufferBudget() throws Exception {
+        sgs0.add(sgEcho, 10);
+        // enough for one connection with 16384 + 16384 buffers
+        lb0.bufferBudget.setLimit(32768);
+
+        Client client = new Client(lbPort);
+        client.connect();
+        clients.add(client);
+        assertEquals("hello", client.sendAndRecv("hello", 5));
+        assertEquals(32768, lb0.bufferBudget.getUsed());
+
+        // refuse
+        Client client2 = new Client(lbPort);
+        client2.connect();
+        clients.add(client2);
+        try {
+            client2.sendAndRecv("hello", 5);
+            fail("the connection should be refused");
+        } catch (IOException ignore) {
+        }
+        assertEquals(1, lb0.bufferBudget.getRefused());
+
+        // shrink
+        lb0.setBufferBudgetPolicy(BufferBudgetPolicy.shrink);
+        lb0.bufferBudget.setLimit(32768 + 2048);
+        Client client3 = new Client(lbPort);
+        client3.connect();
+        clients.add(client3);
+        assertEquals("hello", client3.sendAndRecv("hello", 5));
+        assertEquals(1, lb0.bufferBudget.getShrunk());
+        assertEquals(32768 + 2048, lb0.bufferBudget.getUsed());
+        List<Session> sessions = new LinkedList<>();
+        lb0.copySessions(sessions);
+        assertEquals(2, sessions.size());
+        for (Session sess : sessions) {
+            int cap = sess.active.getInBuffer().capacity();
+            assertTrue(cap == 16384 || cap == 1024);
+        }
+
+        // queue
+        lb0.setBufferBudgetPolicy(BufferBudgetPolicy.queue);
+        Client client4 = new Client(lbPort);
+        client4.connect(); // connected in the backlog
+        clients.add(client4);
+        Thread.sleep(100);
+        assertTrue(lb0.bufferBudget.getPaused() > 0);
+        assertEquals(1, lb0.bufferBudget.getRefused());
+        // release memory
+        client.close();
+        assertEquals("hello", client4.sendAndRecv("hello", 5));
+        assertEquals(1, lb0.bufferBudget.getRefused());
+    }
+
+    @Test
+    public void corkWrites() throws Exception {
+        sgs0.add(sgEcho, 10);
+        for (ServerGroup.ServerHandle h : sgEcho.getServerHandles()) {
+            h.healthy = true; // do not wait for the health check
+        }
+        lb0.setCorkThreshold(1024);
+        assertEquals(1024, lb0.getCorkThreshold());
+
+        Client client = new Client(lbPort);
+        client.connect();
+        clients.add(client);
+        assertEquals("hello", client.sendAndRecv("hello", 5));
+
+        List<Session> sessions = new LinkedList<>();
+        lb0.copySessions(sessions);
+        assertEquals(1, sessions.size());
+        assertEquals(1024, sessions.get(0).active.corkThreshold);
+        assertEquals(1024, sessions.get(0).passive.corkThreshold);
+
+        // more data than the threshold
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 12000; ++i) {
+            sb.append((char) ('a' + i % 26));
+        }
+        String large = sb.toString();
+        assertEquals("large data should be proxied", large, client.sendAndRecv(large, large.length()));
+        assertEquals("hello", client.sendAndRecv("hello", 5));
+
+        NetEventLoop loop = elg0.list().get(0);
+        assertTrue(loop.getCorkFlushes() > 0);
+        assertTrue(loop.getWriteFrames() > 0);
+        assertTrue(loop.getWriteCalls() > 0);
+        assertTrue(loop.getWriteCallsPerFrame() > 0);
+
+        lb0.setCorkThreshold(0);
+        Client client2 = new Client(lbPort);
+        client2.connect();
+        clients.add(client2);
+        assertEquals("hello", client2.sendAndRecv("hello", 5));
+        long flushes = loop.getCorkFlushes();
+        long frames = loop.getWriteFrames();
+        assertEquals("hello", client2.sendAndRecv("hello", 5));
+        assertEquals("new connections are not corked", flushes, loop.getCorkFlushes());
+        assertTrue("the proxied data should be counted in both directions", loop.getWriteFrames() >= frames + 2);
+    }
+
+    @Test
+    public void adaptiveReadAndReadBudget() throws Exception {
+        sgs0.add(sgEcho, 10);
+        for (ServerGroup.ServerHandle h : sgEcho.getServerHandles()) {
+            h.healthy = true; // do not wait for the health check
+        }
+        lb0.setAdaptiveRead(true);
+        lb0.setReadBudget(4096);
+        assertTrue(lb0.isAdaptiveRead());
+        assertEquals(4096, lb0.getReadBudget());
+
+        Client client = new Client(lbPort);
+        client.connect();
+        clients.add(client);
+        assertEquals("hello", client.sendAndRecv("hello", 5));
+
+        List<Session> sessions = new LinkedList<>();
+        lb0.copySessions(sessions);
+        assertEquals(1, sessions.size());
+        Connection active = sessions.get(0).active;
+        Connection passive = sessions.get(0).passive;
+        assertTrue(active.adaptiveRead);
+        assertTrue(passive.adaptiveRead);
+        assertEquals(4096, active.readBudget);
+
+        // bulk data, the read size grows
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200000; ++i) {
+            sb.append((char) ('a' + i % 26));
+        }
+        String large = sb.toString();
+        assertEquals("large data should be proxied", large, client.sendAndRecv(large, large.length()));
+        int grown = active.getReadSize();
+        assertTrue("read size should grow, but got " + grown, grown > 2048);
+
+        // small data, the read size shrinks
+        for (int i = 0; i < 40; ++i) {
+            assertEquals("hello", client.sendAndRecv("hello", 5));
+        }
+        int shrunk = active.getReadSize();
+        assertTrue("read size should shrink, but got " + shrunk, shrunk < grown);
+
+        lb0.setAdaptiveRead(false);
+        lb0.setReadBudget(0);
+        Client client2 = new Client(lbPort);
+        client2.connect();
+        clients.add(client2);
+        assertEquals(large, client2.sendAndRecv(large, large.length()));
+    }
+
+    @Test
+    public void proxyWithoutAllocation() throws Exception {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        boolean supported = mx.isThreadAllocatedMemorySupported() && mx.isThreadAllocatedMemoryEnabled();
+        // the debug messages in assertions are built even if the debug log is off
+        boolean assertionsEnabled = false;
+        //noinspection AssertWithSideEffects,ConstantConditions
+        assert assertionsEnabled = true;
+        // run by the `testWithoutAssertions` gradle task, which requires the check to run
+        if (Boolean.getBoolean("vproxy.test.requireAllocationCheck")) {
+            assertTrue("thread allocated memory should be supported", supported);
+            assertFalse("should run with assertions disabled", assertionsEnabled);
+        }
+        Assume.assumeTrue(supported);
+        Assume.assumeFalse("run with assertions disabled to check allocation", assertionsEnabled);
+
+        // the health check runs on the loop, so disable it
+        ServerGroup sg = new ServerGroup("sgEchoNoCheck", elg0, new HealthCheckConfig(400, /* disable health check */24 * 60 * 60 * 1000, 2, 3), Method.wrr);
+        sg.add("echo", new InetSocketAddress("127.0.0.1", 20080), 10);
+        for (ServerGroup.ServerHandle h : sg.getServerHandles()) {
+            h.healthy = true;
+        }
+        sgs0.add(sg, 10);
+
+        Client client = new Client(lbPort);
+        client.connect();
+        clients.add(client);
+        assertEquals("hello", client.sendAndRecv("hello", 5));
+
+        long tid = elg0.list().get(0).getSelectorEventLoop().runningThread.getId();
+        client.socket.setTcpNoDelay(true);
+        OutputStream out = client.socket.getOutputStream();
+        InputStream in = client.socket.getInputStream();
+        byte[] buf = new byte[3]; // the echo server writes at most 3 bytes at a time
+
+        // warm up, then the established session should be proxied without allocating on the loop
+        // the jit may still be working in the first rounds, so check a few rounds
+        long allocated = -1;
+        for (int round = 0; round < 8 && allocated != 0; ++round) {
+            long before = mx.getThreadAllocatedBytes(tid);
+            for (int i = 0; i < 10000; ++i) {
+                out.write(buf);
+                int n = 0;
+                while (n < buf.length) {
+                    int r = in.read(buf, n, buf.length - n);
+                    assertNotEquals(-1, r);
+                    n += r;
+                }
+            }
+            allocated = mx.getThreadAllocatedBytes(tid) - before;
+        }
+        assertEquals("the loop should not allocate when proxying", 0, allocated);
+    }
 }
@@ -7,6 +7,11 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 import static org.junit.Assert.*;
 
 public class TestTimer {
@@ -61,6 +66,31 @@ public class TestTimer {
         assertArrayEquals("1500 ms", new boolean[]{false, true, true}, done);
     }
 
+    @Test
+    public void manyTimers() throws Exception {
+        int count = 10000;
+        // written on the loop thread, read on the test thread
+        AtomicLongArray fired = new AtomicLongArray(count);
+        CountDownLatch latch = new CountDownLatch(count);
+        long[] expected = new long[count];
+        Random rand = new Random();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < count; ++i) {
+            int timeout = rand.nextInt(1500);
+            expected[i] = start + timeout;
+            int idx = i;
+            loop.delay(timeout, () -> {
+                fired.set(idx, System.currentTimeMillis());
+                latch.countDown();
+            });
+        }
+        assertTrue("all timers should fire", latch.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < count; ++i) {
+            assertNotEquals("timer " + i + " fired", 0, fired.get(i));
+            assertTrue("timer " + i + " should not fire before the timeout", fired.get(i) >= expected[i]);
+        }
+    }
+
     @Test
     public void periodic() throws Exception {
         int[] i = {0};